@@ -0,0 +1,161 @@
+package no.ntnu.greenhouse;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import no.ntnu.tools.Logger;
+
+/**
+ * Measures the samples per second appended to a {@link SensorLog}, and the
+ * memory the appending thread allocates, first alone and then while a
+ * {@link SensorLogReader} reads the latest samples of one node after another
+ * in a thread of its own. The samples are the sensors of many nodes, all
+ * appended at every timestamp as the simulator does, in segments of the size
+ * the simulator uses. The log is written to a temporary directory, deleted
+ * afterwards.
+ */
+public class SensorLogBenchmark {
+    private static final int ROUNDS = 3;
+    private static final int SEGMENT_SIZE = 64 * 1024 * 1024;
+    private static final int SENSORS_PER_NODE = 4;
+    private static final long TIMESTAMP_STEP_MS = 1000;
+    // The reader asks for the samples of the last this many timestamps
+    private static final long READ_WINDOW_MS = 10 * TIMESTAMP_STEP_MS;
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    /**
+     * Counts the records a reader receives.
+     */
+    private static class CountingVisitor implements SensorLogReader.RecordVisitor {
+        private long sampleCount;
+
+        @Override
+        public void sensorSample(long timestamp, int nodeId, int sensorIndex, double value) {
+            sampleCount++;
+        }
+
+        @Override
+        public void actuatorTransition(long timestamp, int nodeId, int actuatorId, boolean on) {
+            // Only samples are appended
+        }
+    }
+
+    /**
+     * Reads the latest samples of the nodes, one node after another, until it is
+     * stopped.
+     */
+    private static class ConcurrentReader extends Thread {
+        private final SensorLogReader reader;
+        private final int nodeCount;
+        private final CountingVisitor visitor = new CountingVisitor();
+        private volatile long latestTimestamp;
+        private volatile boolean stopped = false;
+        private long readCount;
+        private long allocatedBytes;
+
+        ConcurrentReader(Path directory, int nodeCount) {
+            super("sensor-log-reader");
+            this.reader = new SensorLogReader(directory);
+            this.nodeCount = nodeCount;
+        }
+
+        @Override
+        public void run() {
+            long allocatedBefore = THREADS.getCurrentThreadAllocatedBytes();
+            try {
+                while (!stopped) {
+                    long to = latestTimestamp;
+                    reader.read((int) (readCount % nodeCount) + 1, to - READ_WINDOW_MS, to, visitor);
+                    readCount++;
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            allocatedBytes = THREADS.getCurrentThreadAllocatedBytes() - allocatedBefore;
+        }
+    }
+
+    /**
+     * Entrypoint for the benchmark.
+     *
+     * @param args Command line arguments: optionally the number of nodes, 1000 by
+     *             default, each with 4 sensors, and the number of samples
+     *             appended in every measurement, 10000000 by default.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int nodeCount = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        long sampleCount = args.length > 1 ? Long.parseLong(args[1]) : 10000000;
+        long timestampCount = Math.max(1, sampleCount / ((long) nodeCount * SENSORS_PER_NODE));
+        sampleCount = timestampCount * nodeCount * SENSORS_PER_NODE;
+
+        SensorStore[] stores = new SensorStore[nodeCount];
+        for (int i = 0; i < nodeCount; ++i) {
+            stores[i] = new SensorStore(SENSORS_PER_NODE);
+            stores[i].addCopies(DeviceFactory.createTemperatureSensor(), 2);
+            stores[i].addCopies(DeviceFactory.createHumiditySensor(), 1);
+            stores[i].addCopies(DeviceFactory.createLightlevelSensor(), 1);
+        }
+        Logger.info(String.format("%d nodes, %d sensors, %d samples per measurement", nodeCount,
+                nodeCount * SENSORS_PER_NODE, sampleCount));
+
+        Path directory = Files.createTempDirectory("sensor-log-benchmark-");
+        SensorLog log = new SensorLog(directory, SEGMENT_SIZE);
+        long timestamp = 0;
+        try {
+            for (int round = 0; round < ROUNDS; ++round) {
+                long allocatedBefore = THREADS.getCurrentThreadAllocatedBytes();
+                long startTime = System.nanoTime();
+                timestamp = append(log, stores, timestamp, timestampCount, null);
+                long time = System.nanoTime() - startTime;
+                long allocated = THREADS.getCurrentThreadAllocatedBytes() - allocatedBefore;
+                Logger.info(String.format("Round %d, alone: %.2f M samples/s, %.3f bytes allocated per sample",
+                        round, sampleCount * 1e3 / time, (double) allocated / sampleCount));
+
+                ConcurrentReader reader = new ConcurrentReader(directory, nodeCount);
+                reader.latestTimestamp = timestamp;
+                reader.start();
+                allocatedBefore = THREADS.getCurrentThreadAllocatedBytes();
+                startTime = System.nanoTime();
+                timestamp = append(log, stores, timestamp, timestampCount, reader);
+                time = System.nanoTime() - startTime;
+                allocated = THREADS.getCurrentThreadAllocatedBytes() - allocatedBefore;
+                reader.stopped = true;
+                reader.join();
+                Logger.info(String.format("Round %d, while reading: %.2f M samples/s, %.3f bytes allocated per"
+                        + " sample; the reader read %d times, %d samples, %.0f bytes allocated per read", round,
+                        sampleCount * 1e3 / time, (double) allocated / sampleCount, reader.readCount,
+                        reader.visitor.sampleCount, (double) reader.allocatedBytes / Math.max(1, reader.readCount)));
+            }
+        } finally {
+            log.close();
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+            }
+        }
+    }
+
+    /**
+     * Append the sensors of all the nodes at a number of timestamps.
+     *
+     * @return The next timestamp
+     */
+    private static long append(SensorLog log, SensorStore[] stores, long timestamp, long timestampCount,
+            ConcurrentReader reader) {
+        for (long i = 0; i < timestampCount; ++i) {
+            for (int j = 0; j < stores.length; ++j) {
+                log.appendSensors(j + 1, timestamp, stores[j]);
+            }
+            if (reader != null) {
+                reader.latestTimestamp = timestamp;
+            }
+            timestamp += TIMESTAMP_STEP_MS;
+        }
+        return timestamp;
+    }
+}
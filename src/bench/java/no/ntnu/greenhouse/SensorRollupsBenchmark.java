@@ -0,0 +1,255 @@
+package no.ntnu.greenhouse;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Random;
+
+import no.ntnu.tools.Logger;
+
+/**
+ * Checks the answers of {@link SensorRollups} against a brute-force
+ * recomputation from the samples, and measures the time to record a sample
+ * and to query a week of rollups.
+ * <p>
+ * The samples are those of a node with 9 sensors: 8 days of samples every 5
+ * seconds, with random gaps of up to 3 hours between them. Every point of a
+ * random query must have the minimum, average and maximum of the samples of
+ * its interval, computed again from the samples themselves, and no interval
+ * with samples may be left out. Which resolution a query uses is worked out
+ * from the rule documented on {@link SensorRollups#query}. The time and the
+ * memory allocated are measured afterwards, recording the same samples again
+ * and querying the last week.
+ */
+public class SensorRollupsBenchmark {
+    private static final int ROUNDS = 5;
+    private static final int SENSORS_PER_TYPE = 3;
+    private static final long START_TIME = 1_700_000_003_000L;
+    private static final long SAMPLE_INTERVAL_MS = 5000;
+    private static final long DAY_MS = 24 * 3600 * 1000L;
+    private static final int SAMPLE_COUNT = (int) (8 * DAY_MS / SAMPLE_INTERVAL_MS);
+    // On average every this many samples, a gap of up to MAX_GAP_MS starts
+    private static final int GAP_EVERY = 2000;
+    private static final long MAX_GAP_MS = 3 * 3600 * 1000L;
+    private static final int MAX_POINTS = 1100;
+    private static final int WEEK_POINTS = 200;
+    private static final int WEEK_QUERIES = 100000;
+    // The averages are rounded to two decimals, and summed in another order here
+    private static final double AVERAGE_TOLERANCE = 0.01 + 1e-9;
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    /**
+     * Entrypoint for the benchmark.
+     *
+     * @param args Command line arguments: optionally the number of random queries
+     *             to check, 100000 by default, and the seed of the random
+     *             queries and gaps, 7 by default.
+     */
+    public static void main(String[] args) {
+        int queryCount = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 7;
+        Random random = new Random(seed);
+
+        SensorStore store = new SensorStore();
+        store.addCopies(DeviceFactory.createTemperatureSensor(), SENSORS_PER_TYPE);
+        store.addCopies(DeviceFactory.createHumiditySensor(), SENSORS_PER_TYPE);
+        store.addCopies(DeviceFactory.createLightlevelSensor(), SENSORS_PER_TYPE);
+        int sensorCount = store.size();
+
+        long[] timestamps = new long[SAMPLE_COUNT];
+        double[] values = new double[SAMPLE_COUNT * sensorCount];
+        SensorRollups rollups = new SensorRollups(sensorCount);
+        long timestamp = START_TIME;
+        for (int i = 0; i < SAMPLE_COUNT; ++i) {
+            timestamp += SAMPLE_INTERVAL_MS;
+            if (random.nextInt(GAP_EVERY) == 0) {
+                timestamp += (long) (random.nextDouble() * MAX_GAP_MS);
+            }
+            store.addRandomNoise();
+            timestamps[i] = timestamp;
+            for (int j = 0; j < sensorCount; ++j) {
+                values[i * sensorCount + j] = store.getValue(j);
+            }
+            rollups.record(timestamp, store);
+        }
+        Logger.info(String.format("%d samples of %d sensors over %.1f days", SAMPLE_COUNT, sensorCount,
+                (double) (timestamps[SAMPLE_COUNT - 1] - timestamps[0]) / DAY_MS));
+
+        check(rollups, timestamps, values, sensorCount, queryCount, random);
+
+        for (int round = 0; round < ROUNDS; ++round) {
+            measure(round, store, timestamps);
+        }
+    }
+
+    private static void check(SensorRollups rollups, long[] timestamps, double[] values, int sensorCount,
+            int queryCount, Random random) {
+        long earliest = timestamps[0];
+        long latest = timestamps[timestamps.length - 1];
+        int pointCount = 0;
+        int errorCount = 0;
+        for (int i = 0; i < queryCount; ++i) {
+            int sensorIndex = random.nextInt(sensorCount);
+            // Some ranges start before the samples, and some end after them
+            long from = latest - (long) (random.nextDouble() * (latest - earliest + DAY_MS));
+            long to = from + (long) (random.nextDouble() * (latest + DAY_MS - from));
+            int points = random.nextInt(4) == 0 ? 1 + random.nextInt(3) : 1 + random.nextInt(MAX_POINTS);
+            SensorRollups.Rollup rollup = rollups.query(sensorIndex, from, to, points);
+            pointCount += rollup.getStarts().length;
+            String error = compare(rollup, timestamps, values, sensorCount, sensorIndex,
+                    Math.max(from, earliest), Math.min(to, latest), points);
+            if (error != null) {
+                if (errorCount < 10) {
+                    Logger.error(String.format("sensor %d, from %d to %d, %d points: %s", sensorIndex, from, to,
+                            points, error));
+                }
+                errorCount++;
+            }
+        }
+        Logger.info(String.format("Checked %d queries, %d points against the samples: %d wrong", queryCount,
+                pointCount, errorCount));
+    }
+
+    /**
+     * Compare the answer of a query with the aggregates computed from the
+     * samples.
+     *
+     * @return What is wrong, or null if the answer is right
+     */
+    private static String compare(SensorRollups.Rollup rollup, long[] timestamps, double[] values,
+            int sensorCount, int sensorIndex, long from, long to, int points) {
+        int size = rollup.getStarts().length;
+        if (size > points) {
+            return size + " points";
+        }
+        if (from > to) {
+            return size == 0 ? null : "points outside of the samples";
+        }
+        int level = chooseLevel(from, to, points, timestamps[timestamps.length - 1]);
+        long resolution = SensorRollups.RESOLUTIONS[level];
+        if (rollup.getResolution() % resolution != 0) {
+            return "points of " + rollup.getResolution() + " ms at the resolution of " + resolution + " ms";
+        }
+        // The intervals the range touches, as far as they are kept
+        long latestInterval = Math.floorDiv(timestamps[timestamps.length - 1], resolution);
+        long firstInterval = Math.max(Math.floorDiv(from, resolution),
+                latestInterval - SensorRollups.CAPACITIES[level] + 1);
+        long lastInterval = Math.floorDiv(to, resolution);
+
+        long groupLength = rollup.getResolution();
+        int point = -1;
+        long group = Long.MIN_VALUE;
+        double min = 0;
+        double max = 0;
+        double sum = 0;
+        int count = 0;
+        int sample = lowerBound(timestamps, firstInterval * resolution);
+        for (; sample <= timestamps.length; ++sample) {
+            boolean inRange = sample < timestamps.length && Math.floorDiv(timestamps[sample], resolution)
+                    <= lastInterval;
+            long sampleGroup = inRange ? Math.floorDiv(timestamps[sample], groupLength) : Long.MAX_VALUE;
+            if (sampleGroup != group) {
+                if (point >= 0) {
+                    String error = comparePoint(rollup, point, group * groupLength, min, max, sum / count);
+                    if (error != null) {
+                        return error;
+                    }
+                }
+                if (!inRange) {
+                    break;
+                }
+                point++;
+                if (point >= size) {
+                    return "only " + size + " points";
+                }
+                group = sampleGroup;
+                min = Double.POSITIVE_INFINITY;
+                max = Double.NEGATIVE_INFINITY;
+                sum = 0;
+                count = 0;
+            }
+            double value = values[sample * sensorCount + sensorIndex];
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+            sum += value;
+            count++;
+        }
+        return point + 1 == size ? null : (point + 1) + " points expected instead of " + size;
+    }
+
+    private static String comparePoint(SensorRollups.Rollup rollup, int point, long start, double min,
+            double max, double average) {
+        if (rollup.getStarts()[point] != start) {
+            return "point " + point + " starts at " + rollup.getStarts()[point] + " instead of " + start;
+        }
+        if (rollup.getMins()[point] != min || rollup.getMaxs()[point] != max
+                || Math.abs(rollup.getAverages()[point] - average) > AVERAGE_TOLERANCE) {
+            return String.format("point %d is %.2f/%.2f/%.2f instead of %.2f/%.2f/%.2f", point,
+                    rollup.getMins()[point], rollup.getAverages()[point], rollup.getMaxs()[point], min, average,
+                    max);
+        }
+        return null;
+    }
+
+    /**
+     * The resolution a query uses, as documented: the coarsest one which gives
+     * at least the wanted number of points and keeps the start of the range,
+     * else the finest one keeping the start, else the coarsest one.
+     */
+    private static int chooseLevel(long from, long to, int points, long latest) {
+        int finestKeepingStart = -1;
+        int coarsestWithEnoughPoints = -1;
+        for (int level = 0; level < SensorRollups.RESOLUTIONS.length; ++level) {
+            long resolution = SensorRollups.RESOLUTIONS[level];
+            long keptFrom = (Math.floorDiv(latest, resolution) - SensorRollups.CAPACITIES[level] + 1) * resolution;
+            if (from >= keptFrom) {
+                if (finestKeepingStart < 0) {
+                    finestKeepingStart = level;
+                }
+                if ((to - from) / resolution >= points) {
+                    coarsestWithEnoughPoints = level;
+                }
+            }
+        }
+        if (coarsestWithEnoughPoints >= 0) {
+            return coarsestWithEnoughPoints;
+        }
+        return finestKeepingStart >= 0 ? finestKeepingStart : SensorRollups.RESOLUTIONS.length - 1;
+    }
+
+    private static int lowerBound(long[] timestamps, long timestamp) {
+        int index = Arrays.binarySearch(timestamps, timestamp);
+        if (index < 0) {
+            return -index - 1;
+        }
+        // Timestamps are unique here, so this is the first one
+        return index;
+    }
+
+    private static void measure(int round, SensorStore store, long[] timestamps) {
+        SensorRollups rollups = new SensorRollups(store.size());
+        long allocatedBefore = THREADS.getCurrentThreadAllocatedBytes();
+        long startTime = System.nanoTime();
+        for (long timestamp : timestamps) {
+            rollups.record(timestamp, store);
+        }
+        long recordTime = System.nanoTime() - startTime;
+        long recordAllocated = THREADS.getCurrentThreadAllocatedBytes() - allocatedBefore;
+
+        long latest = timestamps[timestamps.length - 1];
+        int pointCount = 0;
+        allocatedBefore = THREADS.getCurrentThreadAllocatedBytes();
+        startTime = System.nanoTime();
+        for (int i = 0; i < WEEK_QUERIES; ++i) {
+            pointCount += rollups.query(i % store.size(), latest - 7 * DAY_MS, latest, WEEK_POINTS)
+                    .getStarts().length;
+        }
+        long queryTime = System.nanoTime() - startTime;
+        long queryAllocated = THREADS.getCurrentThreadAllocatedBytes() - allocatedBefore;
+
+        Logger.info(String.format("Round %d: record %.0f ns, %d bytes allocated; a week at %d points: %d points,"
+                + " %.2f us, %d bytes allocated", round, (double) recordTime / timestamps.length,
+                recordAllocated / timestamps.length, WEEK_POINTS, pointCount / WEEK_QUERIES,
+                queryTime / 1e3 / WEEK_QUERIES, queryAllocated / WEEK_QUERIES));
+    }
+}
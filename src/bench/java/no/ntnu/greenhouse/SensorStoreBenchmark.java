@@ -0,0 +1,130 @@
+package no.ntnu.greenhouse;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.ref.Reference;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import no.ntnu.tools.Logger;
+
+/**
+ * Measures the heap used per sensor and the time of one noise pass over all
+ * the sensors, with the columnar {@link SensorStore} of the nodes and with the
+ * former layout: a linked list per node of sensor objects, each holding its own
+ * reading. The sensors are measured alone, and within whole nodes, as the
+ * simulator holds them.
+ */
+public class SensorStoreBenchmark {
+    private static final int ROUNDS = 5;
+
+    /**
+     * A sensor as they were before the sensor store, kept as the reference.
+     */
+    private static class FormerSensor {
+        private final SensorReading reading;
+        private final double min;
+        private final double max;
+
+        FormerSensor(String type, double min, double max, double current, String unit) {
+            this.reading = new SensorReading(type, current, unit);
+            this.min = min;
+            this.max = max;
+        }
+
+        void addRandomNoise() {
+            double onePercentOfRange = (max - min) / 100.0;
+            double newValue = reading.getValue() + Math.random() * onePercentOfRange * 2 - onePercentOfRange;
+            newValue = Math.round(newValue * 100.0) / 100.0;
+            reading.setValue(Math.min(max, Math.max(min, newValue)));
+        }
+    }
+
+    /**
+     * Entrypoint for the benchmark.
+     *
+     * @param args Command line arguments: optionally the number of nodes, 250000
+     *             by default, and the number of sensors per node, 4 by default.
+     */
+    public static void main(String[] args) {
+        int nodeCount = args.length > 0 ? Integer.parseInt(args[0]) : 250000;
+        int sensorsPerNode = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        long sensorCount = (long) nodeCount * sensorsPerNode;
+        Sensor[] templates = {DeviceFactory.createTemperatureSensor(), DeviceFactory.createHumiditySensor(),
+            DeviceFactory.createLightlevelSensor()};
+        Logger.info(nodeCount + " nodes, " + sensorCount + " sensors");
+
+        long heapBefore = usedHeap();
+        List<List<FormerSensor>> formerSensors = new ArrayList<>(nodeCount);
+        for (int i = 0; i < nodeCount; ++i) {
+            List<FormerSensor> sensors = new LinkedList<>();
+            for (int j = 0; j < sensorsPerNode; ++j) {
+                Sensor template = templates[j % templates.length];
+                sensors.add(new FormerSensor(template.getType(), template.getStore().getMin(template.getIndex()),
+                        template.getStore().getMax(template.getIndex()), template.getReading().getValue(),
+                        template.getReading().getUnit()));
+            }
+            formerSensors.add(sensors);
+        }
+        long formerBytes = usedHeap() - heapBefore;
+
+        heapBefore = usedHeap();
+        List<SensorStore> stores = new ArrayList<>(nodeCount);
+        for (int i = 0; i < nodeCount; ++i) {
+            SensorStore store = new SensorStore(sensorsPerNode);
+            for (int j = 0; j < sensorsPerNode; ++j) {
+                store.addCopies(templates[j % templates.length], 1);
+            }
+            stores.add(store);
+        }
+        long storeBytes = usedHeap() - heapBefore;
+
+        // The nodes log the creation of their actuators, none are created here
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        heapBefore = usedHeap();
+        List<SensorActuatorNode> nodes = new ArrayList<>(nodeCount);
+        try {
+            for (int i = 0; i < nodeCount; ++i) {
+                SensorActuatorNode node = new SensorActuatorNode(i + 1);
+                for (int j = 0; j < sensorsPerNode; ++j) {
+                    node.addSensors(templates[j % templates.length], 1);
+                }
+                nodes.add(node);
+            }
+        } finally {
+            System.setOut(out);
+        }
+        long nodeBytes = usedHeap() - heapBefore;
+        Logger.info(String.format("Heap per sensor: former sensors %.1f bytes, sensor stores %.1f bytes,"
+                + " whole nodes with sensor stores %.1f bytes", (double) formerBytes / sensorCount,
+                (double) storeBytes / sensorCount, (double) nodeBytes / sensorCount));
+
+        for (int round = 0; round < ROUNDS; ++round) {
+            long startTime = System.nanoTime();
+            for (List<FormerSensor> sensors : formerSensors) {
+                for (FormerSensor sensor : sensors) {
+                    sensor.addRandomNoise();
+                }
+            }
+            long formerTime = System.nanoTime() - startTime;
+
+            startTime = System.nanoTime();
+            for (SensorStore store : stores) {
+                store.addRandomNoise();
+            }
+            long storeTime = System.nanoTime() - startTime;
+
+            Logger.info(String.format("Round %d: noise pass over all the sensors, former sensors %.1f ms,"
+                    + " sensor stores %.1f ms", round, formerTime / 1e6, storeTime / 1e6));
+        }
+        Reference.reachabilityFence(nodes);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,68 @@
+package no.ntnu.greenhouse;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import no.ntnu.tools.Logger;
+
+/**
+ * Measures the time to write a {@link GreenhouseSnapshot} of many nodes and to
+ * restore the nodes from it, against the time to create the same nodes through
+ * {@link DeviceFactory}, as the simulator does without a snapshot. The nodes
+ * take the three shapes of the default nodes of the simulator in turn. The
+ * snapshot is written to a temporary file, deleted afterwards. The log output of
+ * creating the nodes is discarded.
+ */
+public class SnapshotBenchmark {
+    private static final int ROUNDS = 5;
+    // The sensors and actuators of the default nodes of the simulator
+    private static final int[][] NODE_SHAPES = {{1, 2, 1, 1, 0, 0}, {1, 0, 1, 0, 2, 1}, {2, 0, 0, 0, 0, 0}};
+
+    /**
+     * Entrypoint for the benchmark.
+     *
+     * @param args Command line arguments: optionally the number of nodes, 100000
+     *             by default.
+     */
+    public static void main(String[] args) throws IOException {
+        int nodeCount = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        Path snapshotFile = Files.createTempFile("snapshot-benchmark-", ".snapshot");
+        PrintStream out = System.out;
+        try {
+            for (int round = 0; round < ROUNDS; ++round) {
+                System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+                long startTime = System.nanoTime();
+                List<SensorActuatorNode> nodes = new ArrayList<>(nodeCount);
+                for (int i = 0; i < nodeCount; ++i) {
+                    int[] shape = NODE_SHAPES[i % NODE_SHAPES.length];
+                    nodes.add(DeviceFactory.createNode(shape[0], shape[1], shape[2], shape[3], shape[4], shape[5]));
+                }
+                long createTime = System.nanoTime() - startTime;
+                System.setOut(out);
+
+                startTime = System.nanoTime();
+                GreenhouseSnapshot.write(snapshotFile, nodes);
+                long writeTime = System.nanoTime() - startTime;
+
+                startTime = System.nanoTime();
+                List<SensorActuatorNode> restored = GreenhouseSnapshot.read(snapshotFile);
+                long readTime = System.nanoTime() - startTime;
+                if (restored.size() != nodeCount) {
+                    throw new IllegalStateException(restored.size() + " nodes restored instead of " + nodeCount);
+                }
+
+                Logger.info(String.format("Round %d, %d nodes: created by the factory in %.0f ms, snapshot of %d KB"
+                        + " written in %.0f ms, restored in %.0f ms", round, nodeCount, createTime / 1e6,
+                        Files.size(snapshotFile) / 1024, writeTime / 1e6, readTime / 1e6));
+            }
+        } finally {
+            System.setOut(out);
+            Files.deleteIfExists(snapshotFile);
+        }
+    }
+}
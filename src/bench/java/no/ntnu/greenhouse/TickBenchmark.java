@@ -0,0 +1,107 @@
+package no.ntnu.greenhouse;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import no.ntnu.controlpanel.ControlPanelLogic;
+import no.ntnu.tools.Logger;
+
+/**
+ * Measures the sensor updates per second of the tick mode of
+ * {@link GreenhouseSimulator} for 1 thread up to the number of processors. The
+ * ticks run one after another on a {@link DiscreteEventClock} running as fast
+ * as possible, and each of them is measured whole: advancing and recording the
+ * sensors in parallel, then notifying the listeners and publishing the changes.
+ * The nodes are loaded from a snapshot, as the simulator creates its own
+ * nodes otherwise. The simulator listens on its usual port, which must be
+ * free. Its log output is discarded while it runs.
+ */
+public class TickBenchmark {
+    private static final int SENSORS_PER_NODE = 4;
+    private static final int HISTORY_CAPACITY = 64;
+    private static final int WARM_UP_TICKS = 3;
+    private static final long POLL_INTERVAL_MS = 10;
+
+    /**
+     * Entrypoint for the benchmark.
+     *
+     * @param args Command line arguments: optionally the number of nodes, 250000
+     *             by default, each with 4 sensors, the number of seconds to
+     *             measure each thread count, 10 by default, and "record" to also
+     *             keep the history and the rollups of every sensor.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int nodeCount = args.length > 0 ? Integer.parseInt(args[0]) : 250000;
+        long seconds = args.length > 1 ? Long.parseLong(args[1]) : 10;
+        boolean record = args.length > 2 && "record".equals(args[2]);
+        int processorCount = Runtime.getRuntime().availableProcessors();
+
+        PrintStream out = System.out;
+        Path snapshotFile = Files.createTempFile("tick-benchmark-", ".snapshot");
+        List<String> results = new ArrayList<>();
+        try {
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+            List<SensorActuatorNode> nodes = new ArrayList<>(nodeCount);
+            for (int i = 0; i < nodeCount; ++i) {
+                nodes.add(DeviceFactory.createNode(2, 1, 1, 1, 1, 1));
+            }
+            GreenhouseSnapshot.write(snapshotFile, nodes);
+            nodes = null;
+
+            for (int threadCount = 1; threadCount <= processorCount; ++threadCount) {
+                results.add(measure(snapshotFile, threadCount, seconds, record));
+            }
+        } finally {
+            System.setOut(out);
+            Files.deleteIfExists(snapshotFile);
+        }
+        Logger.info(String.format("%d nodes, %d sensors%s, %d processors", nodeCount,
+                nodeCount * SENSORS_PER_NODE, record ? ", with history and rollups" : "", processorCount));
+        results.forEach(Logger::info);
+    }
+
+    private static String measure(Path snapshotFile, int threadCount, long seconds, boolean record)
+            throws InterruptedException {
+        // A new clock for each simulator, the previous one is shut down
+        SimulationScheduler.setClock(new DiscreteEventClock(0));
+        GreenhouseSimulator simulator = new GreenhouseSimulator(false, new ControlPanelLogic());
+        simulator.setSnapshotFile(snapshotFile);
+        simulator.setTickParallelism(threadCount);
+        if (record) {
+            simulator.setSensorHistoryCapacity(HISTORY_CAPACITY);
+            simulator.setSensorRollupsEnabled(true);
+        }
+        simulator.initialize();
+        // Every tick notifies the listeners of every node once
+        AtomicLong tickCount = new AtomicLong();
+        SensorActuatorNode anyNode = simulator.getNodesInfo().values().iterator().next();
+        anyNode.addSensorListener(sensors -> tickCount.incrementAndGet());
+        int sensorCount = 0;
+        for (SensorActuatorNode node : simulator.getNodesInfo().values()) {
+            sensorCount += node.getSensors().size();
+        }
+
+        simulator.start();
+        try {
+            while (tickCount.get() < WARM_UP_TICKS) {
+                Thread.sleep(POLL_INTERVAL_MS);
+            }
+            long ticksBefore = tickCount.get();
+            long startTime = System.nanoTime();
+            Thread.sleep(seconds * 1000);
+            long ticks = tickCount.get() - ticksBefore;
+            long time = System.nanoTime() - startTime;
+            return String.format("%d thread%s: %d ticks, %.1f ms per tick, %.1f M sensor updates/s", threadCount,
+                    threadCount == 1 ? "" : "s", ticks, time / 1e6 / ticks, ticks * sensorCount * 1e3 / time);
+        } finally {
+            simulator.stop();
+            SimulationScheduler.shutdown();
+        }
+    }
+}
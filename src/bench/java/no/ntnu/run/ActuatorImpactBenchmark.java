@@ -0,0 +1,80 @@
+package no.ntnu.run;
+
+import java.util.List;
+
+import no.ntnu.greenhouse.Actuator;
+import no.ntnu.greenhouse.DeviceFactory;
+import no.ntnu.greenhouse.Sensor;
+import no.ntnu.greenhouse.SensorActuatorNode;
+import no.ntnu.tools.Logger;
+
+/**
+ * Measures the time to apply the impact of an actuator to a node with many
+ * sensors, with {@link Actuator#applyImpact} and with a scan comparing the type
+ * of every sensor, as impacts were applied before the sensors were indexed by
+ * type.
+ */
+public class ActuatorImpactBenchmark {
+    private static final int ROUNDS = 8;
+    private static final int WARM_UP_ROUNDS = 3;
+
+    /**
+     * Entrypoint for the benchmark.
+     *
+     * @param args Command line arguments: optionally the number of humidity,
+     *             light and temperature sensors of the node, 300, 150 and 50 by
+     *             default, and the number of impacts per round, 200000 by
+     *             default.
+     */
+    public static void main(String[] args) {
+        int humiditySensorCount = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+        int lightSensorCount = args.length > 1 ? Integer.parseInt(args[1]) : 150;
+        int temperatureSensorCount = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+        int impactCount = args.length > 3 ? Integer.parseInt(args[3]) : 200000;
+
+        SensorActuatorNode node = new SensorActuatorNode(1);
+        node.addSensors(DeviceFactory.createHumiditySensor(), humiditySensorCount);
+        node.addSensors(DeviceFactory.createLightlevelSensor(), lightSensorCount);
+        node.addSensors(DeviceFactory.createTemperatureSensor(), temperatureSensorCount);
+        // As created by DeviceFactory: the heater affects the temperature, the
+        // window the temperature and the humidity
+        Actuator heater = new Actuator("heater", node.getId());
+        heater.setImpact("temperature", 4.0);
+        Actuator window = new Actuator("window", node.getId());
+        window.setImpact("temperature", -5.0);
+        window.setImpact("humidity", -10.0);
+        Logger.info(String.format("A node with %d sensors, the heater affects %d of them, the window %d",
+                node.getSensors().size(), temperatureSensorCount, temperatureSensorCount + humiditySensorCount));
+
+        List<Sensor> sensors = node.getSensors();
+        for (int round = 0; round < ROUNDS; ++round) {
+            long startTime = System.nanoTime();
+            for (int i = 0; i < impactCount; ++i) {
+                heater.applyImpact(node);
+                window.applyImpact(node);
+            }
+            long indexedTime = System.nanoTime() - startTime;
+
+            startTime = System.nanoTime();
+            for (int i = 0; i < impactCount; ++i) {
+                applyByScan(sensors, "temperature", 4.0);
+                applyByScan(sensors, "temperature", -5.0);
+                applyByScan(sensors, "humidity", -10.0);
+            }
+            long scanTime = System.nanoTime() - startTime;
+
+            if (round >= WARM_UP_ROUNDS) {
+                Logger.info(String.format("Round %d: %.0f ns per impact by type index, %.0f ns by scanning",
+                        round, indexedTime / (2.0 * impactCount), scanTime / (2.0 * impactCount)));
+            }
+        }
+    }
+
+    private static void applyByScan(List<Sensor> sensors, String sensorType, double impact) {
+        for (Sensor sensor : sensors) {
+            if (sensor.getType().equals(sensorType)) {
+                sensor.applyImpact(impact);
+            }
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package no.ntnu.run;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import no.ntnu.controlpanel.ControlPanelLogic;
+import no.ntnu.tools.Logger;
+
+/**
+ * Measures the actuator states of {@link ControlPanelLogic} when updated from
+ * several threads, as the client handlers do: that no update is lost, that
+ * exactly one of several concurrent compare-and-sets wins, and the number of
+ * updates and lookups per second with 1 to N threads. The nested HashMap the
+ * states were kept in before is measured on one thread, as the reference.
+ */
+public class ActuatorStateBenchmark {
+    private static final int NODE_MASK = 15;
+    private static final int ACTUATOR_MASK = 1023;
+    private static final int CHECKED_ACTUATORS = 200000;
+    private static final int RACES = 1000;
+    private static final int ROUNDS = 5;
+    private static final int WARM_UP_ROUNDS = 2;
+
+    /**
+     * One thread of a test, numbered from 0.
+     */
+    private interface Worker {
+        void run(int index);
+    }
+
+    /**
+     * Entrypoint for the benchmark.
+     *
+     * @param args Command line arguments: optionally the largest number of
+     *             threads, 4 by default, and the number of operations per thread,
+     *             10000000 by default.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int operationCount = args.length > 1 ? Integer.parseInt(args[1]) : 10000000;
+        Logger.info(Runtime.getRuntime().availableProcessors() + " processors");
+
+        checkNoUpdateLost(maxThreads);
+        checkCompareAndSet(maxThreads);
+        for (int round = 0; round < ROUNDS; ++round) {
+            StringBuilder result = new StringBuilder(String.format("HashMap %.1f M ops/s",
+                    measureHashMap(operationCount)));
+            for (int threads = 1; threads <= maxThreads; threads *= 2) {
+                result.append(String.format(", %d thread%s %.1f M ops/s", threads, threads == 1 ? "" : "s",
+                        measureLogic(threads, operationCount)));
+            }
+            if (round >= WARM_UP_ROUNDS) {
+                Logger.info("Round " + round + ": " + result);
+            }
+        }
+    }
+
+    /**
+     * Every thread turns on its own share of many new actuators at the same time,
+     * so that the table grows while they do.
+     */
+    private static void checkNoUpdateLost(int threadCount) throws InterruptedException {
+        ControlPanelLogic logic = new ControlPanelLogic();
+        runThreads(threadCount, index -> {
+            for (int i = index; i < CHECKED_ACTUATORS; i += threadCount) {
+                logic.onActuatorStateChanged(i & NODE_MASK, i, true);
+            }
+        });
+        int lostCount = 0;
+        for (int i = 0; i < CHECKED_ACTUATORS; ++i) {
+            if (!logic.isActuatorOn(i & NODE_MASK, i)) {
+                lostCount++;
+            }
+        }
+        Logger.info(threadCount + " threads turned on " + CHECKED_ACTUATORS + " actuators, " + lostCount
+                + " updates lost");
+    }
+
+    /**
+     * All the threads try to turn on the same actuator, many times.
+     */
+    private static void checkCompareAndSet(int threadCount) throws InterruptedException {
+        ControlPanelLogic logic = new ControlPanelLogic();
+        int badRaces = 0;
+        for (int race = 0; race < RACES; ++race) {
+            int actuatorId = race;
+            AtomicInteger winCount = new AtomicInteger();
+            runThreads(threadCount, index -> {
+                if (logic.compareAndSetActuatorState(1, actuatorId, false, true)) {
+                    winCount.incrementAndGet();
+                }
+            });
+            if (winCount.get() != 1) {
+                badRaces++;
+            }
+        }
+        Logger.info(threadCount + " threads raced to turn on an actuator " + RACES + " times, " + badRaces
+                + " races without exactly one winner");
+    }
+
+    private static double measureLogic(int threadCount, int operationCount) throws InterruptedException {
+        ControlPanelLogic logic = new ControlPanelLogic();
+        long startTime = System.nanoTime();
+        runThreads(threadCount, index -> {
+            boolean result = false;
+            for (int i = 0; i < operationCount; ++i) {
+                int nodeId = (i + index) & NODE_MASK;
+                int actuatorId = i & ACTUATOR_MASK;
+                logic.onActuatorStateChanged(nodeId, actuatorId, (i & 1) == 0);
+                result ^= logic.isActuatorOn(nodeId, actuatorId);
+            }
+            consume(result);
+        });
+        return (double) threadCount * operationCount * 1000 / (System.nanoTime() - startTime);
+    }
+
+    /**
+     * The former actuator states, only usable from one thread.
+     */
+    private static double measureHashMap(int operationCount) {
+        Map<Integer, Map<Integer, Boolean>> states = new HashMap<>();
+        long startTime = System.nanoTime();
+        boolean result = false;
+        for (int i = 0; i < operationCount; ++i) {
+            int nodeId = i & NODE_MASK;
+            int actuatorId = i & ACTUATOR_MASK;
+            states.computeIfAbsent(nodeId, id -> new HashMap<>()).put(actuatorId, (i & 1) == 0);
+            result ^= states.getOrDefault(nodeId, new HashMap<>()).getOrDefault(actuatorId, false);
+        }
+        consume(result);
+        return (double) operationCount * 1000 / (System.nanoTime() - startTime);
+    }
+
+    private static void runThreads(int threadCount, Worker worker) throws InterruptedException {
+        Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; ++i) {
+            int index = i;
+            threads[i] = new Thread(() -> worker.run(index));
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    /**
+     * Keep the result of a loop, so that it is not optimized away.
+     */
+    private static void consume(boolean result) {
+        if (result && System.nanoTime() == 0) {
+            Logger.info("");
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package no.ntnu.run;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import no.ntnu.tools.Logger;
+
+/**
+ * Stresses the client registry of the greenhouse: many threads connect and
+ * disconnect over and over while the simulator, running much faster than real
+ * time, broadcasts sensor data all the time. Some of the clients read a little
+ * before leaving. Afterwards the log of the server must show no exception, and
+ * no client left registered. The server runs in a process of its own, see
+ * {@link GreenhouseServerProcess}.
+ */
+public class ClientChurnBenchmark {
+    private static final String[] MODES = {"blocking", "virtual", "nio"};
+    private static final String SPEED = "speed=500";
+    private static final int THREAD_COUNT = 20;
+    private static final int TIMEOUT_MS = 5000;
+    // Every this many connections of a thread, the client reads before leaving
+    private static final int READ_EVERY = 3;
+    // Long enough for the server to notice all the clients have left
+    private static final long SETTLE_TIME_MS = 3000;
+    private static final Pattern CLIENT_COUNT = Pattern.compile("(\\d+) connected$");
+
+    /**
+     * Entrypoint for the benchmark.
+     *
+     * @param args Command line arguments: optionally the number of connections to
+     *             open, 4000 by default, followed by the server modes to measure
+     *             ("blocking", "virtual", "nio"), all of them by default.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int connectionCount = args.length > 0 ? Integer.parseInt(args[0]) : 4000;
+        String[] modes = MODES;
+        if (args.length > 1) {
+            modes = new String[args.length - 1];
+            System.arraycopy(args, 1, modes, 0, modes.length);
+        }
+        for (String mode : modes) {
+            measure(connectionCount, mode);
+        }
+    }
+
+    private static void measure(int connectionCount, String mode) throws IOException, InterruptedException {
+        try (GreenhouseServerProcess server = GreenhouseServerProcess.start(mode, SPEED)) {
+            AtomicInteger errorCount = new AtomicInteger();
+            Thread[] threads = new Thread[THREAD_COUNT];
+            long startTime = System.nanoTime();
+            for (int i = 0; i < THREAD_COUNT; ++i) {
+                threads[i] = new Thread(() -> {
+                    for (int j = 0; j < connectionCount / THREAD_COUNT; ++j) {
+                        if (!connectOnce(j % READ_EVERY == 0)) {
+                            errorCount.incrementAndGet();
+                        }
+                    }
+                });
+                threads[i].start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            long churnTime = System.nanoTime() - startTime;
+            GreenhouseServerProcess.sleep(SETTLE_TIME_MS);
+
+            List<String> log = server.readLog();
+            long exceptionCount = log.stream().filter(line -> line.contains("Exception")).count();
+            String clientsLeft = "unknown";
+            for (String line : log) {
+                Matcher matcher = CLIENT_COUNT.matcher(line);
+                if (matcher.find()) {
+                    clientsLeft = matcher.group(1);
+                }
+            }
+            Logger.info(String.format("%s: %d connections by %d threads in %d ms, %d failed, %d exceptions logged,"
+                    + " %s clients left registered", mode, connectionCount / THREAD_COUNT * THREAD_COUNT,
+                    THREAD_COUNT, churnTime / 1000000, errorCount.get(), exceptionCount, clientsLeft));
+        }
+    }
+
+    /**
+     * Connect to the server, maybe read what it sends, and leave.
+     *
+     * @return False if the connection failed
+     */
+    private static boolean connectOnce(boolean read) {
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(GreenhouseServerProcess.HOST, GreenhouseServerProcess.PORT),
+                    TIMEOUT_MS);
+            if (read) {
+                socket.setSoTimeout(TIMEOUT_MS);
+                return socket.getInputStream().read(new byte[100]) > 0;
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
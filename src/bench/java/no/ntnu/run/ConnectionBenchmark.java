@@ -0,0 +1,70 @@
+package no.ntnu.run;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import no.ntnu.tools.Logger;
+
+/**
+ * Measures what idle control panel connections cost the greenhouse server in
+ * each server mode: the memory and the number of threads of the server process
+ * before and after opening many connections which never send anything. The
+ * server runs in a process of its own, see {@link GreenhouseServerProcess}.
+ */
+public class ConnectionBenchmark {
+    private static final String[][] MODES = {{"blocking"}, {"virtual"}, {"nio"}};
+    // Long enough for the server to register all the clients and send them sensor data
+    private static final long SETTLE_TIME_MS = 3000;
+
+    /**
+     * Entrypoint for the benchmark.
+     *
+     * @param args Command line arguments: optionally the number of connections to
+     *             open, 2000 by default, followed by the server modes to measure
+     *             ("blocking", "virtual", "nio"), all of them by default.
+     */
+    public static void main(String[] args) throws IOException {
+        int connectionCount = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        String[][] modes = MODES;
+        if (args.length > 1) {
+            modes = new String[args.length - 1][];
+            for (int i = 1; i < args.length; ++i) {
+                modes[i - 1] = new String[] {args[i]};
+            }
+        }
+        for (String[] mode : modes) {
+            measure(connectionCount, mode[0]);
+        }
+    }
+
+    private static void measure(int connectionCount, String mode) throws IOException {
+        try (GreenhouseServerProcess server = GreenhouseServerProcess.start(mode)) {
+            GreenhouseServerProcess.sleep(SETTLE_TIME_MS);
+            long rssBefore = server.readStatus("VmRSS");
+            long threadsBefore = server.readStatus("Threads");
+
+            List<Socket> sockets = new ArrayList<>(connectionCount);
+            long startTime = System.nanoTime();
+            try {
+                for (int i = 0; i < connectionCount; ++i) {
+                    sockets.add(new Socket(GreenhouseServerProcess.HOST, GreenhouseServerProcess.PORT));
+                }
+                long connectTime = System.nanoTime() - startTime;
+                GreenhouseServerProcess.sleep(SETTLE_TIME_MS);
+                long rssAfter = server.readStatus("VmRSS");
+                long threadsAfter = server.readStatus("Threads");
+
+                Logger.info(String.format("%s: %d idle connections opened in %d ms, server threads %d -> %d,"
+                        + " resident memory %d -> %d MB (%.1f kB per connection)", mode, connectionCount,
+                        connectTime / 1000000, threadsBefore, threadsAfter, rssBefore / 1024, rssAfter / 1024,
+                        (double) (rssAfter - rssBefore) / connectionCount));
+            } finally {
+                for (Socket socket : sockets) {
+                    socket.close();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package no.ntnu.run;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A greenhouse simulator running in a process of its own, started with the
+ * command line of {@link CommandLineGreenhouse}, so that the benchmarks measure
+ * the server apart from their own clients. The output of the simulator goes to
+ * a temporary log file. The counters of the process are read from /proc, so
+ * they are only available on Linux.
+ */
+class GreenhouseServerProcess implements AutoCloseable {
+    static final String HOST = "localhost";
+    static final int PORT = 10025;
+    private static final long STARTUP_TIMEOUT_MS = 20000;
+    private static final long POLL_INTERVAL_MS = 100;
+
+    private final Process process;
+    private final Path log;
+
+    private GreenhouseServerProcess(Process process, Path log) {
+        this.process = process;
+        this.log = log;
+    }
+
+    /**
+     * Start a simulator and wait until it accepts connections.
+     *
+     * @param args The command line arguments of {@link CommandLineGreenhouse}
+     * @return The running simulator
+     * @throws IOException If the simulator could not be started, or another
+     *                     server already uses the port
+     */
+    static GreenhouseServerProcess start(String... args) throws IOException {
+        if (isListening()) {
+            throw new IOException("Port " + PORT + " is already in use");
+        }
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-cp");
+        command.add(classPath());
+        command.add(CommandLineGreenhouse.class.getName());
+        command.addAll(List.of(args));
+        Path log = Files.createTempFile("greenhouse-", ".log");
+        Process process = new ProcessBuilder(command).redirectErrorStream(true)
+                .redirectOutput(log.toFile()).start();
+        GreenhouseServerProcess server = new GreenhouseServerProcess(process, log);
+        long deadline = System.currentTimeMillis() + STARTUP_TIMEOUT_MS;
+        while (!isListening()) {
+            if (!process.isAlive() || System.currentTimeMillis() > deadline) {
+                server.close();
+                throw new IOException("The simulator did not start, see " + log);
+            }
+            sleep(POLL_INTERVAL_MS);
+        }
+        return server;
+    }
+
+    /**
+     * The simulator needs only the application classes, not the benchmarks or
+     * the GUI libraries.
+     */
+    private static String classPath() throws IOException {
+        try {
+            return Path.of(CommandLineGreenhouse.class.getProtectionDomain().getCodeSource().getLocation().toURI())
+                    .toString();
+        } catch (URISyntaxException e) {
+            throw new IOException("Can't find the application classes", e);
+        }
+    }
+
+    private static boolean isListening() {
+        try {
+            new Socket(HOST, PORT).close();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Wait without being interrupted.
+     *
+     * @param millis The time to wait, in milliseconds
+     */
+    static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Get a number from /proc/PID/status, such as "VmRSS" (in kB) or "Threads".
+     *
+     * @param field The name of the field
+     * @return The value of the field
+     * @throws IOException If the field could not be read
+     */
+    long readStatus(String field) throws IOException {
+        return readProcField("status", field + ":");
+    }
+
+    /**
+     * Get a counter from /proc/PID/io, such as "syscw", the number of write
+     * system calls so far.
+     *
+     * @param field The name of the counter
+     * @return The value of the counter
+     * @throws IOException If the counter could not be read
+     */
+    long readIo(String field) throws IOException {
+        return readProcField("io", field + ":");
+    }
+
+    private long readProcField(String file, String prefix) throws IOException {
+        for (String line : Files.readAllLines(Path.of("/proc", String.valueOf(process.pid()), file))) {
+            if (line.startsWith(prefix)) {
+                return Long.parseLong(line.substring(prefix.length()).trim().split("\\s+")[0]);
+            }
+        }
+        throw new IOException(prefix + " not found in /proc/" + process.pid() + "/" + file);
+    }
+
+    /**
+     * Get the lines the simulator has logged so far.
+     *
+     * @return The lines of the log
+     * @throws IOException If the log could not be read
+     */
+    List<String> readLog() throws IOException {
+        return Files.readAllLines(log);
+    }
+
+    /**
+     * Stop the simulator and delete its log.
+     */
+    @Override
+    public void close() throws IOException {
+        process.destroy();
+        try {
+            if (!process.waitFor(10, TimeUnit.SECONDS)) {
+                process.destroyForcibly().waitFor();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Files.deleteIfExists(log);
+        // The port is free once the process is gone, but give the sockets a moment
+        sleep(500);
+    }
+}
@@ -0,0 +1,87 @@
+package no.ntnu.run;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import no.ntnu.controlpanel.ControlPanelLogic;
+import no.ntnu.controlpanel.SocketCommunicationChannel;
+import no.ntnu.message.Command;
+import no.ntnu.message.TurnOffActuatorCommand;
+import no.ntnu.message.TurnOnActuatorCommand;
+import no.ntnu.message.WireFormat;
+import no.ntnu.tools.Logger;
+
+/**
+ * Measures the command throughput of one control panel connection, waiting
+ * for the reply to every command before sending the next one, and pipelining
+ * all the commands, in both wire formats and both kinds of server. The
+ * commands switch the window of the first node on and off. The server runs in
+ * a process of its own, see {@link GreenhouseServerProcess}.
+ */
+public class PipelineBenchmark {
+    private static final String[] MODES = {"blocking", "nio"};
+    private static final int NODE_ID = 1;
+    private static final int ACTUATOR_ID = 2;
+    private static final int ROUNDS = 3;
+
+    /**
+     * Entrypoint for the benchmark.
+     *
+     * @param args Command line arguments: optionally the number of commands per
+     *             round, 2000 by default, followed by the server modes to measure
+     *             ("blocking", "virtual", "nio"), blocking and nio by default.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException, ExecutionException {
+        int commandCount = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        String[] modes = MODES;
+        if (args.length > 1) {
+            modes = new String[args.length - 1];
+            System.arraycopy(args, 1, modes, 0, modes.length);
+        }
+        for (String mode : modes) {
+            GreenhouseServerProcess server = GreenhouseServerProcess.start(mode);
+            try (server) {
+                for (WireFormat wireFormat : WireFormat.values()) {
+                    measure(mode, wireFormat, commandCount);
+                }
+            }
+        }
+    }
+
+    private static void measure(String mode, WireFormat wireFormat, int commandCount)
+            throws IOException, InterruptedException, ExecutionException {
+        SocketCommunicationChannel channel = new SocketCommunicationChannel(new ControlPanelLogic());
+        channel.setWireFormat(wireFormat);
+        if (!channel.open()) {
+            throw new IOException("Could not connect to the greenhouse");
+        }
+        try {
+            for (int round = 0; round < ROUNDS; ++round) {
+                long startTime = System.nanoTime();
+                for (int i = 0; i < commandCount; ++i) {
+                    channel.sendCommandAsync(createCommand(i)).get();
+                }
+                long sequentialTime = System.nanoTime() - startTime;
+
+                startTime = System.nanoTime();
+                CompletableFuture<?>[] replies = new CompletableFuture<?>[commandCount];
+                for (int i = 0; i < commandCount; ++i) {
+                    replies[i] = channel.sendCommandAsync(createCommand(i));
+                }
+                CompletableFuture.allOf(replies).get();
+                long pipelinedTime = System.nanoTime() - startTime;
+
+                Logger.info(String.format("%s, %s, round %d: %.0f commands/s sequential, %.0f pipelined", mode,
+                        wireFormat, round, commandCount * 1e9 / sequentialTime, commandCount * 1e9 / pipelinedTime));
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    private static Command createCommand(int index) {
+        return index % 2 == 0 ? new TurnOnActuatorCommand(NODE_ID, ACTUATOR_ID)
+                : new TurnOffActuatorCommand(NODE_ID, ACTUATOR_ID);
+    }
+}
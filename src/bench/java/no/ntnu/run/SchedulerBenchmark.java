@@ -0,0 +1,98 @@
+package no.ntnu.run;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import no.ntnu.greenhouse.DeviceFactory;
+import no.ntnu.greenhouse.SensorActuatorNode;
+import no.ntnu.greenhouse.SimulationScheduler;
+import no.ntnu.tools.Logger;
+
+/**
+ * Measures how many nodes the simulation scheduler can host: the threads and
+ * the heap used by N sensing nodes, and how late the scheduler runs a task
+ * while all of them are sensing. The nodes log every reading, that output is
+ * discarded while they run.
+ */
+public class SchedulerBenchmark {
+    // Every node has started sensing after this, see SensorActuatorNode.start()
+    private static final long START_TIME_MS = 11000;
+    private static final int PROBE_COUNT = 50;
+    private static final long PROBE_INTERVAL_MS = 100;
+
+    /**
+     * Entrypoint for the benchmark.
+     *
+     * @param args Command line arguments: the numbers of nodes to measure, 10000
+     *             by default.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int[] nodeCounts = {10000};
+        if (args.length > 0) {
+            nodeCounts = new int[args.length];
+            for (int i = 0; i < args.length; ++i) {
+                nodeCounts[i] = Integer.parseInt(args[i]);
+            }
+        }
+        for (int nodeCount : nodeCounts) {
+            measure(nodeCount);
+        }
+    }
+
+    private static void measure(int nodeCount) throws InterruptedException {
+        long threadsBefore = ManagementFactory.getThreadMXBean().getThreadCount();
+        long heapBefore = usedHeap();
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        List<SensorActuatorNode> nodes = new ArrayList<>(nodeCount);
+        long worstLateness;
+        long threadsAfter;
+        long heapAfter;
+        try {
+            for (int i = 0; i < nodeCount; ++i) {
+                SensorActuatorNode node = DeviceFactory.createNode(1, 1, 1, 1, 1, 1);
+                nodes.add(node);
+                node.start();
+            }
+            Thread.sleep(START_TIME_MS);
+            worstLateness = probeLateness();
+            threadsAfter = ManagementFactory.getThreadMXBean().getThreadCount();
+            heapAfter = usedHeap();
+        } finally {
+            for (SensorActuatorNode node : nodes) {
+                node.stop();
+            }
+            SimulationScheduler.shutdown();
+            System.setOut(out);
+        }
+
+        Logger.info(String.format("%d nodes: threads %d -> %d, heap %d MB, worst tick lateness %d ms", nodeCount,
+                threadsBefore, threadsAfter, (heapAfter - heapBefore) / (1024 * 1024), worstLateness));
+    }
+
+    /**
+     * Schedule tasks at regular times, and find the longest delay any of them ran with.
+     */
+    private static long probeLateness() throws InterruptedException {
+        AtomicLong worstLateness = new AtomicLong();
+        long startTime = System.currentTimeMillis() + PROBE_INTERVAL_MS;
+        for (int i = 0; i < PROBE_COUNT; ++i) {
+            long expectedTime = startTime + i * PROBE_INTERVAL_MS;
+            SimulationScheduler.schedule(
+                    () -> worstLateness.accumulateAndGet(System.currentTimeMillis() - expectedTime, Math::max),
+                    expectedTime - System.currentTimeMillis());
+        }
+        Thread.sleep((PROBE_COUNT + 5) * PROBE_INTERVAL_MS);
+        return worstLateness.get();
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,87 @@
+package no.ntnu.run;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import no.ntnu.message.BinaryMessageCodec;
+import no.ntnu.message.MessageSerializer;
+import no.ntnu.message.ProtocolSwitchMessage;
+import no.ntnu.message.RequestNodeInfoCommand;
+import no.ntnu.message.WireFormat;
+import no.ntnu.tools.Logger;
+
+/**
+ * Measures the traffic from the greenhouse to one control panel with and
+ * without the delta mode, in both wire formats: the number of bytes received
+ * over a while after requesting the node information. The server runs in a
+ * process of its own, see {@link GreenhouseServerProcess}.
+ */
+public class SensorDeltaBenchmark {
+    private static final int READ_TIMEOUT_MS = 500;
+
+    /**
+     * Entrypoint for the benchmark.
+     *
+     * @param args Command line arguments: optionally the number of seconds to
+     *             listen, 15 by default, followed by more arguments for the
+     *             simulator, such as "speed=10".
+     */
+    public static void main(String[] args) throws IOException {
+        long seconds = args.length > 0 ? Long.parseLong(args[0]) : 15;
+        List<String> serverArgs = new ArrayList<>();
+        for (int i = 1; i < args.length; ++i) {
+            serverArgs.add(args[i]);
+        }
+        for (WireFormat wireFormat : WireFormat.values()) {
+            long fullBytes = measure(serverArgs, wireFormat, seconds);
+            List<String> deltaArgs = new ArrayList<>(serverArgs);
+            deltaArgs.add("delta");
+            long deltaBytes = measure(deltaArgs, wireFormat, seconds);
+            Logger.info(String.format("%s: %d bytes in %d s with full sensor data, %d bytes with deltas (%.0f%%)",
+                    wireFormat, fullBytes, seconds, deltaBytes, 100.0 * deltaBytes / fullBytes));
+        }
+    }
+
+    private static long measure(List<String> serverArgs, WireFormat wireFormat, long seconds) throws IOException {
+        GreenhouseServerProcess server = GreenhouseServerProcess.start(serverArgs.toArray(new String[0]));
+        try (server; Socket socket = new Socket(GreenhouseServerProcess.HOST, GreenhouseServerProcess.PORT)) {
+            OutputStream output = socket.getOutputStream();
+            if (wireFormat == WireFormat.BINARY) {
+                // The server reads binary frames right after the switch
+                writeLine(output, MessageSerializer.toString(new ProtocolSwitchMessage(WireFormat.BINARY)));
+                output.write(BinaryMessageCodec.encode(new RequestNodeInfoCommand()));
+            } else {
+                writeLine(output, MessageSerializer.toString(new RequestNodeInfoCommand()));
+            }
+            output.flush();
+
+            socket.setSoTimeout(READ_TIMEOUT_MS);
+            InputStream input = socket.getInputStream();
+            byte[] buffer = new byte[65536];
+            long byteCount = 0;
+            long endTime = System.currentTimeMillis() + seconds * 1000;
+            while (System.currentTimeMillis() < endTime) {
+                try {
+                    int length = input.read(buffer);
+                    if (length < 0) {
+                        throw new IOException("The server closed the connection");
+                    }
+                    byteCount += length;
+                } catch (SocketTimeoutException e) {
+                    // Nothing sent for a while, keep listening until the end
+                }
+            }
+            return byteCount;
+        }
+    }
+
+    private static void writeLine(OutputStream output, String line) throws IOException {
+        output.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,125 @@
+package no.ntnu.run;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import no.ntnu.greenhouse.DeviceFactory;
+import no.ntnu.greenhouse.Sensor;
+import no.ntnu.greenhouse.SensorReading;
+import no.ntnu.message.MessageSerializer;
+import no.ntnu.message.SensorDataAdvertisementMessage;
+import no.ntnu.message.SensorReadingBuffer;
+import no.ntnu.message.TextMessageParser;
+import no.ntnu.tools.Logger;
+
+/**
+ * Measures the time and the memory allocated to parse a sensor data
+ * advertisement of the text protocol, with {@link TextMessageParser} and with
+ * the String.split parsing it replaced. The memory allocated is counted by the
+ * JVM for the current thread, so it includes everything the parsing creates.
+ */
+public class TextParserBenchmark {
+    private static final int ROUNDS = 5;
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    /**
+     * One way of parsing a line, returning the number of readings found.
+     */
+    private interface LineParser {
+        int parse(int index);
+    }
+
+    /**
+     * Entrypoint for the benchmark.
+     *
+     * @param args Command line arguments: optionally the number of sensors of
+     *             each type per message, 1 by default, and the number of messages,
+     *             100000 by default.
+     */
+    public static void main(String[] args) {
+        int sensorsPerType = args.length > 0 ? Integer.parseInt(args[0]) : 1;
+        int messageCount = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+
+        String[] lines = generate(sensorsPerType, messageCount);
+        byte[][] lineBytes = new byte[messageCount][];
+        for (int i = 0; i < messageCount; ++i) {
+            lineBytes[i] = lines[i].getBytes(StandardCharsets.UTF_8);
+        }
+        Logger.info(messageCount + " sensor data messages of " + sensorsPerType * 3 + " readings");
+
+        TextMessageParser parser = new TextMessageParser();
+        SensorReadingBuffer buffer = new SensorReadingBuffer();
+        for (int round = 0; round < ROUNDS; ++round) {
+            Logger.info("Round " + round + ":");
+            measure("String.split", messageCount, i -> parseWithSplit(lines[i]).getSensorReadings().size());
+            measure("fromString", messageCount, i -> readingCountOf(MessageSerializer.fromString(lines[i])));
+            measure("parse(bytes)", messageCount,
+                    i -> readingCountOf(parser.parse(lineBytes[i], 0, lineBytes[i].length)));
+            measure("parseSensorData", messageCount, i -> {
+                parser.parseSensorData(lines[i], buffer);
+                return buffer.size();
+            });
+        }
+    }
+
+    private static void measure(String name, int messageCount, LineParser parser) {
+        long readingCount = 0;
+        long allocatedBefore = THREADS.getCurrentThreadAllocatedBytes();
+        long startTime = System.nanoTime();
+        for (int i = 0; i < messageCount; ++i) {
+            readingCount += parser.parse(i);
+        }
+        long time = System.nanoTime() - startTime;
+        long allocated = THREADS.getCurrentThreadAllocatedBytes() - allocatedBefore;
+        Logger.info(String.format("  %-16s %5d ns/op %6d bytes/op (%d readings)", name, time / messageCount,
+                allocated / messageCount, readingCount));
+    }
+
+    private static int readingCountOf(Object message) {
+        return ((SensorDataAdvertisementMessage) message).getSensorReadings().size();
+    }
+
+    /**
+     * The parsing of sensor data advertisements before TextMessageParser, kept
+     * as the reference.
+     */
+    private static SensorDataAdvertisementMessage parseWithSplit(String string) {
+        String[] parts = string.split(":")[1].split(";");
+        int nodeId = Integer.parseInt(parts[0]);
+        List<SensorReading> readings = new LinkedList<>();
+        for (String reading : parts[1].split(",")) {
+            String[] assignmentParts = reading.split("=");
+            String[] valueParts = assignmentParts[1].split(" ");
+            readings.add(new SensorReading(assignmentParts[0], Double.parseDouble(valueParts[0]), valueParts[1]));
+        }
+        return new SensorDataAdvertisementMessage(nodeId, readings);
+    }
+
+    /**
+     * Generate the messages of one node, sensing over and over again, as the
+     * server sends them.
+     */
+    private static String[] generate(int sensorsPerType, int messageCount) {
+        List<Sensor> sensors = new ArrayList<>();
+        for (int i = 0; i < sensorsPerType; ++i) {
+            sensors.add(DeviceFactory.createTemperatureSensor());
+            sensors.add(DeviceFactory.createHumiditySensor());
+            sensors.add(DeviceFactory.createLightlevelSensor());
+        }
+        String[] lines = new String[messageCount];
+        for (int i = 0; i < messageCount; ++i) {
+            List<SensorReading> readings = new ArrayList<>(sensors.size());
+            for (Sensor sensor : sensors) {
+                sensor.addRandomNoise();
+                SensorReading reading = sensor.getReading();
+                readings.add(new SensorReading(reading.getType(), reading.getValue(), reading.getUnit()));
+            }
+            lines[i] = MessageSerializer.toString(new SensorDataAdvertisementMessage(1 + i % 100, readings));
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,110 @@
+package no.ntnu.run;
+
+import java.util.Random;
+
+import no.ntnu.greenhouse.DeviceFactory;
+import no.ntnu.greenhouse.Sensor;
+import no.ntnu.greenhouse.TimeSeriesBlock;
+import no.ntnu.tools.Logger;
+
+/**
+ * Measures how well {@link TimeSeriesBlock} compresses the sensor data of the
+ * simulator, and how fast blocks are encoded and decoded. The data comes from
+ * the sensors of the simulator itself: every sensor gets new noisy values every
+ * 5 seconds, and now and then an actuator impact, as in the greenhouse.
+ */
+public class TimeSeriesBenchmark {
+    private static final long SENSING_PERIOD = 5000;
+    private static final int RAW_BYTES_PER_SAMPLE = Long.BYTES + Double.BYTES;
+    // One actuator switch every this many samples of a sensor, on average
+    private static final int SAMPLES_PER_IMPACT = 100;
+    private static final double[] IMPACTS = {-5.0, -1.0, 4.0, -10.0};
+
+    /**
+     * Entrypoint for the benchmark.
+     *
+     * @param args Command line arguments: optionally the number of sensors of
+     *             each type, the number of samples per block, and "jitter" to
+     *             add a few milliseconds of jitter to the timestamps, as with the
+     *             real clock.
+     */
+    public static void main(String[] args) {
+        int sensorsPerType = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int samplesPerBlock = args.length > 1 ? Integer.parseInt(args[1]) : 720;
+        boolean jitter = args.length > 2 && "jitter".equals(args[2]);
+
+        int streamCount = sensorsPerType * 3;
+        long[][] timestamps = new long[streamCount][samplesPerBlock];
+        double[][] values = new double[streamCount][samplesPerBlock];
+        generate(sensorsPerType, samplesPerBlock, jitter, timestamps, values);
+        long sampleCount = (long) streamCount * samplesPerBlock;
+        Logger.info(streamCount + " sensors, " + samplesPerBlock + " samples per block"
+                + (jitter ? ", timestamps with jitter" : ""));
+
+        byte[][] blocks = new byte[streamCount][];
+        TimeSeriesBlock.Encoder encoder = new TimeSeriesBlock.Encoder(samplesPerBlock * 2);
+        for (int round = 0; round < 5; ++round) {
+            long startTime = System.nanoTime();
+            long size = 0;
+            for (int stream = 0; stream < streamCount; ++stream) {
+                encoder.reset();
+                for (int i = 0; i < samplesPerBlock; ++i) {
+                    encoder.add(timestamps[stream][i], values[stream][i]);
+                }
+                blocks[stream] = encoder.toByteArray();
+                size += blocks[stream].length;
+            }
+            long encodeTime = System.nanoTime() - startTime;
+
+            startTime = System.nanoTime();
+            long mismatches = 0;
+            for (int stream = 0; stream < streamCount; ++stream) {
+                TimeSeriesBlock.Decoder decoder = new TimeSeriesBlock.Decoder(blocks[stream]);
+                for (int i = 0; decoder.next(); ++i) {
+                    if (decoder.getTimestamp() != timestamps[stream][i]
+                            || Double.doubleToRawLongBits(decoder.getValue())
+                                    != Double.doubleToRawLongBits(values[stream][i])) {
+                        mismatches++;
+                    }
+                }
+            }
+            long decodeTime = System.nanoTime() - startTime;
+
+            Logger.info(String.format("Round %d: %.2f bytes per sample, ratio %.1f, encode %.1f M samples/s,"
+                    + " decode %.1f M samples/s, %d mismatches", round, (double) size / sampleCount,
+                    (double) sampleCount * RAW_BYTES_PER_SAMPLE / size, sampleCount * 1000.0 / encodeTime,
+                    sampleCount * 1000.0 / decodeTime, mismatches));
+        }
+    }
+
+    /**
+     * Generate the samples of every sensor with the sensor model of the
+     * simulator.
+     */
+    private static void generate(int sensorsPerType, int samplesPerBlock, boolean jitter, long[][] timestamps,
+            double[][] values) {
+        Random random = new Random(42);
+        long startTime = System.currentTimeMillis();
+        for (int stream = 0; stream < timestamps.length; ++stream) {
+            Sensor sensor;
+            if (stream < sensorsPerType) {
+                sensor = DeviceFactory.createTemperatureSensor();
+            } else if (stream < 2 * sensorsPerType) {
+                sensor = DeviceFactory.createHumiditySensor();
+            } else {
+                sensor = DeviceFactory.createLightlevelSensor();
+            }
+            // Every node starts sensing at a random time
+            long time = startTime + random.nextInt((int) SENSING_PERIOD);
+            for (int i = 0; i < samplesPerBlock; ++i) {
+                sensor.addRandomNoise();
+                if (random.nextInt(SAMPLES_PER_IMPACT) == 0) {
+                    sensor.applyImpact(IMPACTS[random.nextInt(IMPACTS.length)] * (random.nextBoolean() ? 1 : -1));
+                }
+                timestamps[stream][i] = time + (jitter ? random.nextInt(3) : 0);
+                values[stream][i] = sensor.getReading().getValue();
+                time += SENSING_PERIOD;
+            }
+        }
+    }
+}
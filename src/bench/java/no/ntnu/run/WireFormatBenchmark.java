@@ -0,0 +1,112 @@
+package no.ntnu.run;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import no.ntnu.greenhouse.DeviceFactory;
+import no.ntnu.greenhouse.Sensor;
+import no.ntnu.greenhouse.SensorReading;
+import no.ntnu.message.BinaryMessageCodec;
+import no.ntnu.message.Message;
+import no.ntnu.message.MessageSerializer;
+import no.ntnu.message.SensorDataAdvertisementMessage;
+import no.ntnu.tools.Logger;
+
+/**
+ * Compares the text and the binary wire format on sensor data advertisements,
+ * the bulk of the traffic of the server: the size of a reading on the wire,
+ * and the time it takes to encode and decode a message. The readings come from
+ * the sensors of the simulator.
+ */
+public class WireFormatBenchmark {
+    private static final int ROUNDS = 5;
+
+    /**
+     * Entrypoint for the benchmark.
+     *
+     * @param args Command line arguments: optionally the number of sensors of
+     *             each type per message, 1 by default, and the number of messages,
+     *             100000 by default.
+     */
+    public static void main(String[] args) {
+        int sensorsPerType = args.length > 0 ? Integer.parseInt(args[0]) : 1;
+        int messageCount = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+
+        List<Message> messages = generate(sensorsPerType, messageCount);
+        long readingCount = (long) messageCount * sensorsPerType * 3;
+        Logger.info(messageCount + " sensor data messages of " + sensorsPerType * 3 + " readings");
+
+        String[] lines = new String[messageCount];
+        byte[][] frames = new byte[messageCount][];
+        for (int round = 0; round < ROUNDS; ++round) {
+            long startTime = System.nanoTime();
+            long textSize = 0;
+            for (int i = 0; i < messageCount; ++i) {
+                lines[i] = MessageSerializer.toString(messages.get(i));
+                // The line is sent in UTF-8, followed by a newline
+                textSize += lines[i].getBytes(StandardCharsets.UTF_8).length + 1;
+            }
+            long textEncodeTime = System.nanoTime() - startTime;
+
+            startTime = System.nanoTime();
+            long textReadings = 0;
+            for (String line : lines) {
+                textReadings += readingCountOf(MessageSerializer.fromString(line));
+            }
+            long textDecodeTime = System.nanoTime() - startTime;
+
+            startTime = System.nanoTime();
+            long binarySize = 0;
+            for (int i = 0; i < messageCount; ++i) {
+                frames[i] = BinaryMessageCodec.encode(messages.get(i));
+                binarySize += frames[i].length;
+            }
+            long binaryEncodeTime = System.nanoTime() - startTime;
+
+            startTime = System.nanoTime();
+            long binaryReadings = 0;
+            for (byte[] frame : frames) {
+                ByteBuffer payload = ByteBuffer.wrap(frame, BinaryMessageCodec.LENGTH_PREFIX_SIZE,
+                        frame.length - BinaryMessageCodec.LENGTH_PREFIX_SIZE);
+                binaryReadings += readingCountOf(BinaryMessageCodec.decode(payload));
+            }
+            long binaryDecodeTime = System.nanoTime() - startTime;
+
+            Logger.info(String.format("Round %d: text %.2f bytes per reading, encode %d ns, decode %d ns;"
+                    + " binary %.2f bytes per reading, encode %d ns, decode %d ns (per message)%s", round,
+                    (double) textSize / readingCount, textEncodeTime / messageCount, textDecodeTime / messageCount,
+                    (double) binarySize / readingCount, binaryEncodeTime / messageCount,
+                    binaryDecodeTime / messageCount,
+                    textReadings == readingCount && binaryReadings == readingCount ? "" : ", readings lost"));
+        }
+    }
+
+    private static int readingCountOf(Message message) {
+        return ((SensorDataAdvertisementMessage) message).getSensorReadings().size();
+    }
+
+    /**
+     * Generate the messages of one node, sensing over and over again.
+     */
+    private static List<Message> generate(int sensorsPerType, int messageCount) {
+        List<Sensor> sensors = new ArrayList<>();
+        for (int i = 0; i < sensorsPerType; ++i) {
+            sensors.add(DeviceFactory.createTemperatureSensor());
+            sensors.add(DeviceFactory.createHumiditySensor());
+            sensors.add(DeviceFactory.createLightlevelSensor());
+        }
+        List<Message> messages = new ArrayList<>(messageCount);
+        for (int i = 0; i < messageCount; ++i) {
+            List<SensorReading> readings = new ArrayList<>(sensors.size());
+            for (Sensor sensor : sensors) {
+                sensor.addRandomNoise();
+                SensorReading reading = sensor.getReading();
+                readings.add(new SensorReading(reading.getType(), reading.getValue(), reading.getUnit()));
+            }
+            messages.add(new SensorDataAdvertisementMessage(1 + i % 100, readings));
+        }
+        return messages;
+    }
+}
@@ -0,0 +1,127 @@
+package no.ntnu.run;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import no.ntnu.controlpanel.ControlPanelLogic;
+import no.ntnu.controlpanel.SocketCommunicationChannel;
+import no.ntnu.message.Command;
+import no.ntnu.message.TurnOffActuatorCommand;
+import no.ntnu.message.TurnOnActuatorCommand;
+import no.ntnu.message.WireFormat;
+import no.ntnu.tools.Logger;
+
+/**
+ * Measures how the greenhouse server coalesces its writes: one control panel
+ * pipelines actuator commands while other control panels receive the
+ * broadcast of every change, and the write system calls of the server and the
+ * TCP segments sent are counted per command. The system calls come from
+ * /proc/PID/io of the server, and include its log output. The segments come
+ * from /proc/net/snmp, so they include all the TCP traffic of the machine. The
+ * server runs in a process of its own, see {@link GreenhouseServerProcess}.
+ */
+public class WriteCoalescingBenchmark {
+    private static final String[] MODES = {"blocking", "nio"};
+    private static final int LISTENER_COUNT = 10;
+    private static final int NODE_ID = 1;
+    private static final int ACTUATOR_ID = 2;
+    private static final int ROUNDS = 3;
+    private static final long REPLY_TIMEOUT_S = 60;
+    // Long enough for the broadcasts to the listeners to be written
+    private static final long SETTLE_TIME_MS = 300;
+
+    /**
+     * Entrypoint for the benchmark.
+     *
+     * @param args Command line arguments: optionally the number of commands per
+     *             round, 300 by default, followed by the server modes to measure
+     *             ("blocking", "virtual", "nio"), blocking and nio by default.
+     */
+    public static void main(String[] args)
+            throws IOException, InterruptedException, ExecutionException, TimeoutException {
+        int commandCount = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+        String[] modes = MODES;
+        if (args.length > 1) {
+            modes = new String[args.length - 1];
+            System.arraycopy(args, 1, modes, 0, modes.length);
+        }
+        for (String mode : modes) {
+            try (GreenhouseServerProcess server = GreenhouseServerProcess.start(mode)) {
+                for (WireFormat wireFormat : WireFormat.values()) {
+                    measure(server, mode, wireFormat, commandCount);
+                }
+            }
+        }
+    }
+
+    private static void measure(GreenhouseServerProcess server, String mode, WireFormat wireFormat,
+            int commandCount) throws IOException, InterruptedException, ExecutionException, TimeoutException {
+        List<SocketCommunicationChannel> channels = new ArrayList<>();
+        try {
+            for (int i = 0; i <= LISTENER_COUNT; ++i) {
+                SocketCommunicationChannel channel = new SocketCommunicationChannel(new ControlPanelLogic());
+                channel.setWireFormat(wireFormat);
+                if (!channel.open()) {
+                    throw new IOException("Could not connect to the greenhouse");
+                }
+                channels.add(channel);
+            }
+            // The last one sends the commands, the others only listen
+            SocketCommunicationChannel sender = channels.get(LISTENER_COUNT);
+            for (int round = 0; round < ROUNDS; ++round) {
+                long writesBefore = server.readIo("syscw");
+                long segmentsBefore = readTcpOutSegments();
+                long startTime = System.nanoTime();
+                CompletableFuture<?>[] replies = new CompletableFuture<?>[commandCount];
+                for (int i = 0; i < commandCount; ++i) {
+                    replies[i] = sender.sendCommandAsync(createCommand(i));
+                }
+                CompletableFuture.allOf(replies).get(REPLY_TIMEOUT_S, TimeUnit.SECONDS);
+                long time = System.nanoTime() - startTime;
+                GreenhouseServerProcess.sleep(SETTLE_TIME_MS);
+                long writes = server.readIo("syscw") - writesBefore;
+                long segments = readTcpOutSegments() - segmentsBefore;
+
+                Logger.info(String.format("%s, %s, round %d: %.0f commands/s, server write calls %.2f per command,"
+                        + " TCP segments %.2f per command", mode, wireFormat, round, commandCount * 1e9 / time,
+                        (double) writes / commandCount, (double) segments / commandCount));
+            }
+        } finally {
+            for (SocketCommunicationChannel channel : channels) {
+                channel.close();
+            }
+        }
+    }
+
+    private static Command createCommand(int index) {
+        return index % 2 == 0 ? new TurnOnActuatorCommand(NODE_ID, ACTUATOR_ID)
+                : new TurnOffActuatorCommand(NODE_ID, ACTUATOR_ID);
+    }
+
+    /**
+     * Get the number of TCP segments the machine has sent, from the "Tcp:" lines
+     * of /proc/net/snmp: a line of names followed by a line of values.
+     */
+    private static long readTcpOutSegments() throws IOException {
+        List<String> lines = Files.readAllLines(Path.of("/proc/net/snmp"));
+        for (int i = 0; i + 1 < lines.size(); ++i) {
+            if (lines.get(i).startsWith("Tcp:") && lines.get(i + 1).startsWith("Tcp:")) {
+                String[] names = lines.get(i).split("\\s+");
+                String[] values = lines.get(i + 1).split("\\s+");
+                for (int j = 0; j < names.length; ++j) {
+                    if ("OutSegs".equals(names[j])) {
+                        return Long.parseLong(values[j]);
+                    }
+                }
+            }
+        }
+        throw new IOException("OutSegs not found in /proc/net/snmp");
+    }
+}
@@ -0,0 +1,202 @@
+package no.ntnu.controlpanel;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The on/off states of all the actuators known to a control panel, safe to read
+ * and change from any number of threads.
+ * <p>
+ * Every actuator takes one long slot in an open-addressing hash table: the node
+ * ID and the actuator ID form the key, and the lowest bit is the state. Reading
+ * a state is a single volatile read, and changing it a single compare-and-set,
+ * without any lock. Only adding an actuator which was never seen before takes
+ * a lock, as it may need to grow the table. While the table grows, the slots
+ * of the old table are frozen with a marker bit, so that no change is lost:
+ * readers still get the frozen state, and writers wait for the new table.
+ * Entries are never removed, an unknown actuator is simply off.
+ */
+class ActuatorStateTable {
+    private static final long EMPTY = 0;
+    private static final long ON = 1;
+    private static final long MOVED = 2;
+    private static final long KEY_MASK = ~(ON | MOVED);
+    private static final int INITIAL_CAPACITY = 64;
+
+    private volatile Table table = new Table(INITIAL_CAPACITY);
+    // The number of actuators in the table, guarded by this
+    private int size;
+
+    /**
+     * Check whether an actuator is on.
+     *
+     * @param nodeId     The ID of the node of the actuator
+     * @param actuatorId The ID of the actuator
+     * @return True when the actuator is on, false when it is off or unknown
+     */
+    boolean isOn(int nodeId, int actuatorId) {
+        long key = packKey(nodeId, actuatorId);
+        Table current = table;
+        while (true) {
+            long slot = current.slots.get(current.find(key));
+            if ((slot & MOVED) != 0 && current.next != null) {
+                current = current.next;
+            } else {
+                // A slot which is being moved can't change, so its state is current
+                return (slot & KEY_MASK) == key && (slot & ON) != 0;
+            }
+        }
+    }
+
+    /**
+     * Set the state of an actuator.
+     *
+     * @param nodeId     The ID of the node of the actuator
+     * @param actuatorId The ID of the actuator
+     * @param on         True when the actuator is on
+     */
+    void set(int nodeId, int actuatorId, boolean on) {
+        long key = packKey(nodeId, actuatorId);
+        long update = on ? key | ON : key;
+        Table current = table;
+        while (true) {
+            int index = current.find(key);
+            long slot = current.slots.get(index);
+            if ((slot & MOVED) != 0) {
+                current = nextTable(current);
+            } else if ((slot & KEY_MASK) != key) {
+                if (insert(key, update)) {
+                    return;
+                }
+                current = table;
+            } else if (current.slots.compareAndSet(index, slot, update)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Change the state of an actuator, only if it currently has the expected
+     * state. An unknown actuator is considered off.
+     *
+     * @param nodeId     The ID of the node of the actuator
+     * @param actuatorId The ID of the actuator
+     * @param expectedOn The expected current state
+     * @param on         The new state
+     * @return True when the state was changed, false when the actuator did not
+     *         have the expected state
+     */
+    boolean compareAndSet(int nodeId, int actuatorId, boolean expectedOn, boolean on) {
+        long key = packKey(nodeId, actuatorId);
+        long expected = expectedOn ? key | ON : key;
+        long update = on ? key | ON : key;
+        Table current = table;
+        while (true) {
+            int index = current.find(key);
+            long slot = current.slots.get(index);
+            if ((slot & MOVED) != 0) {
+                current = nextTable(current);
+            } else if ((slot & KEY_MASK) != key) {
+                if (expectedOn) {
+                    return false;
+                }
+                if (insert(key, update)) {
+                    return true;
+                }
+                current = table;
+            } else if (slot != expected) {
+                return false;
+            } else if (current.slots.compareAndSet(index, slot, update)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Add an actuator to the table, growing it when needed.
+     *
+     * @param key   The key of the actuator
+     * @param value The slot value, the key with the state
+     * @return True when added, false when someone else added the actuator first
+     */
+    private synchronized boolean insert(long key, long value) {
+        Table current = table;
+        int index = current.find(key);
+        if (current.slots.get(index) != EMPTY) {
+            return false;
+        }
+        if ((size + 1) * 2 > current.slots.length()) {
+            current = grow(current);
+            index = current.find(key);
+        }
+        current.slots.set(index, value);
+        size++;
+        return true;
+    }
+
+    private Table grow(Table old) {
+        Table grown = new Table(old.slots.length() * 2);
+        for (int i = 0; i < old.slots.length(); ++i) {
+            long slot;
+            do {
+                slot = old.slots.get(i);
+            } while (!old.slots.compareAndSet(i, slot, slot | MOVED));
+            if ((slot & KEY_MASK) != EMPTY) {
+                grown.slots.set(grown.find(slot & KEY_MASK), slot);
+            }
+        }
+        old.next = grown;
+        table = grown;
+        return grown;
+    }
+
+    private Table nextTable(Table old) {
+        if (old.next == null) {
+            // The table is being grown, wait until that is done
+            synchronized (this) {
+                return old.next;
+            }
+        }
+        return old.next;
+    }
+
+    private static long packKey(int nodeId, int actuatorId) {
+        if (nodeId < 0 || nodeId == Integer.MAX_VALUE || actuatorId < 0) {
+            throw new IllegalArgumentException("Invalid actuator " + nodeId + ":" + actuatorId);
+        }
+        // Node ID + 1, so that no key is 0 (empty)
+        return ((long) (nodeId + 1) << 33) | ((long) actuatorId << 2);
+    }
+
+    /**
+     * The slots of the table, at one size.
+     */
+    private static class Table {
+        private final AtomicLongArray slots;
+        private final int mask;
+        // The larger table replacing this one, set when all slots are moved
+        private volatile Table next;
+
+        Table(int capacity) {
+            this.slots = new AtomicLongArray(capacity);
+            this.mask = capacity - 1;
+        }
+
+        /**
+         * Find the slot of a key.
+         *
+         * @param key The key to find
+         * @return The index of the slot holding the key, or of the empty slot where
+         *         the key would be added
+         */
+        int find(long key) {
+            int index = (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+            while (true) {
+                long slotKey = slots.get(index) & KEY_MASK;
+                if (slotKey == key || slotKey == EMPTY) {
+                    return index;
+                }
+                index = (index + 1) & mask;
+            }
+        }
+    }
+}
@@ -1,9 +1,7 @@
 package no.ntnu.controlpanel;
 
-import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 
 import no.ntnu.greenhouse.Actuator;
 import no.ntnu.greenhouse.GreenhouseSimulator;
@@ -28,7 +26,7 @@ import no.ntnu.tools.Logger;
 public class ControlPanelLogic implements GreenhouseEventListener, ActuatorListener,
         CommunicationChannelListener {
     private final List<GreenhouseEventListener> listeners = new LinkedList<>();
-    private Map<Integer, Map<Integer, Boolean>> actuatorStates = new HashMap<>();
+    private final ActuatorStateTable actuatorStates = new ActuatorStateTable();
 
     private CommunicationChannel communicationChannel;
     private CommunicationChannelListener communicationChannelListener;
@@ -90,9 +88,31 @@ public class ControlPanelLogic implements GreenhouseEventListener, ActuatorListe
         return this.greenhouseSimulator;
     }
 
+    /**
+     * Check whether an actuator is on. Safe to call from any thread.
+     *
+     * @param nodeId     The ID of the node of the actuator
+     * @param actuatorId The ID of the actuator
+     * @return True when the actuator is on, false when it is off or unknown
+     */
     public boolean isActuatorOn(int nodeId, int actuatorId) {
-        Map<Integer, Boolean> nodeActuators = actuatorStates.getOrDefault(nodeId, new HashMap<>());
-        return nodeActuators.getOrDefault(actuatorId, false);
+        return actuatorStates.isOn(nodeId, actuatorId);
+    }
+
+    /**
+     * Change the state of an actuator, only if it currently has the expected
+     * state. Safe to call from any thread, exactly one of several concurrent
+     * callers expecting the same state succeeds. The listeners are not notified.
+     *
+     * @param nodeId     The ID of the node of the actuator
+     * @param actuatorId The ID of the actuator
+     * @param expectedOn The state the actuator is expected to have, an unknown
+     *                   actuator is off
+     * @param isOn       The new state
+     * @return True when the state was changed
+     */
+    public boolean compareAndSetActuatorState(int nodeId, int actuatorId, boolean expectedOn, boolean isOn) {
+        return actuatorStates.compareAndSet(nodeId, actuatorId, expectedOn, isOn);
     }
 
     /**
@@ -125,9 +145,15 @@ public class ControlPanelLogic implements GreenhouseEventListener, ActuatorListe
     }
 
 
+    @Override
+    public void onSensorDelta(int nodeId, int[] indices, double[] values) {
+        listeners.forEach(listener -> listener.onSensorDelta(nodeId, indices, values));
+    }
+
+
     @Override
     public void onActuatorStateChanged(int nodeId, int actuatorId, boolean isOn) {
-        actuatorStates.computeIfAbsent(nodeId, k -> new HashMap<>()).put(actuatorId, isOn);
+        actuatorStates.set(nodeId, actuatorId, isOn);
         listeners.forEach(listener -> listener.onActuatorStateChanged(nodeId, actuatorId, isOn));
     }
 
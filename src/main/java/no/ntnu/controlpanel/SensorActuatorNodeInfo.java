@@ -1,7 +1,10 @@
 package no.ntnu.controlpanel;
 
+import java.util.ArrayList;
+import java.util.List;
 import no.ntnu.greenhouse.Actuator;
 import no.ntnu.greenhouse.ActuatorCollection;
+import no.ntnu.greenhouse.SensorReading;
 
 /**
  * Contains information about one sensor/actuator node. This is NOT the node
@@ -11,6 +14,7 @@ import no.ntnu.greenhouse.ActuatorCollection;
 public class SensorActuatorNodeInfo {
     private final int nodeId;
     private final ActuatorCollection actuators = new ActuatorCollection();
+    private final List<SensorReading> sensorReadings = new ArrayList<>();
 
     /**
      * Constructor for SensorActuatorNodeInfo.
@@ -30,6 +34,15 @@ public class SensorActuatorNodeInfo {
         actuators.add(actuator);
     }
 
+    /**
+     * Adds a sensor reading to the readings known for the node.
+     *
+     * @param reading The sensor reading to be added.
+     */
+    public void addSensorReading(SensorReading reading) {
+        sensorReadings.add(reading);
+    }
+
     /**
      * Get ID of the node.
      *
@@ -48,6 +61,16 @@ public class SensorActuatorNodeInfo {
         return actuators;
     }
 
+    /**
+     * Get the sensor readings of the node, at the time when the information was
+     * collected.
+     *
+     * @return The sensor readings, in the order of the sensors on the node
+     */
+    public List<SensorReading> getSensorReadings() {
+        return sensorReadings;
+    }
+
     /**
      * Get an actuator of given type, with given index.
      *
@@ -3,39 +3,67 @@ package no.ntnu.controlpanel;
 import no.ntnu.greenhouse.Actuator;
 import no.ntnu.greenhouse.SensorReading;
 import no.ntnu.message.ActuatorStateMessage;
+import no.ntnu.message.ActuatorStatesMessage;
 import no.ntnu.message.Command;
+import no.ntnu.message.CorrelatedMessage;
+import no.ntnu.message.EncodedMessage;
 import no.ntnu.message.ErrorMessage;
 import no.ntnu.message.Message;
-import no.ntnu.message.MessageSerializer;
+import no.ntnu.message.MessageReader;
+import no.ntnu.message.NodeChangesMessage;
+import no.ntnu.message.NodeInfoBeginMessage;
+import no.ntnu.message.NodeInfoEndMessage;
+import no.ntnu.message.NodeInfoMessage;
 import no.ntnu.message.NodeRemovedMessage;
+import no.ntnu.message.ProtocolSwitchMessage;
+import no.ntnu.message.RequestNodeInfoCommand;
 import no.ntnu.message.SensorDataAdvertisementMessage;
+import no.ntnu.message.SensorDeltaMessage;
 import no.ntnu.message.TurnOffActuatorCommand;
 import no.ntnu.message.TurnOnActuatorCommand;
+import no.ntnu.message.WireFormat;
 import no.ntnu.tools.Logger;
 
-import static no.ntnu.tools.Parser.parseDoubleOrError;
-import static no.ntnu.tools.Parser.parseIntegerOrError;
-
-import java.io.BufferedReader;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.io.OutputStream;
 import java.net.Socket;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.LinkedList;
+import java.util.Map;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A socket communication channel.
+ * <p>
+ * Commands can be sent either without waiting for anything, with
+ * {@link #sendCommand(Command)}, or with {@link #sendCommandAsync(Command)},
+ * which tags the command with a correlation ID and returns a future completed
+ * by the reply of the server. Any number of commands may be in flight at the
+ * same time, so a caller can pipeline many commands on one connection instead
+ * of waiting a round trip for each of them.
  */
 public class SocketCommunicationChannel implements CommunicationChannel {
     private final int PORT_NUMBER = 10025;
     private final String serverHost = "localhost";
     private final ControlPanelLogic logic;
     private Socket socket;
-    private BufferedReader socketReader;
-    private PrintWriter socketWriter;
+    private MessageReader socketReader;
+    private OutputStream socketWriter;
+    private WireFormat wireFormat = WireFormat.TEXT;
+    private volatile WireFormat writeFormat = WireFormat.TEXT;
+    private final AtomicInteger nextCorrelationId = new AtomicInteger();
+    private final Map<Integer, CompletableFuture<Message>> pendingReplies = new ConcurrentHashMap<>();
+    // The threads writing or waiting to write to the socket
+    private final AtomicInteger waitingWriters = new AtomicInteger();
+    // The version of the greenhouse state known by this control panel, -1 if none
+    private volatile long stateVersion = -1;
+    // Spawns the received nodes, shared by all the nodes instead of a timer thread per node
+    private final Timer spawnTimer = new Timer("node-spawner", true);
 
     /**
      * Creates a new socket communication channel.
@@ -46,6 +74,16 @@ public class SocketCommunicationChannel implements CommunicationChannel {
         this.logic = logic;
     }
 
+    /**
+     * Set the wire format to ask the server for when the channel is opened. Must
+     * be called before {@link #open()}.
+     *
+     * @param wireFormat The wire format to use
+     */
+    public void setWireFormat(WireFormat wireFormat) {
+        this.wireFormat = wireFormat;
+    }
+
     @Override
     public void sendActuatorChange(int nodeId, int actuatorId, boolean isOn) {
         if (socket != null && socket.isConnected()) {
@@ -67,8 +105,7 @@ public class SocketCommunicationChannel implements CommunicationChannel {
             return false;
         }
         try {
-            String serializedCommand = MessageSerializer.toString(command);
-            socketWriter.println(serializedCommand);
+            this.sendMessage(command);
             return true;
         } catch (Exception e) {
             Logger.error("Error while trying to send the command : " + e.getMessage());
@@ -76,139 +113,243 @@ public class SocketCommunicationChannel implements CommunicationChannel {
         }
     }
 
-    private SensorActuatorNodeInfo createSensorNodeInfoFrom(String specification) {
-        String[] parts = specification.split(":");
-        int nodeId = parseIntegerOrError(parts[0], "Invalid node ID:" + parts[0]);
-        SensorActuatorNodeInfo info = new SensorActuatorNodeInfo(nodeId);
-        if (parts.length == 3) {
-            parseActuators(parts[2], info);
-        }
-        return info;
-    }
-
-    private void parseActuators(String actuatorSpecification, SensorActuatorNodeInfo info) {
-        String[] parts = actuatorSpecification.split(",");
-        for (String part : parts) {
-            parseActuatorInfo(part, info);
-        }
+    /**
+     * Send a command to the server without waiting for the reply. The command is
+     * tagged with a correlation ID, and the returned future is completed with the
+     * reply of the server tagged with the same ID - an {@link ErrorMessage} if the
+     * command failed. The reply is also handled like any other message from the
+     * server, so the state of the control panel is updated as usual.
+     *
+     * @param command The command to send
+     * @return The reply of the server. Completed exceptionally if the command could
+     *         not be sent, or if the connection is closed before the reply comes
+     */
+    public CompletableFuture<Message> sendCommandAsync(Command command) {
+        return sendCommandsAsync(List.of(command)).get(0);
     }
 
-    private void parseActuatorInfo(String s, SensorActuatorNodeInfo info) {
-        String[] actuatorParts = s.split("=");
-        if (actuatorParts.length != 2) {
-            throw new IllegalArgumentException("Invalid actuator info format: " + s);
+    /**
+     * Send several commands to the server without waiting for the replies, like
+     * {@link #sendCommandAsync(Command)}. All the commands are written to the
+     * socket at once, usually in a single TCP segment.
+     *
+     * @param commands The commands to send
+     * @return The replies of the server, in the same order as the commands
+     */
+    public List<CompletableFuture<Message>> sendCommandsAsync(List<? extends Command> commands) {
+        List<CompletableFuture<Message>> replies = new ArrayList<>(commands.size());
+        List<Message> messages = new ArrayList<>(commands.size());
+        for (Command command : commands) {
+            CompletableFuture<Message> reply = new CompletableFuture<>();
+            replies.add(reply);
+            if (socketWriter == null || socketReader == null) {
+                reply.completeExceptionally(new IOException("The channel is not open"));
+            } else {
+                int correlationId = nextCorrelationId.getAndIncrement() & Integer.MAX_VALUE;
+                pendingReplies.put(correlationId, reply);
+                messages.add(new CorrelatedMessage(correlationId, command));
+            }
         }
-        String[] actuatorInfo = actuatorParts[0].split("_");
-        if (actuatorInfo.length != 2) {
-            throw new IllegalArgumentException("Invalid actuator info format: " + actuatorParts[0]);
+        try {
+            this.sendMessages(messages);
+        } catch (IOException e) {
+            for (Message message : messages) {
+                CompletableFuture<Message> reply = pendingReplies.remove(
+                        ((CorrelatedMessage) message).getCorrelationId());
+                if (reply != null) {
+                    reply.completeExceptionally(e);
+                }
+            }
         }
-        int actuatorId = parseIntegerOrError(actuatorInfo[0], "Invalid node ID:" + actuatorInfo[0]);
-        String actuatorType = actuatorInfo[1];
-        boolean activated = actuatorParts[1].equals("on");
-        Actuator actuator = new Actuator(actuatorId, actuatorType, info.getId());
-        actuator.set(activated);
-        actuator.setListener(logic);
-        info.addActuator(actuator);
-    }
-
-    private List<SensorReading> createSensorReadingsFrom(String specification) {
-        String sensorInfo = specification.split(":")[1];
-        return parseSensors(sensorInfo);
+        return replies;
     }
 
-    private List<SensorReading> parseSensors(String sensorInfo) {
-        List<SensorReading> readings = new LinkedList<>();
-        String[] readingInfo = sensorInfo.split(",");
-        for (String reading : readingInfo) {
-            readings.add(parseReading(reading));
-        }
-        return readings;
+    /**
+     * Send a message to the server in the current wire format.
+     *
+     * @param message The message to send
+     * @throws IOException If writing to the socket fails
+     */
+    private void sendMessage(Message message) throws IOException {
+        this.sendMessages(List.of(message));
     }
 
-    private SensorReading parseReading(String reading) {
-        String[] assignmentParts = reading.split("=");
-        if (assignmentParts.length != 2) {
-            throw new IllegalArgumentException("Invalid sensor reading specified: " + reading);
+    /**
+     * Send messages to the server in the current wire format. The socket is only
+     * flushed by the last of the threads sending at the same time, so that
+     * messages sent concurrently are coalesced into as few TCP segments as
+     * possible.
+     *
+     * @param messages The messages to send
+     * @throws IOException If writing to the socket fails
+     */
+    private void sendMessages(List<Message> messages) throws IOException {
+        if (messages.isEmpty()) {
+            return;
         }
-        String[] valueParts = assignmentParts[1].split(" ");
-        if (valueParts.length != 2) {
-            throw new IllegalArgumentException("Invalid sensor value/unit: " + reading);
+        waitingWriters.incrementAndGet();
+        synchronized (this) {
+            boolean isLastWriter;
+            try {
+                for (Message message : messages) {
+                    new EncodedMessage(message).writeTo(socketWriter, writeFormat);
+                }
+            } finally {
+                isLastWriter = waitingWriters.decrementAndGet() == 0;
+            }
+            if (isLastWriter) {
+                socketWriter.flush();
+            }
         }
-        String sensorType = assignmentParts[0];
-        double value = parseDoubleOrError(valueParts[0], "Invalid sensor value: " + valueParts[0]);
-        String unit = valueParts[1];
-        return new SensorReading(sensorType, value, unit);
     }
 
     /**
      * Spawns new sensor/actuator nodes after a given delay.
      *
-     * @param specification The specification in the specified format
-     * @param delay         Delay in seconds
+     * @param nodeInfoMessage The nodes to spawn
+     * @param delay           Delay in seconds
      */
-    public void spawnNodes(String specification, int delay) {
-        if (specification == null || specification.isEmpty()) {
-            throw new IllegalArgumentException("Node specification can't be empty");
-        }
-        String[] parts = specification.split("\\|");
-        if (!parts[0].equals("NODE_INFO")) {
-            throw new IllegalArgumentException("Incorrect specification format");
-        }
-        for (int i = 1; i < parts.length; i++) {
-            SensorActuatorNodeInfo nodeInfo = createSensorNodeInfoFrom(parts[i]);
-            List<SensorReading> sensorReadings = createSensorReadingsFrom(parts[i]);
-            Timer timer = new Timer();
-            timer.schedule(new TimerTask() {
+    public void spawnNodes(NodeInfoMessage nodeInfoMessage, int delay) {
+        this.spawnNodes(nodeInfoMessage.getNodeInfos(), delay);
+    }
+
+    private void spawnNodes(List<SensorActuatorNodeInfo> nodeInfos, int delay) {
+        for (SensorActuatorNodeInfo nodeInfo : nodeInfos) {
+            for (Actuator actuator : nodeInfo.getActuators()) {
+                actuator.setListener(logic);
+            }
+            List<SensorReading> sensorReadings = nodeInfo.getSensorReadings();
+            spawnTimer.schedule(new TimerTask() {
                 @Override
                 public void run() {
                     logic.onNodeAdded(nodeInfo);
                 }
             }, delay * 1000L);
-            timer.schedule(new TimerTask() {
-                @Override
-                public void run() {
-                    logic.onSensorData(nodeInfo.getId(), sensorReadings);
+            if (!sensorReadings.isEmpty()) {
+                spawnTimer.schedule(new TimerTask() {
+                    @Override
+                    public void run() {
+                        logic.onSensorData(nodeInfo.getId(), sensorReadings);
+                    }
+                }, delay * 1000L + 1000);
+            }
+        }
+    }
+
+    /**
+     * Asks the server to use the binary protocol. The request itself is sent in
+     * the text protocol, and the server answers in the text protocol too - all the
+     * messages after the answer use the binary protocol. Messages received before
+     * the answer are ignored, the node information fetched afterwards contains
+     * the current state anyway.
+     *
+     * @throws IOException If the communication with the server fails
+     */
+    private void switchToBinaryProtocol() throws IOException {
+        this.sendMessage(new ProtocolSwitchMessage(WireFormat.BINARY));
+        this.writeFormat = WireFormat.BINARY;
+        Message response;
+        do {
+            response = this.socketReader.readMessage();
+        } while (!(response instanceof ProtocolSwitchMessage));
+        this.socketReader.setWireFormat(WireFormat.BINARY);
+        Logger.info("Using the binary protocol");
+    }
+
+    /**
+     * Requests information about all the nodes and spawns them. Messages received
+     * before the node information are ignored, as they may refer to nodes the
+     * control panel does not know yet. The nodes arrive in chunks, and the nodes
+     * of each chunk are spawned as soon as it is received. When the channel is
+     * opened again, only the changes since the state known from the previous
+     * connection are requested.
+     *
+     * @throws IOException If the communication with the server fails
+     */
+    private void fetchNodeData() throws IOException {
+        this.sendCommand(new RequestNodeInfoCommand(this.stateVersion));
+        Message response;
+        do {
+            response = this.socketReader.readMessage();
+        } while (!(response instanceof NodeInfoBeginMessage) && !(response instanceof NodeChangesMessage));
+        if (response instanceof NodeInfoBeginMessage beginMessage) {
+            Logger.info("Receiving " + beginMessage.getNodeCount() + " nodes");
+            do {
+                response = this.socketReader.readMessage();
+                if (response != null) {
+                    this.processResponse(response);
                 }
-            }, delay * 1000L + 1000);
+            } while (!(response instanceof NodeInfoEndMessage));
+        } else {
+            this.applyNodeChanges((NodeChangesMessage) response);
         }
     }
 
-    private void fetchNodeData() {
-        socketWriter.println("REQUEST_NODE_INFO");
-        String response = null;
-        try {
-            response = this.socketReader.readLine();
-        } catch (IOException e) {
-            System.err.println("Did not receive any response: " + e.getMessage());
+    private void applyNodeChanges(NodeChangesMessage changes) {
+        this.stateVersion = changes.getVersion();
+        for (int nodeId : changes.getRemovedNodeIds()) {
+            this.logic.onNodeRemoved(nodeId);
         }
-        this.spawnNodes(response, 0);
+        this.spawnNodes(changes.getAddedNodes(), 0);
+        this.processResponse(changes.getActuatorStates());
     }
 
-    private void listenForResponse() {
-        while (this.socket != null && !this.socket.isClosed()) {
-            String response = null;
+    /**
+     * Processes the messages received on one connection until it is closed. When
+     * the channel has been opened again in the meantime, the new connection is
+     * left alone.
+     *
+     * @param socket The socket of the connection
+     * @param reader The reader of the socket
+     */
+    private void listenForResponse(Socket socket, MessageReader reader) {
+        while (!socket.isClosed()) {
+            Message response = null;
             try {
-                response = socketReader.readLine();
+                response = reader.readMessage();
             } catch (IOException e) {
                 Logger.error(e.getMessage());
-                this.close();
+                if (this.socket == socket) {
+                    this.close();
+                } else {
+                    break;
+                }
             }
-            if (response != null && !response.isBlank()) {
+            if (response != null) {
                 this.processResponse(response);
             }
         }
     }
 
-    private void processResponse(String response) {
-        Message serializedResponse = MessageSerializer.fromString(response);
-        if (serializedResponse instanceof ActuatorStateMessage actuatorStateMessage) {
+    private void processResponse(Message serializedResponse) {
+        if (serializedResponse instanceof CorrelatedMessage correlatedMessage) {
+            this.processResponse(correlatedMessage.getMessage());
+            CompletableFuture<Message> reply = pendingReplies.remove(correlatedMessage.getCorrelationId());
+            if (reply != null) {
+                reply.complete(correlatedMessage.getMessage());
+            }
+        } else if (serializedResponse instanceof ActuatorStateMessage actuatorStateMessage) {
             this.logic.onActuatorStateChanged(actuatorStateMessage.getNodeId(), actuatorStateMessage.getActuatorId(),
                     actuatorStateMessage.isOn());
+        } else if (serializedResponse instanceof ActuatorStatesMessage actuatorStatesMessage) {
+            for (int i = 0; i < actuatorStatesMessage.size(); ++i) {
+                this.logic.onActuatorStateChanged(actuatorStatesMessage.getNodeIds()[i],
+                        actuatorStatesMessage.getActuatorIds()[i], actuatorStatesMessage.getStates()[i]);
+            }
         } else if (serializedResponse instanceof SensorDataAdvertisementMessage sensorDataAdvertisementMessage) {
             this.logic.onSensorData(sensorDataAdvertisementMessage.getNodeId(),
                     sensorDataAdvertisementMessage.getSensorReadings());
+        } else if (serializedResponse instanceof SensorDeltaMessage sensorDeltaMessage) {
+            this.logic.onSensorDelta(sensorDeltaMessage.getNodeId(), sensorDeltaMessage.getIndices(),
+                    sensorDeltaMessage.getValues());
         } else if (serializedResponse instanceof NodeRemovedMessage nodeRemovedMessage) {
             this.logic.onNodeRemoved(nodeRemovedMessage.getNodeId());
+        } else if (serializedResponse instanceof NodeChangesMessage nodeChangesMessage) {
+            this.applyNodeChanges(nodeChangesMessage);
+        } else if (serializedResponse instanceof NodeInfoMessage nodeInfoMessage) {
+            this.spawnNodes(nodeInfoMessage, 0);
+        } else if (serializedResponse instanceof NodeInfoEndMessage nodeInfoEndMessage) {
+            this.stateVersion = nodeInfoEndMessage.getVersion();
         } else if (serializedResponse instanceof ErrorMessage errorMessage) {
             Logger.error(errorMessage.getMessage());
         }
@@ -219,10 +360,20 @@ public class SocketCommunicationChannel implements CommunicationChannel {
         boolean isOpen = false;
         try {
             this.socket = new Socket(serverHost, PORT_NUMBER);
-            this.socketReader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            this.socketWriter = new PrintWriter(socket.getOutputStream(), true);
+            // The writes are coalesced explicitly, Nagle's algorithm would only delay them
+            this.socket.setTcpNoDelay(true);
+            this.socketReader = new MessageReader(socket.getInputStream());
+            this.socketWriter = new BufferedOutputStream(socket.getOutputStream());
+            // Every connection starts in the text protocol, also when the channel is opened again
+            this.writeFormat = WireFormat.TEXT;
+            if (this.wireFormat == WireFormat.BINARY) {
+                this.switchToBinaryProtocol();
+            }
             this.fetchNodeData();
-            new Thread(() -> listenForResponse()).start();
+            Socket openedSocket = this.socket;
+            MessageReader openedReader = this.socketReader;
+            Thread.ofVirtual().name("control-panel-listener")
+                    .start(() -> listenForResponse(openedSocket, openedReader));
             isOpen = true;
         } catch (IOException err) {
             System.err.println("Could not open server socket: " + err.getMessage());
@@ -233,7 +384,8 @@ public class SocketCommunicationChannel implements CommunicationChannel {
     /**
      * Closes the communication channel.
      *This method attempt to close the socket ,if it is not already null or closed.
-     * It also informs the logic about the closure
+     * It also informs the logic about the closure, and fails the commands still
+     * waiting for a reply.
      */
 
     public void close() {
@@ -245,5 +397,18 @@ public class SocketCommunicationChannel implements CommunicationChannel {
         } catch (IOException err) {
             System.err.println("Could not close server socket: " + err.getMessage());
         }
+        this.failPendingReplies();
+    }
+
+    /**
+     * Fail all the commands still waiting for a reply, as no reply will come.
+     */
+    private void failPendingReplies() {
+        for (Integer correlationId : pendingReplies.keySet()) {
+            CompletableFuture<Message> reply = pendingReplies.remove(correlationId);
+            if (reply != null) {
+                reply.completeExceptionally(new IOException("The connection was closed"));
+            }
+        }
     }
 }
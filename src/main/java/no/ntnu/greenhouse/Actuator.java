@@ -1,7 +1,6 @@
 package no.ntnu.greenhouse;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 import no.ntnu.listeners.common.ActuatorListener;
 
 /**
@@ -13,7 +12,9 @@ public class Actuator {
     private final String type;
     private final int nodeId;
     private final int id;
-    private Map<String, Double> impacts = new HashMap<>();
+    // The impacts, as the IDs of the affected sensor types and the differences
+    private int[] impactTypeIds = new int[0];
+    private double[] impactDiffs = new double[0];
     private ActuatorListener listener;
     private boolean on;
 
@@ -48,6 +49,25 @@ public class Actuator {
         return nextId++;
     }
 
+    /**
+     * Get the ID the next actuator created without an ID will get.
+     *
+     * @return The next actuator ID
+     */
+    static int getNextId() {
+        return nextId;
+    }
+
+    /**
+     * Set the ID the next actuator created without an ID will get, after
+     * restoring actuators with their own IDs.
+     *
+     * @param id The next actuator ID
+     */
+    static void setNextId(int id) {
+        nextId = id;
+    }
+
     /**
      * Set the listener which will be notified when actuator state changes.
      *
@@ -70,7 +90,17 @@ public class Actuator {
      *                       same node by +2 degrees".
      */
     public void setImpact(String sensorType, double diffWhenActive) {
-        impacts.put(sensorType, diffWhenActive);
+        int typeId = SensorStore.typeIdOf(sensorType);
+        for (int i = 0; i < impactTypeIds.length; ++i) {
+            if (impactTypeIds[i] == typeId) {
+                impactDiffs[i] = diffWhenActive;
+                return;
+            }
+        }
+        impactTypeIds = Arrays.copyOf(impactTypeIds, impactTypeIds.length + 1);
+        impactDiffs = Arrays.copyOf(impactDiffs, impactDiffs.length + 1);
+        impactTypeIds[impactTypeIds.length - 1] = typeId;
+        impactDiffs[impactDiffs.length - 1] = diffWhenActive;
     }
 
     /**
@@ -91,12 +121,45 @@ public class Actuator {
      */
     public Actuator createClone() {
         Actuator a = new Actuator(type, nodeId);
-        // Note - we pass a reference to the same map! This should not be problem, as
-        // long as we don't modify the impacts AFTER creating the template
-        a.impacts = impacts;
+        // Note - we pass a reference to the same arrays! This should not be problem,
+        // as long as we don't modify the impacts AFTER creating the template
+        a.impactTypeIds = impactTypeIds;
+        a.impactDiffs = impactDiffs;
+        return a;
+    }
+
+    /**
+     * Create a clone of this actuator with other IDs, sharing the impacts.
+     *
+     * @param id     The ID of the clone
+     * @param nodeId ID of the node to which the clone will be connected
+     * @return A clone of this actuator, turned off
+     */
+    Actuator createClone(int id, int nodeId) {
+        Actuator a = new Actuator(id, type, nodeId);
+        a.impactTypeIds = impactTypeIds;
+        a.impactDiffs = impactDiffs;
         return a;
     }
 
+    /**
+     * Get the types of sensors this actuator has an impact on.
+     *
+     * @return The IDs of the sensor types, see {@link SensorStore#typeIdOf(String)}
+     */
+    int[] getImpactTypeIds() {
+        return impactTypeIds;
+    }
+
+    /**
+     * Get the impacts of this actuator when active.
+     *
+     * @return The differences, in the same order as {@link #getImpactTypeIds()}
+     */
+    double[] getImpactDiffs() {
+        return impactDiffs;
+    }
+
     /**
      * Toggle the actuator - if it was off, not it will be ON, and vice versa.
      */
@@ -126,13 +189,12 @@ public class Actuator {
      * @param node The sensor node to be affected by this actuator.
      */
     public void applyImpact(SensorActuatorNode node) {
-        for (Map.Entry<String, Double> impactEntry : impacts.entrySet()) {
-            String sensorType = impactEntry.getKey();
-            double impact = impactEntry.getValue();
+        for (int i = 0; i < impactTypeIds.length; ++i) {
+            double impact = impactDiffs[i];
             if (!on) {
                 impact = -impact;
             }
-            node.applyActuatorImpact(sensorType, impact);
+            node.applyActuatorImpact(impactTypeIds[i], impact);
         }
     }
 
@@ -161,6 +223,20 @@ public class Actuator {
         }
     }
 
+    /**
+     * Set the state of the actuator without notifying the listener. Used by a
+     * node changing several of its actuators at once, which handles the changes
+     * itself.
+     *
+     * @param on Turn on when true, turn off when false
+     * @return True when the state changed
+     */
+    boolean setWithoutNotifying(boolean on) {
+        boolean changed = this.on != on;
+        this.on = on;
+        return changed;
+    }
+
     /**
      * Get the ID of the actuator.
      *
@@ -0,0 +1,61 @@
+package no.ntnu.greenhouse;
+
+import no.ntnu.message.EncodedMessage;
+import no.ntnu.message.Message;
+
+/**
+ * A connection to one control panel client, as seen from the greenhouse
+ * server. Implemented both by the thread-per-client {@link ClientHandler} and
+ * by the selector-based {@link NioClientConnection}, so that the simulator can
+ * broadcast to all clients without knowing which server mode is in use.
+ */
+public interface ClientConnection {
+    /**
+     * Sends response (message) to the client.
+     *
+     * @param message The message to be sent.
+     */
+    void sendResponseToClient(Message message);
+
+    /**
+     * Sends an already serialized response to the client. Used for broadcasts,
+     * where the message is serialized once and the same bytes are sent to every
+     * client.
+     *
+     * @param message The serialized message to be sent.
+     */
+    void sendEncodedResponseToClient(EncodedMessage message);
+
+    /**
+     * Sends the sensor data of a node to the client, either as a delta or in
+     * full, depending on what the client has received so far.
+     *
+     * @param nodeId    The ID of the node.
+     * @param fullFrame All the readings of the node.
+     * @param delta     The readings which changed since the previous broadcast,
+     *                  or null when every client must get the full readings.
+     */
+    void sendSensorDataToClient(int nodeId, EncodedMessage fullFrame, EncodedMessage delta);
+
+    /**
+     * Get the number of messages waiting to be written to the client.
+     *
+     * @return The depth of the outbound queue
+     */
+    int getOutboundQueueDepth();
+
+    /**
+     * Get the number of sensor data advertisements which were dropped or
+     * coalesced because the client did not keep up.
+     *
+     * @return The number of dropped messages
+     */
+    long getDroppedMessageCount();
+
+    /**
+     * Get the address of the client.
+     *
+     * @return The remote address of the client, as text
+     */
+    String getRemoteAddress();
+}
@@ -1,32 +1,54 @@
 package no.ntnu.greenhouse;
 
-import java.io.BufferedReader;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.io.OutputStream;
 import java.net.Socket;
+import java.util.concurrent.Executor;
 
 import no.ntnu.message.ActuatorStateMessage;
+import no.ntnu.message.ActuatorStatesMessage;
 import no.ntnu.message.Command;
+import no.ntnu.message.CorrelatedMessage;
+import no.ntnu.message.EncodedMessage;
 import no.ntnu.message.Message;
-import no.ntnu.message.MessageSerializer;
+import no.ntnu.message.MessageReader;
+import no.ntnu.message.MessageStream;
+import no.ntnu.message.ProtocolSwitchMessage;
+import no.ntnu.message.WireFormat;
 import no.ntnu.tools.Logger;
 
 /**
  * Represents the handler for a specific TCP client connection in a TCP-based
- * greenhouse simulator. This class extends {@link Thread} and handles
+ * greenhouse simulator. This class is a {@link Runnable} which handles
  * communication with a single client, processing incoming requests and sending
- * responses accordingly.
+ * responses accordingly. It is run either on its own platform thread or on a
+ * virtual thread, depending on the {@link ServerMode}.
+ * <p>
+ * Responses are not written by the threads producing them. Instead, they are
+ * put in a bounded {@link OutboundQueue}, drained by a separate writer task of
+ * this handler, so that a stalled client can't block broadcasts to the other
+ * clients.
+ * <p>
+ * A connection starts in the text protocol. When the client asks for another
+ * {@link WireFormat}, the reader switches at once, while the writer switches
+ * right after writing the acknowledgement, so that the client knows exactly
+ * where the new format starts.
  *
  * This class is made with a lot of inspiration from the smart TV server example
  * made by Girts Strazdins. Link to this repository is
  * <a href="https://github.com/strazdinsg/datakomm-tools.git">...</a>
  */
-public class ClientHandler extends Thread {
+public class ClientHandler implements Runnable, ClientConnection {
+    private static final int WRITE_BUFFER_SIZE = 16 * 1024;
+
     private Socket clientSocket;
     private GreenhouseSimulator greenhouseSimulator;
-    private BufferedReader socketReader;
-    private PrintWriter socketWriter;
+    private MessageReader socketReader;
+    private OutputStream socketWriter;
+    private final OutboundQueue outboundQueue;
+    private WireFormat writeFormat = WireFormat.TEXT;
 
     /**
      * Creates a new instance for the ClientHandler call.
@@ -40,8 +62,22 @@ public class ClientHandler extends Thread {
     public ClientHandler(Socket socket, GreenhouseSimulator greenhouseSimulator) throws IOException {
         this.greenhouseSimulator = greenhouseSimulator;
         this.clientSocket = socket;
-        this.socketReader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-        this.socketWriter = new PrintWriter(socket.getOutputStream(), true);
+        this.socketReader = new MessageReader(socket.getInputStream());
+        this.socketWriter = new BufferedOutputStream(socket.getOutputStream(), WRITE_BUFFER_SIZE);
+        // The writes are coalesced explicitly, Nagle's algorithm would only delay them
+        socket.setTcpNoDelay(true);
+        this.outboundQueue = greenhouseSimulator.createOutboundQueue();
+    }
+
+    /**
+     * Start handling the client: one task reading and executing the requests,
+     * and another one writing the queued responses.
+     *
+     * @param executor The executor to run the reader and the writer on
+     */
+    public void start(Executor executor) {
+        executor.execute(this);
+        executor.execute(this::writeResponses);
     }
 
     /**
@@ -50,43 +86,82 @@ public class ClientHandler extends Thread {
      */
     @Override
     public void run() {
-        Message response;
-        do {
-            String clientRequest = null;
-            try {
-                clientRequest = this.socketReader.readLine();
-            } catch (IOException e) {
-                System.err.println("Client request was not received: " + e.getMessage());
-            }
-            Command clientCommand = processRequest(clientRequest);
-            if (clientCommand != null) {
-                System.out.println(
-                        "Client request was successfully received: " + clientCommand.getClass().getSimpleName());
-                response = clientCommand.execute(this.greenhouseSimulator.getLogic());
-                if (response != null) {
-                    this.sendResponse(response);
+        try {
+            Message response;
+            do {
+                Message clientRequest = readRequest();
+                CorrelatedMessage correlatedRequest = null;
+                if (clientRequest instanceof CorrelatedMessage correlatedMessage) {
+                    correlatedRequest = correlatedMessage;
+                    clientRequest = correlatedMessage.getMessage();
                 }
-            } else {
-                response = null;
-            }
-        } while (response != null);
-        Logger.info("Client " + this.clientSocket.getRemoteSocketAddress() + " leaving");
-        this.closeConnection();
+                Command clientCommand = processRequest(clientRequest);
+                if (clientRequest instanceof ProtocolSwitchMessage switchMessage) {
+                    response = switchProtocol(switchMessage);
+                } else if (clientCommand != null) {
+                    System.out.println(
+                            "Client request was successfully received: " + clientCommand.getClass().getSimpleName());
+                    response = clientCommand.execute(this.greenhouseSimulator.getLogic());
+                    if (response != null) {
+                        this.sendResponse(response, correlatedRequest);
+                    }
+                } else {
+                    response = null;
+                }
+            } while (response != null);
+            Logger.info("Client " + this.clientSocket.getRemoteSocketAddress() + " leaving");
+        } finally {
+            // Also when handling a request failed unexpectedly
+            this.closeConnection();
+        }
+    }
+
+    /**
+     * Reads the next request from the client, in the current wire format.
+     *
+     * @return The received message, or null if the client left or sent something
+     *         which is not a valid message.
+     */
+    private Message readRequest() {
+        Message clientRequest = null;
+        try {
+            clientRequest = this.socketReader.readMessage();
+        } catch (EOFException e) {
+            // The client closed the connection
+        } catch (IOException e) {
+            System.err.println("Client request was not received: " + e.getMessage());
+        } catch (RuntimeException e) {
+            // A request which can't be decoded ends the connection, like an invalid one
+            Logger.error("Client request could not be decoded: " + e);
+        }
+        return clientRequest;
     }
 
     /**
-     * Processes a client request by deserializing the message and casting it to a
-     * command if valid.
+     * Switches the requests read from now on to the wire format asked for by the
+     * client, and queues the acknowledgement. The writer switches format once the
+     * acknowledgement has been written.
      *
-     * @param clientRequest The request received from the client before it is
-     *                      processed.
+     * @param switchMessage The request from the client.
+     * @return The acknowledgement sent to the client.
+     */
+    private Message switchProtocol(ProtocolSwitchMessage switchMessage) {
+        Logger.info("Client " + this.clientSocket.getRemoteSocketAddress() + " switches to "
+                + switchMessage.getWireFormat() + " protocol");
+        this.socketReader.setWireFormat(switchMessage.getWireFormat());
+        this.sendResponseToClient(switchMessage);
+        return switchMessage;
+    }
+
+    /**
+     * Processes a client request by casting it to a command if valid.
+     *
+     * @param clientMessage The request received from the client.
      * @return a Command object if the request is valid, null if not.
      */
-    private Command processRequest(String clientRequest) {
-        Message clientMessage;
-        clientMessage = MessageSerializer.fromString(clientRequest);
+    private Command processRequest(Message clientMessage) {
         if (!(clientMessage instanceof Command)) {
-            if (clientMessage != null) {
+            if (clientMessage != null && !(clientMessage instanceof ProtocolSwitchMessage)) {
                 System.err.println("Message from client is not valid: " + clientMessage);
             }
             clientMessage = null;
@@ -94,13 +169,96 @@ public class ClientHandler extends Thread {
         return (Command) clientMessage;
     }
 
+    @Override
+    public void sendResponseToClient(Message message) {
+        sendEncodedResponseToClient(new EncodedMessage(message));
+    }
+
     /**
-     * Sends response (message) to client.
+     * Queues an already serialized response for the client. If the queue is full
+     * and the slow consumer policy says so, the client is disconnected.
      *
-     * @param message The message to be sent.
+     * @param message The serialized message to be sent.
      */
-    public void sendResponseToClient(Message message) {
-        this.socketWriter.println(MessageSerializer.toString(message));
+    @Override
+    public void sendEncodedResponseToClient(EncodedMessage message) {
+        if (!this.outboundQueue.offer(message)) {
+            this.disconnectSlowClient();
+        }
+    }
+
+    @Override
+    public void sendSensorDataToClient(int nodeId, EncodedMessage fullFrame, EncodedMessage delta) {
+        if (!this.outboundQueue.offerSensorData(nodeId, fullFrame, delta)) {
+            this.disconnectSlowClient();
+        }
+    }
+
+    private void disconnectSlowClient() {
+        Logger.error("Client " + this.clientSocket.getRemoteSocketAddress()
+                + " is too slow, disconnecting");
+        this.closeSocket();
+    }
+
+    /**
+     * Writes the queued responses to the client until the connection is closed.
+     * The responses are buffered, and the buffer is flushed whenever the queue
+     * is empty, so that a burst of messages, such as a broadcast cycle, goes out
+     * in as few system calls and TCP segments as possible.
+     */
+    private void writeResponses() {
+        try {
+            EncodedMessage message;
+            while ((message = this.outboundQueue.take()) != null) {
+                // Everything queued by now is sent with a single flush
+                do {
+                    if (message.getMessage() instanceof MessageStream stream) {
+                        this.writeStream(stream);
+                    } else {
+                        message.writeTo(this.socketWriter, this.writeFormat);
+                    }
+                    if (message.getMessage() instanceof ProtocolSwitchMessage switchMessage) {
+                        this.writeFormat = switchMessage.getWireFormat();
+                    }
+                } while ((message = this.outboundQueue.poll()) != null);
+                this.socketWriter.flush();
+            }
+        } catch (IOException e) {
+            Logger.error("Could not send response to client: " + e.getMessage());
+            this.closeSocket();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Writes a streamed response, one part at a time. The write buffer sends the
+     * parts to the socket whenever it is full, so only the part being written is
+     * held in memory.
+     *
+     * @param stream The response
+     * @throws IOException If writing to the socket fails
+     */
+    private void writeStream(MessageStream stream) throws IOException {
+        Message part;
+        while ((part = stream.next()) != null) {
+            new EncodedMessage(part).writeTo(this.socketWriter, this.writeFormat);
+        }
+    }
+
+    @Override
+    public int getOutboundQueueDepth() {
+        return this.outboundQueue.size();
+    }
+
+    @Override
+    public long getDroppedMessageCount() {
+        return this.outboundQueue.getDroppedCount();
+    }
+
+    @Override
+    public String getRemoteAddress() {
+        return String.valueOf(this.clientSocket.getRemoteSocketAddress());
     }
 
     /**
@@ -119,7 +277,7 @@ public class ClientHandler extends Thread {
      * @return true if the message should be broadcast, false if not
      */
     private boolean isBroadcastMessage(Message message) {
-        return message instanceof ActuatorStateMessage;
+        return message instanceof ActuatorStateMessage || message instanceof ActuatorStatesMessage;
     }
 
     /**
@@ -136,10 +294,42 @@ public class ClientHandler extends Thread {
         }
     }
 
+    /**
+     * Sends the response to a request which may have a correlation ID. The client
+     * gets the response tagged with the same ID, while a response which is
+     * broadcast reaches the other clients without it.
+     *
+     * @param message The message to be sent as a response.
+     * @param request The correlated request, or null if the request had no
+     *                correlation ID.
+     */
+    private void sendResponse(Message message, CorrelatedMessage request) {
+        if (request == null) {
+            sendResponse(message);
+        } else if (isBroadcastMessage(message)) {
+            this.greenhouseSimulator.sendResponseToAllClients(message, this, request.reply(message));
+        } else {
+            sendResponseToClient(request.reply(message));
+        }
+    }
+
+    /**
+     * Closes the socket only, which makes the reader stop and close the rest of
+     * the connection. Safe to call from any thread.
+     */
+    private void closeSocket() {
+        try {
+            this.clientSocket.close();
+        } catch (IOException e) {
+            Logger.error("Could not close client socket: " + e.getMessage());
+        }
+    }
+
     /**
      * Closes the connection as well as used resources and notifies the server.
      */
     private void closeConnection() {
+        this.outboundQueue.close();
         try {
             if (this.socketReader != null) {
                 this.socketReader.close();
@@ -147,15 +337,14 @@ public class ClientHandler extends Thread {
             if (this.socketWriter != null) {
                 this.socketWriter.close();
             }
-            if (this.clientSocket != null) {
-                this.clientSocket.close();
-            }
+        } catch (IOException e) {
+            // Flushing the buffered responses fails when the client is already gone
+            Logger.error("Could not close client streams: " + e.getMessage());
+        } finally {
+            this.closeSocket();
             if (this.greenhouseSimulator != null) {
                 this.greenhouseSimulator.disconnectClient(this);
             }
-        } catch (IOException e) {
-            e.printStackTrace();
-            throw new RuntimeException(e);
         }
     }
 }
@@ -0,0 +1,65 @@
+package no.ntnu.greenhouse;
+
+/**
+ * Information about one connected control panel client, kept by the
+ * {@link ClientRegistry}.
+ */
+public class ClientInfo {
+    private final int id;
+    private final ClientConnection connection;
+    private final long connectedAt;
+
+    /**
+     * Create the information about a newly connected client.
+     *
+     * @param id         The ID of the connection, unique while the server runs
+     * @param connection The connection to the client
+     */
+    ClientInfo(int id, ClientConnection connection) {
+        this.id = id;
+        this.connection = connection;
+        this.connectedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Get the ID of the connection.
+     *
+     * @return An ID which is unique among all the connections since the server
+     *         started
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Get the connection to the client.
+     *
+     * @return The connection
+     */
+    public ClientConnection getConnection() {
+        return connection;
+    }
+
+    /**
+     * Get the address of the client.
+     *
+     * @return The remote address of the client, as text
+     */
+    public String getRemoteAddress() {
+        return connection.getRemoteAddress();
+    }
+
+    /**
+     * Get the time when the client connected.
+     *
+     * @return The time, in milliseconds since the epoch
+     */
+    public long getConnectedAt() {
+        return connectedAt;
+    }
+
+    @Override
+    public String toString() {
+        return "#" + id + " (" + getRemoteAddress() + ")";
+    }
+}
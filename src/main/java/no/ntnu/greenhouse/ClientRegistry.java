@@ -0,0 +1,125 @@
+package no.ntnu.greenhouse;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * All the control panel clients connected to the greenhouse server. Clients are
+ * added by the accepting threads, removed by their own threads when they leave,
+ * and iterated by the threads broadcasting to them, all at the same time.
+ * <p>
+ * Adding and removing a client is O(1). Broadcasts iterate over a snapshot
+ * array of the clients, which is rebuilt only when the clients changed since
+ * the previous snapshot, so a broadcast never locks and never sees a list being
+ * modified. A client which left just before a broadcast may still get that
+ * broadcast, which it ignores.
+ */
+public class ClientRegistry {
+    private static final ClientConnection[] NO_CLIENTS = new ClientConnection[0];
+
+    private final ConcurrentHashMap<ClientConnection, ClientInfo> clients = new ConcurrentHashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger(1);
+    // Incremented on every change, to know when the snapshot is out of date
+    private final AtomicLong version = new AtomicLong();
+    private volatile Snapshot snapshot = new Snapshot(0, NO_CLIENTS);
+
+    /**
+     * Add a newly connected client.
+     *
+     * @param connection The connection to the client
+     * @return The information about the client, including its connection ID
+     */
+    public ClientInfo register(ClientConnection connection) {
+        ClientInfo info = new ClientInfo(nextId.getAndIncrement(), connection);
+        if (clients.putIfAbsent(connection, info) != null) {
+            throw new IllegalArgumentException("Client " + connection.getRemoteAddress() + " already registered");
+        }
+        version.incrementAndGet();
+        return info;
+    }
+
+    /**
+     * Remove a client which has disconnected.
+     *
+     * @param connection The connection to the client
+     * @return The information about the removed client, or null if the client
+     *         was not registered
+     */
+    public ClientInfo unregister(ClientConnection connection) {
+        ClientInfo info = clients.remove(connection);
+        if (info != null) {
+            version.incrementAndGet();
+        }
+        return info;
+    }
+
+    /**
+     * Get all the connected clients, for broadcasting to them. The returned array
+     * must not be modified.
+     *
+     * @return The clients connected at the time of the call
+     */
+    public ClientConnection[] snapshot() {
+        Snapshot current = snapshot;
+        long currentVersion = version.get();
+        if (current.version != currentVersion) {
+            // Any change after reading the version makes the next call rebuild again
+            current = new Snapshot(currentVersion, clients.keySet().toArray(NO_CLIENTS));
+            snapshot = current;
+        }
+        return current.clients;
+    }
+
+    /**
+     * Check whether any client is connected.
+     *
+     * @return True when no client is connected
+     */
+    public boolean isEmpty() {
+        return clients.isEmpty();
+    }
+
+    /**
+     * Get the number of connected clients.
+     *
+     * @return The number of clients
+     */
+    public int size() {
+        return clients.size();
+    }
+
+    /**
+     * Get the information about a connected client.
+     *
+     * @param connection The connection to the client
+     * @return The information, or null if the client is not registered
+     */
+    public ClientInfo getInfo(ClientConnection connection) {
+        return clients.get(connection);
+    }
+
+    /**
+     * Get the information about all the connected clients.
+     *
+     * @return A list of the information of the clients, in no particular order
+     */
+    public List<ClientInfo> getClients() {
+        return new ArrayList<>(clients.values());
+    }
+
+    /**
+     * The clients at one version of the registry.
+     */
+    private static class Snapshot {
+        private final long version;
+        private final ClientConnection[] clients;
+
+        Snapshot(long version, ClientConnection[] clients) {
+            this.version = version;
+            this.clients = clients;
+        }
+    }
+}
@@ -167,4 +167,23 @@ public class DeviceFactory {
     private static int generateUniqueNodeId() {
         return nextNodeId++;
     }
+
+    /**
+     * Get the ID the next node created will get.
+     *
+     * @return The next node ID
+     */
+    static int getNextNodeId() {
+        return nextNodeId;
+    }
+
+    /**
+     * Set the ID the next node created will get, after restoring nodes with
+     * their own IDs.
+     *
+     * @param id The next node ID
+     */
+    static void setNextNodeId(int id) {
+        nextNodeId = id;
+    }
 }
@@ -0,0 +1,165 @@
+package no.ntnu.greenhouse;
+
+import java.util.PriorityQueue;
+
+/**
+ * A simulation clock which jumps from one scheduled event to the next, instead
+ * of waiting for the real time to pass. All the events run one after another
+ * on a single thread, in the order of their simulated time, so a simulated day
+ * of greenhouse activity takes only as long as processing its events.
+ * <p>
+ * The clock can also be paced to run a fixed number of times faster than the
+ * real time. The simulated time starts at the real time of the moment the
+ * clock is created.
+ */
+public class DiscreteEventClock implements SimulationClock {
+    private final double speedUp;
+    private final PriorityQueue<Event> events = new PriorityQueue<>();
+    private volatile long now;
+    private long sequence;
+    private boolean running;
+    // Incremented on shutdown, so that the driver thread of a previous run stops
+    private int generation;
+    // The simulated and real time matched at this moment, used for pacing
+    private long pacingSimulatedTime;
+    private long pacingRealTime;
+
+    /**
+     * Create a discrete-event clock.
+     *
+     * @param speedUp How many times faster than the real time the simulation
+     *                runs, or 0 to run it as fast as possible
+     */
+    public DiscreteEventClock(double speedUp) {
+        if (speedUp < 0) {
+            throw new IllegalArgumentException("Speed-up can't be negative: " + speedUp);
+        }
+        this.speedUp = speedUp;
+        this.now = System.currentTimeMillis();
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return now;
+    }
+
+    @Override
+    public ScheduledTask schedule(Runnable task, long delay) {
+        return addEvent(task, delay, 0);
+    }
+
+    @Override
+    public ScheduledTask scheduleAtFixedRate(Runnable task, long initialDelay, long period) {
+        if (period <= 0) {
+            throw new IllegalArgumentException("Period must be positive: " + period);
+        }
+        return addEvent(task, initialDelay, period);
+    }
+
+    @Override
+    public synchronized void shutdown() {
+        running = false;
+        generation++;
+        events.clear();
+        notifyAll();
+    }
+
+    private synchronized Event addEvent(Runnable task, long delay, long period) {
+        Event event = new Event(task, now + Math.max(0, delay), period);
+        event.sequence = sequence++;
+        events.add(event);
+        if (!running) {
+            running = true;
+            pacingSimulatedTime = now;
+            pacingRealTime = System.currentTimeMillis();
+            int driverGeneration = generation;
+            Thread driver = new Thread(() -> runEvents(driverGeneration), "simulation-clock");
+            driver.start();
+        }
+        notifyAll();
+        return event;
+    }
+
+    private void runEvents(int driverGeneration) {
+        Event event;
+        while ((event = takeNextEvent(driverGeneration)) != null) {
+            event.task.run();
+            if (event.period > 0 && !event.cancelled) {
+                synchronized (this) {
+                    if (generation == driverGeneration) {
+                        event.time += event.period;
+                        event.sequence = sequence++;
+                        events.add(event);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Wait until the next event is due, and advance the simulated time to it.
+     *
+     * @param driverGeneration The generation of the calling driver thread
+     * @return The next event to run, or null when the clock has been shut down
+     */
+    private synchronized Event takeNextEvent(int driverGeneration) {
+        try {
+            while (generation == driverGeneration) {
+                Event next = events.peek();
+                if (next == null) {
+                    wait();
+                } else if (next.cancelled) {
+                    events.poll();
+                } else {
+                    long realDelay = speedUp > 0 ? realTimeOf(next.time) - System.currentTimeMillis() : 0;
+                    if (realDelay > 0) {
+                        // An earlier event may be scheduled in the meantime
+                        wait(realDelay);
+                    } else {
+                        events.poll();
+                        now = next.time;
+                        return next;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            if (generation == driverGeneration) {
+                running = false;
+            }
+        }
+        return null;
+    }
+
+    private long realTimeOf(long simulatedTime) {
+        return pacingRealTime + (long) ((simulatedTime - pacingSimulatedTime) / speedUp);
+    }
+
+    /**
+     * A task waiting for its simulated time.
+     */
+    private static class Event implements ScheduledTask, Comparable<Event> {
+        private final Runnable task;
+        private final long period;
+        private long time;
+        private long sequence;
+        private volatile boolean cancelled;
+
+        Event(Runnable task, long time, long period) {
+            this.task = task;
+            this.time = time;
+            this.period = period;
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+        }
+
+        @Override
+        public int compareTo(Event other) {
+            int result = Long.compare(time, other.time);
+            return result != 0 ? result : Long.compare(sequence, other.sequence);
+        }
+    }
+}
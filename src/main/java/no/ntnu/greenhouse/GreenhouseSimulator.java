@@ -3,19 +3,37 @@ package no.ntnu.greenhouse;
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import no.ntnu.controlpanel.ControlPanelLogic;
+import no.ntnu.controlpanel.SensorActuatorNodeInfo;
 import no.ntnu.listeners.greenhouse.NodeStateListener;
+import no.ntnu.message.ActuatorStatesMessage;
+import no.ntnu.message.EncodedMessage;
 import no.ntnu.message.Message;
+import no.ntnu.message.NodeChangesMessage;
+import no.ntnu.message.NodeInfoMessage;
 import no.ntnu.message.NodeRemovedMessage;
 import no.ntnu.message.SensorDataAdvertisementMessage;
+import no.ntnu.message.SensorDeltaMessage;
+import no.ntnu.message.SensorHistoryMessage;
+import no.ntnu.message.SensorRollupMessage;
 import no.ntnu.tools.Logger;
 
 /**
@@ -23,13 +41,52 @@ import no.ntnu.tools.Logger;
  */
 public class GreenhouseSimulator {
     private final int PORT_NUMBER = 10025;
+    private static final int DEFAULT_OUTBOUND_QUEUE_CAPACITY = 1024;
+    private static final long SENSOR_KEYFRAME_INTERVAL_MS = 10 * 1000L;
+    private static final int NODE_CHANGE_LOG_CAPACITY = 16 * 1024;
+    private static final int NODES_PER_INFO_CHUNK = 64;
+    // Keeps a sensor history reply well below the line length limit of the clients
+    private static final int MAX_HISTORY_SAMPLES_PER_REPLY = 2048;
+    private static final int MAX_ROLLUP_POINTS_PER_REPLY = 1024;
+    private static final int SENSOR_LOG_SEGMENT_SIZE = 64 * 1024 * 1024;
+    private static final long SNAPSHOT_INTERVAL_MS = 60 * 1000L;
+    private static final long SNAPSHOT_STOP_TIMEOUT_MS = 30 * 1000L;
+    // In real time, so that a fast simulated clock doesn't flood the log
+    private static final long TICK_REPORT_INTERVAL_NS = 60 * 1000000000L;
 
-    private final Map<Integer, SensorActuatorNode> nodes = new HashMap<>();
+    // Read by the client, tick and snapshot threads while the GUI may remove nodes
+    private final Map<Integer, SensorActuatorNode> nodes = new ConcurrentHashMap<>();
 
     private final List<PeriodicSwitch> periodicSwitches = new LinkedList<>();
-    private List<ClientHandler> connectedClients = new ArrayList<>();
+    private final ClientRegistry clientRegistry = new ClientRegistry();
+    private final NodeChangeLog nodeChangeLog = new NodeChangeLog(NODE_CHANGE_LOG_CAPACITY);
     private final boolean fake;
+    private ServerMode serverMode = ServerMode.BLOCKING;
+    private SlowConsumerPolicy slowConsumerPolicy = SlowConsumerPolicy.COALESCE;
+    private int outboundQueueCapacity = DEFAULT_OUTBOUND_QUEUE_CAPACITY;
+    private SensorDeltaEncoder sensorDeltaEncoder;
+    private long sensorPublishIntervalMillis = 0;
+    private final Object sensorPublishLock = new Object();
+    private final Set<Integer> pendingSensorNodes = new LinkedHashSet<>();
+    // The publishing of the pending nodes, scheduled when the first one is added
+    private ScheduledTask sensorPublishTask;
+    private int tickParallelism = 0;
+    private int sensorHistoryCapacity = 0;
+    private boolean sensorRollupsEnabled = false;
+    private Path sensorLogDirectory;
+    private SensorLog sensorLog;
+    private Path snapshotFile;
+    private ScheduledExecutorService snapshotWriter;
+    private ForkJoinPool tickPool;
+    private ScheduledTask tickTask;
+    // Totals of the ticks since the last report, only used by the tick task
+    private long tickReportStartTime;
+    private int reportedTickCount;
+    private long reportedTickTime;
+    private long reportedSensorUpdates;
     private ServerSocket serverSocket;
+    private ExecutorService clientExecutor;
+    private NioServer nioServer;
     private ControlPanelLogic logic;
 
     /**
@@ -43,6 +100,141 @@ public class GreenhouseSimulator {
         this.logic = logic;
     }
 
+    /**
+     * Choose how client connections are handled. Must be called before
+     * {@link #start()}.
+     *
+     * @param serverMode The server mode to use, {@link ServerMode#BLOCKING} by
+     *                   default
+     */
+    public void setServerMode(ServerMode serverMode) {
+        this.serverMode = serverMode;
+    }
+
+    /**
+     * Choose what happens when a client can't keep up with the messages sent to
+     * it. Affects only the clients connecting after this call.
+     *
+     * @param slowConsumerPolicy The policy, {@link SlowConsumerPolicy#COALESCE} by
+     *                           default
+     */
+    public void setSlowConsumerPolicy(SlowConsumerPolicy slowConsumerPolicy) {
+        this.slowConsumerPolicy = slowConsumerPolicy;
+    }
+
+    /**
+     * Set how many messages can be waiting for one client before the slow
+     * consumer policy kicks in. Affects only the clients connecting after this
+     * call.
+     *
+     * @param outboundQueueCapacity The capacity of the per-client outbound queue
+     */
+    public void setOutboundQueueCapacity(int outboundQueueCapacity) {
+        this.outboundQueueCapacity = outboundQueueCapacity;
+    }
+
+    /**
+     * Choose whether sensor data is sent in full every time, or only the readings
+     * which changed since the previous broadcast. In delta mode, every client
+     * still gets the full readings of a node the first time, after it missed a
+     * message of the node, and periodically as a keyframe. Must be called before
+     * {@link #start()}.
+     *
+     * @param sensorDeltaMode True to send only the changed readings
+     */
+    public void setSensorDeltaMode(boolean sensorDeltaMode) {
+        this.sensorDeltaEncoder = sensorDeltaMode ? new SensorDeltaEncoder(SENSOR_KEYFRAME_INTERVAL_MS) : null;
+    }
+
+    /**
+     * Set the batching window for sensor data. By default the sensor data of a
+     * node is sent to the clients as soon as its values change. With a positive
+     * interval, the changes are instead collected for that long, and every node
+     * which changed in the meantime is sent once, with its latest values. Must be
+     * called before {@link #start()}.
+     *
+     * @param sensorPublishIntervalMillis The batching window in milliseconds, 0
+     *                                    to send every change immediately
+     */
+    public void setSensorPublishInterval(long sensorPublishIntervalMillis) {
+        this.sensorPublishIntervalMillis = sensorPublishIntervalMillis;
+    }
+
+    /**
+     * Choose how the sensor values are advanced. By default every node generates
+     * new values on its own schedule, and its data is sent as soon as it changes.
+     * In tick mode, the whole greenhouse is instead advanced in one step every
+     * sensing period, all the nodes in parallel, and the changes are then sent in
+     * one batch. Must be called before {@link #start()}.
+     *
+     * @param tickParallelism The number of threads advancing the nodes in tick
+     *                        mode, or 0 to let every node run on its own
+     */
+    public void setTickParallelism(int tickParallelism) {
+        this.tickParallelism = tickParallelism;
+    }
+
+    /**
+     * Keep the latest values of every sensor, so that clients can ask for the
+     * recent history of a sensor. The memory for the history is allocated when
+     * the simulation starts: 8 bytes per sample for every node, plus 8 bytes per
+     * sample for every sensor. Must be called before {@link #start()}.
+     *
+     * @param sensorHistoryCapacity The number of latest samples to keep per
+     *                              sensor, or 0 to keep no history
+     */
+    public void setSensorHistoryCapacity(int sensorHistoryCapacity) {
+        this.sensorHistoryCapacity = sensorHistoryCapacity;
+    }
+
+    /**
+     * Keep the minimum, maximum and average of every sensor over 10 seconds,
+     * 1 minute and 1 hour, so that clients can draw charts of long time ranges
+     * from a bounded number of points. The memory for the rollups is allocated
+     * when the simulation starts: about 48 kB per sensor. Must be called before
+     * {@link #start()}.
+     *
+     * @param sensorRollupsEnabled True to keep the rollups
+     */
+    public void setSensorRollupsEnabled(boolean sensorRollupsEnabled) {
+        this.sensorRollupsEnabled = sensorRollupsEnabled;
+    }
+
+    /**
+     * Write every sensor sample and every actuator transition to an append-only
+     * log on disk, which outlives the simulator and can be read with a
+     * {@link SensorLogReader}, even while it is being written. Every run appends
+     * new segments to the log. Must be called before {@link #start()}.
+     *
+     * @param sensorLogDirectory The directory of the log, or null to write no log
+     */
+    public void setSensorLogDirectory(Path sensorLogDirectory) {
+        this.sensorLogDirectory = sensorLogDirectory;
+    }
+
+    /**
+     * Keep a snapshot of all the nodes in a file: if the file exists,
+     * {@link #initialize()} restores the nodes from it instead of creating new
+     * ones, and while the simulation runs, a new snapshot is written to it in the
+     * background every minute, and once more when the simulation stops. Must be
+     * called before {@link #initialize()}.
+     *
+     * @param snapshotFile The file of the snapshot, or null to keep no snapshot
+     */
+    public void setSnapshotFile(Path snapshotFile) {
+        this.snapshotFile = snapshotFile;
+    }
+
+    /**
+     * Create the outbound queue for a newly connected client, according to the
+     * current settings.
+     *
+     * @return An empty outbound queue
+     */
+    OutboundQueue createOutboundQueue() {
+        return new OutboundQueue(outboundQueueCapacity, slowConsumerPolicy);
+    }
+
     /**
      * Get the control panel's logic.
      *
@@ -56,16 +248,63 @@ public class GreenhouseSimulator {
      * Initialize the greenhouse but don't start the simulation just yet.
      */
     public void initialize() {
+        if (this.snapshotFile != null && Files.exists(this.snapshotFile) && restoreSnapshot()) {
+            return;
+        }
         createNode(1, 2, 1, 1, 0, 0);
         createNode(1, 0, 1, 0, 2, 1);
         createNode(2, 0, 0, 0, 0, 0);
         Logger.info("Greenhouse initialized");
     }
 
+    /**
+     * Restore the nodes from the snapshot file.
+     *
+     * @return True when the nodes were restored, false if the snapshot could not
+     *         be read
+     */
+    private boolean restoreSnapshot() {
+        long startTime = System.nanoTime();
+        List<SensorActuatorNode> restoredNodes;
+        try {
+            restoredNodes = GreenhouseSnapshot.read(this.snapshotFile);
+        } catch (IOException e) {
+            Logger.error("Could not restore the snapshot " + this.snapshotFile + ": " + e.getMessage());
+            return false;
+        }
+        for (SensorActuatorNode node : restoredNodes) {
+            addNode(node);
+        }
+        Logger.info("Greenhouse restored from " + this.snapshotFile + ": " + restoredNodes.size() + " nodes in "
+                + (System.nanoTime() - startTime) / 1000000 + " ms");
+        return true;
+    }
+
+    /**
+     * Write a snapshot of all the nodes to the snapshot file.
+     */
+    private void writeSnapshot() {
+        long startTime = System.nanoTime();
+        List<SensorActuatorNode> snapshotNodes = new ArrayList<>(this.nodes.values());
+        try {
+            GreenhouseSnapshot.write(this.snapshotFile, snapshotNodes);
+            Logger.info("Snapshot of " + snapshotNodes.size() + " nodes written in "
+                    + (System.nanoTime() - startTime) / 1000000 + " ms");
+        } catch (IOException | RuntimeException e) {
+            // An exception would otherwise silently cancel all the next snapshots
+            Logger.error("Could not write the snapshot " + this.snapshotFile + ": " + e.getMessage());
+        }
+    }
+
     private void createNode(int temperature, int humidity, int lightLevel, int windows, int fans, int heaters) {
-        SensorActuatorNode node = DeviceFactory.createNode(
-                temperature, humidity, lightLevel, windows, fans, heaters);
+        addNode(DeviceFactory.createNode(temperature, humidity, lightLevel, windows, fans, heaters));
+    }
+
+    private void addNode(SensorActuatorNode node) {
         nodes.put(node.getId(), node);
+        node.addActuatorListener((nodeId, actuator) ->
+                this.nodeChangeLog.actuatorChanged(nodeId, actuator.getId(), actuator.isOn()));
+        this.nodeChangeLog.nodeAdded(node.getId());
     }
 
     /**
@@ -74,12 +313,39 @@ public class GreenhouseSimulator {
      */
     public void start() {
         initiateCommunication();
+        if (this.sensorLogDirectory != null) {
+            try {
+                this.sensorLog = new SensorLog(this.sensorLogDirectory, SENSOR_LOG_SEGMENT_SIZE);
+            } catch (IOException e) {
+                Logger.error("Could not open the sensor log: " + e.getMessage());
+            }
+        }
+        boolean tickMode = this.tickParallelism > 0;
         for (SensorActuatorNode node : nodes.values()) {
-            node.start();
+            if (this.sensorHistoryCapacity > 0) {
+                node.enableHistory(this.sensorHistoryCapacity);
+            }
+            if (this.sensorRollupsEnabled) {
+                node.enableRollups();
+            }
+            node.setSensorLog(this.sensorLog);
+            node.start(!tickMode);
+        }
+        if (tickMode) {
+            this.tickPool = new ForkJoinPool(this.tickParallelism);
+            this.tickReportStartTime = System.nanoTime();
+            this.tickTask = SimulationScheduler.scheduleAtFixedRate(this::tick,
+                    SensorActuatorNode.SENSING_DELAY, SensorActuatorNode.SENSING_DELAY);
         }
         for (PeriodicSwitch periodicSwitch : periodicSwitches) {
             periodicSwitch.start();
         }
+        if (this.snapshotFile != null) {
+            this.snapshotWriter = Executors.newSingleThreadScheduledExecutor(
+                    task -> new Thread(task, "snapshot-writer"));
+            this.snapshotWriter.scheduleWithFixedDelay(this::writeSnapshot, SNAPSHOT_INTERVAL_MS,
+                    SNAPSHOT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
 
         Logger.info("Simulator started");
     }
@@ -96,8 +362,8 @@ public class GreenhouseSimulator {
         while (this.serverSocket != null && !this.serverSocket.isClosed()) {
             ClientHandler clientHandler = this.acceptNextClientConnection(serverSocket);
             if (clientHandler != null) {
-                this.connectedClients.add(clientHandler);
-                clientHandler.start();
+                this.connectClient(clientHandler);
+                clientHandler.start(this.clientExecutor);
             }
         }
     }
@@ -123,44 +389,172 @@ public class GreenhouseSimulator {
         return clientHandler;
     }
 
-    private void sendSensorDataPeriodically() {
-        if (this.serverSocket == null || this.serverSocket.isClosed()) {
+    /**
+     * Make every node send its sensor data to the clients whenever its values
+     * change, instead of polling the nodes.
+     */
+    private void subscribeToSensorChanges() {
+        for (SensorActuatorNode node : this.nodes.values()) {
+            node.addSensorListener(sensors -> this.onSensorsUpdated(node));
+        }
+    }
+
+    private void onSensorsUpdated(SensorActuatorNode node) {
+        boolean tickMode = this.tickPool != null;
+        if (!tickMode && this.sensorPublishIntervalMillis <= 0) {
+            this.publishSensorData(node);
             return;
         }
-        this.sendSensorDataAdvertisementMessages();
-        Timer timer = new Timer();
-        timer.schedule(new TimerTask() {
-            @Override
-            public void run() {
-                sendSensorDataPeriodically();
+        synchronized (this.sensorPublishLock) {
+            boolean firstPending = this.pendingSensorNodes.isEmpty();
+            this.pendingSensorNodes.add(node.getId());
+            // In tick mode, the pending changes are sent at the end of the next tick
+            if (firstPending && !tickMode) {
+                this.sensorPublishTask = SimulationScheduler.schedule(this::publishPendingSensorData,
+                        this.sensorPublishIntervalMillis);
             }
-        }, 1 * 1000L);
+        }
     }
 
-    private void sendSensorDataAdvertisementMessages() {
-        List<SensorDataAdvertisementMessage> messages = new ArrayList<>();
-        for (Map.Entry<Integer, SensorActuatorNode> node : this.getNodesInfo().entrySet()) {
-            int nodeId = node.getKey();
-            SensorActuatorNode sensors = node.getValue();
-            SensorDataAdvertisementMessage message = new SensorDataAdvertisementMessage(nodeId, sensors.getReadings());
-            messages.add(message);
+    private void publishPendingSensorData() {
+        synchronized (this.sensorPublishLock) {
+            for (int nodeId : this.pendingSensorNodes) {
+                SensorActuatorNode node = this.nodes.get(nodeId);
+                if (node != null) {
+                    this.publishSensorData(node);
+                }
+            }
+            this.pendingSensorNodes.clear();
+            this.sensorPublishTask = null;
         }
-        for (SensorDataAdvertisementMessage message : messages) {
-            this.sendResponseToAllClients(message);
+    }
+
+    /**
+     * Advance and record the sensors of all the running nodes in one step, in
+     * parallel, and then send all the changes to the clients in one batch. Only
+     * used in tick mode, see {@link #setTickParallelism(int)}.
+     */
+    public void tick() {
+        SensorActuatorNode[] tickNodes = this.nodes.values().toArray(new SensorActuatorNode[0]);
+        long startTime = System.nanoTime();
+        this.tickPool.invoke(new SensorTickTask(tickNodes, 0, tickNodes.length,
+                SimulationScheduler.currentTimeMillis()));
+
+        int sensorCount = 0;
+        for (SensorActuatorNode node : tickNodes) {
+            if (node.isRunning()) {
+                node.notifySensorListeners();
+                sensorCount += node.getSensors().size();
+            }
+        }
+        this.publishPendingSensorData();
+        this.reportTick(sensorCount, System.nanoTime() - startTime);
+    }
+
+    /**
+     * Add a tick to the totals, and log the totals about once a minute.
+     *
+     * @param sensorCount The number of sensors advanced by the tick
+     * @param tickTime    The duration of the whole tick, in nanoseconds
+     */
+    private void reportTick(int sensorCount, long tickTime) {
+        this.reportedTickCount++;
+        this.reportedTickTime += tickTime;
+        this.reportedSensorUpdates += sensorCount;
+        long now = System.nanoTime();
+        if (now - this.tickReportStartTime >= TICK_REPORT_INTERVAL_NS) {
+            Logger.info(String.format("Ticks: %d in the last %d s, %d us each on average,"
+                    + " %.1f M sensor updates/s while ticking, by %d thread%s", this.reportedTickCount,
+                    (now - this.tickReportStartTime) / 1000000000L,
+                    this.reportedTickTime / 1000 / this.reportedTickCount,
+                    this.reportedSensorUpdates * 1000.0 / Math.max(1, this.reportedTickTime),
+                    this.tickParallelism, this.tickParallelism == 1 ? "" : "s"));
+            this.tickReportStartTime = now;
+            this.reportedTickCount = 0;
+            this.reportedTickTime = 0;
+            this.reportedSensorUpdates = 0;
+        }
+    }
+
+    /**
+     * Send the current sensor data of a node to all connected clients. The nodes
+     * change on their own threads, therefore the publishing is serialized, which
+     * also keeps the deltas of a node in order.
+     *
+     * @param node The node whose sensor values changed
+     */
+    private void publishSensorData(SensorActuatorNode node) {
+        synchronized (this.sensorPublishLock) {
+            if (this.clientRegistry.isEmpty()) {
+                return;
+            }
+            int nodeId = node.getId();
+            // Snapshots, as the message may be serialized after the sensors have changed
+            List<SensorReading> readings = node.getReadings();
+            SensorDataAdvertisementMessage message = new SensorDataAdvertisementMessage(nodeId, readings);
+            if (this.sensorDeltaEncoder == null) {
+                this.sendResponseToAllClients(message);
+            } else {
+                SensorDeltaMessage delta = this.sensorDeltaEncoder.update(nodeId, readings);
+                this.sendSensorDataToAllClients(nodeId, message, delta);
+            }
+        }
+    }
+
+    /**
+     * Sends the sensor data of a node to all connected clients, as a delta to the
+     * clients which can apply it and in full to the others. Both forms are
+     * serialized at most once.
+     *
+     * @param nodeId    The ID of the node.
+     * @param fullFrame All the readings of the node.
+     * @param delta     The readings which changed since the previous broadcast,
+     *                  or null when every client must get the full readings.
+     */
+    private void sendSensorDataToAllClients(int nodeId, SensorDataAdvertisementMessage fullFrame,
+            SensorDeltaMessage delta) {
+        ClientConnection[] clients = this.clientRegistry.snapshot();
+        if (clients.length == 0) {
+            return;
+        }
+        EncodedMessage encodedFullFrame = new EncodedMessage(fullFrame);
+        EncodedMessage encodedDelta = delta != null ? new EncodedMessage(delta) : null;
+        for (ClientConnection client : clients) {
+            client.sendSensorDataToClient(nodeId, encodedFullFrame, encodedDelta);
         }
     }
 
     private void initiateRealCommunication() {
         try {
-            serverSocket = new ServerSocket(PORT_NUMBER);
-            new Thread(() -> handleNewClients()).start();
-            new Thread(() -> sendSensorDataPeriodically()).start();
+            if (serverMode == ServerMode.NIO) {
+                nioServer = new NioServer(PORT_NUMBER, this, Runtime.getRuntime().availableProcessors());
+                nioServer.start();
+            } else {
+                serverSocket = new ServerSocket(PORT_NUMBER);
+                clientExecutor = createClientExecutor();
+                clientExecutor.execute(() -> handleNewClients());
+            }
+            subscribeToSensorChanges();
         } catch (IOException e) {
             e.printStackTrace();
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Create the executor running the accept loop and the client handlers. In the
+     * blocking mode every task gets its own platform thread, in the virtual thread
+     * mode every task gets its own virtual thread.
+     *
+     * @return The executor for client handling tasks
+     */
+    private ExecutorService createClientExecutor() {
+        if (serverMode == ServerMode.VIRTUAL_THREADS) {
+            return Executors.newVirtualThreadPerTaskExecutor();
+        }
+        return Executors.newCachedThreadPool();
+    }
+
     private void initiateFakePeriodicSwitches() {
         periodicSwitches.add(new PeriodicSwitch("Window DJ", nodes.get(1), 2, 20000));
         periodicSwitches.add(new PeriodicSwitch("Heater DJ", nodes.get(2), 7, 8000));
@@ -177,7 +571,88 @@ public class GreenhouseSimulator {
     }
 
     /**
-     * Stop the simulation of the greenhouse - all the nodes in it.
+     * Describes the nodes of the greenhouse for a control panel. A control panel
+     * which knows the state at some version gets only the nodes added and
+     * removed, and the actuators switched since then. When the changes since that
+     * version are no longer known, it gets all the nodes instead, as a stream of
+     * chunks described while they are sent.
+     *
+     * @param sinceVersion the version known by the control panel, or -1 for all
+     *                     the nodes.
+     * @return a {@link NodeChangesMessage}, or a stream of {@link NodeInfoMessage}
+     *         chunks with all the nodes.
+     */
+    public Message getNodeInfoSince(long sinceVersion) {
+        NodeChangeLog.Changes changes = sinceVersion >= 0 ? this.nodeChangeLog.getChangesSince(sinceVersion) : null;
+        if (changes == null) {
+            // The version is taken first, any change during the snapshot is sent again later
+            long version = this.nodeChangeLog.getVersion();
+            return new NodeInfoStream(version, this.getNodesInfo().values(), this.nodes::containsKey,
+                    NODES_PER_INFO_CHUNK);
+        }
+        List<SensorActuatorNodeInfo> addedNodes = new ArrayList<>(changes.getAddedNodeIds().length);
+        for (int nodeId : changes.getAddedNodeIds()) {
+            SensorActuatorNode node = this.nodes.get(nodeId);
+            if (node != null) {
+                addedNodes.add(NodeInfoMessage.createNodeInfo(node));
+            }
+        }
+        return new NodeChangesMessage(changes.getVersion(), addedNodes, changes.getRemovedNodeIds(),
+                new ActuatorStatesMessage(changes.getNodeIds(), changes.getActuatorIds(), changes.getStates()));
+    }
+
+    /**
+     * Gets the recent values of one sensor of a node. When the time range holds
+     * more samples than fit in one reply, only the latest ones are returned, and
+     * the client can ask again for the time before the oldest one.
+     *
+     * @param nodeId      the id of the node.
+     * @param sensorIndex the index of the sensor in the readings of the node.
+     * @param from        the start of the time range, inclusive, in milliseconds.
+     * @param to          the end of the time range, inclusive, in milliseconds.
+     * @return the values of the sensor in the time range, oldest first.
+     * @throws IllegalArgumentException if the node or the sensor does not exist.
+     * @throws IllegalStateException    if no sensor history is kept.
+     */
+    public SensorHistoryMessage getSensorHistory(int nodeId, int sensorIndex, long from, long to) {
+        SensorHistory history = this.getNode(nodeId).getHistory();
+        if (history == null) {
+            throw new IllegalStateException("no sensor history is kept");
+        }
+        SensorHistory.Samples samples = history.getSamples(sensorIndex, from, to, MAX_HISTORY_SAMPLES_PER_REPLY);
+        return new SensorHistoryMessage(nodeId, sensorIndex, samples.getTimestamps(), samples.getValues());
+    }
+
+    /**
+     * Gets the minimum, average and maximum of one sensor of a node over a time
+     * range, in at most the given number of points, however long the range is.
+     * The coarsest kept resolution which still gives that many points is used.
+     *
+     * @param nodeId      the id of the node.
+     * @param sensorIndex the index of the sensor in the readings of the node.
+     * @param from        the start of the time range, inclusive, in milliseconds.
+     * @param to          the end of the time range, inclusive, in milliseconds.
+     * @param points      the largest number of points to return.
+     * @return the aggregates of the sensor in the time range, oldest first.
+     * @throws IllegalArgumentException if the node or the sensor does not exist.
+     * @throws IllegalStateException    if no sensor rollups are kept.
+     */
+    public SensorRollupMessage getSensorRollup(int nodeId, int sensorIndex, long from, long to, int points) {
+        SensorRollups rollups = this.getNode(nodeId).getRollups();
+        if (rollups == null) {
+            throw new IllegalStateException("no sensor rollups are kept");
+        }
+        SensorRollups.Rollup rollup = rollups.query(sensorIndex, from, to,
+                Math.min(points, MAX_ROLLUP_POINTS_PER_REPLY));
+        return new SensorRollupMessage(nodeId, sensorIndex, rollup.getResolution(), rollup.getStarts(),
+                rollup.getMins(), rollup.getAverages(), rollup.getMaxs());
+    }
+
+    /**
+     * Stop the simulation of the greenhouse - all the nodes in it. Only the tasks
+     * of this simulator are cancelled: the clock of the {@link SimulationScheduler}
+     * is shared by the whole process, so shutting it down is left to the
+     * application.
      */
     public void stop() {
         stopCommunication();
@@ -185,6 +660,39 @@ public class GreenhouseSimulator {
         for (SensorActuatorNode node : tempNodeList) {
             node.stop();
         }
+        if (this.tickTask != null) {
+            this.tickTask.cancel();
+            this.tickPool.shutdown();
+            this.tickTask = null;
+            this.tickPool = null;
+        }
+        synchronized (this.sensorPublishLock) {
+            if (this.sensorPublishTask != null) {
+                this.sensorPublishTask.cancel();
+                this.sensorPublishTask = null;
+            }
+            this.pendingSensorNodes.clear();
+        }
+        if (this.sensorLog != null) {
+            for (SensorActuatorNode node : tempNodeList) {
+                node.setSensorLog(null);
+            }
+            this.sensorLog.close();
+            this.sensorLog = null;
+        }
+        if (this.snapshotWriter != null) {
+            // The last snapshot, after any periodic one still being written
+            this.snapshotWriter.execute(this::writeSnapshot);
+            this.snapshotWriter.shutdown();
+            try {
+                if (!this.snapshotWriter.awaitTermination(SNAPSHOT_STOP_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                    Logger.error("The last snapshot is taking too long to write");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            this.snapshotWriter = null;
+        }
     }
 
 
@@ -193,12 +701,15 @@ public class GreenhouseSimulator {
             for (PeriodicSwitch periodicSwitch : periodicSwitches) {
                 periodicSwitch.stop();
             }
+        } else if (this.nioServer != null) {
+            this.nioServer.stop();
         } else {
             try {
                 this.serverSocket.close();
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
+            this.clientExecutor.shutdown();
         }
     }
 
@@ -217,25 +728,79 @@ public class GreenhouseSimulator {
      * Sends response to all connected clients. This method was implemented from
      * Girts Strazdins smart-tv example from:
      * <a href="https://github.com/strazdinsg/datakomm-tools.git">...</a>
+     * The message is serialized only once, no matter how many clients are
+     * connected.
      *
      * @param message The message to be sent to all clients.
      */
     public void sendResponseToAllClients(Message message) {
-        for (ClientHandler clientHandler : this.connectedClients) {
-            clientHandler.sendResponseToClient(message);
+        ClientConnection[] clients = this.clientRegistry.snapshot();
+        if (clients.length == 0) {
+            return;
+        }
+        EncodedMessage encodedMessage = new EncodedMessage(message);
+        for (ClientConnection client : clients) {
+            client.sendEncodedResponseToClient(encodedMessage);
         }
     }
 
+    /**
+     * Sends a response to all connected clients, except for the client which
+     * caused it, which gets a reply of its own instead - typically the same
+     * response tagged with the correlation ID of its request.
+     *
+     * @param message   The message to be sent to the other clients.
+     * @param requester The client which caused the response.
+     * @param reply     The message to be sent to the requester.
+     */
+    public void sendResponseToAllClients(Message message, ClientConnection requester, Message reply) {
+        requester.sendResponseToClient(reply);
+        ClientConnection[] clients = this.clientRegistry.snapshot();
+        if (clients.length <= 1) {
+            return;
+        }
+        EncodedMessage encodedMessage = new EncodedMessage(message);
+        for (ClientConnection client : clients) {
+            if (client != requester) {
+                client.sendEncodedResponseToClient(encodedMessage);
+            }
+        }
+    }
+
+    /**
+     * Register a newly connected client, so that it receives broadcasts.
+     *
+     * @param client The connection to the client.
+     */
+    public void connectClient(ClientConnection client) {
+        ClientInfo info = this.clientRegistry.register(client);
+        Logger.info("Client " + info + " registered, " + this.clientRegistry.size() + " connected");
+    }
+
     /**
      * Disconnect a client from the server. This method was implemented from Girts
      * Strazdins smart-tv example from:
      * <a href="https://github.com/strazdinsg/datakomm-tools.git">...</a>
      *
-     * @param clientHandler the handler for the client to be removed.
+     * @param client the connection to the client to be removed.
      * @return {@code true} if the client was removed.
      */
-    public boolean disconnectClient(ClientHandler clientHandler) {
-        return this.connectedClients.remove(clientHandler);
+    public boolean disconnectClient(ClientConnection client) {
+        ClientInfo info = this.clientRegistry.unregister(client);
+        if (info != null) {
+            Logger.info("Client " + info + " unregistered, " + this.clientRegistry.size() + " connected");
+        }
+        return info != null;
+    }
+
+    /**
+     * Get the registry of the connected clients, with information about every
+     * connection.
+     *
+     * @return The client registry
+     */
+    public ClientRegistry getClientRegistry() {
+        return this.clientRegistry;
     }
 
     /**
@@ -246,7 +811,111 @@ public class GreenhouseSimulator {
      * @param state      the state to change the actuator to.
      */
     public void changeActuatorState(int nodeId, int actuatorId, boolean state) {
-        this.getNodesInfo().get(nodeId).getActuators().get(actuatorId).set(state);
+        this.getNode(nodeId).setActuators(new int[] {actuatorId}, new boolean[] {state});
+    }
+
+    /**
+     * Changes the state of many actuators, possibly on many nodes, in one pass.
+     * The actuators of each node are changed together, so that every node
+     * notifies its sensor changes once. If one of the actuators does not exist,
+     * nothing is changed.
+     *
+     * @param nodeIds     the ids of the nodes that contain the actuators.
+     * @param actuatorIds the ids of the actuators, in the same order as the nodes.
+     * @param states      the states to change the actuators to, in the same order.
+     * @return the new states of all the actuators, to be broadcast to the clients.
+     * @throws IllegalArgumentException if a node or an actuator does not exist.
+     */
+    public ActuatorStatesMessage setActuatorStates(int[] nodeIds, int[] actuatorIds, boolean[] states) {
+        // The positions of the actuators of each node in the arrays, in order
+        Map<SensorActuatorNode, List<Integer>> actuatorsByNode = new LinkedHashMap<>();
+        for (int i = 0; i < nodeIds.length; ++i) {
+            SensorActuatorNode node = this.getNode(nodeIds[i]);
+            if (node.getActuators().get(actuatorIds[i]) == null) {
+                throw new IllegalArgumentException("actuator[" + actuatorIds[i] + "] not found on node "
+                        + nodeIds[i]);
+            }
+            actuatorsByNode.computeIfAbsent(node, n -> new ArrayList<>()).add(i);
+        }
+        for (Map.Entry<SensorActuatorNode, List<Integer>> entry : actuatorsByNode.entrySet()) {
+            List<Integer> positions = entry.getValue();
+            int[] nodeActuatorIds = new int[positions.size()];
+            boolean[] nodeStates = new boolean[positions.size()];
+            for (int i = 0; i < positions.size(); ++i) {
+                nodeActuatorIds[i] = actuatorIds[positions.get(i)];
+                nodeStates[i] = states[positions.get(i)];
+            }
+            entry.getKey().setActuators(nodeActuatorIds, nodeStates);
+        }
+        return new ActuatorStatesMessage(nodeIds.clone(), actuatorIds.clone(), states.clone());
+    }
+
+    /**
+     * Turns on or off all the actuators of one type, in one pass.
+     *
+     * @param actuatorType the type of the actuators. Example: "heater".
+     * @param nodeIds      the ids of the nodes, or an empty array for all the
+     *                     nodes.
+     * @param state        the state to change the actuators to.
+     * @return the new states of all the matching actuators, to be broadcast to the
+     *         clients.
+     * @throws IllegalArgumentException if one of the nodes does not exist.
+     */
+    public ActuatorStatesMessage setActuatorsOfType(String actuatorType, int[] nodeIds, boolean state) {
+        List<SensorActuatorNode> selectedNodes = new ArrayList<>();
+        if (nodeIds.length == 0) {
+            selectedNodes.addAll(this.getNodesInfo().values());
+        } else {
+            for (int nodeId : nodeIds) {
+                selectedNodes.add(this.getNode(nodeId));
+            }
+        }
+        int[] matchingNodeIds = new int[0];
+        int[] matchingActuatorIds = new int[0];
+        int count = 0;
+        for (SensorActuatorNode node : selectedNodes) {
+            int[] nodeActuatorIds = new int[node.getActuators().size()];
+            int nodeCount = 0;
+            for (Actuator actuator : node.getActuators()) {
+                if (actuator.getType().equals(actuatorType)) {
+                    nodeActuatorIds[nodeCount++] = actuator.getId();
+                }
+            }
+            if (nodeCount == 0) {
+                continue;
+            }
+            nodeActuatorIds = Arrays.copyOf(nodeActuatorIds, nodeCount);
+            boolean[] nodeStates = new boolean[nodeCount];
+            Arrays.fill(nodeStates, state);
+            node.setActuators(nodeActuatorIds, nodeStates);
+            if (count + nodeCount > matchingNodeIds.length) {
+                int capacity = Math.max(count + nodeCount, matchingNodeIds.length * 2);
+                matchingNodeIds = Arrays.copyOf(matchingNodeIds, capacity);
+                matchingActuatorIds = Arrays.copyOf(matchingActuatorIds, capacity);
+            }
+            Arrays.fill(matchingNodeIds, count, count + nodeCount, node.getId());
+            System.arraycopy(nodeActuatorIds, 0, matchingActuatorIds, count, nodeCount);
+            count += nodeCount;
+        }
+        boolean[] matchingStates = new boolean[count];
+        Arrays.fill(matchingStates, state);
+        return new ActuatorStatesMessage(Arrays.copyOf(matchingNodeIds, count),
+                Arrays.copyOf(matchingActuatorIds, count), matchingStates);
+    }
+
+    /**
+     * Finds a node of the simulator.
+     *
+     * @param nodeId the id of the node.
+     * @return the node.
+     * @throws IllegalArgumentException if there is no node with the id.
+     */
+    private SensorActuatorNode getNode(int nodeId) {
+        SensorActuatorNode node = this.nodes.get(nodeId);
+        if (node == null) {
+            throw new IllegalArgumentException("node " + nodeId + " not found");
+        }
+        return node;
     }
 
     /**
@@ -257,6 +926,7 @@ public class GreenhouseSimulator {
     public void removeNode(SensorActuatorNode node) {
         int nodeId = node.getId();
         this.nodes.remove(nodeId);
+        this.nodeChangeLog.nodeRemoved(nodeId);
         NodeRemovedMessage message = new NodeRemovedMessage(nodeId);
         this.sendResponseToAllClients(message);
     }
@@ -0,0 +1,356 @@
+package no.ntnu.greenhouse;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact binary copy of all the nodes of the greenhouse: their sensors with
+ * the bounds and the current values, their actuators with the state and the
+ * impacts, and the counters for the IDs of new nodes and actuators. Restoring a
+ * snapshot gives back the greenhouse as it was, without the random values and
+ * the logging of creating the nodes through {@link DeviceFactory}.
+ * <p>
+ * The file starts with a header of {@link #HEADER_SIZE} bytes, followed by the
+ * nodes, one after the other:
+ * <ul>
+ * <li>the node ID, the number of sensors and the number of actuators (4 bytes
+ * each),</li>
+ * <li>for every sensor, its profile (2 bytes) and its value (8 bytes),</li>
+ * <li>for every actuator, its ID (4 bytes) and its profile shifted one bit to
+ * the left, with the state in the lowest bit (2 bytes).</li>
+ * </ul>
+ * What the sensors and actuators of many nodes have in common - the type, the
+ * unit and the bounds of a sensor, the type and the impacts of an actuator -
+ * is written once, in tables of profiles after the nodes, along with a table of
+ * all the strings. The header tells where the tables start, so the nodes are
+ * written while the nodes are looked at, and the whole file is read at once
+ * when it is restored. A snapshot is written to a temporary file first, then
+ * moved over the previous one, so there is always a complete snapshot.
+ * <p>
+ * The nodes are not stopped while they are written: a node which changes at
+ * the same time may be written with some values from before the change and
+ * some from after.
+ */
+class GreenhouseSnapshot {
+    static final int MAGIC = 0x47485353;
+    static final int FORMAT_VERSION = 1;
+    static final int HEADER_SIZE = 32;
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_SENSOR_PROFILES = 0xFFFF;
+    private static final int MAX_ACTUATOR_PROFILES = 0x7FFF;
+    private static final int MAX_STRINGS = 0xFFFF;
+    private static final String PARTIAL_SUFFIX = ".tmp";
+
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+    private final Map<String, Integer> stringIds = new HashMap<>();
+    private final List<String> strings = new ArrayList<>();
+    private final Map<SensorProfile, Integer> sensorProfileIds = new HashMap<>();
+    private final List<SensorProfile> sensorProfiles = new ArrayList<>();
+    private final Map<ActuatorProfile, Integer> actuatorProfileIds = new HashMap<>();
+    private final List<ActuatorProfile> actuatorProfiles = new ArrayList<>();
+    private FileChannel channel;
+
+    /**
+     * Not allowed to create instances from outside, see
+     * {@link #write(Path, Collection)}.
+     */
+    private GreenhouseSnapshot() {
+    }
+
+    /**
+     * Write a snapshot of nodes, replacing the previous snapshot in the file.
+     *
+     * @param file  The file of the snapshot
+     * @param nodes The nodes to write
+     * @throws IOException If the snapshot can't be written. The previous snapshot
+     *                     is left as it was
+     */
+    static void write(Path file, Collection<SensorActuatorNode> nodes) throws IOException {
+        Path partialFile = file.resolveSibling(file.getFileName() + PARTIAL_SUFFIX);
+        try (FileChannel channel = FileChannel.open(partialFile, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            new GreenhouseSnapshot().writeTo(channel, nodes);
+            channel.force(true);
+        }
+        Files.move(partialFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void writeTo(FileChannel channel, Collection<SensorActuatorNode> nodes) throws IOException {
+        this.channel = channel;
+        int nextNodeId = DeviceFactory.getNextNodeId();
+        int nextActuatorId = Actuator.getNextId();
+        channel.position(HEADER_SIZE);
+        int nodeCount = 0;
+        for (SensorActuatorNode node : nodes) {
+            writeNode(node);
+            nodeCount++;
+        }
+        flush();
+        long tablesOffset = channel.position();
+        writeTables();
+        flush();
+
+        buffer.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(nextNodeId).putInt(nextActuatorId)
+                .putInt(nodeCount).putInt(0).putLong(tablesOffset);
+        buffer.flip();
+        channel.write(buffer, 0);
+    }
+
+    private void writeNode(SensorActuatorNode node) throws IOException {
+        SensorStore sensors = node.getSensorStore();
+        int sensorCount = sensors.size();
+        List<Actuator> actuators = new ArrayList<>(node.getActuators().size());
+        node.getActuators().forEach(actuators::add);
+        ensureRoom(12);
+        buffer.putInt(node.getId()).putInt(sensorCount).putInt(actuators.size());
+        for (int i = 0; i < sensorCount; ++i) {
+            int profileId = sensorProfileIdOf(sensors, i);
+            ensureRoom(10);
+            buffer.putShort((short) profileId).putDouble(sensors.getValue(i));
+        }
+        for (Actuator actuator : actuators) {
+            int profileId = actuatorProfileIdOf(actuator);
+            ensureRoom(6);
+            buffer.putInt(actuator.getId()).putShort((short) (profileId << 1 | (actuator.isOn() ? 1 : 0)));
+        }
+    }
+
+    private int sensorProfileIdOf(SensorStore sensors, int index) throws IOException {
+        SensorProfile profile = new SensorProfile(sensors.getKind(index), sensors.getMin(index),
+                sensors.getMax(index));
+        Integer profileId = sensorProfileIds.get(profile);
+        if (profileId == null) {
+            if (sensorProfiles.size() == MAX_SENSOR_PROFILES) {
+                throw new IOException("Too many different sensors for a snapshot");
+            }
+            profileId = sensorProfiles.size();
+            sensorProfileIds.put(profile, profileId);
+            sensorProfiles.add(profile);
+            stringIdOf(sensors.getType(index));
+            stringIdOf(sensors.getUnit(index));
+        }
+        return profileId;
+    }
+
+    private int actuatorProfileIdOf(Actuator actuator) throws IOException {
+        ActuatorProfile profile = new ActuatorProfile(actuator.getType(), actuator.getImpactTypeIds(),
+                actuator.getImpactDiffs());
+        Integer profileId = actuatorProfileIds.get(profile);
+        if (profileId == null) {
+            if (actuatorProfiles.size() == MAX_ACTUATOR_PROFILES) {
+                throw new IOException("Too many different actuators for a snapshot");
+            }
+            profileId = actuatorProfiles.size();
+            actuatorProfileIds.put(profile, profileId);
+            actuatorProfiles.add(profile);
+            stringIdOf(profile.type);
+            for (int typeId : profile.impactTypeIds) {
+                stringIdOf(SensorStore.typeNameOf(typeId));
+            }
+        }
+        return profileId;
+    }
+
+    private int stringIdOf(String string) throws IOException {
+        Integer stringId = stringIds.get(string);
+        if (stringId == null) {
+            if (strings.size() == MAX_STRINGS) {
+                throw new IOException("Too many different names for a snapshot");
+            }
+            stringId = strings.size();
+            stringIds.put(string, stringId);
+            strings.add(string);
+        }
+        return stringId;
+    }
+
+    /**
+     * Write the tables of strings, sensor profiles and actuator profiles.
+     */
+    private void writeTables() throws IOException {
+        ensureRoom(4);
+        buffer.putInt(strings.size());
+        for (String string : strings) {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > 0xFFFF) {
+                throw new IOException("Too long name for a snapshot");
+            }
+            ensureRoom(2 + bytes.length);
+            buffer.putShort((short) bytes.length).put(bytes);
+        }
+        ensureRoom(4);
+        buffer.putInt(sensorProfiles.size());
+        for (SensorProfile profile : sensorProfiles) {
+            ensureRoom(20);
+            buffer.putShort(stringIds.get(SensorStore.typeOfKind(profile.kind)).shortValue())
+                    .putShort(stringIds.get(SensorStore.unitOfKind(profile.kind)).shortValue())
+                    .putDouble(profile.min).putDouble(profile.max);
+        }
+        ensureRoom(4);
+        buffer.putInt(actuatorProfiles.size());
+        for (ActuatorProfile profile : actuatorProfiles) {
+            ensureRoom(4);
+            buffer.putShort(stringIds.get(profile.type).shortValue())
+                    .putShort((short) profile.impactTypeIds.length);
+            for (int i = 0; i < profile.impactTypeIds.length; ++i) {
+                ensureRoom(10);
+                buffer.putShort(stringIds.get(SensorStore.typeNameOf(profile.impactTypeIds[i])).shortValue())
+                        .putDouble(profile.impactDiffs[i]);
+            }
+        }
+    }
+
+    private void ensureRoom(int size) throws IOException {
+        if (buffer.remaining() < size) {
+            flush();
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Read the nodes of a snapshot, and set the counters for the IDs of new
+     * nodes and actuators as they were when it was written. The nodes are not
+     * started.
+     *
+     * @param file The file of the snapshot
+     * @return The nodes, in the order they were written
+     * @throws IOException If the snapshot can't be read or is not valid
+     */
+    static List<SensorActuatorNode> read(Path file) throws IOException {
+        ByteBuffer snapshot;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot too large");
+            }
+            snapshot = ByteBuffer.allocate((int) channel.size());
+            while (snapshot.hasRemaining()) {
+                if (channel.read(snapshot) < 0) {
+                    throw new IOException("Snapshot truncated");
+                }
+            }
+        }
+        snapshot.flip();
+        try {
+            return readFrom(snapshot);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new IOException("Invalid snapshot");
+        }
+    }
+
+    private static List<SensorActuatorNode> readFrom(ByteBuffer snapshot) throws IOException {
+        if (snapshot.getInt() != MAGIC || snapshot.getInt() != FORMAT_VERSION) {
+            throw new IOException("Not a greenhouse snapshot");
+        }
+        int nextNodeId = snapshot.getInt();
+        int nextActuatorId = snapshot.getInt();
+        int nodeCount = snapshot.getInt();
+        snapshot.getInt();
+        long tablesOffset = snapshot.getLong();
+
+        // The tables come after the nodes
+        snapshot.position(Math.toIntExact(tablesOffset));
+        String[] strings = new String[snapshot.getInt()];
+        for (int i = 0; i < strings.length; ++i) {
+            int length = Short.toUnsignedInt(snapshot.getShort());
+            strings[i] = new String(snapshot.array(), snapshot.position(), length, StandardCharsets.UTF_8);
+            snapshot.position(snapshot.position() + length);
+        }
+        int sensorProfileCount = snapshot.getInt();
+        short[] sensorKinds = new short[sensorProfileCount];
+        double[] sensorMins = new double[sensorProfileCount];
+        double[] sensorMaxs = new double[sensorProfileCount];
+        for (int i = 0; i < sensorProfileCount; ++i) {
+            String type = strings[Short.toUnsignedInt(snapshot.getShort())];
+            String unit = strings[Short.toUnsignedInt(snapshot.getShort())];
+            sensorKinds[i] = SensorStore.kindIdOf(type, unit);
+            sensorMins[i] = snapshot.getDouble();
+            sensorMaxs[i] = snapshot.getDouble();
+        }
+        Actuator[] actuatorTemplates = new Actuator[snapshot.getInt()];
+        for (int i = 0; i < actuatorTemplates.length; ++i) {
+            actuatorTemplates[i] = new Actuator(0, strings[Short.toUnsignedInt(snapshot.getShort())], 0);
+            int impactCount = Short.toUnsignedInt(snapshot.getShort());
+            for (int impact = 0; impact < impactCount; ++impact) {
+                String sensorType = strings[Short.toUnsignedInt(snapshot.getShort())];
+                actuatorTemplates[i].setImpact(sensorType, snapshot.getDouble());
+            }
+        }
+
+        snapshot.position(HEADER_SIZE);
+        List<SensorActuatorNode> nodes = new ArrayList<>(nodeCount);
+        for (int n = 0; n < nodeCount; ++n) {
+            SensorActuatorNode node = new SensorActuatorNode(snapshot.getInt());
+            int sensorCount = snapshot.getInt();
+            int actuatorCount = snapshot.getInt();
+            SensorStore sensors = node.getSensorStore();
+            for (int i = 0; i < sensorCount; ++i) {
+                int profile = Short.toUnsignedInt(snapshot.getShort());
+                sensors.add(sensorKinds[profile], sensorMins[profile], sensorMaxs[profile], snapshot.getDouble());
+            }
+            for (int i = 0; i < actuatorCount; ++i) {
+                int actuatorId = snapshot.getInt();
+                int profileAndState = Short.toUnsignedInt(snapshot.getShort());
+                Actuator actuator = actuatorTemplates[profileAndState >>> 1].createClone(actuatorId, node.getId());
+                actuator.setWithoutNotifying((profileAndState & 1) != 0);
+                node.restoreActuator(actuator);
+            }
+            nodes.add(node);
+        }
+        DeviceFactory.setNextNodeId(nextNodeId);
+        Actuator.setNextId(nextActuatorId);
+        return nodes;
+    }
+
+    /**
+     * What sensors of the same kind and bounds have in common.
+     */
+    private record SensorProfile(short kind, double min, double max) {
+    }
+
+    /**
+     * What actuators of the same type and impacts have in common.
+     */
+    private static final class ActuatorProfile {
+        private final String type;
+        private final int[] impactTypeIds;
+        private final double[] impactDiffs;
+
+        private ActuatorProfile(String type, int[] impactTypeIds, double[] impactDiffs) {
+            this.type = type;
+            this.impactTypeIds = impactTypeIds;
+            this.impactDiffs = impactDiffs;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof ActuatorProfile profile && type.equals(profile.type)
+                    && Arrays.equals(impactTypeIds, profile.impactTypeIds)
+                    && Arrays.equals(impactDiffs, profile.impactDiffs);
+        }
+
+        @Override
+        public int hashCode() {
+            return (type.hashCode() * 31 + Arrays.hashCode(impactTypeIds)) * 31 + Arrays.hashCode(impactDiffs);
+        }
+    }
+}
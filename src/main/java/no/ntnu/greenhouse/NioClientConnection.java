@@ -0,0 +1,339 @@
+package no.ntnu.greenhouse;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import no.ntnu.message.ActuatorStateMessage;
+import no.ntnu.message.ActuatorStatesMessage;
+import no.ntnu.message.BinaryMessageCodec;
+import no.ntnu.message.Command;
+import no.ntnu.message.CorrelatedMessage;
+import no.ntnu.message.EncodedMessage;
+import no.ntnu.message.Message;
+import no.ntnu.message.MessageStream;
+import no.ntnu.message.TextMessageParser;
+import no.ntnu.message.ProtocolSwitchMessage;
+import no.ntnu.message.WireFormat;
+import no.ntnu.tools.Logger;
+
+/**
+ * One client connection handled by a {@link NioEventLoop}. Incoming bytes are
+ * collected until a newline is found (or, in the binary protocol, until the
+ * whole length-prefixed frame is received), and every complete request is
+ * dispatched through the same {@link Command#execute} path as in
+ * {@link ClientHandler}. The protocol switch works like in
+ * {@link ClientHandler} too.
+ * Outgoing messages are put in a bounded {@link OutboundQueue} by any thread
+ * and written out by the event loop when the socket is writable.
+ * <p>
+ * Except for the methods sending responses, all the methods must be called on
+ * the event-loop thread.
+ */
+class NioClientConnection implements ClientConnection {
+    private static final int READ_BUFFER_SIZE = 8192;
+    private static final int MAX_LINE_LENGTH = 64 * 1024;
+    private static final int MAX_GATHERED_WRITES = 64;
+
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private final NioEventLoop eventLoop;
+    private final GreenhouseSimulator greenhouseSimulator;
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    private byte[] lineBuffer = new byte[256];
+    private int lineLength = 0;
+    private int frameLength = -1;
+    private final TextMessageParser textParser = new TextMessageParser();
+    private WireFormat readFormat = WireFormat.TEXT;
+    private WireFormat writeFormat = WireFormat.TEXT;
+    private final OutboundQueue outboundQueue;
+    // The messages being written, from pendingStart (inclusive) to pendingEnd
+    private final ByteBuffer[] pendingWrites = new ByteBuffer[MAX_GATHERED_WRITES];
+    private int pendingStart = 0;
+    private int pendingEnd = 0;
+    // The streamed response being written, if any
+    private MessageStream currentStream;
+    private final AtomicBoolean writeRequested = new AtomicBoolean(false);
+    private final String remoteAddress;
+
+    /**
+     * Create a connection.
+     *
+     * @param channel             The non-blocking client channel
+     * @param key                 The selection key of the channel
+     * @param eventLoop           The event loop owning the channel
+     * @param greenhouseSimulator The simulator which the client controls
+     * @throws IOException If the remote address of the channel can't be read
+     */
+    NioClientConnection(SocketChannel channel, SelectionKey key, NioEventLoop eventLoop,
+            GreenhouseSimulator greenhouseSimulator) throws IOException {
+        this.channel = channel;
+        this.key = key;
+        this.eventLoop = eventLoop;
+        this.greenhouseSimulator = greenhouseSimulator;
+        this.remoteAddress = String.valueOf(channel.getRemoteAddress());
+        this.outboundQueue = greenhouseSimulator.createOutboundQueue();
+    }
+
+    /**
+     * Read whatever is available on the channel and handle all the complete
+     * requests received so far.
+     */
+    void read() {
+        int bytesRead;
+        try {
+            bytesRead = channel.read(readBuffer);
+        } catch (IOException e) {
+            Logger.error("Client request was not received: " + e.getMessage());
+            bytesRead = -1;
+        }
+        if (bytesRead < 0) {
+            close();
+            return;
+        }
+        readBuffer.flip();
+        while (readBuffer.hasRemaining() && channel.isOpen()) {
+            byte b = readBuffer.get();
+            if (readFormat == WireFormat.BINARY) {
+                appendToFrame(b);
+            } else if (b == '\n') {
+                handleRequest(parseLine());
+            } else {
+                appendToLine(b);
+            }
+        }
+        readBuffer.clear();
+    }
+
+    private void appendToLine(byte b) {
+        if (lineLength == MAX_LINE_LENGTH) {
+            Logger.error("Request from client " + remoteAddress + " is too long, disconnecting");
+            close();
+            return;
+        }
+        if (lineLength == lineBuffer.length) {
+            lineBuffer = Arrays.copyOf(lineBuffer, Math.min(lineBuffer.length * 2, MAX_LINE_LENGTH));
+        }
+        lineBuffer[lineLength++] = b;
+    }
+
+    /**
+     * Collect one byte of a binary frame. The length prefix is collected first,
+     * then the rest of the frame, which is handled once it is complete.
+     *
+     * @param b The received byte
+     */
+    private void appendToFrame(byte b) {
+        appendToLine(b);
+        if (frameLength < 0 && lineLength == BinaryMessageCodec.LENGTH_PREFIX_SIZE) {
+            frameLength = ByteBuffer.wrap(lineBuffer, 0, lineLength).getInt();
+            lineLength = 0;
+            if (frameLength <= 0 || frameLength > MAX_LINE_LENGTH) {
+                Logger.error("Invalid frame length from client " + remoteAddress + ", disconnecting");
+                close();
+            }
+        } else if (frameLength > 0 && lineLength == frameLength) {
+            Message clientMessage;
+            try {
+                clientMessage = BinaryMessageCodec.decode(ByteBuffer.wrap(lineBuffer, 0, lineLength));
+            } catch (IllegalArgumentException e) {
+                clientMessage = null;
+            }
+            frameLength = -1;
+            lineLength = 0;
+            handleRequest(clientMessage);
+        }
+    }
+
+    private Message parseLine() {
+        int length = lineLength;
+        if (length > 0 && lineBuffer[length - 1] == '\r') {
+            length--;
+        }
+        lineLength = 0;
+        return textParser.parse(lineBuffer, 0, length);
+    }
+
+    /**
+     * Handle one request. Like in {@link ClientHandler}, the connection is
+     * closed when the request is not a valid command, or when the command does
+     * not produce a response.
+     *
+     * @param clientMessage The request, null if it could not be parsed
+     */
+    private void handleRequest(Message clientMessage) {
+        if (clientMessage instanceof ProtocolSwitchMessage switchMessage) {
+            Logger.info("Client " + remoteAddress + " switches to "
+                    + switchMessage.getWireFormat() + " protocol");
+            readFormat = switchMessage.getWireFormat();
+            sendResponseToClient(switchMessage);
+            return;
+        }
+        CorrelatedMessage correlatedRequest = null;
+        if (clientMessage instanceof CorrelatedMessage correlatedMessage) {
+            correlatedRequest = correlatedMessage;
+            clientMessage = correlatedMessage.getMessage();
+        }
+        Message response = null;
+        if (clientMessage instanceof Command clientCommand) {
+            response = clientCommand.execute(greenhouseSimulator.getLogic());
+        } else if (clientMessage != null) {
+            Logger.error("Message from client is not valid: " + clientMessage);
+        }
+        if (response != null) {
+            sendResponse(response, correlatedRequest);
+        } else {
+            Logger.info("Client " + remoteAddress + " leaving");
+            close();
+        }
+    }
+
+    /**
+     * Send the response to a request. The client gets it tagged with the
+     * correlation ID of the request, if there was one, while actuator state
+     * changes reach the other clients without it.
+     *
+     * @param message The response
+     * @param request The correlated request, or null if the request had no
+     *                correlation ID
+     */
+    private void sendResponse(Message message, CorrelatedMessage request) {
+        Message reply = request != null ? request.reply(message) : message;
+        if (message instanceof ActuatorStateMessage || message instanceof ActuatorStatesMessage) {
+            greenhouseSimulator.sendResponseToAllClients(message, this, reply);
+        } else {
+            sendResponseToClient(reply);
+        }
+    }
+
+    @Override
+    public void sendResponseToClient(Message message) {
+        sendEncodedResponseToClient(new EncodedMessage(message));
+    }
+
+    @Override
+    public void sendEncodedResponseToClient(EncodedMessage message) {
+        afterOffer(outboundQueue.offer(message));
+    }
+
+    @Override
+    public void sendSensorDataToClient(int nodeId, EncodedMessage fullFrame, EncodedMessage delta) {
+        afterOffer(outboundQueue.offerSensorData(nodeId, fullFrame, delta));
+    }
+
+    /**
+     * Disconnect the client if it is too slow, otherwise make sure the event loop
+     * writes the queued messages.
+     *
+     * @param accepted The result of offering a message to the outbound queue
+     */
+    private void afterOffer(boolean accepted) {
+        if (!accepted) {
+            Logger.error("Client " + remoteAddress + " is too slow, disconnecting");
+            close();
+        } else if (outboundQueue.size() > 0 && writeRequested.compareAndSet(false, true)) {
+            eventLoop.requestWrite(this);
+        }
+    }
+
+    @Override
+    public int getOutboundQueueDepth() {
+        return outboundQueue.size();
+    }
+
+    @Override
+    public long getDroppedMessageCount() {
+        return outboundQueue.getDroppedCount();
+    }
+
+    @Override
+    public String getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    /**
+     * Write as much of the queued outbound data as the socket accepts. The queued
+     * messages are written together, up to {@value #MAX_GATHERED_WRITES} of them
+     * in one gathering write, so that a burst of messages costs one system call
+     * instead of one per message. If some data is left, wait for the socket to
+     * become writable again.
+     */
+    void write() {
+        if (!key.isValid()) {
+            return;
+        }
+        try {
+            while (pendingStart < pendingEnd || takeNextWrites()) {
+                channel.write(pendingWrites, pendingStart, pendingEnd - pendingStart);
+                while (pendingStart < pendingEnd && !pendingWrites[pendingStart].hasRemaining()) {
+                    pendingWrites[pendingStart++] = null;
+                }
+                if (pendingStart < pendingEnd) {
+                    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+            key.interestOps(SelectionKey.OP_READ);
+            writeRequested.set(false);
+            if (outboundQueue.size() > 0 && writeRequested.compareAndSet(false, true)) {
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+        } catch (IOException e) {
+            Logger.error("Could not send response to client " + remoteAddress + ": " + e.getMessage());
+            close();
+        }
+    }
+
+    /**
+     * Take queued messages to write, once all the previous ones are written. A
+     * streamed response is taken one part at a time, so the next part is only
+     * produced when the socket has accepted the previous one, and the queued
+     * messages wait until the stream has ended.
+     *
+     * @return True when there is something to write
+     */
+    private boolean takeNextWrites() {
+        pendingStart = 0;
+        pendingEnd = 0;
+        while (pendingEnd < MAX_GATHERED_WRITES) {
+            if (currentStream != null) {
+                Message part = currentStream.next();
+                if (part != null) {
+                    pendingWrites[pendingEnd++] = new EncodedMessage(part).asByteBuffer(writeFormat);
+                    break;
+                }
+                currentStream = null;
+            }
+            EncodedMessage message = outboundQueue.poll();
+            if (message == null) {
+                break;
+            } else if (message.getMessage() instanceof MessageStream stream) {
+                currentStream = stream;
+                continue;
+            }
+            pendingWrites[pendingEnd++] = message.asByteBuffer(writeFormat);
+            if (message.getMessage() instanceof ProtocolSwitchMessage switchMessage) {
+                writeFormat = switchMessage.getWireFormat();
+            }
+        }
+        return pendingEnd > 0;
+    }
+
+    /**
+     * Closes the connection and notifies the server. Safe to call from any
+     * thread.
+     */
+    void close() {
+        outboundQueue.close();
+        key.cancel();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            Logger.error("Could not close client channel: " + e.getMessage());
+        }
+        greenhouseSimulator.disconnectClient(this);
+    }
+}
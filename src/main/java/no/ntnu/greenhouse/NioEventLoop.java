@@ -0,0 +1,152 @@
+package no.ntnu.greenhouse;
+
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import no.ntnu.tools.Logger;
+
+/**
+ * One event-loop thread of the {@link NioServer}. Owns a selector and all the
+ * connections registered with it. Other threads never touch the selector keys
+ * directly - they put requests in a queue and wake the selector up, and the
+ * requests are carried out on the event-loop thread.
+ */
+class NioEventLoop implements Runnable {
+    private final GreenhouseSimulator greenhouseSimulator;
+    private final Selector selector;
+    private final Queue<SocketChannel> pendingChannels = new ConcurrentLinkedQueue<>();
+    private final Queue<NioClientConnection> pendingWrites = new ConcurrentLinkedQueue<>();
+    private volatile boolean running = true;
+
+    /**
+     * Create an event loop.
+     *
+     * @param greenhouseSimulator The simulator which the clients will control
+     * @throws IOException If the selector could not be opened
+     */
+    NioEventLoop(GreenhouseSimulator greenhouseSimulator) throws IOException {
+        this.greenhouseSimulator = greenhouseSimulator;
+        this.selector = Selector.open();
+    }
+
+    /**
+     * Hand a newly accepted client channel over to this event loop. Can be called
+     * from any thread.
+     *
+     * @param channel The client channel, already in non-blocking mode
+     */
+    void register(SocketChannel channel) {
+        pendingChannels.add(channel);
+        selector.wakeup();
+    }
+
+    /**
+     * Ask the event loop to write out the pending messages of a connection. Can
+     * be called from any thread.
+     *
+     * @param connection The connection having new outbound messages
+     */
+    void requestWrite(NioClientConnection connection) {
+        pendingWrites.add(connection);
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                selector.select();
+                registerPendingChannels();
+                writePendingConnections();
+                processSelectedKeys();
+            }
+        } catch (ClosedSelectorException | IOException e) {
+            Logger.error("NIO event loop failed: " + e.getMessage());
+        } finally {
+            closeAllConnections();
+        }
+    }
+
+    private void registerPendingChannels() {
+        SocketChannel channel;
+        while ((channel = pendingChannels.poll()) != null) {
+            try {
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                NioClientConnection connection = new NioClientConnection(channel, key, this,
+                        greenhouseSimulator);
+                key.attach(connection);
+                greenhouseSimulator.connectClient(connection);
+            } catch (IOException e) {
+                Logger.error("Could not register client channel: " + e.getMessage());
+            }
+        }
+    }
+
+    private void writePendingConnections() {
+        NioClientConnection connection;
+        while ((connection = pendingWrites.poll()) != null) {
+            try {
+                connection.write();
+            } catch (RuntimeException e) {
+                closeFailedConnection(connection, e);
+            }
+        }
+    }
+
+    private void processSelectedKeys() {
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+            NioClientConnection connection = (NioClientConnection) key.attachment();
+            try {
+                if (key.isValid() && key.isReadable()) {
+                    connection.read();
+                }
+                if (key.isValid() && key.isWritable()) {
+                    connection.write();
+                }
+            } catch (RuntimeException e) {
+                closeFailedConnection(connection, e);
+            }
+        }
+    }
+
+    /**
+     * Close a connection whose handling failed unexpectedly, so that only this
+     * client is lost, not all the clients of the event loop.
+     */
+    private void closeFailedConnection(NioClientConnection connection, RuntimeException e) {
+        Logger.error("Closing client connection after an unexpected error: " + e);
+        connection.close();
+    }
+
+    /**
+     * Close all the connections of this event loop and stop the thread. Can be
+     * called from any thread.
+     */
+    void stop() {
+        running = false;
+        selector.wakeup();
+    }
+
+    private void closeAllConnections() {
+        for (SelectionKey key : selector.keys()) {
+            NioClientConnection connection = (NioClientConnection) key.attachment();
+            if (connection != null) {
+                connection.close();
+            }
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            Logger.error("Could not close the selector: " + e.getMessage());
+        }
+        Logger.info("NIO event loop stopped");
+    }
+}
@@ -0,0 +1,107 @@
+package no.ntnu.greenhouse;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import no.ntnu.tools.Logger;
+
+/**
+ * A non-blocking TCP server for the greenhouse. Instead of one thread per
+ * client, all the client connections are spread over a small fixed pool of
+ * {@link NioEventLoop}s, each of them multiplexing its connections with a
+ * {@link java.nio.channels.Selector}. One extra thread accepts new connections
+ * and hands them to the event loops in a round-robin fashion.
+ */
+public class NioServer {
+    private final int port;
+    private final GreenhouseSimulator greenhouseSimulator;
+    private final NioEventLoop[] eventLoops;
+    private ServerSocketChannel serverChannel;
+    private int nextEventLoop = 0;
+
+    /**
+     * Create a non-blocking server.
+     *
+     * @param port                The TCP port to listen on.
+     * @param greenhouseSimulator The simulator which the clients will control.
+     * @param eventLoopCount      Number of event-loop threads to use.
+     */
+    public NioServer(int port, GreenhouseSimulator greenhouseSimulator, int eventLoopCount) {
+        if (eventLoopCount <= 0) {
+            throw new IllegalArgumentException("At least one event loop is needed");
+        }
+        this.port = port;
+        this.greenhouseSimulator = greenhouseSimulator;
+        this.eventLoops = new NioEventLoop[eventLoopCount];
+    }
+
+    /**
+     * Open the listening socket and start the event loops.
+     *
+     * @throws IOException If the server socket or one of the selectors could not
+     *                     be opened.
+     */
+    public void start() throws IOException {
+        for (int i = 0; i < eventLoops.length; ++i) {
+            eventLoops[i] = new NioEventLoop(greenhouseSimulator);
+            new Thread(eventLoops[i], "nio-event-loop-" + i).start();
+        }
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        new Thread(this::acceptClients, "nio-acceptor").start();
+        Logger.info("NIO server listening on port " + port + " with " + eventLoops.length + " event loops");
+    }
+
+    /**
+     * Check whether the server is still accepting new clients.
+     *
+     * @return True when the listening socket is open, false otherwise
+     */
+    public boolean isRunning() {
+        return serverChannel != null && serverChannel.isOpen();
+    }
+
+    private void acceptClients() {
+        while (isRunning()) {
+            try {
+                SocketChannel clientChannel = serverChannel.accept();
+                Logger.info("New client connected from " + clientChannel.getRemoteAddress());
+                clientChannel.configureBlocking(false);
+                // The writes are coalesced explicitly, Nagle's algorithm would only delay them
+                clientChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                nextEventLoop().register(clientChannel);
+            } catch (AsynchronousCloseException e) {
+                Logger.info("NIO server stopped accepting clients");
+            } catch (IOException e) {
+                Logger.error("Could not accept client connection: " + e.getMessage());
+            }
+        }
+    }
+
+    private NioEventLoop nextEventLoop() {
+        NioEventLoop eventLoop = eventLoops[nextEventLoop];
+        nextEventLoop = (nextEventLoop + 1) % eventLoops.length;
+        return eventLoop;
+    }
+
+    /**
+     * Stop accepting clients, close all the connections and stop the event loops.
+     */
+    public void stop() {
+        try {
+            if (serverChannel != null) {
+                serverChannel.close();
+            }
+        } catch (IOException e) {
+            Logger.error("Could not close the server channel: " + e.getMessage());
+        }
+        for (NioEventLoop eventLoop : eventLoops) {
+            if (eventLoop != null) {
+                eventLoop.stop();
+            }
+        }
+    }
+}
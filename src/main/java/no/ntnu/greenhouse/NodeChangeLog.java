@@ -0,0 +1,185 @@
+package no.ntnu.greenhouse;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The versioned history of the changes a control panel needs for keeping its
+ * copy of the nodes up to date: nodes added, nodes removed and actuators
+ * switched. Every change gets the next version number, and the latest changes
+ * are kept in a ring buffer of primitive arrays, so that a control panel which
+ * knows the state at some version can be sent only what changed since then,
+ * instead of a snapshot of all the nodes. Sensor readings are not recorded,
+ * they are sent to the control panels whenever they change anyway.
+ * <p>
+ * The log takes a fixed amount of memory. A control panel asking for changes
+ * older than the oldest change kept needs a full snapshot instead.
+ */
+class NodeChangeLog {
+    private static final byte NODE_ADDED = 0;
+    private static final byte NODE_REMOVED = 1;
+    private static final byte ACTUATOR_ON = 2;
+    private static final byte ACTUATOR_OFF = 3;
+
+    private final byte[] kinds;
+    private final int[] nodeIds;
+    private final int[] actuatorIds;
+    // Versions start from the wall clock time, so that a restarted greenhouse
+    // doesn't take the versions of the previous run as its own
+    private final long firstVersion = System.currentTimeMillis() * 1000;
+    private long version = firstVersion;
+
+    /**
+     * Create an empty change log.
+     *
+     * @param capacity The number of latest changes to keep
+     */
+    NodeChangeLog(int capacity) {
+        this.kinds = new byte[capacity];
+        this.nodeIds = new int[capacity];
+        this.actuatorIds = new int[capacity];
+    }
+
+    /**
+     * Get the current version of the greenhouse state.
+     *
+     * @return The version of the latest change
+     */
+    synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * Record that a node was added.
+     *
+     * @param nodeId The ID of the node
+     */
+    synchronized void nodeAdded(int nodeId) {
+        record(NODE_ADDED, nodeId, 0);
+    }
+
+    /**
+     * Record that a node was removed.
+     *
+     * @param nodeId The ID of the node
+     */
+    synchronized void nodeRemoved(int nodeId) {
+        record(NODE_REMOVED, nodeId, 0);
+    }
+
+    /**
+     * Record that an actuator was switched.
+     *
+     * @param nodeId     The ID of the node of the actuator
+     * @param actuatorId The ID of the actuator
+     * @param on         The new state of the actuator
+     */
+    synchronized void actuatorChanged(int nodeId, int actuatorId, boolean on) {
+        record(on ? ACTUATOR_ON : ACTUATOR_OFF, nodeId, actuatorId);
+    }
+
+    private void record(byte kind, int nodeId, int actuatorId) {
+        version++;
+        int slot = slotOf(version);
+        kinds[slot] = kind;
+        nodeIds[slot] = nodeId;
+        actuatorIds[slot] = actuatorId;
+    }
+
+    private int slotOf(long changeVersion) {
+        return (int) (changeVersion % kinds.length);
+    }
+
+    /**
+     * Get all the changes made after a version, merged: a node added and removed
+     * again is left out, and only the latest state of an actuator is kept.
+     *
+     * @param sinceVersion The version the control panel knows
+     * @return The changes, or null when the version is unknown, or older than the
+     *         oldest change kept
+     */
+    synchronized Changes getChangesSince(long sinceVersion) {
+        if (sinceVersion < Math.max(firstVersion, version - kinds.length) || sinceVersion > version) {
+            return null;
+        }
+        Set<Integer> added = new LinkedHashSet<>();
+        Set<Integer> removed = new LinkedHashSet<>();
+        // The node ID in the upper half of the key, the actuator ID in the lower
+        Map<Long, Boolean> actuatorStates = new LinkedHashMap<>();
+        for (long changeVersion = sinceVersion + 1; changeVersion <= version; ++changeVersion) {
+            int slot = slotOf(changeVersion);
+            int nodeId = nodeIds[slot];
+            if (kinds[slot] == NODE_ADDED) {
+                added.add(nodeId);
+            } else if (kinds[slot] == NODE_REMOVED) {
+                if (!added.remove(nodeId)) {
+                    removed.add(nodeId);
+                }
+                actuatorStates.keySet().removeIf(key -> (int) (key >>> 32) == nodeId);
+            } else if (!added.contains(nodeId)) {
+                // The description of an added node has the current actuator states anyway
+                actuatorStates.put((long) nodeId << 32 | actuatorIds[slot], kinds[slot] == ACTUATOR_ON);
+            }
+        }
+        Changes changes = new Changes(version, toArray(added), toArray(removed), actuatorStates.size());
+        int i = 0;
+        for (Map.Entry<Long, Boolean> entry : actuatorStates.entrySet()) {
+            changes.nodeIds[i] = (int) (entry.getKey() >>> 32);
+            changes.actuatorIds[i] = entry.getKey().intValue();
+            changes.states[i] = entry.getValue();
+            i++;
+        }
+        return changes;
+    }
+
+    private static int[] toArray(Set<Integer> ids) {
+        return ids.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * The merged changes between two versions.
+     */
+    static class Changes {
+        private final long version;
+        private final int[] addedNodeIds;
+        private final int[] removedNodeIds;
+        private final int[] nodeIds;
+        private final int[] actuatorIds;
+        private final boolean[] states;
+
+        private Changes(long version, int[] addedNodeIds, int[] removedNodeIds, int actuatorCount) {
+            this.version = version;
+            this.addedNodeIds = addedNodeIds;
+            this.removedNodeIds = removedNodeIds;
+            this.nodeIds = new int[actuatorCount];
+            this.actuatorIds = new int[actuatorCount];
+            this.states = new boolean[actuatorCount];
+        }
+
+        long getVersion() {
+            return version;
+        }
+
+        int[] getAddedNodeIds() {
+            return addedNodeIds;
+        }
+
+        int[] getRemovedNodeIds() {
+            return removedNodeIds;
+        }
+
+        int[] getNodeIds() {
+            return nodeIds;
+        }
+
+        int[] getActuatorIds() {
+            return actuatorIds;
+        }
+
+        boolean[] getStates() {
+            return states;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package no.ntnu.greenhouse;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+import no.ntnu.controlpanel.SensorActuatorNodeInfo;
+import no.ntnu.message.Message;
+import no.ntnu.message.MessageStream;
+import no.ntnu.message.NodeInfoBeginMessage;
+import no.ntnu.message.NodeInfoEndMessage;
+import no.ntnu.message.NodeInfoMessage;
+
+/**
+ * Information about all the nodes of the greenhouse, sent in chunks of a
+ * bounded number of nodes. Only the list of nodes is copied when the stream is
+ * created, each chunk is described while the connection writes it, so the
+ * nodes of the first chunks reach the client before the last ones are even
+ * looked at. A node which is removed before its chunk is described is left
+ * out, its removal is sent to the client after the stream anyway.
+ */
+class NodeInfoStream implements MessageStream {
+    private final long version;
+    private final int nodeCount;
+    private final Iterator<SensorActuatorNode> nodes;
+    private final IntPredicate isPresent;
+    private final int nodesPerChunk;
+    private boolean begun = false;
+    private boolean ended = false;
+
+    /**
+     * Create a stream of node information.
+     *
+     * @param version       The version of the greenhouse state, taken before the
+     *                      nodes are listed
+     * @param nodes         The nodes to describe
+     * @param isPresent     Tells whether a node, by ID, is still in the greenhouse
+     * @param nodesPerChunk The largest number of nodes in one chunk
+     */
+    NodeInfoStream(long version, Collection<SensorActuatorNode> nodes, IntPredicate isPresent,
+            int nodesPerChunk) {
+        this.version = version;
+        this.nodeCount = nodes.size();
+        this.nodes = new ArrayList<>(nodes).iterator();
+        this.isPresent = isPresent;
+        this.nodesPerChunk = nodesPerChunk;
+    }
+
+    @Override
+    public Message next() {
+        if (!begun) {
+            begun = true;
+            return new NodeInfoBeginMessage(version, nodeCount);
+        }
+        List<SensorActuatorNodeInfo> chunk = new ArrayList<>(nodesPerChunk);
+        while (chunk.size() < nodesPerChunk && nodes.hasNext()) {
+            SensorActuatorNode node = nodes.next();
+            if (isPresent.test(node.getId())) {
+                chunk.add(NodeInfoMessage.createNodeInfo(node));
+            }
+        }
+        if (!chunk.isEmpty()) {
+            return new NodeInfoMessage(version, chunk);
+        }
+        if (!ended) {
+            ended = true;
+            return new NodeInfoEndMessage(version);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,326 @@
+package no.ntnu.greenhouse;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import no.ntnu.message.EncodedMessage;
+import no.ntnu.message.SensorDataAdvertisementMessage;
+import no.ntnu.message.SensorDeltaMessage;
+
+/**
+ * A bounded queue of messages waiting to be written to one client. Messages
+ * are added by any thread producing responses or broadcasts, and removed by the
+ * single writer of the connection. When the queue is full, the
+ * {@link SlowConsumerPolicy} decides what happens. Sensor data advertisements
+ * may be dropped or coalesced, all the other messages are never dropped. To
+ * keep the memory bounded even then, a client having twice the capacity of
+ * non-droppable messages queued is always disconnected.
+ * <p>
+ * The queue also knows which nodes the client can receive sensor deltas for:
+ * the nodes whose full sensor data has been queued, and for which no sensor
+ * message has been dropped since. A delta is never left in the queue without
+ * what it applies to: coalescing always keeps the full sensor data of the
+ * latest state, and dropping a sensor message of a node also drops the deltas
+ * of that node queued after it, up to its next full sensor data. Whenever a
+ * sensor message of a node is dropped, the next one for that node is sent in
+ * full.
+ * <p>
+ * The queue is guarded by a lock rather than by its monitor: in the virtual
+ * thread server mode the writers wait in {@link #take()} on virtual threads,
+ * and waiting on a monitor would pin one carrier thread per idle client.
+ */
+public class OutboundQueue {
+    private final int capacity;
+    private final SlowConsumerPolicy policy;
+    private final Deque<Entry> entries = new ArrayDeque<>();
+    private final Map<Integer, Entry> queuedSensorData = new HashMap<>();
+    private final Set<Integer> deltaReadyNodes = new HashSet<>();
+    private long droppedCount = 0;
+    private boolean closed = false;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+
+    /**
+     * One queued message. The message of a sensor data entry can be replaced
+     * while the entry stays in the queue.
+     */
+    private static class Entry {
+        private EncodedMessage message;
+        private final EncodedMessage fullFrame;
+        private final int sensorNodeId;
+
+        /**
+         * @param message   The message to send
+         * @param fullFrame The full sensor data of the same state, when the message
+         *                  is a sensor delta; otherwise the message itself
+         */
+        Entry(EncodedMessage message, EncodedMessage fullFrame) {
+            this.message = message;
+            this.fullFrame = fullFrame;
+            this.sensorNodeId = getSensorNodeId(message);
+        }
+
+        boolean isSensorData() {
+            return sensorNodeId >= 0;
+        }
+
+        boolean isDelta() {
+            return message.getMessage() instanceof SensorDeltaMessage;
+        }
+    }
+
+    /**
+     * Create an outbound queue.
+     *
+     * @param capacity The number of queued messages considered as "full"
+     * @param policy   What to do when the queue is full
+     */
+    public OutboundQueue(int capacity, SlowConsumerPolicy policy) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Queue capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.policy = policy;
+    }
+
+    /**
+     * Add a message to the queue.
+     *
+     * @param message The message to send to the client
+     * @return True when the message was accepted (or deliberately dropped),
+     *         false when the client is too slow and must be disconnected
+     */
+    public boolean offer(EncodedMessage message) {
+        lock.lock();
+        try {
+            return offer(new Entry(message, message));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean offer(Entry entry) {
+        if (closed) {
+            return true;
+        }
+        if (entries.size() >= capacity && !makeRoomFor(entry)) {
+            return false;
+        }
+        if (entry.message != null) {
+            entries.addLast(entry);
+            if (entry.isSensorData()) {
+                queuedSensorData.put(entry.sensorNodeId, entry);
+            }
+            notEmpty.signalAll();
+        }
+        return true;
+    }
+
+    /**
+     * Add the sensor data of a node to the queue, as a delta when the client has
+     * received everything needed to apply it, otherwise in full.
+     *
+     * @param nodeId    The ID of the node
+     * @param fullFrame All the readings of the node
+     * @param delta     The readings which changed since the previous sensor data
+     *                  of the node, or null when the full readings must be sent
+     * @return True when the message was accepted (or deliberately dropped, or not
+     *         needed), false when the client is too slow and must be disconnected
+     */
+    public boolean offerSensorData(int nodeId, EncodedMessage fullFrame, EncodedMessage delta) {
+        lock.lock();
+        try {
+            if (delta != null && deltaReadyNodes.contains(nodeId)) {
+                if (((SensorDeltaMessage) delta.getMessage()).isEmpty()) {
+                    return true;
+                }
+                return offer(new Entry(delta, fullFrame));
+            }
+            // Marked before offering, so that dropping the full frame unmarks it again
+            deltaReadyNodes.add(nodeId);
+            return offer(fullFrame);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Apply the slow consumer policy to a full queue.
+     *
+     * @param entry The entry about to be added. Its message is set to null when
+     *              the entry has been merged into the queue or dropped.
+     * @return False when the client must be disconnected
+     */
+    private boolean makeRoomFor(Entry entry) {
+        if (policy == SlowConsumerPolicy.DISCONNECT) {
+            return false;
+        }
+        if (policy == SlowConsumerPolicy.COALESCE && entry.isSensorData()) {
+            Entry queued = queuedSensorData.get(entry.sensorNodeId);
+            if (queued != null) {
+                // In full: a delta would miss the changes of the replaced message, or
+                // the full sensor data it applies to
+                queued.message = entry.fullFrame;
+                entry.message = null;
+                droppedCount++;
+                return true;
+            }
+        }
+        if (!dropOldestSensorData()) {
+            if (entry.isSensorData()) {
+                deltaReadyNodes.remove(entry.sensorNodeId);
+                entry.message = null;
+                droppedCount++;
+            } else if (entries.size() >= 2 * capacity) {
+                return false;
+            }
+        } else if (entry.isDelta() && !deltaReadyNodes.contains(entry.sensorNodeId)) {
+            // What the delta applies to was just dropped, send the new state in full
+            entry.message = entry.fullFrame;
+            deltaReadyNodes.add(entry.sensorNodeId);
+        }
+        return true;
+    }
+
+    private boolean dropOldestSensorData() {
+        Iterator<Entry> iterator = entries.iterator();
+        while (iterator.hasNext()) {
+            Entry queued = iterator.next();
+            if (queued.isSensorData()) {
+                iterator.remove();
+                forgetSensorData(queued);
+                droppedCount++;
+                dropDeltasAfter(iterator, queued.sensorNodeId);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Drop the deltas of a node which follow a dropped sensor message, as they
+     * apply to what the client will no longer get. They are dropped up to the
+     * next full sensor data of the node, which the client can start again from.
+     * When there is none, the next sensor data of the node is sent in full.
+     *
+     * @param iterator The queue, positioned after the dropped message
+     * @param nodeId   The ID of the node
+     */
+    private void dropDeltasAfter(Iterator<Entry> iterator, int nodeId) {
+        while (iterator.hasNext()) {
+            Entry queued = iterator.next();
+            if (queued.sensorNodeId == nodeId) {
+                if (!queued.isDelta()) {
+                    return;
+                }
+                iterator.remove();
+                forgetSensorData(queued);
+                droppedCount++;
+            }
+        }
+        deltaReadyNodes.remove(nodeId);
+    }
+
+    private void forgetSensorData(Entry entry) {
+        if (entry.isSensorData()) {
+            queuedSensorData.remove(entry.sensorNodeId, entry);
+        }
+    }
+
+    private static int getSensorNodeId(EncodedMessage message) {
+        if (message.getMessage() instanceof SensorDataAdvertisementMessage sensorData) {
+            return sensorData.getNodeId();
+        } else if (message.getMessage() instanceof SensorDeltaMessage sensorDelta) {
+            return sensorDelta.getNodeId();
+        }
+        return -1;
+    }
+
+    /**
+     * Take the next message from the queue, without waiting.
+     *
+     * @return The next message, or null if the queue is empty
+     */
+    public EncodedMessage poll() {
+        lock.lock();
+        try {
+            Entry entry = entries.pollFirst();
+            if (entry == null) {
+                return null;
+            }
+            forgetSensorData(entry);
+            return entry.message;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Take the next message from the queue, waiting until one is available.
+     *
+     * @return The next message, or null when the queue has been closed
+     * @throws InterruptedException If the thread is interrupted while waiting
+     */
+    public EncodedMessage take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (entries.isEmpty() && !closed) {
+                notEmpty.await();
+            }
+            return closed ? null : poll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Close the queue. All the queued messages are discarded, and a writer
+     * waiting in {@link #take()} is released.
+     */
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            entries.clear();
+            queuedSensorData.clear();
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get the number of messages currently waiting to be sent.
+     *
+     * @return The queue depth
+     */
+    public int size() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get the number of sensor data advertisements which were dropped or
+     * replaced by a newer advertisement because the queue was full.
+     *
+     * @return The number of messages which never reached the client
+     */
+    public long getDroppedCount() {
+        lock.lock();
+        try {
+            return droppedCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
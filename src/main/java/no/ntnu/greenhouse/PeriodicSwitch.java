@@ -1,7 +1,5 @@
 package no.ntnu.greenhouse;
 
-import java.util.Timer;
-import java.util.TimerTask;
 import no.ntnu.tools.Logger;
 
 /**
@@ -11,7 +9,7 @@ import no.ntnu.tools.Logger;
  * project!
  */
 public class PeriodicSwitch {
-    private final Timer timer;
+    private ScheduledTask task;
     private final SensorActuatorNode node;
     private final int actuatorId;
     private final long delay;
@@ -30,29 +28,24 @@ public class PeriodicSwitch {
         this.actuatorId = actuatorId;
         this.delay = m;
         this.name = name;
-
-        timer = new Timer(name);
     }
 
     /**
      * Start the periodic actuator toggling.
      */
     public void start() {
-        timer.scheduleAtFixedRate(new TimerTask() {
-            @Override
-            public void run() {
-                Logger.info(" > " + name + ": toggle actuator " + actuatorId + " on node " + node.getId());
-                if (node.isRunning()) {
-                    try {
-                        node.toggleActuator(actuatorId);
-                    } catch (Exception e) {
-                        Logger.error("Failed to toggle an actuator: " + e.getMessage());
-                        timer.cancel();
-                    }
-                } else {
-                    Logger.info("   Node stopped, stopping the switch");
-                    timer.cancel();
+        task = SimulationScheduler.scheduleAtFixedRate(() -> {
+            Logger.info(" > " + name + ": toggle actuator " + actuatorId + " on node " + node.getId());
+            if (node.isRunning()) {
+                try {
+                    node.toggleActuator(actuatorId);
+                } catch (Exception e) {
+                    Logger.error("Failed to toggle an actuator: " + e.getMessage());
+                    task.cancel();
                 }
+            } else {
+                Logger.info("   Node stopped, stopping the switch");
+                task.cancel();
             }
         }, delay, delay);
     }
@@ -62,6 +55,8 @@ public class PeriodicSwitch {
      */
     public void stop() {
         Logger.info("-- Stopping " + this.name);
-        timer.cancel();
+        if (task != null) {
+            task.cancel();
+        }
     }
 }
@@ -0,0 +1,12 @@
+package no.ntnu.greenhouse;
+
+/**
+ * A task scheduled on a {@link SimulationClock}.
+ */
+public interface ScheduledTask {
+    /**
+     * Stop the task from running again. A run which has already started is
+     * allowed to finish.
+     */
+    void cancel();
+}
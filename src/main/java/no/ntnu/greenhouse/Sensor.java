@@ -1,12 +1,12 @@
 package no.ntnu.greenhouse;
 
 /**
- * A sensor which can sense the environment in a specific way.
+ * A sensor which can sense the environment in a specific way. The data of the
+ * sensor lives in a {@link SensorStore}, this object is only a view of it.
  */
 public class Sensor {
-    private final SensorReading reading;
-    private final double min;
-    private final double max;
+    private final SensorStore store;
+    private final int index;
 
     /**
      * Create a sensor.
@@ -18,23 +18,41 @@ public class Sensor {
      * @param unit    The measurement unit. Examples: "%", "C", "lux"
      */
     public Sensor(String type, double min, double max, double current, String unit) {
-        this.reading = new SensorReading(type, current, unit);
-        this.min = min;
-        this.max = max;
-        ensureValueBoundsAndPrecision(current);
+        this.store = new SensorStore(1);
+        this.index = this.store.add(type, min, max, current, unit);
+    }
+
+    /**
+     * Create a view of a sensor kept in a store.
+     *
+     * @param store The store holding the sensor
+     * @param index The index of the sensor in the store
+     */
+    Sensor(SensorStore store, int index) {
+        this.store = store;
+        this.index = index;
+    }
+
+    SensorStore getStore() {
+        return store;
+    }
+
+    int getIndex() {
+        return index;
     }
 
     public String getType() {
-        return reading.getType();
+        return store.getType(index);
     }
 
     /**
      * Get the current sensor reading.
      *
-     * @return The current sensor reading (value)
+     * @return A snapshot of the current sensor reading (value), which does not
+     *         change when the sensor does
      */
     public SensorReading getReading() {
-        return reading;
+        return store.getReading(index);
     }
 
     /**
@@ -43,37 +61,15 @@ public class Sensor {
      * @return A clone of this sensor, where all the fields are the same
      */
     public Sensor createClone() {
-        return new Sensor(this.reading.getType(), this.min, this.max,
-                this.reading.getValue(), this.reading.getUnit());
+        return new Sensor(store.getType(index), store.getMin(index), store.getMax(index),
+                store.getValue(index), store.getUnit(index));
     }
 
     /**
      * Add a random noise to the sensors to simulate realistic values.
      */
     public void addRandomNoise() {
-        double newValue = this.reading.getValue() + generateRealisticNoise();
-        ensureValueBoundsAndPrecision(newValue);
-    }
-
-    private void ensureValueBoundsAndPrecision(double newValue) {
-        newValue = roundToTwoDecimals(newValue);
-        if (newValue < min) {
-            newValue = min;
-        } else if (newValue > max) {
-            newValue = max;
-        }
-        reading.setValue(newValue);
-    }
-
-    private double roundToTwoDecimals(double value) {
-        return Math.round(value * 100.0) / 100.0;
-    }
-
-    private double generateRealisticNoise() {
-        final double wholeRange = max - min;
-        final double onePercentOfRange = wholeRange / 100.0;
-        final double zeroToTwoPercent = Math.random() * onePercentOfRange * 2;
-        return zeroToTwoPercent - onePercentOfRange; // In the range [-1%..+1%]
+        store.addRandomNoise(index);
     }
 
     /**
@@ -83,12 +79,11 @@ public class Sensor {
      * @param impact The impact to apply - the delta for the value
      */
     public void applyImpact(double impact) {
-        double newValue = this.reading.getValue() + impact;
-        ensureValueBoundsAndPrecision(newValue);
+        store.applyImpact(index, impact);
     }
 
     @Override
     public String toString() {
-        return reading.toString();
+        return getReading().toString();
     }
 }
@@ -3,9 +3,7 @@ package no.ntnu.greenhouse;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Random;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.ThreadLocalRandom;
 import no.ntnu.listeners.common.ActuatorListener;
 import no.ntnu.listeners.common.CommunicationChannelListener;
 import no.ntnu.listeners.greenhouse.NodeStateListener;
@@ -17,20 +15,23 @@ import no.ntnu.tools.Logger;
  */
 public class SensorActuatorNode implements ActuatorListener, CommunicationChannelListener {
     // How often to generate new sensor values, in seconds.
-    private static final long SENSING_DELAY = 5000;
+    static final long SENSING_DELAY = 5000;
     private final int id;
 
-    private final List<Sensor> sensors = new LinkedList<>();
+    private final SensorStore sensors = new SensorStore();
+    private final List<Sensor> sensorViews = sensors.asSensorList();
     private final ActuatorCollection actuators = new ActuatorCollection();
 
     private final List<SensorListener> sensorListeners = new LinkedList<>();
     private final List<ActuatorListener> actuatorListeners = new LinkedList<>();
     private final List<NodeStateListener> stateListeners = new LinkedList<>();
 
-    Timer sensorReadingTimer;
+    private ScheduledTask sensorReadingTask;
+    private volatile SensorHistory history;
+    private volatile SensorRollups rollups;
+    private volatile SensorLog sensorLog;
 
     private boolean running;
-    private final Random random = new Random();
 
     /**
      * Create a sensor/actuator node. Note: the node itself does not check whether
@@ -74,9 +75,7 @@ public class SensorActuatorNode implements ActuatorListener, CommunicationChanne
             throw new IllegalArgumentException("Can't add a negative number of sensors");
         }
 
-        for (int i = 0; i < n; ++i) {
-            sensors.add(template.createClone());
-        }
+        sensors.addCopies(template, n);
     }
 
     /**
@@ -90,6 +89,18 @@ public class SensorActuatorNode implements ActuatorListener, CommunicationChanne
         Logger.info("Created " + actuator.getType() + "[" + actuator.getId() + "] on node " + id);
     }
 
+    /**
+     * Add an actuator restored from a snapshot. Unlike
+     * {@link #addActuator(Actuator)}, nothing is logged, as a snapshot can hold
+     * a great many actuators.
+     *
+     * @param actuator The actuator to add
+     */
+    void restoreActuator(Actuator actuator) {
+        actuator.setListener(this);
+        actuators.add(actuator);
+    }
+
     /**
      * Register a new listener for sensor updates.
      *
@@ -130,8 +141,21 @@ public class SensorActuatorNode implements ActuatorListener, CommunicationChanne
      * Start simulating the sensor node's operation.
      */
     public void start() {
+        start(true);
+    }
+
+    /**
+     * Start simulating the sensor node's operation.
+     *
+     * @param periodicSensing When true, the node generates new sensor values on
+     *                        its own schedule. When false, someone else must
+     *                        advance the sensors, see {@link #advanceSensors(long)}
+     */
+    void start(boolean periodicSensing) {
         if (!running) {
-            startPeriodicSensorReading();
+            if (periodicSensing) {
+                startPeriodicSensorReading();
+            }
             running = true;
             notifyStateChanges(true);
         }
@@ -159,20 +183,15 @@ public class SensorActuatorNode implements ActuatorListener, CommunicationChanne
     }
 
     private void startPeriodicSensorReading() {
-        sensorReadingTimer = new Timer();
-        TimerTask newSensorValueTask = new TimerTask() {
-            @Override
-            public void run() {
-                generateNewSensorValues();
-            }
-        };
-        long randomStartDelay = random.nextLong(SENSING_DELAY);
-        sensorReadingTimer.scheduleAtFixedRate(newSensorValueTask, randomStartDelay, SENSING_DELAY);
+        long randomStartDelay = ThreadLocalRandom.current().nextLong(SENSING_DELAY);
+        sensorReadingTask = SimulationScheduler.scheduleAtFixedRate(
+                this::generateNewSensorValues, randomStartDelay, SENSING_DELAY);
     }
 
     private void stopPeriodicSensorReading() {
-        if (sensorReadingTimer != null) {
-            sensorReadingTimer.cancel();
+        if (sensorReadingTask != null) {
+            sensorReadingTask.cancel();
+            sensorReadingTask = null;
         }
     }
 
@@ -187,14 +206,25 @@ public class SensorActuatorNode implements ActuatorListener, CommunicationChanne
     }
 
     private void addRandomNoiseToSensors() {
-        for (Sensor sensor : sensors) {
-            sensor.addRandomNoise();
-        }
+        sensors.addRandomNoise();
+    }
+
+    /**
+     * Generate new sensor values and record them, without notifying the
+     * listeners. Used when the whole greenhouse is advanced in one step, the
+     * listeners are then notified with {@link #notifySensorListeners()} once all
+     * the nodes are done.
+     *
+     * @param timestamp The time of the new values
+     */
+    void advanceSensors(long timestamp) {
+        addRandomNoiseToSensors();
+        recordSensors(timestamp);
     }
 
     private void debugPrint() {
-        for (Sensor sensor : sensors) {
-            Logger.infoNoNewline(" " + sensor.getReading().getFormatted());
+        for (int i = 0; i < sensors.size(); ++i) {
+            Logger.infoNoNewline(" " + sensors.getReading(i).getFormatted());
         }
         Logger.infoNoNewline(" :");
         actuators.debugPrint();
@@ -216,25 +246,99 @@ public class SensorActuatorNode implements ActuatorListener, CommunicationChanne
         actuator.toggle();
     }
 
+    /**
+     * Set the state of several actuators of this node at once. The impacts of all
+     * the actuators which change are applied first, and the sensor listeners are
+     * then notified once, instead of once per actuator.
+     *
+     * @param actuatorIds The IDs of the actuators
+     * @param states      The states to set, in the same order as the IDs; true
+     *                    to turn the actuator on
+     * @throws IllegalArgumentException If one of the actuators is not found on
+     *                                  this node. Nothing is changed then
+     */
+    public void setActuators(int[] actuatorIds, boolean[] states) {
+        Actuator[] selected = new Actuator[actuatorIds.length];
+        for (int i = 0; i < actuatorIds.length; ++i) {
+            selected[i] = getActuator(actuatorIds[i]);
+            if (selected[i] == null) {
+                throw new IllegalArgumentException("actuator[" + actuatorIds[i] + "] not found on node " + id);
+            }
+        }
+        List<Actuator> changed = new ArrayList<>();
+        for (int i = 0; i < selected.length; ++i) {
+            if (selected[i].setWithoutNotifying(states[i])) {
+                selected[i].applyImpact(this);
+                changed.add(selected[i]);
+            }
+        }
+        if (!changed.isEmpty()) {
+            notifySensorChanges();
+            for (Actuator actuator : changed) {
+                notifyActuatorChange(actuator);
+            }
+        }
+    }
+
     private Actuator getActuator(int actuatorId) {
         return actuators.get(actuatorId);
     }
 
-    private void notifySensorChanges() {
+    /**
+     * Record the sensor values and notify the listeners that they have changed.
+     */
+    void notifySensorChanges() {
+        if (history != null || rollups != null || sensorLog != null) {
+            recordSensors(SimulationScheduler.currentTimeMillis());
+        }
+        notifySensorListeners();
+    }
+
+    /**
+     * Record the current sensor values in the history, the rollups and the sensor
+     * log of the node, those which are enabled.
+     *
+     * @param timestamp The time of the values
+     */
+    private void recordSensors(long timestamp) {
+        SensorHistory currentHistory = history;
+        SensorRollups currentRollups = rollups;
+        SensorLog currentLog = sensorLog;
+        if (currentHistory != null) {
+            currentHistory.record(timestamp, sensors);
+        }
+        if (currentRollups != null) {
+            currentRollups.record(timestamp, sensors);
+        }
+        if (currentLog != null) {
+            currentLog.appendSensors(id, timestamp, sensors);
+        }
+    }
+
+    /**
+     * Notify the listeners that the sensor values have changed, without recording
+     * them.
+     */
+    void notifySensorListeners() {
         for (SensorListener listener : sensorListeners) {
-            listener.sensorsUpdated(sensors);
+            listener.sensorsUpdated(sensorViews);
         }
     }
 
     @Override
     public void actuatorUpdated(int nodeId, Actuator actuator) {
         actuator.applyImpact(this);
+        notifySensorChanges();
         notifyActuatorChange(actuator);
     }
 
     private void notifyActuatorChange(Actuator actuator) {
         String onOff = actuator.isOn() ? "ON" : "OFF";
         Logger.info(" => " + actuator.getType() + " on node " + id + " " + onOff);
+        SensorLog currentLog = sensorLog;
+        if (currentLog != null) {
+            currentLog.appendActuator(id, SimulationScheduler.currentTimeMillis(), actuator.getId(), actuator.isOn());
+        }
         for (ActuatorListener listener : actuatorListeners) {
             listener.actuatorUpdated(id, actuator);
         }
@@ -265,19 +369,35 @@ public class SensorActuatorNode implements ActuatorListener, CommunicationChanne
      * @param impact     The impact to apply
      */
     public void applyActuatorImpact(String sensorType, double impact) {
-        for (Sensor sensor : sensors) {
-            if (sensor.getType().equals(sensorType)) {
-                sensor.applyImpact(impact);
-            }
-        }
+        sensors.applyImpactToType(sensorType, impact);
+    }
+
+    /**
+     * An actuator has been turned on or off. Apply an impact from it to all sensors
+     * of given type.
+     *
+     * @param sensorTypeId The ID of the type of sensors affected
+     * @param impact       The impact to apply
+     */
+    void applyActuatorImpact(int sensorTypeId, double impact) {
+        sensors.applyImpactToType(sensorTypeId, impact);
     }
 
     /**
      * Get all the sensors available on the device.
      *
-     * @return List of all the sensors
+     * @return An unmodifiable list of all the sensors
      */
     public List<Sensor> getSensors() {
+        return sensorViews;
+    }
+
+    /**
+     * Get the store holding the sensors of the node.
+     *
+     * @return The sensor store
+     */
+    SensorStore getSensorStore() {
         return sensors;
     }
 
@@ -312,13 +432,63 @@ public class SensorActuatorNode implements ActuatorListener, CommunicationChanne
     /**
      * Gets all the sensor readings from the node.
      * 
-     * @return a list of sensor readings from all sensors in the node.
+     * @return a list of snapshots of the readings from all sensors in the node.
      */
     public List<SensorReading> getReadings() {
-        List<SensorReading> readings = new ArrayList<>();
-        for (Sensor sensor : this.sensors) {
-            readings.add(sensor.getReading());
+        List<SensorReading> readings = new ArrayList<>(this.sensors.size());
+        for (int i = 0; i < this.sensors.size(); ++i) {
+            readings.add(this.sensors.getReading(i));
         }
         return readings;
     }
+
+    /**
+     * Start keeping the latest values of the sensors, every time they change. The
+     * memory for the history is allocated at once, so the sensors must have been
+     * added before.
+     *
+     * @param capacity The number of latest samples to keep
+     */
+    void enableHistory(int capacity) {
+        history = new SensorHistory(capacity, sensors.size());
+    }
+
+    /**
+     * Get the history of the sensor values.
+     *
+     * @return The history, or null if it is not kept, see
+     *         {@link #enableHistory(int)}
+     */
+    SensorHistory getHistory() {
+        return history;
+    }
+
+    /**
+     * Start keeping the minimum, maximum and average of the sensor values over
+     * 10 seconds, 1 minute and 1 hour. The memory for the rollups is allocated
+     * at once, so the sensors must have been added before.
+     */
+    void enableRollups() {
+        rollups = new SensorRollups(sensors.size());
+    }
+
+    /**
+     * Get the rollups of the sensor values.
+     *
+     * @return The rollups, or null if they are not kept, see
+     *         {@link #enableRollups()}
+     */
+    SensorRollups getRollups() {
+        return rollups;
+    }
+
+    /**
+     * Write the sensor values to a log every time they change, and the actuator
+     * transitions.
+     *
+     * @param sensorLog The log to write to, or null to stop writing
+     */
+    void setSensorLog(SensorLog sensorLog) {
+        this.sensorLog = sensorLog;
+    }
 }
@@ -0,0 +1,83 @@
+package no.ntnu.greenhouse;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import no.ntnu.message.SensorDeltaMessage;
+
+/**
+ * Remembers the sensor values last broadcast for every node, and computes which
+ * of them changed since. Every {@link #keyframeIntervalMillis} a keyframe is
+ * forced for each node, meaning that no delta is produced and every client gets
+ * the full readings of the node again, so that any client which got out of sync
+ * recovers.
+ * <p>
+ * Not thread-safe, the caller must make sure that only one thread uses it at a
+ * time.
+ */
+class SensorDeltaEncoder {
+    private final long keyframeIntervalMillis;
+    private final Map<Integer, NodeValues> lastValues = new HashMap<>();
+
+    /**
+     * Create a delta encoder.
+     *
+     * @param keyframeIntervalMillis The time between two keyframes of a node
+     */
+    SensorDeltaEncoder(long keyframeIntervalMillis) {
+        this.keyframeIntervalMillis = keyframeIntervalMillis;
+    }
+
+    /**
+     * Remember the current readings of a node, and compute what changed since the
+     * previous call for the same node.
+     *
+     * @param nodeId   The ID of the node
+     * @param readings The current readings of the node
+     * @return The changed readings, or null when the readings must be sent in
+     *         full: on keyframes, for new nodes, and when the number of readings
+     *         changed
+     */
+    SensorDeltaMessage update(int nodeId, List<SensorReading> readings) {
+        long now = SimulationScheduler.currentTimeMillis();
+        NodeValues previous = lastValues.get(nodeId);
+        double[] current = new double[readings.size()];
+        for (int i = 0; i < current.length; ++i) {
+            current[i] = readings.get(i).getValue();
+        }
+        if (previous == null || previous.values.length != current.length
+                || now - previous.keyframeTime >= keyframeIntervalMillis) {
+            lastValues.put(nodeId, new NodeValues(current, now));
+            return null;
+        }
+
+        int[] indices = new int[current.length];
+        double[] values = new double[current.length];
+        int changed = 0;
+        for (int i = 0; i < current.length; ++i) {
+            if (Double.compare(previous.values[i], current[i]) != 0) {
+                indices[changed] = i;
+                values[changed] = current[i];
+                changed++;
+            }
+        }
+        lastValues.put(nodeId, new NodeValues(current, previous.keyframeTime));
+        return new SensorDeltaMessage(nodeId, Arrays.copyOf(indices, changed), Arrays.copyOf(values, changed));
+    }
+
+    /**
+     * The values last broadcast for a node, and when the node got its last
+     * keyframe.
+     */
+    private static class NodeValues {
+        private final double[] values;
+        private final long keyframeTime;
+
+        NodeValues(double[] values, long keyframeTime) {
+            this.values = values;
+            this.keyframeTime = keyframeTime;
+        }
+    }
+}
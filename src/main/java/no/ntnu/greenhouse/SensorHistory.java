@@ -0,0 +1,116 @@
+package no.ntnu.greenhouse;
+
+import java.util.Arrays;
+
+/**
+ * The latest values of all the sensors of one node, kept in a ring buffer of
+ * primitive arrays. All the sensors of a node are sampled at the same time, so
+ * one sample is a timestamp and one value per sensor, and the values of a
+ * sample are stored next to each other: recording a sample is a single array
+ * copy from the {@link SensorStore}, and creates no objects.
+ * <p>
+ * The arrays are allocated once, when the history is created, so a history of
+ * N samples takes 8 * N bytes for the timestamps and 8 * N bytes per sensor for
+ * the values, however long the simulation runs. The oldest sample is
+ * overwritten by every new one once the history is full.
+ */
+class SensorHistory {
+    private final int sensorCount;
+    private final long[] timestamps;
+    private final double[] values;
+    // The total number of samples recorded, the next one goes to this modulo capacity
+    private long sampleCount = 0;
+
+    /**
+     * Create an empty history.
+     *
+     * @param capacity    The number of latest samples to keep
+     * @param sensorCount The number of sensors of the node
+     */
+    SensorHistory(int capacity, int sensorCount) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("The history must keep at least one sample");
+        }
+        this.sensorCount = sensorCount;
+        this.timestamps = new long[capacity];
+        this.values = new double[capacity * sensorCount];
+    }
+
+    /**
+     * Get the number of sensors of the node.
+     *
+     * @return The number of values in every sample
+     */
+    int getSensorCount() {
+        return sensorCount;
+    }
+
+    /**
+     * Record the current values of all the sensors of the node.
+     *
+     * @param timestamp The time of the sample, in milliseconds
+     * @param sensors   The sensors of the node
+     */
+    synchronized void record(long timestamp, SensorStore sensors) {
+        int slot = (int) (sampleCount % timestamps.length);
+        timestamps[slot] = timestamp;
+        sensors.copyValues(values, slot * sensorCount, sensorCount);
+        sampleCount++;
+    }
+
+    /**
+     * Get the values of one sensor over a time range, oldest first. When the
+     * range holds more samples than asked for, the latest ones are returned.
+     *
+     * @param sensorIndex The index of the sensor on the node
+     * @param from        The start of the range, inclusive, in milliseconds
+     * @param to          The end of the range, inclusive, in milliseconds
+     * @param maxSamples  The largest number of samples to return
+     * @return The samples
+     */
+    synchronized Samples getSamples(int sensorIndex, long from, long to, int maxSamples) {
+        if (sensorIndex < 0 || sensorIndex >= sensorCount) {
+            throw new IllegalArgumentException("sensor[" + sensorIndex + "] not found");
+        }
+        int kept = (int) Math.min(sampleCount, timestamps.length);
+        long[] sampleTimes = new long[Math.min(kept, maxSamples)];
+        double[] sampleValues = new double[sampleTimes.length];
+        // Walk back from the latest sample, filling the result from its end
+        int count = 0;
+        for (long sample = sampleCount - 1; sample >= sampleCount - kept && count < sampleTimes.length; --sample) {
+            int slot = (int) (sample % timestamps.length);
+            long timestamp = timestamps[slot];
+            if (timestamp < from) {
+                break;
+            }
+            if (timestamp <= to) {
+                count++;
+                sampleTimes[sampleTimes.length - count] = timestamp;
+                sampleValues[sampleValues.length - count] = values[slot * sensorCount + sensorIndex];
+            }
+        }
+        return new Samples(Arrays.copyOfRange(sampleTimes, sampleTimes.length - count, sampleTimes.length),
+                Arrays.copyOfRange(sampleValues, sampleValues.length - count, sampleValues.length));
+    }
+
+    /**
+     * The samples of one sensor, in time order.
+     */
+    static class Samples {
+        private final long[] timestamps;
+        private final double[] values;
+
+        private Samples(long[] timestamps, double[] values) {
+            this.timestamps = timestamps;
+            this.values = values;
+        }
+
+        long[] getTimestamps() {
+            return timestamps;
+        }
+
+        double[] getValues() {
+            return values;
+        }
+    }
+}
@@ -0,0 +1,340 @@
+package no.ntnu.greenhouse;
+
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+import no.ntnu.tools.Logger;
+
+/**
+ * An append-only log of the sensor samples and the actuator transitions of the
+ * greenhouse, kept on disk so that the data outlives the simulator.
+ * <p>
+ * The log is a directory of segment files of a fixed size, numbered in the
+ * order they are written. Every segment is mapped into memory, starts with a
+ * header of {@link #HEADER_SIZE} bytes, and is followed by records of
+ * {@link #RECORD_SIZE} bytes:
+ * <ul>
+ * <li>the timestamp, in milliseconds (8 bytes),</li>
+ * <li>the node ID (4 bytes),</li>
+ * <li>the sensor index or the actuator ID, shifted one bit to the left, with
+ * {@link #ACTUATOR_TRANSITION} in the lowest bit for actuators (4 bytes),</li>
+ * <li>the sensor value, or 1 or 0 for an actuator turned on or off (8
+ * bytes).</li>
+ * </ul>
+ * Timestamps never decrease within the log. The header holds the number of
+ * records written, which is updated after the records themselves, so a reader
+ * - in this process or another one - can read the records up to that number
+ * while the segment is still being written.
+ * <p>
+ * The samples of a node written together form a run of consecutive records
+ * with the same node ID and timestamp. When a segment is full, it is sealed: an
+ * index file is written next to it, with the node ID, the timestamp and the
+ * position of the first record of every run, sorted by node ID and time. The
+ * index is built in primitive arrays while the segment is written, so
+ * appending a record doesn't create any object. See {@link SensorLogReader}.
+ */
+class SensorLog {
+    static final int MAGIC = 0x47484C47;
+    static final int FORMAT_VERSION = 1;
+    static final int HEADER_SIZE = 64;
+    static final int RECORD_SIZE = 24;
+    static final int INDEX_ENTRY_SIZE = 16;
+    static final int SENSOR_SAMPLE = 0;
+    static final int ACTUATOR_TRANSITION = 1;
+    static final String SEGMENT_SUFFIX = ".log";
+    static final String INDEX_SUFFIX = ".idx";
+    // Header fields
+    static final int MAGIC_OFFSET = 0;
+    static final int VERSION_OFFSET = 4;
+    static final int RECORD_SIZE_OFFSET = 8;
+    static final int RECORD_COUNT_OFFSET = 16;
+    // Record fields
+    static final int TIMESTAMP_OFFSET = 0;
+    static final int NODE_ID_OFFSET = 8;
+    static final int ITEM_OFFSET = 12;
+    static final int VALUE_OFFSET = 16;
+
+    private static final int INITIAL_INDEX_CAPACITY = 1024;
+    private static final int INDEX_WRITE_BUFFER_SIZE = 64 * 1024;
+    private static final int RADIX_BITS = 8;
+    private static final int RADIX = 1 << RADIX_BITS;
+
+    private final Path directory;
+    private final int recordsPerSegment;
+    private long segmentNumber;
+    private MappedByteBuffer segment;
+    private int recordCount;
+    private long lastTimestamp = Long.MIN_VALUE;
+    // The run being written, extended by the next record of the same node and time
+    private int runNodeId = -1;
+    private long runTimestamp;
+    // The index of the current segment: the first record of every run
+    private int[] indexNodeIds = new int[INITIAL_INDEX_CAPACITY];
+    private long[] indexTimestamps = new long[INITIAL_INDEX_CAPACITY];
+    private int[] indexRecords = new int[INITIAL_INDEX_CAPACITY];
+    private int indexSize;
+    // Reused for every segment, so that sealing allocates nothing once warmed up
+    private int[] indexOrder = new int[0];
+    private int[] indexScratch = new int[0];
+    private final int[] radixCounts = new int[RADIX + 1];
+    private final ByteBuffer indexBuffer = ByteBuffer.allocateDirect(INDEX_WRITE_BUFFER_SIZE);
+    private boolean closed = false;
+
+    /**
+     * Open a log for appending. The records are written to a new segment after
+     * the segments already in the directory, if any.
+     *
+     * @param directory   The directory of the log, created if needed
+     * @param segmentSize The size of every segment file, in bytes
+     * @throws IOException If the directory or the first segment can't be created
+     */
+    SensorLog(Path directory, int segmentSize) throws IOException {
+        this.recordsPerSegment = (segmentSize - HEADER_SIZE) / RECORD_SIZE;
+        if (this.recordsPerSegment < 1) {
+            throw new IllegalArgumentException("Segments of " + segmentSize + " bytes can't hold any record");
+        }
+        this.directory = directory;
+        Files.createDirectories(directory);
+        long[] segments = listSegments(directory);
+        this.segmentNumber = segments.length > 0 ? segments[segments.length - 1] + 1 : 1;
+        openSegment();
+    }
+
+    /**
+     * Append the current values of all the sensors of a node.
+     *
+     * @param nodeId    The ID of the node
+     * @param timestamp The time of the samples, in milliseconds
+     * @param sensors   The sensors of the node
+     */
+    synchronized void appendSensors(int nodeId, long timestamp, SensorStore sensors) {
+        int count = sensors.size();
+        if (closed || !makeRoom(count)) {
+            return;
+        }
+        timestamp = Math.max(timestamp, lastTimestamp);
+        for (int i = 0; i < count; ++i) {
+            putRecord(timestamp, nodeId, i << 1 | SENSOR_SAMPLE, sensors.getValue(i));
+        }
+        commit();
+    }
+
+    /**
+     * Append the transition of an actuator.
+     *
+     * @param nodeId     The ID of the node of the actuator
+     * @param timestamp  The time of the transition, in milliseconds
+     * @param actuatorId The ID of the actuator
+     * @param on         The new state of the actuator
+     */
+    synchronized void appendActuator(int nodeId, long timestamp, int actuatorId, boolean on) {
+        if (closed || !makeRoom(1)) {
+            return;
+        }
+        putRecord(Math.max(timestamp, lastTimestamp), nodeId, actuatorId << 1 | ACTUATOR_TRANSITION, on ? 1 : 0);
+        commit();
+    }
+
+    /**
+     * Seal the current segment and stop appending. Records appended after this
+     * are dropped.
+     */
+    synchronized void close() {
+        if (!closed) {
+            closed = true;
+            sealSegment();
+        }
+    }
+
+    private void putRecord(long timestamp, int nodeId, int item, double value) {
+        if (nodeId != runNodeId || timestamp != runTimestamp) {
+            addIndexEntry(nodeId, timestamp, recordCount);
+            runNodeId = nodeId;
+            runTimestamp = timestamp;
+        }
+        int offset = HEADER_SIZE + recordCount * RECORD_SIZE;
+        segment.putLong(offset + TIMESTAMP_OFFSET, timestamp);
+        segment.putInt(offset + NODE_ID_OFFSET, nodeId);
+        segment.putInt(offset + ITEM_OFFSET, item);
+        segment.putDouble(offset + VALUE_OFFSET, value);
+        recordCount++;
+        lastTimestamp = timestamp;
+    }
+
+    /**
+     * Publish the records written so far to the readers.
+     */
+    private void commit() {
+        // The records must be visible before the count which covers them
+        VarHandle.releaseFence();
+        segment.putLong(RECORD_COUNT_OFFSET, recordCount);
+    }
+
+    private void addIndexEntry(int nodeId, long timestamp, int record) {
+        if (indexSize == indexNodeIds.length) {
+            int capacity = indexSize * 2;
+            indexNodeIds = Arrays.copyOf(indexNodeIds, capacity);
+            indexTimestamps = Arrays.copyOf(indexTimestamps, capacity);
+            indexRecords = Arrays.copyOf(indexRecords, capacity);
+        }
+        indexNodeIds[indexSize] = nodeId;
+        indexTimestamps[indexSize] = timestamp;
+        indexRecords[indexSize] = record;
+        indexSize++;
+    }
+
+    /**
+     * Make sure the current segment has room for a number of records, so that
+     * the samples of a node written together are never split between segments.
+     *
+     * @return True if the records can be written, false if the log failed
+     */
+    private boolean makeRoom(int count) {
+        if (recordCount + count <= recordsPerSegment) {
+            return true;
+        }
+        if (count > recordsPerSegment) {
+            Logger.error("Sensor log segments are too small for " + count + " records");
+            return false;
+        }
+        sealSegment();
+        segmentNumber++;
+        try {
+            openSegment();
+            return true;
+        } catch (IOException e) {
+            Logger.error("Could not create a sensor log segment, logging stopped: " + e.getMessage());
+            closed = true;
+            return false;
+        }
+    }
+
+    private void openSegment() throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentPath(directory, segmentNumber),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // The mapping stays valid after the channel is closed
+            segment = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                    HEADER_SIZE + (long) recordsPerSegment * RECORD_SIZE);
+        }
+        segment.putInt(MAGIC_OFFSET, MAGIC);
+        segment.putInt(VERSION_OFFSET, FORMAT_VERSION);
+        segment.putInt(RECORD_SIZE_OFFSET, RECORD_SIZE);
+        segment.putLong(RECORD_COUNT_OFFSET, 0);
+        recordCount = 0;
+        indexSize = 0;
+        runNodeId = -1;
+    }
+
+    /**
+     * Flush the current segment to the disk and write its index.
+     */
+    private void sealSegment() {
+        segment.force();
+        sortIndexByNode();
+        // Written under another name first, so that readers never see half an index
+        Path indexPath = indexPath(directory, segmentNumber);
+        Path partialPath = indexPath.resolveSibling(indexPath.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(partialPath, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            indexBuffer.clear();
+            for (int entry = 0; entry < indexSize; ++entry) {
+                if (indexBuffer.remaining() < INDEX_ENTRY_SIZE) {
+                    writeIndexBuffer(channel);
+                }
+                int i = indexOrder[entry];
+                indexBuffer.putInt(indexNodeIds[i]).putInt(indexRecords[i]).putLong(indexTimestamps[i]);
+            }
+            writeIndexBuffer(channel);
+            channel.force(true);
+        } catch (IOException e) {
+            Logger.error("Could not write the sensor log index, the segment will be scanned: " + e.getMessage());
+            return;
+        }
+        try {
+            Files.move(partialPath, indexPath, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Logger.error("Could not write the sensor log index, the segment will be scanned: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Sort the runs by node, in the order they were written, which is also by
+     * time. The sort is a stable radix sort on the node IDs, into arrays reused
+     * for every segment: Arrays.sort would allocate a work array as large as the
+     * index for runs which are already partly sorted, as they are here.
+     */
+    private void sortIndexByNode() {
+        if (indexOrder.length < indexSize) {
+            indexOrder = new int[indexNodeIds.length];
+            indexScratch = new int[indexNodeIds.length];
+        }
+        for (int i = 0; i < indexSize; ++i) {
+            indexOrder[i] = i;
+        }
+        for (int shift = 0; shift < Integer.SIZE; shift += RADIX_BITS) {
+            Arrays.fill(radixCounts, 0);
+            for (int i = 0; i < indexSize; ++i) {
+                radixCounts[radixDigit(indexNodeIds[indexOrder[i]], shift) + 1]++;
+            }
+            for (int digit = 0; digit < RADIX; ++digit) {
+                radixCounts[digit + 1] += radixCounts[digit];
+            }
+            for (int i = 0; i < indexSize; ++i) {
+                int entry = indexOrder[i];
+                indexScratch[radixCounts[radixDigit(indexNodeIds[entry], shift)]++] = entry;
+            }
+            int[] sorted = indexScratch;
+            indexScratch = indexOrder;
+            indexOrder = sorted;
+        }
+    }
+
+    private static int radixDigit(int nodeId, int shift) {
+        // The sign bit is flipped so that negative IDs come first, as they compare
+        return ((nodeId ^ Integer.MIN_VALUE) >>> shift) & (RADIX - 1);
+    }
+
+    private void writeIndexBuffer(FileChannel channel) throws IOException {
+        indexBuffer.flip();
+        while (indexBuffer.hasRemaining()) {
+            channel.write(indexBuffer);
+        }
+        indexBuffer.clear();
+    }
+
+    /**
+     * List the numbers of the segments of a log, in order.
+     *
+     * @param directory The directory of the log
+     * @return The segment numbers, from the oldest to the newest
+     * @throws IOException If the directory can't be listed
+     */
+    static long[] listSegments(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(file -> file.getFileName().toString())
+                    .filter(name -> name.endsWith(SEGMENT_SUFFIX))
+                    .map(name -> name.substring(0, name.length() - SEGMENT_SUFFIX.length()))
+                    .filter(name -> !name.isEmpty() && name.chars().allMatch(Character::isDigit))
+                    .mapToLong(Long::parseLong)
+                    .sorted()
+                    .toArray();
+        }
+    }
+
+    static Path segmentPath(Path directory, long segmentNumber) {
+        return directory.resolve(String.format("%012d", segmentNumber) + SEGMENT_SUFFIX);
+    }
+
+    static Path indexPath(Path directory, long segmentNumber) {
+        return directory.resolve(String.format("%012d", segmentNumber) + INDEX_SUFFIX);
+    }
+}
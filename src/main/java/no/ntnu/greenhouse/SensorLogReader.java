@@ -0,0 +1,253 @@
+package no.ntnu.greenhouse;
+
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads the sensor log written by the greenhouse, see {@link SensorLog}. The log
+ * can be read while it is being written, by this process or by another one:
+ * the records of the segment being written are read up to the number published
+ * in its header. The segments are mapped into memory when they are first read,
+ * and reading the records creates no objects.
+ * <p>
+ * The records of a node are found through the index of every sealed segment.
+ * The segment being written, or one which was never sealed because the
+ * greenhouse stopped abruptly, has no index yet, so the records in the time
+ * range are found by a binary search on the timestamps and scanned instead.
+ * A reader is not thread-safe.
+ */
+public class SensorLogReader {
+    private final Path directory;
+    private final Map<Long, MappedByteBuffer> segments = new HashMap<>();
+    private final Map<Long, MappedByteBuffer> indexes = new HashMap<>();
+
+    /**
+     * Receives the records read from the log.
+     */
+    public interface RecordVisitor {
+        /**
+         * Called for a sensor sample.
+         *
+         * @param timestamp   The time of the sample, in milliseconds
+         * @param nodeId      The ID of the node
+         * @param sensorIndex The index of the sensor on the node
+         * @param value       The value of the sensor
+         */
+        void sensorSample(long timestamp, int nodeId, int sensorIndex, double value);
+
+        /**
+         * Called for an actuator transition.
+         *
+         * @param timestamp  The time of the transition, in milliseconds
+         * @param nodeId     The ID of the node
+         * @param actuatorId The ID of the actuator
+         * @param on         The new state of the actuator
+         */
+        void actuatorTransition(long timestamp, int nodeId, int actuatorId, boolean on);
+    }
+
+    /**
+     * Create a reader for a log.
+     *
+     * @param directory The directory of the log
+     */
+    public SensorLogReader(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Read the records of a node over a time range, oldest first.
+     *
+     * @param nodeId  The ID of the node
+     * @param from    The start of the range, inclusive, in milliseconds
+     * @param to      The end of the range, inclusive, in milliseconds
+     * @param visitor Receives the records
+     * @return The number of records read
+     * @throws IOException If the log can't be read
+     */
+    public int read(int nodeId, long from, long to, RecordVisitor visitor) throws IOException {
+        int count = 0;
+        for (long segmentNumber : SensorLog.listSegments(directory)) {
+            MappedByteBuffer segment = mapSegment(segmentNumber);
+            if (segment == null) {
+                continue;
+            }
+            int recordCount = getRecordCount(segment);
+            if (recordCount == 0 || timestampOf(segment, 0) > to
+                    || timestampOf(segment, recordCount - 1) < from) {
+                continue;
+            }
+            MappedByteBuffer index = mapIndex(segmentNumber);
+            if (index != null) {
+                count += readIndexed(segment, index, nodeId, from, to, visitor);
+            } else {
+                count += scan(segment, recordCount, nodeId, from, to, visitor);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Get the number of records in the log, including the ones of the segment
+     * being written.
+     *
+     * @return The number of records
+     * @throws IOException If the log can't be read
+     */
+    public long getRecordCount() throws IOException {
+        long count = 0;
+        for (long segmentNumber : SensorLog.listSegments(directory)) {
+            MappedByteBuffer segment = mapSegment(segmentNumber);
+            if (segment != null) {
+                count += getRecordCount(segment);
+            }
+        }
+        return count;
+    }
+
+    private int readIndexed(MappedByteBuffer segment, MappedByteBuffer index, int nodeId, long from, long to,
+            RecordVisitor visitor) {
+        int entryCount = index.capacity() / SensorLog.INDEX_ENTRY_SIZE;
+        // The first run of the node which is not before the range
+        int low = 0;
+        int high = entryCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            int entryNodeId = index.getInt(middle * SensorLog.INDEX_ENTRY_SIZE);
+            if (entryNodeId < nodeId || (entryNodeId == nodeId && entryTimestamp(index, middle) < from)) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        int count = 0;
+        int recordCount = getRecordCount(segment);
+        for (int entry = low; entry < entryCount; ++entry) {
+            int position = entry * SensorLog.INDEX_ENTRY_SIZE;
+            long timestamp = entryTimestamp(index, entry);
+            if (index.getInt(position) != nodeId || timestamp > to) {
+                break;
+            }
+            for (int record = index.getInt(position + 4); record < recordCount
+                    && nodeIdOf(segment, record) == nodeId && timestampOf(segment, record) == timestamp; ++record) {
+                visit(segment, record, visitor);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private int scan(MappedByteBuffer segment, int recordCount, int nodeId, long from, long to,
+            RecordVisitor visitor) {
+        // The first record which is not before the range
+        int low = 0;
+        int high = recordCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (timestampOf(segment, middle) < from) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        int count = 0;
+        for (int record = low; record < recordCount && timestampOf(segment, record) <= to; ++record) {
+            if (nodeIdOf(segment, record) == nodeId) {
+                visit(segment, record, visitor);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static void visit(MappedByteBuffer segment, int record, RecordVisitor visitor) {
+        int offset = recordOffset(record);
+        long timestamp = segment.getLong(offset + SensorLog.TIMESTAMP_OFFSET);
+        int nodeId = segment.getInt(offset + SensorLog.NODE_ID_OFFSET);
+        int item = segment.getInt(offset + SensorLog.ITEM_OFFSET);
+        double value = segment.getDouble(offset + SensorLog.VALUE_OFFSET);
+        if ((item & 1) == SensorLog.ACTUATOR_TRANSITION) {
+            visitor.actuatorTransition(timestamp, nodeId, item >>> 1, value != 0);
+        } else {
+            visitor.sensorSample(timestamp, nodeId, item >>> 1, value);
+        }
+    }
+
+    private static int getRecordCount(MappedByteBuffer segment) {
+        int count = (int) segment.getLong(SensorLog.RECORD_COUNT_OFFSET);
+        // The records covered by the count must be read after the count
+        VarHandle.acquireFence();
+        return count;
+    }
+
+    private static int recordOffset(int record) {
+        return SensorLog.HEADER_SIZE + record * SensorLog.RECORD_SIZE;
+    }
+
+    private static long timestampOf(MappedByteBuffer segment, int record) {
+        return segment.getLong(recordOffset(record) + SensorLog.TIMESTAMP_OFFSET);
+    }
+
+    private static int nodeIdOf(MappedByteBuffer segment, int record) {
+        return segment.getInt(recordOffset(record) + SensorLog.NODE_ID_OFFSET);
+    }
+
+    private static long entryTimestamp(MappedByteBuffer index, int entry) {
+        return index.getLong(entry * SensorLog.INDEX_ENTRY_SIZE + 8);
+    }
+
+    /**
+     * Map a segment, once.
+     *
+     * @return The segment, or null if it is not a valid segment
+     */
+    private MappedByteBuffer mapSegment(long segmentNumber) throws IOException {
+        MappedByteBuffer segment = segments.get(segmentNumber);
+        if (segment == null) {
+            segment = map(SensorLog.segmentPath(directory, segmentNumber));
+            if (segment == null || segment.capacity() < SensorLog.HEADER_SIZE
+                    || segment.getInt(SensorLog.MAGIC_OFFSET) != SensorLog.MAGIC
+                    || segment.getInt(SensorLog.VERSION_OFFSET) != SensorLog.FORMAT_VERSION
+                    || segment.getInt(SensorLog.RECORD_SIZE_OFFSET) != SensorLog.RECORD_SIZE) {
+                return null;
+            }
+            segments.put(segmentNumber, segment);
+        }
+        return segment;
+    }
+
+    /**
+     * Map the index of a segment, once it exists.
+     *
+     * @return The index, or null if the segment is not sealed yet
+     */
+    private MappedByteBuffer mapIndex(long segmentNumber) throws IOException {
+        MappedByteBuffer index = indexes.get(segmentNumber);
+        if (index == null) {
+            index = map(SensorLog.indexPath(directory, segmentNumber));
+            if (index != null) {
+                indexes.put(segmentNumber, index);
+            }
+        }
+        return index;
+    }
+
+    private static MappedByteBuffer map(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+}
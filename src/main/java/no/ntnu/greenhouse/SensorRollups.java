@@ -0,0 +1,262 @@
+package no.ntnu.greenhouse;
+
+import java.util.Arrays;
+
+/**
+ * The minimum, maximum and average of all the sensors of one node over
+ * consecutive intervals of time, at several resolutions: 10 seconds, 1 minute
+ * and 1 hour. Every sample updates the current interval of each resolution in
+ * place, so the rollups never need to look at the samples again, and a chart
+ * of a long time range is drawn from a few hundred intervals instead of
+ * thousands of samples.
+ * <p>
+ * Every resolution keeps a ring of the latest intervals, in primitive arrays
+ * allocated at once: a bit more than an hour of 10 second intervals, a day of
+ * 1 minute intervals and a week of 1 hour intervals. That takes 24 bytes per
+ * interval for every sensor, about 48 kB per sensor in all. Intervals are
+ * aligned to the epoch, and the values of the sensors of an interval are
+ * stored next to each other.
+ */
+class SensorRollups {
+    /**
+     * The length of the intervals of each resolution, in milliseconds, finest
+     * first.
+     */
+    static final long[] RESOLUTIONS = {10_000, 60_000, 3_600_000};
+    /**
+     * The number of intervals kept at each resolution: a bit more than an hour,
+     * a day and a week, so that such a range is always covered.
+     */
+    static final int[] CAPACITIES = {390, 1500, 192};
+
+    private final int sensorCount;
+    // For every resolution, the number of the interval in each slot (its start
+    // divided by its length), and the number of samples in it
+    private final long[][] intervals = new long[RESOLUTIONS.length][];
+    private final int[][] counts = new int[RESOLUTIONS.length][];
+    // For every resolution, the aggregates of every sensor in each slot
+    private final double[][] mins = new double[RESOLUTIONS.length][];
+    private final double[][] maxs = new double[RESOLUTIONS.length][];
+    private final double[][] sums = new double[RESOLUTIONS.length][];
+    // The span of the samples recorded so far
+    private long earliestTimestamp = Long.MAX_VALUE;
+    private long latestTimestamp = Long.MIN_VALUE;
+
+    /**
+     * Create empty rollups.
+     *
+     * @param sensorCount The number of sensors of the node
+     */
+    SensorRollups(int sensorCount) {
+        this.sensorCount = sensorCount;
+        for (int level = 0; level < RESOLUTIONS.length; ++level) {
+            intervals[level] = new long[CAPACITIES[level]];
+            Arrays.fill(intervals[level], Long.MIN_VALUE);
+            counts[level] = new int[CAPACITIES[level]];
+            mins[level] = new double[CAPACITIES[level] * sensorCount];
+            maxs[level] = new double[CAPACITIES[level] * sensorCount];
+            sums[level] = new double[CAPACITIES[level] * sensorCount];
+        }
+    }
+
+    /**
+     * Add the current values of all the sensors of the node to the intervals
+     * they belong to.
+     *
+     * @param timestamp The time of the sample, in milliseconds
+     * @param sensors   The sensors of the node
+     */
+    synchronized void record(long timestamp, SensorStore sensors) {
+        int count = Math.min(sensorCount, sensors.size());
+        for (int level = 0; level < RESOLUTIONS.length; ++level) {
+            long interval = Math.floorDiv(timestamp, RESOLUTIONS[level]);
+            int slot = slotOf(level, interval);
+            int offset = slot * sensorCount;
+            if (intervals[level][slot] != interval) {
+                if (intervals[level][slot] > interval) {
+                    // Older than anything kept at this resolution
+                    continue;
+                }
+                intervals[level][slot] = interval;
+                counts[level][slot] = 0;
+                Arrays.fill(mins[level], offset, offset + sensorCount, Double.POSITIVE_INFINITY);
+                Arrays.fill(maxs[level], offset, offset + sensorCount, Double.NEGATIVE_INFINITY);
+                Arrays.fill(sums[level], offset, offset + sensorCount, 0);
+            }
+            counts[level][slot]++;
+            for (int i = 0; i < count; ++i) {
+                double value = sensors.getValue(i);
+                mins[level][offset + i] = Math.min(mins[level][offset + i], value);
+                maxs[level][offset + i] = Math.max(maxs[level][offset + i], value);
+                sums[level][offset + i] += value;
+            }
+        }
+        earliestTimestamp = Math.min(earliestTimestamp, timestamp);
+        latestTimestamp = Math.max(latestTimestamp, timestamp);
+    }
+
+    private int slotOf(int level, long interval) {
+        return (int) Math.floorMod(interval, (long) CAPACITIES[level]);
+    }
+
+    /**
+     * Get the aggregates of one sensor over a time range, in at most the given
+     * number of points. The coarsest resolution which still gives that many
+     * points over the range is used, among the ones which keep the start of the
+     * range; when it gives more points, consecutive intervals are merged. The
+     * size of the answer therefore depends only on the number of points, not on
+     * the length of the range.
+     *
+     * @param sensorIndex The index of the sensor on the node
+     * @param from        The start of the range, inclusive, in milliseconds
+     * @param to          The end of the range, inclusive, in milliseconds
+     * @param points      The largest number of points to return
+     * @return The aggregates, oldest first. Intervals without samples are left
+     *         out, and the first and the last points may cover only the part of
+     *         their interval inside the range
+     */
+    synchronized Rollup query(int sensorIndex, long from, long to, int points) {
+        if (sensorIndex < 0 || sensorIndex >= sensorCount) {
+            throw new IllegalArgumentException("sensor[" + sensorIndex + "] not found");
+        }
+        if (points <= 0 || from > to) {
+            throw new IllegalArgumentException("no points in an empty time range");
+        }
+        // Only the time which has samples
+        from = Math.max(from, earliestTimestamp);
+        to = Math.min(to, latestTimestamp);
+        if (from > to) {
+            return new Rollup(RESOLUTIONS[0], 0);
+        }
+        int level = chooseLevel(from, to, points);
+        long resolution = RESOLUTIONS[level];
+        // Only the intervals still kept
+        long latest = Math.floorDiv(latestTimestamp, resolution);
+        long first = Math.max(Math.floorDiv(from, resolution), latest - CAPACITIES[level] + 1);
+        long last = Math.floorDiv(to, resolution);
+        if (first > last) {
+            return new Rollup(resolution, 0);
+        }
+        // Merge groups of intervals, aligned so that the groups don't move between queries.
+        // As the range rarely starts on a group, it may need one more group than its
+        // length suggests; only a few larger groups are ever tried
+        long intervalsPerPoint = (last - first + points) / points;
+        while (groupCount(first, last, intervalsPerPoint) > points) {
+            intervalsPerPoint++;
+        }
+        Rollup rollup = new Rollup(resolution * intervalsPerPoint, (int) groupCount(first, last, intervalsPerPoint));
+        long group = Long.MIN_VALUE;
+        for (long interval = first; interval <= last; ++interval) {
+            int slot = slotOf(level, interval);
+            if (intervals[level][slot] != interval) {
+                continue;
+            }
+            long intervalGroup = Math.floorDiv(interval, intervalsPerPoint);
+            if (intervalGroup != group) {
+                rollup.startPoint(intervalGroup * intervalsPerPoint * resolution);
+                group = intervalGroup;
+            }
+            int offset = slot * sensorCount + sensorIndex;
+            rollup.addToPoint(mins[level][offset], maxs[level][offset], sums[level][offset], counts[level][slot]);
+        }
+        rollup.finish();
+        return rollup;
+    }
+
+    private static long groupCount(long first, long last, long intervalsPerGroup) {
+        return Math.floorDiv(last, intervalsPerGroup) - Math.floorDiv(first, intervalsPerGroup) + 1;
+    }
+
+    /**
+     * Choose the coarsest resolution which gives at least the wanted number of
+     * points over the range, among the ones which still keep the start of the
+     * range. When none gives enough points, the finest one keeping the start is
+     * chosen, and when none keeps the start, the coarsest one.
+     */
+    private int chooseLevel(long from, long to, int points) {
+        int chosen = -1;
+        for (int level = 0; level < RESOLUTIONS.length; ++level) {
+            long latest = Math.floorDiv(latestTimestamp, RESOLUTIONS[level]);
+            boolean keepsStart = Math.floorDiv(from, RESOLUTIONS[level]) > latest - CAPACITIES[level];
+            boolean enoughPoints = (to - from) / RESOLUTIONS[level] >= points;
+            if (keepsStart && (chosen < 0 || enoughPoints)) {
+                chosen = level;
+            }
+        }
+        return chosen >= 0 ? chosen : RESOLUTIONS.length - 1;
+    }
+
+    /**
+     * The aggregates of one sensor over consecutive intervals of the same length.
+     */
+    static class Rollup {
+        private final long resolution;
+        private long[] starts;
+        private double[] mins;
+        private double[] maxs;
+        private double[] averages;
+        private int size = 0;
+        private double sum;
+        private int count;
+
+        private Rollup(long resolution, int capacity) {
+            this.resolution = resolution;
+            this.starts = new long[capacity];
+            this.mins = new double[capacity];
+            this.maxs = new double[capacity];
+            this.averages = new double[capacity];
+        }
+
+        private void startPoint(long start) {
+            finishPoint();
+            starts[size] = start;
+            mins[size] = Double.POSITIVE_INFINITY;
+            maxs[size] = Double.NEGATIVE_INFINITY;
+            size++;
+        }
+
+        private void addToPoint(double min, double max, double intervalSum, int intervalCount) {
+            mins[size - 1] = Math.min(mins[size - 1], min);
+            maxs[size - 1] = Math.max(maxs[size - 1], max);
+            sum += intervalSum;
+            count += intervalCount;
+        }
+
+        private void finishPoint() {
+            if (size > 0) {
+                // Rounded to two decimals, like the sensor values themselves
+                averages[size - 1] = Math.round(sum / count * 100.0) / 100.0;
+            }
+            sum = 0;
+            count = 0;
+        }
+
+        private void finish() {
+            finishPoint();
+            starts = Arrays.copyOf(starts, size);
+            mins = Arrays.copyOf(mins, size);
+            maxs = Arrays.copyOf(maxs, size);
+            averages = Arrays.copyOf(averages, size);
+        }
+
+        long getResolution() {
+            return resolution;
+        }
+
+        long[] getStarts() {
+            return starts;
+        }
+
+        double[] getMins() {
+            return mins;
+        }
+
+        double[] getMaxs() {
+            return maxs;
+        }
+
+        double[] getAverages() {
+            return averages;
+        }
+    }
+}
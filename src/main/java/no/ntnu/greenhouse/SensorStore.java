@@ -0,0 +1,354 @@
+package no.ntnu.greenhouse;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The sensors of one node, stored column by column: the values and the bounds
+ * of all the sensors are kept in primitive arrays, and the type and unit of a
+ * sensor are an index into a table shared by all the nodes. Updating all the
+ * sensors of a node is therefore a loop over a few small arrays, instead of
+ * following a pointer to a {@link Sensor} and a {@link SensorReading} object
+ * per value.
+ * <p>
+ * {@link Sensor} objects are only views of a slot in a store, created when
+ * someone asks for them. For applying actuator impacts, the store keeps an
+ * index from sensor type to the slots of that type. Sensors are added while the
+ * node is being set up, before the simulation starts, and never removed.
+ */
+class SensorStore {
+    private static final int INITIAL_CAPACITY = 4;
+
+    // The kinds of sensors (a type with a unit) of all the nodes
+    private static final List<String> KIND_TYPES = new CopyOnWriteArrayList<>();
+    private static final List<String> KIND_UNITS = new CopyOnWriteArrayList<>();
+    private static final Map<String, Short> KIND_IDS = new HashMap<>();
+    private static final List<Integer> KIND_TYPE_IDS = new CopyOnWriteArrayList<>();
+    // The sensor types of all the nodes, regardless of the unit
+    private static final Map<String, Integer> TYPE_IDS = new HashMap<>();
+    private static final List<String> TYPE_NAMES = new CopyOnWriteArrayList<>();
+
+    private short[] kinds;
+    private double[] values;
+    private double[] mins;
+    private double[] maxs;
+    private int size;
+    // The slots of each sensor type, indexed by the type ID. Built when needed
+    private volatile int[][] slotsByType;
+
+    /**
+     * Create an empty sensor store.
+     */
+    SensorStore() {
+        this(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Create an empty sensor store.
+     *
+     * @param capacity The number of sensors the store can hold before growing
+     */
+    SensorStore(int capacity) {
+        this.kinds = new short[capacity];
+        this.values = new double[capacity];
+        this.mins = new double[capacity];
+        this.maxs = new double[capacity];
+    }
+
+    /**
+     * Add a sensor to the store.
+     *
+     * @param type    The type of the sensor. Examples: "temperature", "humidity"
+     * @param min     Minimum allowed value
+     * @param max     Maximum allowed value
+     * @param current The current (starting) value of the sensor
+     * @param unit    The measurement unit. Examples: "%", "C", "lux"
+     * @return The index of the new sensor in this store
+     */
+    int add(String type, double min, double max, double current, String unit) {
+        return add(kindIdOf(type, unit), min, max, current);
+    }
+
+    /**
+     * Add a sensor of a known kind to the store.
+     *
+     * @param kind    The kind of the sensor, see {@link #kindIdOf(String, String)}
+     * @param min     Minimum allowed value
+     * @param max     Maximum allowed value
+     * @param current The current (starting) value of the sensor
+     * @return The index of the new sensor in this store
+     */
+    int add(short kind, double min, double max, double current) {
+        if (size == values.length) {
+            int capacity = Math.max(INITIAL_CAPACITY, size * 2);
+            kinds = Arrays.copyOf(kinds, capacity);
+            values = Arrays.copyOf(values, capacity);
+            mins = Arrays.copyOf(mins, capacity);
+            maxs = Arrays.copyOf(maxs, capacity);
+        }
+        int index = size++;
+        slotsByType = null;
+        kinds[index] = kind;
+        mins[index] = min;
+        maxs[index] = max;
+        setValue(index, current);
+        return index;
+    }
+
+    /**
+     * Add copies of a sensor to the store.
+     *
+     * @param template The sensor to copy
+     * @param n        The number of copies to add
+     */
+    void addCopies(Sensor template, int n) {
+        SensorStore store = template.getStore();
+        int index = template.getIndex();
+        for (int i = 0; i < n; ++i) {
+            add(store.getType(index), store.mins[index], store.maxs[index], store.values[index],
+                    store.getUnit(index));
+        }
+    }
+
+    /**
+     * Get the number of sensors in the store.
+     *
+     * @return The number of sensors
+     */
+    int size() {
+        return size;
+    }
+
+    short getKind(int index) {
+        return kinds[index];
+    }
+
+    String getType(int index) {
+        return typeOfKind(kinds[index]);
+    }
+
+    String getUnit(int index) {
+        return unitOfKind(kinds[index]);
+    }
+
+    double getValue(int index) {
+        return values[index];
+    }
+
+    double getMin(int index) {
+        return mins[index];
+    }
+
+    double getMax(int index) {
+        return maxs[index];
+    }
+
+    /**
+     * Copy the current values of the first sensors into an array.
+     *
+     * @param destination The array to copy to
+     * @param offset      The index in the array for the value of the first sensor
+     * @param count       The number of sensors to copy
+     */
+    void copyValues(double[] destination, int offset, int count) {
+        System.arraycopy(values, 0, destination, offset, Math.min(count, size));
+    }
+
+    /**
+     * Get the current reading of a sensor.
+     *
+     * @param index The index of the sensor
+     * @return A snapshot of the reading, which does not change with the sensor
+     */
+    SensorReading getReading(int index) {
+        return new SensorReading(getType(index), values[index], getUnit(index));
+    }
+
+    /**
+     * Add a random noise to all the sensors to simulate realistic values.
+     */
+    void addRandomNoise() {
+        for (int i = 0; i < size; ++i) {
+            addRandomNoise(i);
+        }
+    }
+
+    /**
+     * Add a random noise to one sensor to simulate a realistic value.
+     *
+     * @param index The index of the sensor
+     */
+    void addRandomNoise(int index) {
+        final double onePercentOfRange = (maxs[index] - mins[index]) / 100.0;
+        final double zeroToTwoPercent = ThreadLocalRandom.current().nextDouble() * onePercentOfRange * 2;
+        setValue(index, values[index] + zeroToTwoPercent - onePercentOfRange); // [-1%..+1%]
+    }
+
+    /**
+     * Apply an external impact (from an actuator) to the current value of a
+     * sensor.
+     *
+     * @param index  The index of the sensor
+     * @param impact The impact to apply - the delta for the value
+     */
+    void applyImpact(int index, double impact) {
+        setValue(index, values[index] + impact);
+    }
+
+    /**
+     * Apply an external impact (from an actuator) to all the sensors of a type.
+     *
+     * @param type   The type of sensors affected
+     * @param impact The impact to apply - the delta for the value
+     */
+    void applyImpactToType(String type, double impact) {
+        applyImpactToType(typeIdOf(type), impact);
+    }
+
+    /**
+     * Apply an external impact (from an actuator) to all the sensors of a type.
+     *
+     * @param typeId The type of sensors affected, see {@link #typeIdOf(String)}
+     * @param impact The impact to apply - the delta for the value
+     */
+    void applyImpactToType(int typeId, double impact) {
+        int[][] index = slotsByType;
+        if (index == null) {
+            index = buildTypeIndex();
+            slotsByType = index;
+        }
+        if (typeId >= 0 && typeId < index.length) {
+            for (int slot : index[typeId]) {
+                applyImpact(slot, impact);
+            }
+        }
+    }
+
+    private int[][] buildTypeIndex() {
+        int typeCount = 0;
+        for (int i = 0; i < size; ++i) {
+            typeCount = Math.max(typeCount, KIND_TYPE_IDS.get(kinds[i]) + 1);
+        }
+        int[] counts = new int[typeCount];
+        for (int i = 0; i < size; ++i) {
+            counts[KIND_TYPE_IDS.get(kinds[i])]++;
+        }
+        int[][] index = new int[typeCount][];
+        for (int typeId = 0; typeId < typeCount; ++typeId) {
+            index[typeId] = new int[counts[typeId]];
+            counts[typeId] = 0;
+        }
+        for (int i = 0; i < size; ++i) {
+            int typeId = KIND_TYPE_IDS.get(kinds[i]);
+            index[typeId][counts[typeId]++] = i;
+        }
+        return index;
+    }
+
+    /**
+     * Get the sensors of the store as a list. The list does not hold any sensor
+     * objects, they are created when the list is read.
+     *
+     * @return An unmodifiable list of views of the sensors
+     */
+    List<Sensor> asSensorList() {
+        return new AbstractList<>() {
+            @Override
+            public Sensor get(int index) {
+                if (index < 0 || index >= size) {
+                    throw new IndexOutOfBoundsException("No sensor at index " + index);
+                }
+                return new Sensor(SensorStore.this, index);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    private void setValue(int index, double newValue) {
+        newValue = Math.round(newValue * 100.0) / 100.0;
+        if (newValue < mins[index]) {
+            newValue = mins[index];
+        } else if (newValue > maxs[index]) {
+            newValue = maxs[index];
+        }
+        values[index] = newValue;
+    }
+
+    /**
+     * Get the ID of a sensor type, shared by all the nodes.
+     *
+     * @param type The type of sensors. Example: "temperature"
+     * @return The ID of the type
+     */
+    static synchronized int typeIdOf(String type) {
+        Integer typeId = TYPE_IDS.get(type);
+        if (typeId == null) {
+            typeId = TYPE_IDS.size();
+            TYPE_IDS.put(type, typeId);
+            TYPE_NAMES.add(type);
+        }
+        return typeId;
+    }
+
+    /**
+     * Get the type of a kind of sensors.
+     *
+     * @param kind The ID of the kind, see {@link #kindIdOf(String, String)}
+     * @return The type. Example: "temperature"
+     */
+    static String typeOfKind(short kind) {
+        return KIND_TYPES.get(kind);
+    }
+
+    /**
+     * Get the unit of a kind of sensors.
+     *
+     * @param kind The ID of the kind, see {@link #kindIdOf(String, String)}
+     * @return The unit. Example: "C"
+     */
+    static String unitOfKind(short kind) {
+        return KIND_UNITS.get(kind);
+    }
+
+    /**
+     * Get the name of a sensor type.
+     *
+     * @param typeId The ID of the type, see {@link #typeIdOf(String)}
+     * @return The type. Example: "temperature"
+     */
+    static String typeNameOf(int typeId) {
+        return TYPE_NAMES.get(typeId);
+    }
+
+    /**
+     * Get the ID of a kind of sensors, a type with a unit, shared by all the nodes.
+     *
+     * @param type The type of sensors. Example: "temperature"
+     * @param unit The unit of the values. Example: "C"
+     * @return The ID of the kind
+     */
+    static synchronized short kindIdOf(String type, String unit) {
+        String key = type + '\u0000' + unit;
+        Short kindId = KIND_IDS.get(key);
+        if (kindId == null) {
+            if (KIND_TYPES.size() > Short.MAX_VALUE) {
+                throw new IllegalStateException("Too many different kinds of sensors");
+            }
+            kindId = (short) KIND_TYPES.size();
+            KIND_TYPES.add(type);
+            KIND_UNITS.add(unit);
+            KIND_TYPE_IDS.add(typeIdOf(type));
+            KIND_IDS.put(key, kindId);
+        }
+        return kindId;
+    }
+}
@@ -0,0 +1,50 @@
+package no.ntnu.greenhouse;
+
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Advances the sensors of a range of nodes and records the new values,
+ * splitting the range in halves and advancing them in parallel until the
+ * ranges are small enough.
+ */
+class SensorTickTask extends RecursiveAction {
+    // Fork/join tasks are serializable, but these are never serialized
+    private static final long serialVersionUID = 1L;
+    // Below this many nodes, splitting further costs more than it gains
+    private static final int NODES_PER_TASK = 256;
+
+    private final transient SensorActuatorNode[] nodes;
+    private final int from;
+    private final int to;
+    private final long timestamp;
+
+    /**
+     * Create a task advancing the sensors of some nodes.
+     *
+     * @param nodes     The nodes
+     * @param from      Index of the first node to advance, inclusive
+     * @param to        Index of the last node to advance, exclusive
+     * @param timestamp The time of the new sensor values
+     */
+    SensorTickTask(SensorActuatorNode[] nodes, int from, int to, long timestamp) {
+        this.nodes = nodes;
+        this.from = from;
+        this.to = to;
+        this.timestamp = timestamp;
+    }
+
+    @Override
+    protected void compute() {
+        if (to - from <= NODES_PER_TASK) {
+            for (int i = from; i < to; ++i) {
+                if (nodes[i].isRunning()) {
+                    nodes[i].advanceSensors(timestamp);
+                }
+            }
+        } else {
+            int middle = (from + to) >>> 1;
+            invokeAll(new SensorTickTask(nodes, from, middle, timestamp),
+                    new SensorTickTask(nodes, middle, to, timestamp));
+        }
+    }
+}
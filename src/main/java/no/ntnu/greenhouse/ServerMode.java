@@ -0,0 +1,26 @@
+package no.ntnu.greenhouse;
+
+/**
+ * The way the greenhouse server handles client connections.
+ */
+public enum ServerMode {
+    /**
+     * One {@link ClientHandler} thread per connected client, using blocking
+     * socket reads.
+     */
+    BLOCKING,
+
+    /**
+     * One {@link ClientHandler} per connected client, like {@link #BLOCKING},
+     * but run on a virtual thread instead of a platform thread. Keeps the
+     * simple blocking code style, while an idle connection costs kilobytes
+     * instead of a whole thread stack.
+     */
+    VIRTUAL_THREADS,
+
+    /**
+     * A small fixed pool of selector-based event loops shared by all clients,
+     * see {@link NioServer}.
+     */
+    NIO
+}
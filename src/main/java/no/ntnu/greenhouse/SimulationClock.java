@@ -0,0 +1,41 @@
+package no.ntnu.greenhouse;
+
+/**
+ * The time of the simulation, and the runner of everything which happens at a
+ * given simulated time: sensor readings, periodic switches, batched sensor
+ * publishing. The simulation can therefore run in real time, or faster.
+ */
+public interface SimulationClock {
+    /**
+     * Get the current simulated time.
+     *
+     * @return The simulated time, in milliseconds since the epoch
+     */
+    long currentTimeMillis();
+
+    /**
+     * Run a task once, after a simulated delay.
+     *
+     * @param task  The task to run
+     * @param delay Delay before the run, in simulated milliseconds
+     * @return The handle for cancelling the task
+     */
+    ScheduledTask schedule(Runnable task, long delay);
+
+    /**
+     * Run a task periodically, with the period measured from the start of one
+     * run to the start of the next.
+     *
+     * @param task         The task to run
+     * @param initialDelay Delay before the first run, in simulated milliseconds
+     * @param period       Time between the runs, in simulated milliseconds
+     * @return The handle for cancelling the task
+     */
+    ScheduledTask scheduleAtFixedRate(Runnable task, long initialDelay, long period);
+
+    /**
+     * Stop running all the scheduled tasks. Scheduling a task afterwards starts
+     * the clock again.
+     */
+    void shutdown();
+}
@@ -0,0 +1,87 @@
+package no.ntnu.greenhouse;
+
+import no.ntnu.tools.Logger;
+
+/**
+ * The scheduler running all the periodic work of the simulation: sensor
+ * readings of the nodes, periodic switches, batched sensor publishing. All the
+ * tasks run on one {@link SimulationClock}, by default a {@link WallClock}
+ * sharing a small pool of threads, instead of every node having its own timer
+ * thread, so the number of simulated nodes is limited by memory rather than by
+ * threads.
+ */
+public class SimulationScheduler {
+    private static SimulationClock clock = new WallClock();
+
+    /**
+     * Not allowed to create an instance of this class.
+     */
+    private SimulationScheduler() {
+    }
+
+    /**
+     * Choose the clock of the simulation. Must be called before the simulation
+     * starts, the tasks scheduled on the previous clock are stopped.
+     *
+     * @param newClock The clock to use, a {@link WallClock} by default
+     */
+    public static synchronized void setClock(SimulationClock newClock) {
+        clock.shutdown();
+        clock = newClock;
+    }
+
+    /**
+     * Get the current simulated time.
+     *
+     * @return The simulated time, in milliseconds since the epoch
+     */
+    public static long currentTimeMillis() {
+        return getClock().currentTimeMillis();
+    }
+
+    /**
+     * Run a task periodically, with the period measured from the start of one
+     * run to the start of the next, like {@link java.util.Timer#scheduleAtFixedRate}.
+     * Any exception thrown by the task is logged, and the task keeps running.
+     *
+     * @param task         The task to run
+     * @param initialDelay Delay before the first run, in milliseconds
+     * @param period       Time between the runs, in milliseconds
+     * @return The handle for cancelling the task
+     */
+    public static ScheduledTask scheduleAtFixedRate(Runnable task, long initialDelay, long period) {
+        return getClock().scheduleAtFixedRate(() -> runSafely(task), initialDelay, period);
+    }
+
+    /**
+     * Run a task once, after a delay. Any exception thrown by the task is logged.
+     *
+     * @param task  The task to run
+     * @param delay Delay before the run, in milliseconds
+     * @return The handle for cancelling the task
+     */
+    public static ScheduledTask schedule(Runnable task, long delay) {
+        return getClock().schedule(() -> runSafely(task), delay);
+    }
+
+    /**
+     * Stop running all the scheduled tasks. The tasks which are running right now
+     * are allowed to finish. Scheduling a task afterwards starts the clock again.
+     */
+    public static void shutdown() {
+        getClock().shutdown();
+    }
+
+    private static synchronized SimulationClock getClock() {
+        return clock;
+    }
+
+    private static void runSafely(Runnable task) {
+        try {
+            task.run();
+        } catch (Exception e) {
+            // An exception would otherwise silently cancel all the future runs
+            Logger.error("Simulation task failed: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package no.ntnu.greenhouse;
+
+/**
+ * What to do when the outbound queue of a client is full, because the client
+ * does not read its messages as fast as the server produces them. Only sensor
+ * data advertisements are ever dropped or coalesced - all the other messages,
+ * such as actuator states, are always delivered.
+ */
+public enum SlowConsumerPolicy {
+    /**
+     * Drop the oldest queued sensor data advertisement to make room for the new
+     * message.
+     */
+    DROP_OLDEST,
+
+    /**
+     * Replace the queued sensor data advertisement of the same node with the new
+     * one, so that only the latest values per node are kept. The replacement is
+     * always sent in full, even when the new one is a delta. When no
+     * advertisement of the same node is queued, behave like
+     * {@link #DROP_OLDEST}.
+     */
+    COALESCE,
+
+    /**
+     * Disconnect the client.
+     */
+    DISCONNECT
+}
@@ -0,0 +1,396 @@
+package no.ntnu.greenhouse;
+
+import java.util.Arrays;
+
+/**
+ * A compressed block of the samples of one sensor, in the style of the Gorilla
+ * time series database. Sensor values change little from one sample to the
+ * next, and the samples come at a steady rate, so both are stored as small
+ * differences packed into bits:
+ * <ul>
+ * <li>The first timestamp is stored in 64 bits. Every following timestamp is
+ * stored as the change of the interval since the previous one (the delta of
+ * the delta): '0' when the interval is the same, '10' followed by 4 bits,
+ * '110' followed by 12 bits, '1110' followed by 20 bits, or '1111' followed by
+ * 64 bits.</li>
+ * <li>Sensor values are rounded to two decimals, so a value and the value
+ * before it are usually both exact hundredths. The value is then stored as the
+ * difference in hundredths: '0' when it is the same, '10' followed by 7 bits,
+ * '110' followed by 13 bits or '1110' followed by 24 bits.</li>
+ * <li>Otherwise the value is stored as the XOR of its bits with the bits of the
+ * previous value (0 for the first value): '0' when they are equal, '10'
+ * followed by the meaningful bits when they fit in the window of the previous
+ * XOR, otherwise '11' followed by 5 bits for the number of leading zeros, 6
+ * bits for the number of meaningful bits minus one, and the meaningful bits.
+ * When the previous value is an exact number of hundredths, the XOR comes
+ * after the escape code '1111'.</li>
+ * </ul>
+ * All the differences are zigzag-encoded, so that small negative numbers take
+ * few bits too. A block starts with the number of samples in 32 bits. The
+ * values are restored exactly, bit for bit.
+ */
+public class TimeSeriesBlock {
+    private static final int COUNT_BITS = 32;
+    private static final double FIXED_POINT_SCALE = 100.0;
+    // Values beyond this are not stored as hundredths, their difference could overflow
+    private static final long MAX_FIXED_POINT = 1L << 52;
+    private static final int[] TIMESTAMP_BUCKETS = {4, 12, 20};
+    private static final int[] VALUE_BUCKETS = {7, 13, 24};
+    private static final int FULL_WIDTH = 64;
+    private static final long ESCAPE = 0b1111;
+    private static final int ESCAPE_BITS = 4;
+
+    /**
+     * Not allowed to create instances of this class.
+     */
+    private TimeSeriesBlock() {
+    }
+
+    /**
+     * Get the value as a number of hundredths, if that is exact.
+     *
+     * @return The number of hundredths, or Long.MIN_VALUE if the value is not an
+     *         exact number of hundredths
+     */
+    private static long toFixedPoint(double value) {
+        long fixed = Math.round(value * FIXED_POINT_SCALE);
+        if (Math.abs(fixed) >= MAX_FIXED_POINT
+                || Double.doubleToRawLongBits(fixed / FIXED_POINT_SCALE) != Double.doubleToRawLongBits(value)) {
+            return Long.MIN_VALUE;
+        }
+        return fixed;
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Compresses the samples of one sensor into a block. An encoder can be reused
+     * for the next block after {@link #reset()}; adding a sample creates no
+     * objects, except when the buffer has to grow.
+     */
+    public static class Encoder {
+        private byte[] bytes;
+        private long bitLength = COUNT_BITS;
+        private int sampleCount = 0;
+        private long previousTimestamp;
+        private long previousInterval;
+        private long previousBits;
+        private long previousFixed = Long.MIN_VALUE;
+        private int previousLeadingZeros = -1;
+        private int previousTrailingZeros;
+
+        /**
+         * Create an encoder for an empty block.
+         *
+         * @param initialCapacity The expected size of the block, in bytes
+         */
+        public Encoder(int initialCapacity) {
+            this.bytes = new byte[Math.max(initialCapacity, 16)];
+        }
+
+        /**
+         * Start a new, empty block.
+         */
+        public void reset() {
+            Arrays.fill(bytes, 0, (int) Math.min(bytes.length, (bitLength + 7) / 8), (byte) 0);
+            bitLength = COUNT_BITS;
+            sampleCount = 0;
+            previousBits = 0;
+            previousFixed = Long.MIN_VALUE;
+            previousLeadingZeros = -1;
+        }
+
+        /**
+         * Add a sample to the block. Samples should be added in time order,
+         * although any order works.
+         *
+         * @param timestamp The time of the sample, in milliseconds
+         * @param value     The value of the sensor
+         */
+        public void add(long timestamp, double value) {
+            if (sampleCount == 0) {
+                writeBits(timestamp, FULL_WIDTH);
+                previousInterval = 0;
+            } else {
+                long interval = timestamp - previousTimestamp;
+                long difference = zigZag(interval - previousInterval);
+                if (!writeDifference(difference, TIMESTAMP_BUCKETS)) {
+                    writeBits(difference, FULL_WIDTH);
+                }
+                previousInterval = interval;
+            }
+            previousTimestamp = timestamp;
+            writeValue(value);
+            sampleCount++;
+        }
+
+        private void writeValue(double value) {
+            long fixed = toFixedPoint(value);
+            long bits = Double.doubleToRawLongBits(value);
+            boolean written = false;
+            if (previousFixed != Long.MIN_VALUE) {
+                if (fixed != Long.MIN_VALUE) {
+                    written = writeDifference(zigZag(fixed - previousFixed), VALUE_BUCKETS);
+                } else {
+                    writeBits(ESCAPE, ESCAPE_BITS);
+                }
+            }
+            if (!written) {
+                writeXor(bits ^ previousBits);
+            }
+            previousFixed = fixed;
+            previousBits = bits;
+        }
+
+        /**
+         * Write a zigzag-encoded difference in the smallest bucket it fits in, or
+         * the escape code '1111' when it fits in none.
+         *
+         * @return True if the difference was written, false if the escape code
+         *         was written instead
+         */
+        private boolean writeDifference(long difference, int[] buckets) {
+            if (difference == 0) {
+                writeBits(0, 1);
+                return true;
+            }
+            for (int i = 0; i < buckets.length; ++i) {
+                if (difference >>> buckets[i] == 0) {
+                    // i + 1 ones followed by a zero
+                    writeBits((1L << (i + 2)) - 2, i + 2);
+                    writeBits(difference, buckets[i]);
+                    return true;
+                }
+            }
+            writeBits(ESCAPE, ESCAPE_BITS);
+            return false;
+        }
+
+        private void writeXor(long xor) {
+            if (xor == 0) {
+                writeBits(0, 1);
+                return;
+            }
+            int leadingZeros = Math.min(Long.numberOfLeadingZeros(xor), 31);
+            int trailingZeros = Long.numberOfTrailingZeros(xor);
+            if (previousLeadingZeros >= 0 && leadingZeros >= previousLeadingZeros
+                    && trailingZeros >= previousTrailingZeros) {
+                writeBits(0b10, 2);
+                writeBits(xor >>> previousTrailingZeros, FULL_WIDTH - previousLeadingZeros - previousTrailingZeros);
+            } else {
+                int meaningfulBits = FULL_WIDTH - leadingZeros - trailingZeros;
+                writeBits(0b11, 2);
+                writeBits(leadingZeros, 5);
+                writeBits(meaningfulBits - 1, 6);
+                writeBits(xor >>> trailingZeros, meaningfulBits);
+                previousLeadingZeros = leadingZeros;
+                previousTrailingZeros = trailingZeros;
+            }
+        }
+
+        private void writeBits(long value, int count) {
+            ensureCapacity(bitLength + count);
+            for (int written = 0; written < count; ) {
+                int byteIndex = (int) (bitLength >>> 3);
+                int freeBits = 8 - (int) (bitLength & 7);
+                int n = Math.min(freeBits, count - written);
+                // The next n bits of the value, most significant first
+                int chunk = (int) (value >>> (count - written - n)) & ((1 << n) - 1);
+                bytes[byteIndex] |= (byte) (chunk << (freeBits - n));
+                bitLength += n;
+                written += n;
+            }
+        }
+
+        private void ensureCapacity(long bits) {
+            int needed = (int) ((bits + 7) >>> 3);
+            if (needed > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(needed, bytes.length * 2));
+            }
+        }
+
+        /**
+         * Get the number of samples in the block.
+         *
+         * @return The number of samples
+         */
+        public int getSampleCount() {
+            return sampleCount;
+        }
+
+        /**
+         * Get the size of the block.
+         *
+         * @return The size of the block, in bytes
+         */
+        public int size() {
+            return (int) ((bitLength + 7) >>> 3);
+        }
+
+        /**
+         * Get the block.
+         *
+         * @return A copy of the bytes of the block
+         */
+        public byte[] toByteArray() {
+            byte[] block = Arrays.copyOf(bytes, size());
+            block[0] = (byte) (sampleCount >>> 24);
+            block[1] = (byte) (sampleCount >>> 16);
+            block[2] = (byte) (sampleCount >>> 8);
+            block[3] = (byte) sampleCount;
+            return block;
+        }
+    }
+
+    /**
+     * Reads the samples of a block back, one at a time, without creating any
+     * objects.
+     */
+    public static class Decoder {
+        private final byte[] bytes;
+        private final int sampleCount;
+        private long bitPosition = COUNT_BITS;
+        private int samplesRead = 0;
+        private long timestamp;
+        private long interval;
+        private double value;
+        private long bits;
+        private long fixed = Long.MIN_VALUE;
+        private int leadingZeros;
+        private int trailingZeros;
+
+        /**
+         * Create a decoder for a block.
+         *
+         * @param block The block, as returned by {@link Encoder#toByteArray()}
+         * @throws IllegalArgumentException If the block is too short
+         */
+        public Decoder(byte[] block) {
+            if (block.length < COUNT_BITS / 8) {
+                throw new IllegalArgumentException("Time series block too short");
+            }
+            this.bytes = block;
+            this.sampleCount = (block[0] & 0xFF) << 24 | (block[1] & 0xFF) << 16 | (block[2] & 0xFF) << 8
+                    | (block[3] & 0xFF);
+        }
+
+        /**
+         * Get the number of samples in the block.
+         *
+         * @return The number of samples
+         */
+        public int getSampleCount() {
+            return sampleCount;
+        }
+
+        /**
+         * Move to the next sample.
+         *
+         * @return True if there was a next sample, false at the end of the block
+         * @throws IllegalArgumentException If the block is malformed
+         */
+        public boolean next() {
+            if (samplesRead == sampleCount) {
+                return false;
+            }
+            if (samplesRead == 0) {
+                timestamp = readBits(FULL_WIDTH);
+                interval = 0;
+            } else {
+                long difference = readDifference(TIMESTAMP_BUCKETS);
+                if (difference == Long.MIN_VALUE) {
+                    difference = readBits(FULL_WIDTH);
+                }
+                interval += unZigZag(difference);
+                timestamp += interval;
+            }
+            readValue();
+            samplesRead++;
+            return true;
+        }
+
+        private void readValue() {
+            long difference = fixed != Long.MIN_VALUE ? readDifference(VALUE_BUCKETS) : Long.MIN_VALUE;
+            if (difference != Long.MIN_VALUE) {
+                bits = Double.doubleToRawLongBits((fixed + unZigZag(difference)) / FIXED_POINT_SCALE);
+            } else {
+                bits ^= readXor();
+            }
+            value = Double.longBitsToDouble(bits);
+            fixed = toFixedPoint(value);
+        }
+
+        /**
+         * Read a difference written in one of the buckets.
+         *
+         * @return The zigzag-encoded difference, or Long.MIN_VALUE for the escape
+         *         code '1111'
+         */
+        private long readDifference(int[] buckets) {
+            int ones = 0;
+            while (ones < buckets.length + 1 && readBits(1) == 1) {
+                ones++;
+            }
+            if (ones == 0) {
+                return 0;
+            }
+            if (ones > buckets.length) {
+                return Long.MIN_VALUE;
+            }
+            return readBits(buckets[ones - 1]);
+        }
+
+        private long readXor() {
+            if (readBits(1) == 0) {
+                return 0;
+            }
+            if (readBits(1) == 1) {
+                leadingZeros = (int) readBits(5);
+                int meaningfulBits = (int) readBits(6) + 1;
+                trailingZeros = FULL_WIDTH - leadingZeros - meaningfulBits;
+            }
+            return readBits(FULL_WIDTH - leadingZeros - trailingZeros) << trailingZeros;
+        }
+
+        private long readBits(int count) {
+            if (bitPosition + count > (long) bytes.length * 8) {
+                throw new IllegalArgumentException("Malformed time series block");
+            }
+            long result = 0;
+            for (int read = 0; read < count; ) {
+                int byteIndex = (int) (bitPosition >>> 3);
+                int availableBits = 8 - (int) (bitPosition & 7);
+                int n = Math.min(availableBits, count - read);
+                int chunk = (bytes[byteIndex] >>> (availableBits - n)) & ((1 << n) - 1);
+                result = result << n | chunk;
+                bitPosition += n;
+                read += n;
+            }
+            return result;
+        }
+
+        /**
+         * Get the time of the current sample.
+         *
+         * @return The timestamp, in milliseconds
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        /**
+         * Get the value of the current sample.
+         *
+         * @return The value of the sensor
+         */
+        public double getValue() {
+            return value;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package no.ntnu.greenhouse;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A simulation clock following the real time. The tasks share a small pool of
+ * threads, one per CPU core.
+ * <p>
+ * The threads are not daemons, so a running simulation keeps the application
+ * alive. The pool is created on first use, and again after
+ * {@link #shutdown()}.
+ */
+public class WallClock implements SimulationClock {
+    private ScheduledThreadPoolExecutor executor;
+
+    @Override
+    public long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    @Override
+    public ScheduledTask schedule(Runnable task, long delay) {
+        ScheduledFuture<?> future = getExecutor().schedule(task, delay, TimeUnit.MILLISECONDS);
+        return () -> future.cancel(false);
+    }
+
+    @Override
+    public ScheduledTask scheduleAtFixedRate(Runnable task, long initialDelay, long period) {
+        ScheduledFuture<?> future = getExecutor().scheduleAtFixedRate(task, initialDelay, period,
+                TimeUnit.MILLISECONDS);
+        return () -> future.cancel(false);
+    }
+
+    @Override
+    public synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    private synchronized ScheduledThreadPoolExecutor getExecutor() {
+        if (executor == null) {
+            executor = new ScheduledThreadPoolExecutor(Runtime.getRuntime().availableProcessors(),
+                    createThreadFactory());
+            // Stopped nodes must not leave their cancelled tasks in the queue
+            executor.setRemoveOnCancelPolicy(true);
+        }
+        return executor;
+    }
+
+    private static ThreadFactory createThreadFactory() {
+        AtomicInteger threadCount = new AtomicInteger();
+        return task -> new Thread(task, "simulation-" + threadCount.incrementAndGet());
+    }
+}
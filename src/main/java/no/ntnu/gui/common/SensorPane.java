@@ -1,6 +1,7 @@
 package no.ntnu.gui.common;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import javafx.application.Platform;
@@ -17,6 +18,7 @@ import no.ntnu.tools.Logger;
  */
 public class SensorPane extends TitledPane {
     private final List<SimpleStringProperty> sensorProps = new ArrayList<>();
+    private final List<SensorReading> readings = Collections.synchronizedList(new ArrayList<>());
     private final VBox contentBox = new VBox();
 
     /**
@@ -31,7 +33,10 @@ public class SensorPane extends TitledPane {
 
     private void initialize(Iterable<SensorReading> sensors) {
         setText("Sensors");
-        sensors.forEach(sensor -> contentBox.getChildren().add(createAndRememberSensorLabel(sensor)));
+        sensors.forEach(sensor -> {
+            readings.add(sensor);
+            contentBox.getChildren().add(createAndRememberSensorLabel(sensor));
+        });
         setContent(contentBox);
     }
 
@@ -74,6 +79,25 @@ public class SensorPane extends TitledPane {
         update(sensors.stream().map(Sensor::getReading).toList());
     }
 
+    /**
+     * Update the GUI according to the sensor values which changed. The types and
+     * units are the ones received in the latest full update.
+     *
+     * @param indices The indices of the changed sensors
+     * @param values  The new values of the changed sensors
+     */
+    public void update(int[] indices, double[] values) {
+        for (int i = 0; i < indices.length; ++i) {
+            int index = indices[i];
+            if (index < readings.size()) {
+                SensorReading known = readings.get(index);
+                updateSensorLabel(new SensorReading(known.getType(), values[i], known.getUnit()), index);
+            } else {
+                Logger.error("Unknown sensor[" + index + "], waiting for full sensor data");
+            }
+        }
+    }
+
     private Label createAndRememberSensorLabel(SensorReading sensor) {
         SimpleStringProperty props = new SimpleStringProperty(generateSensorText(sensor));
         sensorProps.add(props);
@@ -87,6 +111,11 @@ public class SensorPane extends TitledPane {
     }
 
     private void updateSensorLabel(SensorReading sensor, int index) {
+        if (index < readings.size()) {
+            readings.set(index, sensor);
+        } else {
+            readings.add(sensor);
+        }
         if (sensorProps.size() > index) {
             SimpleStringProperty props = sensorProps.get(index);
             Platform.runLater(() -> props.set(generateSensorText(sensor)));
@@ -122,6 +122,16 @@ public class ControlPanelApplication extends Application implements GreenhouseEv
         }
     }
 
+    @Override
+    public void onSensorDelta(int nodeId, int[] indices, double[] values) {
+        SensorPane sensorPane = sensorPanes.get(nodeId);
+        if (sensorPane != null) {
+            sensorPane.update(indices, values);
+        } else {
+            Logger.error("No sensor section for node " + nodeId);
+        }
+    }
+
     @Override
     public void onActuatorStateChanged(int nodeId, int actuatorId, boolean isOn) {
         String state = isOn ? "ON" : "OFF";
@@ -8,6 +8,7 @@ import javafx.stage.Stage;
 import no.ntnu.controlpanel.ControlPanelLogic;
 import no.ntnu.greenhouse.GreenhouseSimulator;
 import no.ntnu.greenhouse.SensorActuatorNode;
+import no.ntnu.greenhouse.SimulationScheduler;
 import no.ntnu.listeners.greenhouse.NodeStateListener;
 import no.ntnu.tools.Logger;
 
@@ -38,6 +39,8 @@ public class GreenhouseApplication extends Application implements NodeStateListe
     private void closeApplication() {
         Logger.info("Closing Greenhouse application...");
         simulator.stop();
+        // The threads of the clock would keep the application alive
+        SimulationScheduler.shutdown();
         try {
             stop();
         } catch (Exception e) {
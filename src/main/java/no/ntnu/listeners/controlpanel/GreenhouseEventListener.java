@@ -34,6 +34,18 @@ public interface GreenhouseEventListener {
      */
     void onSensorData(int nodeId, List<SensorReading> sensors);
 
+    /**
+     * This event is fired when only some of the sensor values of a node are
+     * received, because the rest of them did not change.
+     *
+     * @param nodeId  ID of the node
+     * @param indices Indices of the changed sensors, in the list of all sensors
+     *                received in {@link #onSensorData}
+     * @param values  New values of the changed sensors, in the same order as the
+     *                indices
+     */
+    void onSensorDelta(int nodeId, int[] indices, double[] values);
+
     /**
      * This event is fired when an actuator changes state.
      *
@@ -0,0 +1,67 @@
+package no.ntnu.message;
+
+/**
+ * Represents the new states of many actuators, possibly on many nodes, sent as
+ * one message instead of one {@link ActuatorStateMessage} per actuator. This is
+ * the answer to the batch actuator commands, and it is broadcast to all the
+ * clients like a single actuator state.
+ */
+public class ActuatorStatesMessage implements Message {
+    private final int[] nodeIds;
+    private final int[] actuatorIds;
+    private final boolean[] states;
+
+    /**
+     * Creates a new actuator states message.
+     *
+     * @param nodeIds     The IDs of the nodes of the actuators.
+     * @param actuatorIds The IDs of the actuators, in the same order as the nodes.
+     * @param states      The states of the actuators, in the same order; true if
+     *                    the actuator is on.
+     */
+    public ActuatorStatesMessage(int[] nodeIds, int[] actuatorIds, boolean[] states) {
+        if (nodeIds.length != actuatorIds.length || nodeIds.length != states.length) {
+            throw new IllegalArgumentException("Every actuator needs a node ID, an actuator ID and a state");
+        }
+        this.nodeIds = nodeIds;
+        this.actuatorIds = actuatorIds;
+        this.states = states;
+    }
+
+    /**
+     * Returns the number of actuators in the message.
+     *
+     * @return The number of actuators.
+     */
+    public int size() {
+        return nodeIds.length;
+    }
+
+    /**
+     * Returns the node IDs of the actuators.
+     *
+     * @return The IDs of the nodes.
+     */
+    public int[] getNodeIds() {
+        return nodeIds;
+    }
+
+    /**
+     * Returns the IDs of the actuators.
+     *
+     * @return The IDs of the actuators, in the same order as the nodes.
+     */
+    public int[] getActuatorIds() {
+        return actuatorIds;
+    }
+
+    /**
+     * Returns the states of the actuators.
+     *
+     * @return The states, in the same order as the actuators; true if the actuator
+     *         is on.
+     */
+    public boolean[] getStates() {
+        return states;
+    }
+}
@@ -0,0 +1,75 @@
+package no.ntnu.message;
+
+import no.ntnu.controlpanel.ControlPanelLogic;
+
+/**
+ * Represents a command to set the state of many actuators, possibly on many
+ * nodes, at once. The greenhouse applies all the changes in one pass and
+ * answers with a single {@link ActuatorStatesMessage}, instead of one command
+ * and one broadcast per actuator. If one of the actuators does not exist,
+ * nothing is changed.
+ */
+public class BatchActuatorCommand extends Command {
+    private final int[] nodeIds;
+    private final int[] actuatorIds;
+    private final boolean[] states;
+
+    /**
+     * Creates a new batch actuator command.
+     *
+     * @param nodeIds     The IDs of the nodes of the actuators.
+     * @param actuatorIds The IDs of the actuators, in the same order as the nodes.
+     * @param states      The states to set, in the same order; true to turn the
+     *                    actuator on.
+     */
+    public BatchActuatorCommand(int[] nodeIds, int[] actuatorIds, boolean[] states) {
+        if (nodeIds.length != actuatorIds.length || nodeIds.length != states.length) {
+            throw new IllegalArgumentException("Every actuator needs a node ID, an actuator ID and a state");
+        }
+        this.nodeIds = nodeIds;
+        this.actuatorIds = actuatorIds;
+        this.states = states;
+    }
+
+    @Override
+    public Message execute(ControlPanelLogic logic) {
+        try {
+            ActuatorStatesMessage newStates = logic.getGreenhouseSimulator()
+                    .setActuatorStates(nodeIds, actuatorIds, states);
+            for (int i = 0; i < newStates.size(); ++i) {
+                logic.onActuatorStateChanged(newStates.getNodeIds()[i], newStates.getActuatorIds()[i],
+                        newStates.getStates()[i]);
+            }
+            return newStates;
+        } catch (Exception err) {
+            return new ErrorMessage(err.getMessage());
+        }
+    }
+
+    /**
+     * Returns the node IDs of the actuators.
+     *
+     * @return The IDs of the nodes.
+     */
+    public int[] getNodeIds() {
+        return nodeIds;
+    }
+
+    /**
+     * Returns the IDs of the actuators.
+     *
+     * @return The IDs of the actuators, in the same order as the nodes.
+     */
+    public int[] getActuatorIds() {
+        return actuatorIds;
+    }
+
+    /**
+     * Returns the states to set.
+     *
+     * @return The states, in the same order as the actuators.
+     */
+    public boolean[] getStates() {
+        return states;
+    }
+}
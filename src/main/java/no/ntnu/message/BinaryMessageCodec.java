@@ -0,0 +1,657 @@
+package no.ntnu.message;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import no.ntnu.controlpanel.SensorActuatorNodeInfo;
+import no.ntnu.greenhouse.Actuator;
+import no.ntnu.greenhouse.SensorReading;
+
+/**
+ * Encodes messages to binary frames and decodes them back, as an alternative
+ * to the text protocol of {@link MessageSerializer}.
+ * <p>
+ * Every frame starts with a 4-byte big-endian length of the rest of the
+ * frame, followed by one byte telling the message type, followed by the
+ * payload. Node and actuator IDs are encoded as unsigned variable-length
+ * integers (7 bits per byte, least significant group first). Well-known
+ * strings, such as sensor types, units and actuator types, are sent as an
+ * index into {@link #DICTIONARY}, other strings are sent literally. Sensor
+ * values, which are rounded to two decimals, are sent as a fixed-point
+ * integer (the value multiplied by 100) when that is exact, and as an 8-byte
+ * double otherwise.
+ */
+public class BinaryMessageCodec {
+    /**
+     * Size of the length prefix of every frame, in bytes.
+     */
+    public static final int LENGTH_PREFIX_SIZE = 4;
+
+    /**
+     * Strings which are sent as a single-byte index instead of the whole string.
+     * New strings may only be appended to the end of this table, otherwise old
+     * and new nodes would no longer understand each other.
+     */
+    static final List<String> DICTIONARY = List.of(
+            "temperature", "humidity", "lightLevel",
+            "°C", "%", "lx",
+            "window", "fan", "heater");
+
+    private static final byte TURN_ON_ACTUATOR = 1;
+    private static final byte TURN_OFF_ACTUATOR = 2;
+    private static final byte ACTUATOR_STATE = 3;
+    private static final byte SENSOR_DATA = 4;
+    private static final byte REQUEST_NODE_INFO = 5;
+    private static final byte NODE_INFO = 6;
+    private static final byte REMOVE_NODE = 7;
+    private static final byte ERROR = 8;
+    private static final byte PROTOCOL_SWITCH = 9;
+    private static final byte SENSOR_DELTA = 10;
+    private static final byte CORRELATED = 11;
+    private static final byte BATCH_ACTUATORS = 12;
+    private static final byte ACTUATORS_OF_TYPE = 13;
+    private static final byte ACTUATOR_STATES = 14;
+    private static final byte NODE_CHANGES = 15;
+    private static final byte NODE_INFO_BEGIN = 16;
+    private static final byte NODE_INFO_END = 17;
+    private static final byte SENSOR_HISTORY_REQUEST = 18;
+    private static final byte SENSOR_HISTORY = 19;
+    private static final byte SENSOR_ROLLUP_REQUEST = 20;
+    private static final byte SENSOR_ROLLUP = 21;
+
+    private static final double FIXED_POINT_SCALE = 100.0;
+    private static final int LITERAL_STRING = 0;
+
+    /**
+     * Not allowed to create instances of this class.
+     */
+    private BinaryMessageCodec() {
+    }
+
+    /**
+     * Encode a message as a complete frame, including the length prefix.
+     *
+     * @param message The message to encode
+     * @return The frame, or null if the message type is not supported
+     */
+    public static byte[] encode(Message message) {
+        FrameWriter writer = new FrameWriter();
+        return writeMessage(writer, message) ? writer.toFrame() : null;
+    }
+
+    /**
+     * Write the type and the payload of a message.
+     *
+     * @param writer  The frame to write to
+     * @param message The message to write
+     * @return True if the message was written, false if the message type is not
+     *         supported
+     */
+    private static boolean writeMessage(FrameWriter writer, Message message) {
+        if (message instanceof TurnOnActuatorCommand command) {
+            writer.writeByte(TURN_ON_ACTUATOR);
+            writer.writeVarInt(command.getNodeId());
+            writer.writeVarInt(command.getActuatorId());
+        } else if (message instanceof TurnOffActuatorCommand command) {
+            writer.writeByte(TURN_OFF_ACTUATOR);
+            writer.writeVarInt(command.getNodeId());
+            writer.writeVarInt(command.getActuatorId());
+        } else if (message instanceof ActuatorStateMessage stateMessage) {
+            writer.writeByte(ACTUATOR_STATE);
+            writer.writeVarInt(stateMessage.getNodeId());
+            writer.writeVarInt(stateMessage.getActuatorId());
+            writer.writeBoolean(stateMessage.isOn());
+        } else if (message instanceof BatchActuatorCommand batchCommand) {
+            writer.writeByte(BATCH_ACTUATORS);
+            writeActuatorStates(writer, batchCommand.getNodeIds(), batchCommand.getActuatorIds(),
+                    batchCommand.getStates());
+        } else if (message instanceof SetActuatorsByTypeCommand typeCommand) {
+            writer.writeByte(ACTUATORS_OF_TYPE);
+            writer.writeString(typeCommand.getActuatorType());
+            writer.writeBoolean(typeCommand.isOn());
+            writer.writeVarInt(typeCommand.getNodeIds().length);
+            for (int nodeId : typeCommand.getNodeIds()) {
+                writer.writeVarInt(nodeId);
+            }
+        } else if (message instanceof ActuatorStatesMessage statesMessage) {
+            writer.writeByte(ACTUATOR_STATES);
+            writeActuatorStates(writer, statesMessage.getNodeIds(), statesMessage.getActuatorIds(),
+                    statesMessage.getStates());
+        } else if (message instanceof SensorDataAdvertisementMessage sensorData) {
+            writer.writeByte(SENSOR_DATA);
+            writer.writeVarInt(sensorData.getNodeId());
+            writeReadings(writer, sensorData.getSensorReadings());
+        } else if (message instanceof SensorDeltaMessage delta) {
+            writer.writeByte(SENSOR_DELTA);
+            writer.writeVarInt(delta.getNodeId());
+            writer.writeVarInt(delta.getIndices().length);
+            for (int i = 0; i < delta.getIndices().length; ++i) {
+                double value = delta.getValues()[i];
+                // The lowest bit of the index tells how the value is encoded
+                writer.writeVarInt(delta.getIndices()[i] << 1 | (isFixedPoint(value) ? 0 : 1));
+                writeValue(writer, value);
+            }
+        } else if (message instanceof SensorHistoryCommand historyCommand) {
+            writer.writeByte(SENSOR_HISTORY_REQUEST);
+            writer.writeVarInt(historyCommand.getNodeId());
+            writer.writeVarInt(historyCommand.getSensorIndex());
+            writer.writeVarLong(historyCommand.getFrom());
+            writer.writeVarLong(historyCommand.getTo());
+        } else if (message instanceof SensorHistoryMessage history) {
+            writer.writeByte(SENSOR_HISTORY);
+            writer.writeVarInt(history.getNodeId());
+            writer.writeVarInt(history.getSensorIndex());
+            writer.writeVarInt(history.getTimestamps().length);
+            long previousTimestamp = 0;
+            for (int i = 0; i < history.getTimestamps().length; ++i) {
+                double value = history.getValues()[i];
+                // The time since the previous sample, with the value encoding in the lowest bit
+                long delta = history.getTimestamps()[i] - previousTimestamp;
+                writer.writeVarLong(zigZag(delta) << 1 | (isFixedPoint(value) ? 0 : 1));
+                writeValue(writer, value);
+                previousTimestamp = history.getTimestamps()[i];
+            }
+        } else if (message instanceof SensorRollupCommand rollupCommand) {
+            writer.writeByte(SENSOR_ROLLUP_REQUEST);
+            writer.writeVarInt(rollupCommand.getNodeId());
+            writer.writeVarInt(rollupCommand.getSensorIndex());
+            writer.writeVarLong(rollupCommand.getFrom());
+            writer.writeVarLong(rollupCommand.getTo());
+            writer.writeVarInt(rollupCommand.getPoints());
+        } else if (message instanceof SensorRollupMessage rollup) {
+            writer.writeByte(SENSOR_ROLLUP);
+            writer.writeVarInt(rollup.getNodeId());
+            writer.writeVarInt(rollup.getSensorIndex());
+            writer.writeVarLong(rollup.getResolution());
+            writer.writeVarInt(rollup.getStarts().length);
+            long previousStart = 0;
+            for (int i = 0; i < rollup.getStarts().length; ++i) {
+                double min = rollup.getMins()[i];
+                double average = rollup.getAverages()[i];
+                double max = rollup.getMaxs()[i];
+                // The time since the previous interval, with the encodings of the three values in the lowest bits
+                long delta = rollup.getStarts()[i] - previousStart;
+                writer.writeVarLong(zigZag(delta) << 3 | (isFixedPoint(min) ? 0 : 4)
+                        | (isFixedPoint(average) ? 0 : 2) | (isFixedPoint(max) ? 0 : 1));
+                writeValue(writer, min);
+                writeValue(writer, average);
+                writeValue(writer, max);
+                previousStart = rollup.getStarts()[i];
+            }
+        } else if (message instanceof RequestNodeInfoCommand requestCommand) {
+            writer.writeByte(REQUEST_NODE_INFO);
+            // The version is left out when all the nodes are requested
+            if (requestCommand.getSinceVersion() >= 0) {
+                writer.writeVarLong(requestCommand.getSinceVersion());
+            }
+        } else if (message instanceof NodeInfoMessage nodeInfo) {
+            writer.writeByte(NODE_INFO);
+            writer.writeVarLong(nodeInfo.getVersion());
+            writer.writeVarInt(nodeInfo.getNodeInfos().size());
+            for (SensorActuatorNodeInfo node : nodeInfo.getNodeInfos()) {
+                writeNodeInfo(writer, node);
+            }
+        } else if (message instanceof NodeInfoBeginMessage beginMessage) {
+            writer.writeByte(NODE_INFO_BEGIN);
+            writer.writeVarLong(beginMessage.getVersion());
+            writer.writeVarInt(beginMessage.getNodeCount());
+        } else if (message instanceof NodeInfoEndMessage endMessage) {
+            writer.writeByte(NODE_INFO_END);
+            writer.writeVarLong(endMessage.getVersion());
+        } else if (message instanceof NodeChangesMessage changes) {
+            writer.writeByte(NODE_CHANGES);
+            writer.writeVarLong(changes.getVersion());
+            writer.writeVarInt(changes.getAddedNodes().size());
+            for (SensorActuatorNodeInfo node : changes.getAddedNodes()) {
+                writeNodeInfo(writer, node);
+            }
+            writer.writeVarInt(changes.getRemovedNodeIds().length);
+            for (int nodeId : changes.getRemovedNodeIds()) {
+                writer.writeVarInt(nodeId);
+            }
+            ActuatorStatesMessage states = changes.getActuatorStates();
+            writeActuatorStates(writer, states.getNodeIds(), states.getActuatorIds(), states.getStates());
+        } else if (message instanceof NodeRemovedMessage removedMessage) {
+            writer.writeByte(REMOVE_NODE);
+            writer.writeVarInt(removedMessage.getNodeId());
+        } else if (message instanceof ErrorMessage errorMessage) {
+            writer.writeByte(ERROR);
+            writer.writeString(errorMessage.getMessage());
+        } else if (message instanceof ProtocolSwitchMessage switchMessage) {
+            writer.writeByte(PROTOCOL_SWITCH);
+            writer.writeByte((byte) switchMessage.getWireFormat().ordinal());
+        } else if (message instanceof CorrelatedMessage correlatedMessage) {
+            // The tagged message follows the ID, with its own type byte
+            writer.writeByte(CORRELATED);
+            writer.writeVarInt(correlatedMessage.getCorrelationId());
+            return writeMessage(writer, correlatedMessage.getMessage());
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    private static void writeActuatorStates(FrameWriter writer, int[] nodeIds, int[] actuatorIds,
+            boolean[] states) {
+        writer.writeVarInt(nodeIds.length);
+        for (int i = 0; i < nodeIds.length; ++i) {
+            writer.writeVarInt(nodeIds[i]);
+            // The lowest bit of the actuator ID is the state
+            writer.writeVarInt(actuatorIds[i] << 1 | (states[i] ? 1 : 0));
+        }
+    }
+
+    private static void writeReadings(FrameWriter writer, List<SensorReading> readings) {
+        writer.writeVarInt(readings.size());
+        for (SensorReading reading : readings) {
+            writer.writeString(reading.getType());
+            String unit = reading.getUnit() != null ? reading.getUnit() : "";
+            int unitIndex = dictionaryIndexOf(unit);
+            // The lowest bit of the unit index tells how the value is encoded
+            writer.writeVarInt(unitIndex << 1 | (isFixedPoint(reading.getValue()) ? 0 : 1));
+            if (unitIndex == LITERAL_STRING) {
+                writer.writeLiteral(unit);
+            }
+            writeValue(writer, reading.getValue());
+        }
+    }
+
+    private static boolean isFixedPoint(double value) {
+        return Math.round(value * FIXED_POINT_SCALE) / FIXED_POINT_SCALE == value;
+    }
+
+    private static void writeValue(FrameWriter writer, double value) {
+        if (isFixedPoint(value)) {
+            writer.writeVarLong(zigZag(Math.round(value * FIXED_POINT_SCALE)));
+        } else {
+            writer.writeDouble(value);
+        }
+    }
+
+    private static double readValue(ByteBuffer frame, boolean fixedPoint) {
+        if (fixedPoint) {
+            return unZigZag(readVarLong(frame)) / FIXED_POINT_SCALE;
+        } else {
+            return frame.getDouble();
+        }
+    }
+
+    private static void writeNodeInfo(FrameWriter writer, SensorActuatorNodeInfo node) {
+        writer.writeVarInt(node.getId());
+        writeReadings(writer, node.getSensorReadings());
+        writer.writeVarInt(node.getActuators().size());
+        for (Actuator actuator : node.getActuators()) {
+            writer.writeVarInt(actuator.getId());
+            writer.writeString(actuator.getType());
+            writer.writeBoolean(actuator.isOn());
+        }
+    }
+
+    /**
+     * Decode a frame, without its length prefix.
+     *
+     * @param frame The bytes of the frame following the length prefix
+     * @return The decoded message, or null if the message type is unknown
+     * @throws IllegalArgumentException If the frame is malformed
+     */
+    public static Message decode(ByteBuffer frame) {
+        try {
+            return decodeMessage(frame);
+        } catch (IllegalArgumentException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            // Such as reading past the end of the frame, or an unknown dictionary index
+            throw new IllegalArgumentException("Malformed binary frame", e);
+        }
+    }
+
+    private static Message decodeMessage(ByteBuffer frame) {
+        byte type = frame.get();
+        Message message;
+        switch (type) {
+            case TURN_ON_ACTUATOR:
+                message = new TurnOnActuatorCommand(readVarInt(frame), readVarInt(frame));
+                break;
+            case TURN_OFF_ACTUATOR:
+                message = new TurnOffActuatorCommand(readVarInt(frame), readVarInt(frame));
+                break;
+            case ACTUATOR_STATE:
+                message = new ActuatorStateMessage(readVarInt(frame), readVarInt(frame), frame.get() != 0);
+                break;
+            case SENSOR_DATA:
+                message = new SensorDataAdvertisementMessage(readVarInt(frame), readReadings(frame));
+                break;
+            case SENSOR_DELTA:
+                int nodeId = readVarInt(frame);
+                // An index with its flag and a value, at least one byte each
+                int count = readCount(frame, 2);
+                int[] indices = new int[count];
+                double[] values = new double[count];
+                for (int i = 0; i < count; ++i) {
+                    int indexAndFlag = readVarInt(frame);
+                    indices[i] = indexAndFlag >>> 1;
+                    values[i] = readValue(frame, (indexAndFlag & 1) == 0);
+                }
+                message = new SensorDeltaMessage(nodeId, indices, values);
+                break;
+            case SENSOR_HISTORY_REQUEST:
+                int historyNodeId = readVarInt(frame);
+                int historySensorIndex = readVarInt(frame);
+                long from = readVarLong(frame);
+                message = new SensorHistoryCommand(historyNodeId, historySensorIndex, from, readVarLong(frame));
+                break;
+            case SENSOR_HISTORY:
+                message = readSensorHistory(frame);
+                break;
+            case SENSOR_ROLLUP_REQUEST:
+                int rollupNodeId = readVarInt(frame);
+                int rollupSensorIndex = readVarInt(frame);
+                long rollupFrom = readVarLong(frame);
+                long rollupTo = readVarLong(frame);
+                message = new SensorRollupCommand(rollupNodeId, rollupSensorIndex, rollupFrom, rollupTo,
+                        readVarInt(frame));
+                break;
+            case SENSOR_ROLLUP:
+                message = readSensorRollup(frame);
+                break;
+            case REQUEST_NODE_INFO:
+                message = frame.hasRemaining() ? new RequestNodeInfoCommand(readVarLong(frame))
+                        : new RequestNodeInfoCommand();
+                break;
+            case NODE_INFO:
+                long version = readVarLong(frame);
+                message = new NodeInfoMessage(version, readNodeInfos(frame));
+                break;
+            case NODE_INFO_BEGIN:
+                long beginVersion = readVarLong(frame);
+                message = new NodeInfoBeginMessage(beginVersion, readVarInt(frame));
+                break;
+            case NODE_INFO_END:
+                message = new NodeInfoEndMessage(readVarLong(frame));
+                break;
+            case NODE_CHANGES:
+                long changesVersion = readVarLong(frame);
+                List<SensorActuatorNodeInfo> addedNodes = readNodeInfos(frame);
+                int[] removedNodeIds = new int[readCount(frame, 1)];
+                for (int i = 0; i < removedNodeIds.length; ++i) {
+                    removedNodeIds[i] = readVarInt(frame);
+                }
+                message = new NodeChangesMessage(changesVersion, addedNodes, removedNodeIds,
+                        readActuatorStates(frame));
+                break;
+            case REMOVE_NODE:
+                message = new NodeRemovedMessage(readVarInt(frame));
+                break;
+            case ERROR:
+                message = new ErrorMessage(readString(frame));
+                break;
+            case PROTOCOL_SWITCH:
+                message = new ProtocolSwitchMessage(WireFormat.values()[frame.get()]);
+                break;
+            case BATCH_ACTUATORS:
+                ActuatorStatesMessage batch = readActuatorStates(frame);
+                message = new BatchActuatorCommand(batch.getNodeIds(), batch.getActuatorIds(), batch.getStates());
+                break;
+            case ACTUATOR_STATES:
+                message = readActuatorStates(frame);
+                break;
+            case ACTUATORS_OF_TYPE:
+                String actuatorType = readString(frame);
+                boolean on = frame.get() != 0;
+                int[] typeNodeIds = new int[readCount(frame, 1)];
+                for (int i = 0; i < typeNodeIds.length; ++i) {
+                    typeNodeIds[i] = readVarInt(frame);
+                }
+                message = new SetActuatorsByTypeCommand(actuatorType, on, typeNodeIds);
+                break;
+            case CORRELATED:
+                int correlationId = readVarInt(frame);
+                // Only one level of tagging, a chain of tags would only use up the stack
+                if (frame.get(frame.position()) == CORRELATED) {
+                    throw new IllegalArgumentException("Correlated message inside a correlated message");
+                }
+                Message taggedMessage = decodeMessage(frame);
+                message = taggedMessage != null ? new CorrelatedMessage(correlationId, taggedMessage) : null;
+                break;
+            default:
+                message = null;
+                break;
+        }
+        return message;
+    }
+
+    private static ActuatorStatesMessage readActuatorStates(ByteBuffer frame) {
+        // A node ID and an actuator ID with its state, at least one byte each
+        int count = readCount(frame, 2);
+        int[] nodeIds = new int[count];
+        int[] actuatorIds = new int[count];
+        boolean[] states = new boolean[count];
+        for (int i = 0; i < count; ++i) {
+            nodeIds[i] = readVarInt(frame);
+            int actuatorIdAndState = readVarInt(frame);
+            actuatorIds[i] = actuatorIdAndState >>> 1;
+            states[i] = (actuatorIdAndState & 1) != 0;
+        }
+        return new ActuatorStatesMessage(nodeIds, actuatorIds, states);
+    }
+
+    private static SensorHistoryMessage readSensorHistory(ByteBuffer frame) {
+        int nodeId = readVarInt(frame);
+        int sensorIndex = readVarInt(frame);
+        int count = readVarInt(frame);
+        // Every sample takes at least two bytes, don't trust a count the frame can't hold
+        if (count > frame.remaining() / 2) {
+            throw new IllegalArgumentException("Too many samples in binary frame");
+        }
+        long[] timestamps = new long[count];
+        double[] values = new double[count];
+        long timestamp = 0;
+        for (int i = 0; i < count; ++i) {
+            long deltaAndFlag = readVarLong(frame);
+            timestamp += unZigZag(deltaAndFlag >>> 1);
+            timestamps[i] = timestamp;
+            values[i] = readValue(frame, (deltaAndFlag & 1) == 0);
+        }
+        return new SensorHistoryMessage(nodeId, sensorIndex, timestamps, values);
+    }
+
+    private static SensorRollupMessage readSensorRollup(ByteBuffer frame) {
+        int nodeId = readVarInt(frame);
+        int sensorIndex = readVarInt(frame);
+        long resolution = readVarLong(frame);
+        int count = readVarInt(frame);
+        // Every interval takes at least four bytes, don't trust a count the frame can't hold
+        if (count > frame.remaining() / 4) {
+            throw new IllegalArgumentException("Too many intervals in binary frame");
+        }
+        long[] starts = new long[count];
+        double[] mins = new double[count];
+        double[] averages = new double[count];
+        double[] maxs = new double[count];
+        long start = 0;
+        for (int i = 0; i < count; ++i) {
+            long deltaAndFlags = readVarLong(frame);
+            start += unZigZag(deltaAndFlags >>> 3);
+            starts[i] = start;
+            mins[i] = readValue(frame, (deltaAndFlags & 4) == 0);
+            averages[i] = readValue(frame, (deltaAndFlags & 2) == 0);
+            maxs[i] = readValue(frame, (deltaAndFlags & 1) == 0);
+        }
+        return new SensorRollupMessage(nodeId, sensorIndex, resolution, starts, mins, averages, maxs);
+    }
+
+    private static List<SensorActuatorNodeInfo> readNodeInfos(ByteBuffer frame) {
+        // A node ID, a number of sensors and a number of actuators, at least one byte each
+        int count = readCount(frame, 3);
+        List<SensorActuatorNodeInfo> nodeInfos = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            nodeInfos.add(readNodeInfo(frame));
+        }
+        return nodeInfos;
+    }
+
+    private static List<SensorReading> readReadings(ByteBuffer frame) {
+        // A type, a unit with its flag and a value, at least one byte each
+        int count = readCount(frame, 3);
+        List<SensorReading> readings = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            String type = readString(frame);
+            int unitIndexAndFlag = readVarInt(frame);
+            String unit = stringAt(unitIndexAndFlag >>> 1, frame);
+            double value = readValue(frame, (unitIndexAndFlag & 1) == 0);
+            readings.add(new SensorReading(type, value, unit));
+        }
+        return readings;
+    }
+
+    private static SensorActuatorNodeInfo readNodeInfo(ByteBuffer frame) {
+        int nodeId = readVarInt(frame);
+        SensorActuatorNodeInfo info = new SensorActuatorNodeInfo(nodeId);
+        for (SensorReading reading : readReadings(frame)) {
+            info.addSensorReading(reading);
+        }
+        int actuatorCount = readVarInt(frame);
+        for (int i = 0; i < actuatorCount; ++i) {
+            Actuator actuator = new Actuator(readVarInt(frame), readString(frame), nodeId);
+            actuator.set(frame.get() != 0);
+            info.addActuator(actuator);
+        }
+        return info;
+    }
+
+    private static int dictionaryIndexOf(String s) {
+        return DICTIONARY.indexOf(s) + 1;
+    }
+
+    private static String readString(ByteBuffer frame) {
+        return stringAt(readVarInt(frame), frame);
+    }
+
+    private static String stringAt(int index, ByteBuffer frame) {
+        if (index != LITERAL_STRING) {
+            return DICTIONARY.get(index - 1);
+        }
+        byte[] bytes = new byte[readCount(frame, 1)];
+        frame.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Read the number of entries which follow, and check that the rest of the
+     * frame can hold that many. A count sent by a client is not trusted to size
+     * arrays before the entries have been seen.
+     *
+     * @param frame        The frame to read from
+     * @param minEntrySize The smallest number of bytes one entry is encoded in
+     * @return The number of entries
+     * @throws IllegalArgumentException If the frame is too short for the count
+     */
+    private static int readCount(ByteBuffer frame, int minEntrySize) {
+        int count = readVarInt(frame);
+        if (count > frame.remaining() / minEntrySize) {
+            throw new IllegalArgumentException("Count larger than the binary frame: " + count);
+        }
+        return count;
+    }
+
+    private static int readVarInt(ByteBuffer frame) {
+        long value = readVarLong(frame);
+        if (value < 0 || value > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Integer out of range in binary frame");
+        }
+        return (int) value;
+    }
+
+    private static long readVarLong(ByteBuffer frame) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            if (shift >= Long.SIZE) {
+                throw new IllegalArgumentException("Variable-length integer too long");
+            }
+            b = frame.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * A growable buffer for building one frame. The first bytes are reserved for
+     * the length prefix, which is filled in when the frame is complete.
+     */
+    private static class FrameWriter {
+        private byte[] bytes = new byte[64];
+        private int length = LENGTH_PREFIX_SIZE;
+
+        void writeByte(byte b) {
+            ensureCapacity(1);
+            bytes[length++] = b;
+        }
+
+        void writeBoolean(boolean b) {
+            writeByte((byte) (b ? 1 : 0));
+        }
+
+        void writeVarInt(int value) {
+            if (value < 0) {
+                throw new IllegalArgumentException("Negative values can't be encoded: " + value);
+            }
+            writeVarLong(value);
+        }
+
+        void writeVarLong(long value) {
+            ensureCapacity(10);
+            while ((value & ~0x7FL) != 0) {
+                bytes[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[length++] = (byte) value;
+        }
+
+        void writeDouble(double value) {
+            ensureCapacity(Double.BYTES);
+            ByteBuffer.wrap(bytes, length, Double.BYTES).putDouble(value);
+            length += Double.BYTES;
+        }
+
+        void writeString(String s) {
+            int index = dictionaryIndexOf(s);
+            writeVarInt(index);
+            if (index == LITERAL_STRING) {
+                writeLiteral(s);
+            }
+        }
+
+        void writeLiteral(String s) {
+            byte[] stringBytes = s.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(stringBytes.length);
+            ensureCapacity(stringBytes.length);
+            System.arraycopy(stringBytes, 0, bytes, length, stringBytes.length);
+            length += stringBytes.length;
+        }
+
+        private void ensureCapacity(int extra) {
+            if (length + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + extra));
+            }
+        }
+
+        byte[] toFrame() {
+            ByteBuffer.wrap(bytes, 0, LENGTH_PREFIX_SIZE).putInt(length - LENGTH_PREFIX_SIZE);
+            return Arrays.copyOf(bytes, length);
+        }
+    }
+}
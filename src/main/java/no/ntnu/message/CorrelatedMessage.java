@@ -0,0 +1,58 @@
+package no.ntnu.message;
+
+/**
+ * A message tagged with a correlation ID chosen by the client. When the client
+ * tags a command, the server tags the reply to it with the same ID, so that a
+ * client can send many commands without waiting, and still tell which reply
+ * belongs to which command. Messages without a correlation ID work as before.
+ */
+public class CorrelatedMessage implements Message {
+    private final int correlationId;
+    private final Message message;
+
+    /**
+     * Creates a new correlated message.
+     *
+     * @param correlationId The correlation ID, chosen by the client.
+     * @param message       The tagged message.
+     */
+    public CorrelatedMessage(int correlationId, Message message) {
+        this.correlationId = correlationId;
+        this.message = message;
+    }
+
+    /**
+     * Gets the correlation ID.
+     *
+     * @return The correlation ID.
+     */
+    public int getCorrelationId() {
+        return correlationId;
+    }
+
+    /**
+     * Gets the tagged message.
+     *
+     * @return The message.
+     */
+    public Message getMessage() {
+        return message;
+    }
+
+    /**
+     * Tags a reply with the correlation ID of this message. When the reply is a
+     * {@link MessageStream}, every part of it is tagged.
+     *
+     * @param reply The reply to this message.
+     * @return The reply with the same correlation ID.
+     */
+    public Message reply(Message reply) {
+        if (reply instanceof MessageStream stream) {
+            return (MessageStream) () -> {
+                Message part = stream.next();
+                return part != null ? new CorrelatedMessage(correlationId, part) : null;
+            };
+        }
+        return new CorrelatedMessage(correlationId, reply);
+    }
+}
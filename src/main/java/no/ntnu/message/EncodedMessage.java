@@ -0,0 +1,98 @@
+package no.ntnu.message;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A message together with the bytes sent over the socket for it. A message
+ * broadcast to many clients is encoded only once per {@link WireFormat}, and
+ * the same bytes are handed to every connection using that format. Each
+ * encoding is created the first time it is needed, so a broadcast which only
+ * goes to text clients is never encoded as binary, and vice versa. The bytes
+ * are never modified after they are created, therefore one instance can safely
+ * be shared between threads.
+ */
+public class EncodedMessage {
+    private final Message message;
+    private volatile byte[] textBytes;
+    private volatile byte[] binaryBytes;
+
+    /**
+     * Create an encoded message.
+     *
+     * @param message The message to encode
+     */
+    public EncodedMessage(Message message) {
+        this.message = message;
+    }
+
+    /**
+     * Get the message which was serialized.
+     *
+     * @return The original message
+     */
+    public Message getMessage() {
+        return message;
+    }
+
+    /**
+     * Get the bytes of the message in the given format. In the text format the
+     * bytes include the terminating newline, in the binary format they include
+     * the length prefix.
+     *
+     * @param format The wire format to use
+     * @return The serialized message
+     */
+    private byte[] getBytes(WireFormat format) {
+        // Two threads may both encode the message, which is harmless as the result is the same
+        if (format == WireFormat.BINARY) {
+            byte[] bytes = binaryBytes;
+            if (bytes == null) {
+                bytes = BinaryMessageCodec.encode(message);
+                binaryBytes = bytes;
+            }
+            return bytes;
+        } else {
+            byte[] bytes = textBytes;
+            if (bytes == null) {
+                bytes = (MessageSerializer.toString(message) + "\n").getBytes(StandardCharsets.UTF_8);
+                textBytes = bytes;
+            }
+            return bytes;
+        }
+    }
+
+    /**
+     * Get the number of bytes in the serialized message.
+     *
+     * @param format The wire format to use
+     * @return The size of the serialized message, in bytes
+     */
+    public int size(WireFormat format) {
+        return getBytes(format).length;
+    }
+
+    /**
+     * Write the serialized message to a stream.
+     *
+     * @param out    The stream to write to
+     * @param format The wire format to use
+     * @throws IOException If writing to the stream fails
+     */
+    public void writeTo(OutputStream out, WireFormat format) throws IOException {
+        out.write(getBytes(format));
+    }
+
+    /**
+     * Get a read-only view of the serialized message. The bytes are not copied,
+     * every call returns a new buffer with its own position.
+     *
+     * @param format The wire format to use
+     * @return A read-only buffer containing the serialized message
+     */
+    public ByteBuffer asByteBuffer(WireFormat format) {
+        return ByteBuffer.wrap(getBytes(format)).asReadOnlyBuffer();
+    }
+}
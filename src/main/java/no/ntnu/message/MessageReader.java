@@ -0,0 +1,136 @@
+package no.ntnu.message;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Reads messages from a stream, either as newline-terminated text lines or as
+ * length-prefixed binary frames. The format can be changed between two
+ * messages, which is how a connection switches from the text protocol to the
+ * binary protocol after the {@link ProtocolSwitchMessage} handshake.
+ * <p>
+ * Not thread-safe: a reader is meant to be used by the single thread reading
+ * from a socket.
+ */
+public class MessageReader {
+    /**
+     * The longest text line or binary frame accepted, in bytes.
+     */
+    public static final int MAX_MESSAGE_LENGTH = 64 * 1024;
+
+    private final InputStream in;
+    private final TextMessageParser textParser = new TextMessageParser();
+    private byte[] lineBuffer = new byte[256];
+    private WireFormat wireFormat = WireFormat.TEXT;
+
+    /**
+     * Create a message reader, starting with the text format.
+     *
+     * @param in The stream to read from
+     */
+    public MessageReader(InputStream in) {
+        this.in = new BufferedInputStream(in);
+    }
+
+    /**
+     * Set the format of the messages read from now on.
+     *
+     * @param wireFormat The new wire format
+     */
+    public void setWireFormat(WireFormat wireFormat) {
+        this.wireFormat = wireFormat;
+    }
+
+    /**
+     * Get the format of the messages currently read.
+     *
+     * @return The current wire format
+     */
+    public WireFormat getWireFormat() {
+        return wireFormat;
+    }
+
+    /**
+     * Read the next message, waiting until it has been received completely.
+     *
+     * @return The message, or null if the received data was not a valid message
+     * @throws EOFException If the stream ended
+     * @throws IOException  If reading from the stream fails
+     */
+    public Message readMessage() throws IOException {
+        if (wireFormat == WireFormat.BINARY) {
+            return readFrame();
+        } else {
+            int length = readLine();
+            return textParser.parse(lineBuffer, 0, length);
+        }
+    }
+
+    /**
+     * Close the underlying stream.
+     *
+     * @throws IOException If closing the stream fails
+     */
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * Read the bytes of one line of text into the line buffer, without the line
+     * terminator.
+     *
+     * @return The length of the line, in bytes
+     * @throws IOException If the stream ended or reading from it fails
+     */
+    private int readLine() throws IOException {
+        int length = 0;
+        int b = in.read();
+        while (b != '\n') {
+            if (b < 0) {
+                throw new EOFException();
+            }
+            if (length >= MAX_MESSAGE_LENGTH) {
+                throw new IOException("Received line is too long");
+            }
+            if (length == lineBuffer.length) {
+                lineBuffer = Arrays.copyOf(lineBuffer, lineBuffer.length * 2);
+            }
+            lineBuffer[length++] = (byte) b;
+            b = in.read();
+        }
+        if (length > 0 && lineBuffer[length - 1] == '\r') {
+            length--;
+        }
+        return length;
+    }
+
+    /**
+     * Read one binary frame and decode it.
+     *
+     * @return The decoded message, or null when it could not be decoded
+     * @throws IOException If the stream ended or reading from it fails
+     */
+    private Message readFrame() throws IOException {
+        byte[] lengthBytes = in.readNBytes(BinaryMessageCodec.LENGTH_PREFIX_SIZE);
+        if (lengthBytes.length < BinaryMessageCodec.LENGTH_PREFIX_SIZE) {
+            throw new EOFException();
+        }
+        int length = ByteBuffer.wrap(lengthBytes).getInt();
+        if (length <= 0 || length > MAX_MESSAGE_LENGTH) {
+            throw new IOException("Invalid frame length: " + length);
+        }
+        byte[] frame = in.readNBytes(length);
+        if (frame.length < length) {
+            throw new EOFException();
+        }
+        try {
+            return BinaryMessageCodec.decode(ByteBuffer.wrap(frame));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
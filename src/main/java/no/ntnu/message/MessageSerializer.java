@@ -1,17 +1,12 @@
 package no.ntnu.message;
 
-import no.ntnu.greenhouse.SensorActuatorNode;
+import no.ntnu.controlpanel.SensorActuatorNodeInfo;
 import no.ntnu.greenhouse.SensorReading;
 
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
 
-import static no.ntnu.tools.Parser.parseDoubleOrError;
-import static no.ntnu.tools.Parser.parseIntegerOrError;
-
 /**
  * Represents a serializer for messages to protocol-defined strings and vice
  * versa.
@@ -24,13 +19,28 @@ import static no.ntnu.tools.Parser.parseIntegerOrError;
 public class MessageSerializer {
     public static final String TURN_ON_ACTUATORS_COMMAND = "on";
     public static final String TURN_OFF_ACTUATORS_COMMAND = "off";
+    public static final String BATCH_ACTUATORS_COMMAND = "batch";
+    public static final String ACTUATORS_OF_TYPE_COMMAND = "all";
+    public static final String SENSOR_HISTORY_COMMAND = "history";
+    public static final String SENSOR_ROLLUP_COMMAND = "rollup";
     public static final String REQUEST_NODE_INFO_COMMAND = "REQUEST_NODE_INFO";
     public static final String ACTUATOR_STATE_ON_MESSAGE = "ACTUATOR_ON";
     public static final String ACTUATOR_STATE_OFF_MESSAGE = "ACTUATOR_OFF";
+    public static final String ACTUATOR_STATES_MESSAGE = "ACTUATOR_STATES";
     public static final String SENSOR_DATA_MESSAGE = "SENSOR_DATA";
+    public static final String SENSOR_DELTA_MESSAGE = "SENSOR_DELTA";
+    public static final String SENSOR_HISTORY_MESSAGE = "SENSOR_HISTORY";
+    public static final String SENSOR_ROLLUP_MESSAGE = "SENSOR_ROLLUP";
     public static final String NODE_INFO_MESSAGE = "NODE_INFO";
+    public static final String NODE_INFO_BEGIN_MESSAGE = "NODE_INFO_BEGIN";
+    public static final String NODE_INFO_END_MESSAGE = "NODE_INFO_END";
+    public static final String NODE_CHANGES_MESSAGE = "NODE_CHANGES";
+    public static final String ADDED_NODE_PREFIX = "+";
+    public static final String REMOVED_NODE_PREFIX = "-";
     public static final String REMOVE_NODE_MESSAGE = "REMOVE_NODE";
+    public static final String PROTOCOL_SWITCH_MESSAGE = "PROTOCOL";
     public static final String ERROR_MESSAGE = "e";
+    public static final String CORRELATION_PREFIX = "#";
 
     /**
      * Creates a new instance of the MessageSerializer class.
@@ -41,143 +51,14 @@ public class MessageSerializer {
 
     /**
      * Creates a message from a specified string, according to the communication
-     * protocol.
+     * protocol. Code parsing many messages, such as the reader of a connection,
+     * should rather reuse one {@link TextMessageParser}.
      *
      * @param string the string sent over the communication channel.
      * @return the message interpreted according to the protocol.
      */
     public static Message fromString(String string) {
-        if (string == null) {
-            return null;
-        }
-
-        Message message = null;
-
-        if (string.startsWith(TURN_ON_ACTUATORS_COMMAND) ||
-                string.startsWith(TURN_OFF_ACTUATORS_COMMAND) ||
-                string.startsWith(ACTUATOR_STATE_ON_MESSAGE) ||
-                string.startsWith(ACTUATOR_STATE_OFF_MESSAGE)) {
-            message = parseCommandMessage(string);
-        } else if (string.startsWith(SENSOR_DATA_MESSAGE)) {
-            message = parseSensorDataAdvertisementMessage(string);
-        } else if (string.equals(REQUEST_NODE_INFO_COMMAND)) {
-            message = new RequestNodeInfoCommand();
-        } else if (string.startsWith(REMOVE_NODE_MESSAGE)) {
-            message = parseRemoveNodeMessage(string);
-        } else if (string.startsWith(ERROR_MESSAGE)) {
-            String errorMessage = string.substring(1);
-            message = new ErrorMessage(errorMessage);
-        }
-
-        return message;
-    }
-
-    private static Message parseRemoveNodeMessage(String string) {
-        if (string == null || string.isEmpty()) {
-            throw new IllegalArgumentException("Deletion specification can't be empty");
-        }
-
-        String[] parts = string.split(":");
-        int nodeId = parseIntegerOrError(parts[1], "Invalid node ID:" + parts[1]);
-        NodeRemovedMessage message = new NodeRemovedMessage(nodeId);
-
-        return message;
-    }
-
-    /**
-     * Parses the parametrized message.
-     *
-     * @param string the string sent over the communication channel
-     * @return the logical message, as interpreted according to the protocol
-     */
-    private static Message parseCommandMessage(String string) {
-        String[] parts = string.split(":");
-        if (parts.length < 3) {
-            return null;
-        }
-
-        String commandType = parts[0];
-        int nodeId;
-        int actuatorId;
-
-        try {
-            nodeId = Integer.parseInt(parts[1]);
-            actuatorId = Integer.parseInt(parts[2]);
-        } catch (NumberFormatException e) {
-            return null;
-        }
-
-        Message message = null;
-        switch (commandType) {
-            case TURN_ON_ACTUATORS_COMMAND:
-                message = new TurnOnActuatorCommand(nodeId, actuatorId);
-                break;
-            case TURN_OFF_ACTUATORS_COMMAND:
-                message = new TurnOffActuatorCommand(nodeId, actuatorId);
-                break;
-            case ACTUATOR_STATE_ON_MESSAGE:
-                message = new ActuatorStateMessage(nodeId, actuatorId, true);
-                break;
-            case ACTUATOR_STATE_OFF_MESSAGE:
-                message = new ActuatorStateMessage(nodeId, actuatorId, false);
-                break;
-            default:
-                break;
-        }
-        return message;
-    }
-
-    /**
-     * Parses a sensor data advertisement message from the given string. The
-     * expected format is "SENSOR_DATA:nodeId;sensorType1=value1
-     * unit1,sensorType2=value2 unit2,...".
-     *
-     * @param string the string containing the sensor data advertisement
-     *               information.
-     * @return a SensorDataAdvertisementMessage object representing the parsed data.
-     * @throws IllegalArgumentException if the string format is incorrect or data is
-     *                                  invalid.
-     */
-    private static SensorDataAdvertisementMessage parseSensorDataAdvertisementMessage(String string) {
-        if (string == null || string.isEmpty()) {
-            throw new IllegalArgumentException("Sensor specification can't be empty");
-        }
-
-        string = string.split(":")[1];
-        String[] parts = string.split(";");
-        if (parts.length != 2) {
-            throw new IllegalArgumentException("Incorrect specification format: " + string);
-        }
-
-        int nodeId = parseIntegerOrError(parts[0], "Invalid node ID:" + parts[0]);
-        List<SensorReading> sensors = parseSensors(parts[1]);
-
-        return new SensorDataAdvertisementMessage(nodeId, sensors);
-    }
-
-    private static List<SensorReading> parseSensors(String sensorInfo) {
-        List<SensorReading> readings = new LinkedList<>();
-        String[] readingInfo = sensorInfo.split(",");
-
-        for (String reading : readingInfo) {
-            readings.add(parseReading(reading));
-        }
-        return readings;
-    }
-
-    private static SensorReading parseReading(String reading) {
-        String[] assignmentParts = reading.split("=");
-        if (assignmentParts.length != 2) {
-            throw new IllegalArgumentException("Invalid sensor reading specified: " + reading);
-        }
-        String[] valueParts = assignmentParts[1].split(" ");
-        if (valueParts.length != 2) {
-            throw new IllegalArgumentException("Invalid sensor value/unit: " + reading);
-        }
-        String sensorType = assignmentParts[0];
-        double value = parseDoubleOrError(valueParts[0], "Invalid sensor value: " + valueParts[0]);
-        String unit = valueParts[1];
-        return new SensorReading(sensorType, value, unit);
+        return new TextMessageParser().parse(string);
     }
 
     /**
@@ -197,41 +78,150 @@ public class MessageSerializer {
         } else if (message instanceof ActuatorStateMessage actuatorStateMessage) {
             string = (actuatorStateMessage.isOn() ? ACTUATOR_STATE_ON_MESSAGE : ACTUATOR_STATE_OFF_MESSAGE) + ":"
                     + actuatorStateMessage.getNodeId() + ":" + actuatorStateMessage.getActuatorId();
+        } else if (message instanceof BatchActuatorCommand batchCommand) {
+            string = BATCH_ACTUATORS_COMMAND + actuatorStatesToString(batchCommand.getNodeIds(),
+                    batchCommand.getActuatorIds(), batchCommand.getStates());
+        } else if (message instanceof SetActuatorsByTypeCommand typeCommand) {
+            string = ACTUATORS_OF_TYPE_COMMAND + ":" + typeCommand.getActuatorType() + ":"
+                    + stateToString(typeCommand.isOn())
+                    + (typeCommand.getNodeIds().length > 0 ? ":" + nodeIdsToString(typeCommand.getNodeIds()) : "");
+        } else if (message instanceof ActuatorStatesMessage statesMessage) {
+            string = ACTUATOR_STATES_MESSAGE + actuatorStatesToString(statesMessage.getNodeIds(),
+                    statesMessage.getActuatorIds(), statesMessage.getStates());
         } else if (message instanceof SensorDataAdvertisementMessage sensorDataAdvertisementMessage) {
             string = SENSOR_DATA_MESSAGE + ":" + sensorDataAdvertisementMessage.getNodeId() + ";"
                     + sensorReadingsToString(sensorDataAdvertisementMessage.getSensorReadings());
+        } else if (message instanceof SensorDeltaMessage sensorDeltaMessage) {
+            string = SENSOR_DELTA_MESSAGE + ":" + sensorDeltaMessage.getNodeId() + ";"
+                    + sensorDeltaToString(sensorDeltaMessage);
+        } else if (message instanceof SensorHistoryCommand historyCommand) {
+            string = SENSOR_HISTORY_COMMAND + ":" + historyCommand.getNodeId() + ":" + historyCommand.getSensorIndex()
+                    + (historyCommand.isUnbounded() ? ""
+                            : ":" + historyCommand.getFrom() + ":" + historyCommand.getTo());
+        } else if (message instanceof SensorHistoryMessage historyMessage) {
+            string = SENSOR_HISTORY_MESSAGE + ":" + historyMessage.getNodeId() + ":" + historyMessage.getSensorIndex()
+                    + ";" + sensorHistoryToString(historyMessage);
+        } else if (message instanceof SensorRollupCommand rollupCommand) {
+            string = SENSOR_ROLLUP_COMMAND + ":" + rollupCommand.getNodeId() + ":" + rollupCommand.getSensorIndex()
+                    + ":" + rollupCommand.getFrom() + ":" + rollupCommand.getTo() + ":" + rollupCommand.getPoints();
+        } else if (message instanceof SensorRollupMessage rollupMessage) {
+            string = SENSOR_ROLLUP_MESSAGE + ":" + rollupMessage.getNodeId() + ":" + rollupMessage.getSensorIndex()
+                    + ":" + rollupMessage.getResolution() + ";" + sensorRollupToString(rollupMessage);
+        } else if (message instanceof RequestNodeInfoCommand requestNodeInfoCommand) {
+            long sinceVersion = requestNodeInfoCommand.getSinceVersion();
+            string = REQUEST_NODE_INFO_COMMAND + (sinceVersion >= 0 ? ":" + sinceVersion : "");
         } else if (message instanceof NodeRemovedMessage nodeRemovedMessage) {
             string = REMOVE_NODE_MESSAGE + ":" + nodeRemovedMessage.getNodeId();
         } else if (message instanceof NodeInfoMessage nodeInfoMessage) {
-            Map<Integer, SensorActuatorNode> nodesInfo = nodeInfoMessage.getNodesInfo();
-            String nodesData = nodesInfo.entrySet().stream()
-                    .map(entry -> nodeInfoToString(entry.getKey(), entry.getValue()))
+            String nodesData = nodeInfoMessage.getNodeInfos().stream()
+                    .map(MessageSerializer::nodeInfoToString)
                     .collect(Collectors.joining("|"));
-            string = NODE_INFO_MESSAGE + "|" + nodesData;
+            string = NODE_INFO_MESSAGE + ":" + nodeInfoMessage.getVersion()
+                    + (nodesData.isEmpty() ? "" : "|" + nodesData);
+        } else if (message instanceof NodeInfoBeginMessage beginMessage) {
+            string = NODE_INFO_BEGIN_MESSAGE + ":" + beginMessage.getVersion() + ":" + beginMessage.getNodeCount();
+        } else if (message instanceof NodeInfoEndMessage endMessage) {
+            string = NODE_INFO_END_MESSAGE + ":" + endMessage.getVersion();
+        } else if (message instanceof NodeChangesMessage nodeChangesMessage) {
+            string = NODE_CHANGES_MESSAGE + ":" + nodeChangesMessage.getVersion()
+                    + nodeChangesToString(nodeChangesMessage);
+        } else if (message instanceof ProtocolSwitchMessage protocolSwitchMessage) {
+            string = PROTOCOL_SWITCH_MESSAGE + ":" + protocolSwitchMessage.getWireFormat().name();
         } else if (message instanceof ErrorMessage errorMessage) {
             string = ERROR_MESSAGE + errorMessage.getMessage();
+        } else if (message instanceof CorrelatedMessage correlatedMessage) {
+            String taggedMessage = toString(correlatedMessage.getMessage());
+            if (taggedMessage != null) {
+                string = CORRELATION_PREFIX + correlatedMessage.getCorrelationId() + " " + taggedMessage;
+            }
         }
         return string;
     }
 
+    private static String actuatorStatesToString(int[] nodeIds, int[] actuatorIds, boolean[] states) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < nodeIds.length; ++i) {
+            builder.append('|').append(nodeIds[i]).append(':').append(actuatorIds[i]).append(':')
+                    .append(stateToString(states[i]));
+        }
+        return builder.toString();
+    }
+
+    private static String nodeChangesToString(NodeChangesMessage changes) {
+        StringBuilder builder = new StringBuilder();
+        for (SensorActuatorNodeInfo node : changes.getAddedNodes()) {
+            builder.append('|').append(ADDED_NODE_PREFIX).append(nodeInfoToString(node));
+        }
+        for (int nodeId : changes.getRemovedNodeIds()) {
+            builder.append('|').append(REMOVED_NODE_PREFIX).append(nodeId);
+        }
+        ActuatorStatesMessage states = changes.getActuatorStates();
+        builder.append(actuatorStatesToString(states.getNodeIds(), states.getActuatorIds(), states.getStates()));
+        return builder.toString();
+    }
+
+    private static String nodeIdsToString(int[] nodeIds) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < nodeIds.length; ++i) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append(nodeIds[i]);
+        }
+        return builder.toString();
+    }
+
+    private static String stateToString(boolean on) {
+        return on ? TURN_ON_ACTUATORS_COMMAND : TURN_OFF_ACTUATORS_COMMAND;
+    }
+
     private static String sensorReadingsToString(List<SensorReading> sensorReadings) {
         return sensorReadings.stream()
                 .map(reading -> reading.getType() + "=" + reading.getValue() + " " + reading.getUnit())
                 .collect(Collectors.joining(","));
     }
 
-    private static String nodeInfoToString(Integer nodeId, SensorActuatorNode node) {
-        String sensorData = node.getSensors().stream()
-                .map(sensor -> {
-                    SensorReading reading = sensor.getReading();
-                    return reading.getType() + "=" + reading.getValue() + " " + reading.getUnit();
-                })
-                .collect(Collectors.joining(","));
+    private static String sensorDeltaToString(SensorDeltaMessage delta) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < delta.getIndices().length; ++i) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append(delta.getIndices()[i]).append('=').append(delta.getValues()[i]);
+        }
+        return builder.toString();
+    }
+
+    private static String sensorHistoryToString(SensorHistoryMessage history) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < history.getTimestamps().length; ++i) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append(history.getTimestamps()[i]).append('=').append(history.getValues()[i]);
+        }
+        return builder.toString();
+    }
+
+    private static String sensorRollupToString(SensorRollupMessage rollup) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < rollup.getStarts().length; ++i) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append(rollup.getStarts()[i]).append('=').append(rollup.getMins()[i])
+                    .append(':').append(rollup.getAverages()[i]).append(':').append(rollup.getMaxs()[i]);
+        }
+        return builder.toString();
+    }
+
+    private static String nodeInfoToString(SensorActuatorNodeInfo node) {
+        String sensorData = sensorReadingsToString(node.getSensorReadings());
 
         String actuatorData = StreamSupport.stream(node.getActuators().spliterator(), false)
                 .map(actuator -> actuator.getId() + "_" + actuator.getType() + "=" + (actuator.isOn() ? "on" : "off"))
                 .collect(Collectors.joining(","));
 
-        return nodeId + ":" + sensorData + ":" + actuatorData;
+        return node.getId() + ":" + sensorData + ":" + actuatorData;
     }
 }
\ No newline at end of file
@@ -0,0 +1,17 @@
+package no.ntnu.message;
+
+/**
+ * A reply sent as a sequence of messages instead of a single one. The parts
+ * are produced one at a time, while the reply is being written, so a reply
+ * which would be very large as one message never has to be held in memory as a
+ * whole. A stream can be read only once, and only by the connection writing it
+ * to its client. Nothing else is written to that client until the stream ends.
+ */
+public interface MessageStream extends Message {
+    /**
+     * Produce the next part of the reply.
+     *
+     * @return The next message to send, or null when the stream has ended
+     */
+    Message next();
+}
@@ -0,0 +1,73 @@
+package no.ntnu.message;
+
+import no.ntnu.controlpanel.SensorActuatorNodeInfo;
+
+import java.util.List;
+
+/**
+ * Represents the changes of the greenhouse since a version the control panel
+ * already knows: the nodes added, the nodes removed and the new states of the
+ * actuators which were switched. This is the answer to a
+ * {@link RequestNodeInfoCommand} with a version, and it is much smaller than a
+ * {@link NodeInfoMessage} with all the nodes when little has changed.
+ */
+public class NodeChangesMessage implements Message {
+    private final long version;
+    private final List<SensorActuatorNodeInfo> addedNodes;
+    private final int[] removedNodeIds;
+    private final ActuatorStatesMessage actuatorStates;
+
+    /**
+     * Creates a new node changes message.
+     *
+     * @param version        The version of the greenhouse state after the
+     *                       changes.
+     * @param addedNodes     Information about each of the nodes added.
+     * @param removedNodeIds The IDs of the nodes removed.
+     * @param actuatorStates The latest states of the actuators switched on the
+     *                       other nodes.
+     */
+    public NodeChangesMessage(long version, List<SensorActuatorNodeInfo> addedNodes, int[] removedNodeIds,
+            ActuatorStatesMessage actuatorStates) {
+        this.version = version;
+        this.addedNodes = addedNodes;
+        this.removedNodeIds = removedNodeIds;
+        this.actuatorStates = actuatorStates;
+    }
+
+    /**
+     * Gets the version of the greenhouse state after the changes.
+     *
+     * @return The version.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Gets information about the nodes added.
+     *
+     * @return Information about each of the nodes added.
+     */
+    public List<SensorActuatorNodeInfo> getAddedNodes() {
+        return addedNodes;
+    }
+
+    /**
+     * Gets the IDs of the nodes removed.
+     *
+     * @return The IDs of the nodes.
+     */
+    public int[] getRemovedNodeIds() {
+        return removedNodeIds;
+    }
+
+    /**
+     * Gets the latest states of the actuators switched.
+     *
+     * @return The states of the actuators.
+     */
+    public ActuatorStatesMessage getActuatorStates() {
+        return actuatorStates;
+    }
+}
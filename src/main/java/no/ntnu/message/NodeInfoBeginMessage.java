@@ -0,0 +1,42 @@
+package no.ntnu.message;
+
+/**
+ * Represents the start of the information about all the nodes, sent in parts:
+ * this message, any number of {@link NodeInfoMessage} chunks, each with some
+ * of the nodes, and a {@link NodeInfoEndMessage}. A control panel can show the
+ * nodes of each chunk as soon as it arrives.
+ */
+public class NodeInfoBeginMessage implements Message {
+    private final long version;
+    private final int nodeCount;
+
+    /**
+     * Creates a new node info begin message.
+     *
+     * @param version   The version of the greenhouse state described.
+     * @param nodeCount The number of nodes which will follow, at most.
+     */
+    public NodeInfoBeginMessage(long version, int nodeCount) {
+        this.version = version;
+        this.nodeCount = nodeCount;
+    }
+
+    /**
+     * Gets the version of the greenhouse state described.
+     *
+     * @return The version.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Gets the number of nodes which will follow. Nodes removed while the
+     * information is being sent are left out, so fewer nodes may follow.
+     *
+     * @return The number of nodes, at most.
+     */
+    public int getNodeCount() {
+        return nodeCount;
+    }
+}
@@ -0,0 +1,27 @@
+package no.ntnu.message;
+
+/**
+ * Represents the end of the information about all the nodes, sent after the
+ * last {@link NodeInfoMessage} chunk. See {@link NodeInfoBeginMessage}.
+ */
+public class NodeInfoEndMessage implements Message {
+    private final long version;
+
+    /**
+     * Creates a new node info end message.
+     *
+     * @param version The version of the greenhouse state described.
+     */
+    public NodeInfoEndMessage(long version) {
+        this.version = version;
+    }
+
+    /**
+     * Gets the version of the greenhouse state described.
+     *
+     * @return The version.
+     */
+    public long getVersion() {
+        return version;
+    }
+}
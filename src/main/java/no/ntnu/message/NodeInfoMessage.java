@@ -1,22 +1,90 @@
 package no.ntnu.message;
 
+import no.ntnu.controlpanel.SensorActuatorNodeInfo;
+import no.ntnu.greenhouse.Actuator;
 import no.ntnu.greenhouse.SensorActuatorNode;
+import no.ntnu.greenhouse.SensorReading;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 /**
- * Represents a message containing information about all sensor and actuator
- * nodes in the greenhouse.
+ * Represents a message containing information about sensor and actuator nodes
+ * in the greenhouse. The server sends all the nodes in chunks of this message,
+ * between a {@link NodeInfoBeginMessage} and a {@link NodeInfoEndMessage}. The information is a snapshot of the nodes, taken
+ * when the message is created, so it can be serialized later without looking
+ * at the live nodes again. The message tells the version of the greenhouse
+ * state it describes, so that a control panel can later ask only for the
+ * changes made after it, see {@link NodeChangesMessage}.
  */
 
 public class NodeInfoMessage implements Message {
-    private final Map<Integer, SensorActuatorNode> nodesInfo;
+    private final long version;
+    private final List<SensorActuatorNodeInfo> nodeInfos;
 
-    public NodeInfoMessage(Map<Integer, SensorActuatorNode> nodesInfo) {
-        this.nodesInfo = nodesInfo;
+    /**
+     * Creates a node info message describing the current state of the given
+     * nodes. Used on the greenhouse side.
+     *
+     * @param version   The version of the greenhouse state, taken before the
+     *                  nodes are described.
+     * @param nodesInfo The nodes, where the key is the node ID.
+     */
+    public NodeInfoMessage(long version, Map<Integer, SensorActuatorNode> nodesInfo) {
+        this.version = version;
+        this.nodeInfos = new ArrayList<>(nodesInfo.size());
+        for (SensorActuatorNode node : nodesInfo.values()) {
+            this.nodeInfos.add(createNodeInfo(node));
+        }
     }
 
-    public Map<Integer, SensorActuatorNode> getNodesInfo() {
-        return nodesInfo;
+    /**
+     * Creates a node info message from already collected node information. Used
+     * when a message is received.
+     *
+     * @param version   The version of the greenhouse state.
+     * @param nodeInfos Information about each of the nodes.
+     */
+    public NodeInfoMessage(long version, List<SensorActuatorNodeInfo> nodeInfos) {
+        this.version = version;
+        this.nodeInfos = nodeInfos;
+    }
+
+    /**
+     * Takes a snapshot of the current state of a node.
+     *
+     * @param node The node.
+     * @return Information about the node, which does not change with the node.
+     */
+    public static SensorActuatorNodeInfo createNodeInfo(SensorActuatorNode node) {
+        SensorActuatorNodeInfo info = new SensorActuatorNodeInfo(node.getId());
+        for (SensorReading reading : node.getReadings()) {
+            info.addSensorReading(reading);
+        }
+        for (Actuator actuator : node.getActuators()) {
+            Actuator copy = new Actuator(actuator.getId(), actuator.getType(), node.getId());
+            copy.set(actuator.isOn());
+            info.addActuator(copy);
+        }
+        return info;
+    }
+
+    /**
+     * Gets the version of the greenhouse state described by this message.
+     *
+     * @return The version.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Gets information about all the nodes.
+     *
+     * @return Information about each of the nodes.
+     */
+    public List<SensorActuatorNodeInfo> getNodeInfos() {
+        return nodeInfos;
     }
 }
@@ -0,0 +1,30 @@
+package no.ntnu.message;
+
+/**
+ * Represents a request to switch the wire format of a connection, and the
+ * acknowledgement of it. The client sends this message, and starts sending in
+ * the new format right away. The server answers with the same message, still
+ * encoded in the old format, and everything the server sends after that is in
+ * the new format.
+ */
+public class ProtocolSwitchMessage implements Message {
+    private final WireFormat wireFormat;
+
+    /**
+     * Creates a new protocol switch message.
+     *
+     * @param wireFormat The wire format to switch to.
+     */
+    public ProtocolSwitchMessage(WireFormat wireFormat) {
+        this.wireFormat = wireFormat;
+    }
+
+    /**
+     * Gets the wire format to switch to.
+     *
+     * @return The new wire format.
+     */
+    public WireFormat getWireFormat() {
+        return wireFormat;
+    }
+}
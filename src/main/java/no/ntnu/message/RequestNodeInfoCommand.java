@@ -2,20 +2,46 @@ package no.ntnu.message;
 
 import no.ntnu.controlpanel.ControlPanelLogic;
 import no.ntnu.greenhouse.GreenhouseSimulator;
-import no.ntnu.greenhouse.SensorActuatorNode;
-
-import java.util.Map;
 
 /**
  * Represents a command to request information about all sensor and actuator
- * nodes in the greenhouse.
+ * nodes in the greenhouse. A control panel which already knows the state of
+ * the greenhouse at some version can ask only for the changes made after it.
  */
 public class RequestNodeInfoCommand extends Command {
+    private final long sinceVersion;
+
+    /**
+     * Creates a command requesting information about all the nodes.
+     */
+    public RequestNodeInfoCommand() {
+        this(-1);
+    }
+
+    /**
+     * Creates a command requesting the changes since a version of the greenhouse
+     * state. The greenhouse answers with all the nodes instead when it no longer
+     * knows the changes since that version.
+     *
+     * @param sinceVersion The version known by the control panel, or -1 for all
+     *                     the nodes.
+     */
+    public RequestNodeInfoCommand(long sinceVersion) {
+        this.sinceVersion = sinceVersion;
+    }
+
+    /**
+     * Gets the version known by the control panel.
+     *
+     * @return The version, or -1 when all the nodes are requested.
+     */
+    public long getSinceVersion() {
+        return sinceVersion;
+    }
+
     @Override
     public Message execute(ControlPanelLogic logic) {
         GreenhouseSimulator simulator = logic.getGreenhouseSimulator();
-        Map<Integer, SensorActuatorNode> nodesInfo = simulator.getNodesInfo();
-
-        return new NodeInfoMessage(nodesInfo);
+        return simulator.getNodeInfoSince(sinceVersion);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,69 @@
+package no.ntnu.message;
+
+/**
+ * Represents a message containing only the sensor readings of a node which
+ * changed since the previous sensor data message of the same node. Readings are
+ * identified by their index in the full list of readings of the node, and only
+ * the values are sent, as the types and units never change. A receiver must
+ * have received a full {@link SensorDataAdvertisementMessage} for the node
+ * before it can apply a delta.
+ */
+public class SensorDeltaMessage implements Message {
+    private final int nodeId;
+    private final int[] indices;
+    private final double[] values;
+
+    /**
+     * Creates a new sensor delta message.
+     *
+     * @param nodeId  The ID of the node from which the sensor readings are coming.
+     * @param indices The indices of the changed readings.
+     * @param values  The new values of the changed readings, in the same order as
+     *                the indices.
+     */
+    public SensorDeltaMessage(int nodeId, int[] indices, double[] values) {
+        if (indices.length != values.length) {
+            throw new IllegalArgumentException("Every changed reading needs both an index and a value");
+        }
+        this.nodeId = nodeId;
+        this.indices = indices;
+        this.values = values;
+    }
+
+    /**
+     * Returns the node ID associated with this message.
+     *
+     * @return The node ID.
+     */
+    public int getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Returns the indices of the changed readings.
+     *
+     * @return The indices of the readings, in the full list of readings of the
+     *         node.
+     */
+    public int[] getIndices() {
+        return indices;
+    }
+
+    /**
+     * Returns the new values of the changed readings.
+     *
+     * @return The values, in the same order as the indices.
+     */
+    public double[] getValues() {
+        return values;
+    }
+
+    /**
+     * Checks if any reading changed.
+     *
+     * @return true if the message contains no changes.
+     */
+    public boolean isEmpty() {
+        return indices.length == 0;
+    }
+}
@@ -0,0 +1,96 @@
+package no.ntnu.message;
+
+import no.ntnu.controlpanel.ControlPanelLogic;
+
+/**
+ * Represents a command to request the recent values of one sensor of a node,
+ * as kept by the greenhouse. The greenhouse answers with a
+ * {@link SensorHistoryMessage}.
+ */
+public class SensorHistoryCommand extends Command {
+    private final int nodeId;
+    private final int sensorIndex;
+    private final long from;
+    private final long to;
+
+    /**
+     * Creates a command requesting all the values of a sensor still kept.
+     *
+     * @param nodeId      The ID of the node.
+     * @param sensorIndex The index of the sensor in the readings of the node.
+     */
+    public SensorHistoryCommand(int nodeId, int sensorIndex) {
+        this(nodeId, sensorIndex, 0, Long.MAX_VALUE);
+    }
+
+    /**
+     * Creates a command requesting the values of a sensor over a time range.
+     *
+     * @param nodeId      The ID of the node.
+     * @param sensorIndex The index of the sensor in the readings of the node.
+     * @param from        The start of the range, inclusive, in milliseconds since
+     *                    the epoch of the simulation clock.
+     * @param to          The end of the range, inclusive, in milliseconds.
+     */
+    public SensorHistoryCommand(int nodeId, int sensorIndex, long from, long to) {
+        this.nodeId = nodeId;
+        this.sensorIndex = sensorIndex;
+        this.from = from;
+        this.to = to;
+    }
+
+    @Override
+    public Message execute(ControlPanelLogic logic) {
+        try {
+            return logic.getGreenhouseSimulator().getSensorHistory(nodeId, sensorIndex, from, to);
+        } catch (Exception err) {
+            return new ErrorMessage(err.getMessage());
+        }
+    }
+
+    /**
+     * Gets the node ID for this command.
+     *
+     * @return The node ID.
+     */
+    public int getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Gets the index of the sensor in the readings of the node.
+     *
+     * @return The sensor index.
+     */
+    public int getSensorIndex() {
+        return sensorIndex;
+    }
+
+    /**
+     * Gets the start of the time range.
+     *
+     * @return The start, in milliseconds.
+     */
+    public long getFrom() {
+        return from;
+    }
+
+    /**
+     * Gets the end of the time range.
+     *
+     * @return The end, in milliseconds.
+     */
+    public long getTo() {
+        return to;
+    }
+
+    /**
+     * Checks if the command asks for all the values still kept, whatever their
+     * time.
+     *
+     * @return true if the time range is unbounded.
+     */
+    public boolean isUnbounded() {
+        return from <= 0 && to == Long.MAX_VALUE;
+    }
+}
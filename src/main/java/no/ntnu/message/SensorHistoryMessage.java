@@ -0,0 +1,69 @@
+package no.ntnu.message;
+
+/**
+ * Represents the recent values of one sensor of a node, oldest first, as an
+ * answer to a {@link SensorHistoryCommand}. The sensor is identified by its
+ * index in the readings of the node, like in a {@link SensorDeltaMessage}.
+ */
+public class SensorHistoryMessage implements Message {
+    private final int nodeId;
+    private final int sensorIndex;
+    private final long[] timestamps;
+    private final double[] values;
+
+    /**
+     * Creates a new sensor history message.
+     *
+     * @param nodeId      The ID of the node.
+     * @param sensorIndex The index of the sensor in the readings of the node.
+     * @param timestamps  The times of the samples, in milliseconds, in increasing
+     *                    order.
+     * @param values      The values of the sensor, in the same order as the
+     *                    timestamps.
+     */
+    public SensorHistoryMessage(int nodeId, int sensorIndex, long[] timestamps, double[] values) {
+        if (timestamps.length != values.length) {
+            throw new IllegalArgumentException("Every sample needs both a timestamp and a value");
+        }
+        this.nodeId = nodeId;
+        this.sensorIndex = sensorIndex;
+        this.timestamps = timestamps;
+        this.values = values;
+    }
+
+    /**
+     * Returns the node ID associated with this message.
+     *
+     * @return The node ID.
+     */
+    public int getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Returns the index of the sensor in the readings of the node.
+     *
+     * @return The sensor index.
+     */
+    public int getSensorIndex() {
+        return sensorIndex;
+    }
+
+    /**
+     * Returns the times of the samples.
+     *
+     * @return The timestamps, in milliseconds, oldest first.
+     */
+    public long[] getTimestamps() {
+        return timestamps;
+    }
+
+    /**
+     * Returns the values of the samples.
+     *
+     * @return The values, in the same order as the timestamps.
+     */
+    public double[] getValues() {
+        return values;
+    }
+}
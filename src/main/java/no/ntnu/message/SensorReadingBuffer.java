@@ -0,0 +1,109 @@
+package no.ntnu.message;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import no.ntnu.greenhouse.SensorReading;
+
+/**
+ * A reusable container for parsed sensor readings. The readings are kept in
+ * parallel arrays, which grow when needed but are never shrunk, so filling the
+ * buffer again with a similar number of readings does not allocate anything.
+ * <p>
+ * Not thread-safe: a buffer is meant to be filled and read by one thread.
+ */
+public class SensorReadingBuffer {
+    private String[] types = new String[8];
+    private double[] values = new double[8];
+    private String[] units = new String[8];
+    private int size = 0;
+
+    /**
+     * Remove all the readings. The storage is kept for reuse.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Add a reading to the end of the buffer.
+     *
+     * @param type  The type of the sensor
+     * @param value The value of the reading
+     * @param unit  The unit of the value
+     */
+    public void add(String type, double value, String unit) {
+        if (size == types.length) {
+            int newLength = types.length * 2;
+            types = Arrays.copyOf(types, newLength);
+            values = Arrays.copyOf(values, newLength);
+            units = Arrays.copyOf(units, newLength);
+        }
+        types[size] = type;
+        values[size] = value;
+        units[size] = unit;
+        size++;
+    }
+
+    /**
+     * Get the number of readings in the buffer.
+     *
+     * @return The number of readings
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get the sensor type of a reading.
+     *
+     * @param index The index of the reading
+     * @return The sensor type
+     */
+    public String getType(int index) {
+        checkIndex(index);
+        return types[index];
+    }
+
+    /**
+     * Get the value of a reading.
+     *
+     * @param index The index of the reading
+     * @return The value
+     */
+    public double getValue(int index) {
+        checkIndex(index);
+        return values[index];
+    }
+
+    /**
+     * Get the unit of a reading.
+     *
+     * @param index The index of the reading
+     * @return The unit
+     */
+    public String getUnit(int index) {
+        checkIndex(index);
+        return units[index];
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Invalid reading index: " + index);
+        }
+    }
+
+    /**
+     * Copy the readings to a new list of sensor readings.
+     *
+     * @return The readings in the buffer
+     */
+    public List<SensorReading> toList() {
+        List<SensorReading> readings = new ArrayList<>(size);
+        for (int i = 0; i < size; ++i) {
+            readings.add(new SensorReading(types[i], values[i], units[i]));
+        }
+        return readings;
+    }
+}
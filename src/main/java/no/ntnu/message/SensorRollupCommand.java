@@ -0,0 +1,89 @@
+package no.ntnu.message;
+
+import no.ntnu.controlpanel.ControlPanelLogic;
+
+/**
+ * Represents a command to request the minimum, average and maximum of one
+ * sensor of a node over a time range, in at most a given number of points, as
+ * for drawing a chart. The greenhouse answers with a
+ * {@link SensorRollupMessage}, whose size depends only on the number of points.
+ */
+public class SensorRollupCommand extends Command {
+    private final int nodeId;
+    private final int sensorIndex;
+    private final long from;
+    private final long to;
+    private final int points;
+
+    /**
+     * Creates a command requesting the aggregates of a sensor over a time range.
+     *
+     * @param nodeId      The ID of the node.
+     * @param sensorIndex The index of the sensor in the readings of the node.
+     * @param from        The start of the range, inclusive, in milliseconds since
+     *                    the epoch of the simulation clock.
+     * @param to          The end of the range, inclusive, in milliseconds.
+     * @param points      The largest number of points wanted.
+     */
+    public SensorRollupCommand(int nodeId, int sensorIndex, long from, long to, int points) {
+        this.nodeId = nodeId;
+        this.sensorIndex = sensorIndex;
+        this.from = from;
+        this.to = to;
+        this.points = points;
+    }
+
+    @Override
+    public Message execute(ControlPanelLogic logic) {
+        try {
+            return logic.getGreenhouseSimulator().getSensorRollup(nodeId, sensorIndex, from, to, points);
+        } catch (Exception err) {
+            return new ErrorMessage(err.getMessage());
+        }
+    }
+
+    /**
+     * Gets the node ID for this command.
+     *
+     * @return The node ID.
+     */
+    public int getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Gets the index of the sensor in the readings of the node.
+     *
+     * @return The sensor index.
+     */
+    public int getSensorIndex() {
+        return sensorIndex;
+    }
+
+    /**
+     * Gets the start of the time range.
+     *
+     * @return The start, in milliseconds.
+     */
+    public long getFrom() {
+        return from;
+    }
+
+    /**
+     * Gets the end of the time range.
+     *
+     * @return The end, in milliseconds.
+     */
+    public long getTo() {
+        return to;
+    }
+
+    /**
+     * Gets the largest number of points wanted.
+     *
+     * @return The number of points.
+     */
+    public int getPoints() {
+        return points;
+    }
+}
@@ -0,0 +1,106 @@
+package no.ntnu.message;
+
+/**
+ * Represents the minimum, average and maximum of one sensor of a node over
+ * consecutive intervals of the same length, oldest first, as an answer to a
+ * {@link SensorRollupCommand}. Intervals in which the sensor had no values are
+ * left out.
+ */
+public class SensorRollupMessage implements Message {
+    private final int nodeId;
+    private final int sensorIndex;
+    private final long resolution;
+    private final long[] starts;
+    private final double[] mins;
+    private final double[] averages;
+    private final double[] maxs;
+
+    /**
+     * Creates a new sensor rollup message.
+     *
+     * @param nodeId      The ID of the node.
+     * @param sensorIndex The index of the sensor in the readings of the node.
+     * @param resolution  The length of every interval, in milliseconds.
+     * @param starts      The starts of the intervals, in milliseconds, in
+     *                    increasing order.
+     * @param mins        The smallest value of the sensor in every interval.
+     * @param averages    The average value of the sensor in every interval.
+     * @param maxs        The largest value of the sensor in every interval.
+     */
+    public SensorRollupMessage(int nodeId, int sensorIndex, long resolution, long[] starts, double[] mins,
+                               double[] averages, double[] maxs) {
+        if (mins.length != starts.length || averages.length != starts.length || maxs.length != starts.length) {
+            throw new IllegalArgumentException("Every interval needs a start, a minimum, an average and a maximum");
+        }
+        this.nodeId = nodeId;
+        this.sensorIndex = sensorIndex;
+        this.resolution = resolution;
+        this.starts = starts;
+        this.mins = mins;
+        this.averages = averages;
+        this.maxs = maxs;
+    }
+
+    /**
+     * Returns the node ID associated with this message.
+     *
+     * @return The node ID.
+     */
+    public int getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Returns the index of the sensor in the readings of the node.
+     *
+     * @return The sensor index.
+     */
+    public int getSensorIndex() {
+        return sensorIndex;
+    }
+
+    /**
+     * Returns the length of the intervals.
+     *
+     * @return The length, in milliseconds.
+     */
+    public long getResolution() {
+        return resolution;
+    }
+
+    /**
+     * Returns the starts of the intervals.
+     *
+     * @return The starts, in milliseconds, oldest first.
+     */
+    public long[] getStarts() {
+        return starts;
+    }
+
+    /**
+     * Returns the smallest values of the intervals.
+     *
+     * @return The minimums, in the same order as the starts.
+     */
+    public double[] getMins() {
+        return mins;
+    }
+
+    /**
+     * Returns the average values of the intervals.
+     *
+     * @return The averages, in the same order as the starts.
+     */
+    public double[] getAverages() {
+        return averages;
+    }
+
+    /**
+     * Returns the largest values of the intervals.
+     *
+     * @return The maximums, in the same order as the starts.
+     */
+    public double[] getMaxs() {
+        return maxs;
+    }
+}
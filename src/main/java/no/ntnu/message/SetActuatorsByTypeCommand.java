@@ -0,0 +1,72 @@
+package no.ntnu.message;
+
+import no.ntnu.controlpanel.ControlPanelLogic;
+
+/**
+ * Represents a command to turn on or off all the actuators of one type, either
+ * on the given nodes or on all the nodes of the greenhouse. For example: turn
+ * on all the heaters. Like {@link BatchActuatorCommand}, it is applied in one
+ * pass and answered with a single {@link ActuatorStatesMessage}, listing every
+ * actuator which matched.
+ */
+public class SetActuatorsByTypeCommand extends Command {
+    private final String actuatorType;
+    private final boolean on;
+    private final int[] nodeIds;
+
+    /**
+     * Creates a new command for all the actuators of a type.
+     *
+     * @param actuatorType The type of the actuators. Example: "heater".
+     * @param on           True to turn the actuators on, false to turn them off.
+     * @param nodeIds      The IDs of the nodes, or an empty array for all the
+     *                     nodes.
+     */
+    public SetActuatorsByTypeCommand(String actuatorType, boolean on, int[] nodeIds) {
+        this.actuatorType = actuatorType;
+        this.on = on;
+        this.nodeIds = nodeIds;
+    }
+
+    @Override
+    public Message execute(ControlPanelLogic logic) {
+        try {
+            ActuatorStatesMessage newStates = logic.getGreenhouseSimulator()
+                    .setActuatorsOfType(actuatorType, nodeIds, on);
+            for (int i = 0; i < newStates.size(); ++i) {
+                logic.onActuatorStateChanged(newStates.getNodeIds()[i], newStates.getActuatorIds()[i],
+                        newStates.getStates()[i]);
+            }
+            return newStates;
+        } catch (Exception err) {
+            return new ErrorMessage(err.getMessage());
+        }
+    }
+
+    /**
+     * Returns the type of the actuators.
+     *
+     * @return The actuator type.
+     */
+    public String getActuatorType() {
+        return actuatorType;
+    }
+
+    /**
+     * Returns the state to set.
+     *
+     * @return True if the actuators are turned on.
+     */
+    public boolean isOn() {
+        return on;
+    }
+
+    /**
+     * Returns the nodes of the actuators.
+     *
+     * @return The IDs of the nodes, empty for all the nodes.
+     */
+    public int[] getNodeIds() {
+        return nodeIds;
+    }
+}
@@ -0,0 +1,742 @@
+package no.ntnu.message;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import no.ntnu.controlpanel.SensorActuatorNodeInfo;
+import no.ntnu.greenhouse.Actuator;
+import no.ntnu.greenhouse.SensorReading;
+
+/**
+ * Parses messages of the text protocol by scanning the text once with a
+ * cursor, instead of splitting it into substrings. Numbers are parsed in
+ * place, and well-known sensor types, units and actuator types are taken from
+ * a table of constant strings instead of being copied out of the text. The
+ * only objects created are the resulting message and its contents.
+ * <p>
+ * A parser keeps its buffers between messages, so one parser should be reused
+ * for all the messages of a connection. It is not thread-safe.
+ */
+public class TextMessageParser {
+    /**
+     * A decimal value whose digits form an integer below MAX_EXACT_MANTISSA, and
+     * which has at most MAX_EXACT_POWER_OF_TEN decimals, is parsed exactly by one
+     * division, as both operands are exact doubles. Other values fall back to
+     * {@link Double#parseDouble}.
+     */
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+    private static final int MAX_EXACT_POWER_OF_TEN = 22;
+    private static final double[] POWERS_OF_TEN = new double[MAX_EXACT_POWER_OF_TEN + 1];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; ++i) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private final SensorReadingBuffer readings = new SensorReadingBuffer();
+    private int[] deltaIndices = new int[8];
+    private double[] deltaValues = new double[8];
+    private CharsetDecoder decoder;
+    private CharBuffer chars;
+    private CharSequence input;
+    private int position;
+
+    /**
+     * Parse a message from UTF-8 encoded bytes, without the line terminator. The
+     * bytes are decoded into a buffer reused between calls.
+     *
+     * @param bytes  The array containing the message
+     * @param offset The index of the first byte of the message
+     * @param length The number of bytes in the message
+     * @return The message, or null if the text is not a known message
+     * @throws IllegalArgumentException If the message is recognized but malformed
+     */
+    public Message parse(byte[] bytes, int offset, int length) {
+        if (decoder == null) {
+            decoder = StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            chars = CharBuffer.allocate(Math.max(length, 256));
+        } else if (chars.capacity() < length) {
+            chars = CharBuffer.allocate(Math.max(length, chars.capacity() * 2));
+        }
+        chars.clear();
+        decoder.reset();
+        decoder.decode(ByteBuffer.wrap(bytes, offset, length), chars, true);
+        decoder.flush(chars);
+        chars.flip();
+        return parse(chars);
+    }
+
+    /**
+     * Parse a message from text, according to the communication protocol.
+     *
+     * @param text The message, without the line terminator
+     * @return The message, or null if the text is not a known message
+     * @throws IllegalArgumentException If the message is recognized but malformed
+     */
+    public Message parse(CharSequence text) {
+        if (text == null) {
+            return null;
+        }
+        this.input = text;
+        this.position = 0;
+        if (startsWith(MessageSerializer.CORRELATION_PREFIX)) {
+            return parseCorrelatedMessage();
+        }
+        int keywordEnd = findKeywordEnd();
+
+        Message message = null;
+        if (regionEquals(0, keywordEnd, MessageSerializer.TURN_ON_ACTUATORS_COMMAND)
+                || regionEquals(0, keywordEnd, MessageSerializer.TURN_OFF_ACTUATORS_COMMAND)
+                || regionEquals(0, keywordEnd, MessageSerializer.ACTUATOR_STATE_ON_MESSAGE)
+                || regionEquals(0, keywordEnd, MessageSerializer.ACTUATOR_STATE_OFF_MESSAGE)) {
+            message = parseCommandMessage(keywordEnd);
+        } else if (regionEquals(0, keywordEnd, MessageSerializer.BATCH_ACTUATORS_COMMAND)
+                || regionEquals(0, keywordEnd, MessageSerializer.ACTUATORS_OF_TYPE_COMMAND)) {
+            message = parseBatchCommand(keywordEnd);
+        } else if (regionEquals(0, keywordEnd, MessageSerializer.SENSOR_HISTORY_COMMAND)) {
+            message = parseSensorHistoryCommand(keywordEnd);
+        } else if (regionEquals(0, keywordEnd, MessageSerializer.SENSOR_ROLLUP_COMMAND)) {
+            message = parseSensorRollupCommand(keywordEnd);
+        } else if (regionEquals(0, keywordEnd, MessageSerializer.ACTUATOR_STATES_MESSAGE)) {
+            position = keywordEnd;
+            message = parseActuatorStates(false);
+        } else if (regionEquals(0, keywordEnd, MessageSerializer.SENSOR_DATA_MESSAGE)) {
+            position = keywordEnd;
+            message = parseSensorDataAdvertisementMessage();
+        } else if (regionEquals(0, keywordEnd, MessageSerializer.SENSOR_DELTA_MESSAGE)) {
+            position = keywordEnd;
+            message = parseSensorDeltaMessage();
+        } else if (regionEquals(0, keywordEnd, MessageSerializer.SENSOR_HISTORY_MESSAGE)) {
+            position = keywordEnd;
+            message = parseSensorHistoryMessage();
+        } else if (regionEquals(0, keywordEnd, MessageSerializer.SENSOR_ROLLUP_MESSAGE)) {
+            position = keywordEnd;
+            message = parseSensorRollupMessage();
+        } else if (regionEquals(0, keywordEnd, MessageSerializer.REQUEST_NODE_INFO_COMMAND)) {
+            position = keywordEnd;
+            message = skip(':') ? new RequestNodeInfoCommand(parseLong()) : new RequestNodeInfoCommand();
+        } else if (regionEquals(0, keywordEnd, MessageSerializer.REMOVE_NODE_MESSAGE)) {
+            position = keywordEnd;
+            expect(':');
+            message = new NodeRemovedMessage(parseInt());
+        } else if (regionEquals(0, keywordEnd, MessageSerializer.NODE_INFO_MESSAGE)) {
+            position = keywordEnd;
+            message = parseNodeInfoMessage();
+        } else if (regionEquals(0, keywordEnd, MessageSerializer.NODE_INFO_BEGIN_MESSAGE)) {
+            position = keywordEnd;
+            expect(':');
+            long version = parseLong();
+            expect(':');
+            message = new NodeInfoBeginMessage(version, parseInt());
+        } else if (regionEquals(0, keywordEnd, MessageSerializer.NODE_INFO_END_MESSAGE)) {
+            position = keywordEnd;
+            expect(':');
+            message = new NodeInfoEndMessage(parseLong());
+        } else if (regionEquals(0, keywordEnd, MessageSerializer.NODE_CHANGES_MESSAGE)) {
+            position = keywordEnd;
+            message = parseNodeChangesMessage();
+        } else if (regionEquals(0, keywordEnd, MessageSerializer.PROTOCOL_SWITCH_MESSAGE)) {
+            position = keywordEnd;
+            expect(':');
+            message = parseProtocolSwitchMessage();
+        } else if (startsWith(MessageSerializer.ERROR_MESSAGE)) {
+            message = new ErrorMessage(input.subSequence(1, input.length()).toString());
+        }
+        this.input = null;
+        return message;
+    }
+
+    /**
+     * Parse the sensor readings of a sensor data advertisement into a reusable
+     * buffer, without creating any objects for well-known sensor types and units.
+     * The connection readers do not use it: they hand every message over as an
+     * object, and the control panel listeners receive the readings as a list of
+     * {@link SensorReading}, so {@link #parse(byte[], int, int)} creates the
+     * message and its readings for every sensor data advertisement.
+     *
+     * @param text   The message, without the line terminator
+     * @param buffer The buffer to fill with the readings, cleared first
+     * @return The ID of the node, or -1 if the text is not a sensor data
+     *         advertisement
+     * @throws IllegalArgumentException If the message is malformed
+     */
+    public int parseSensorData(CharSequence text, SensorReadingBuffer buffer) {
+        this.input = text;
+        this.position = 0;
+        int keywordEnd = findKeywordEnd();
+        int nodeId = -1;
+        if (regionEquals(0, keywordEnd, MessageSerializer.SENSOR_DATA_MESSAGE)) {
+            position = keywordEnd;
+            expect(':');
+            nodeId = parseInt();
+            expect(';');
+            parseReadings(buffer);
+        }
+        this.input = null;
+        return nodeId;
+    }
+
+    private int findKeywordEnd() {
+        int end = 0;
+        while (end < input.length() && !isKeywordDelimiter(input.charAt(end))) {
+            end++;
+        }
+        return end;
+    }
+
+    private static boolean isKeywordDelimiter(char c) {
+        return c == ':' || c == ';' || c == '|';
+    }
+
+    /**
+     * Parses "#correlationId message". A correlated message which is not valid is
+     * ignored, like the message alone would be.
+     */
+    private Message parseCorrelatedMessage() {
+        CharSequence text = input;
+        position = MessageSerializer.CORRELATION_PREFIX.length();
+        int correlationId;
+        try {
+            correlationId = parseInt();
+            expect(' ');
+        } catch (IllegalArgumentException e) {
+            this.input = null;
+            return null;
+        }
+        if (startsWithAt(position, MessageSerializer.CORRELATION_PREFIX)) {
+            // Only one level of tagging, a chain of tags would only use up the stack
+            this.input = null;
+            return null;
+        }
+        Message message = parse(text.subSequence(position, text.length()));
+        return message != null ? new CorrelatedMessage(correlationId, message) : null;
+    }
+
+    /**
+     * Parses "type:nodeId:actuatorId". Malformed commands are ignored instead of
+     * being reported.
+     */
+    private Message parseCommandMessage(int keywordEnd) {
+        int nodeId;
+        int actuatorId;
+        try {
+            position = keywordEnd;
+            expect(':');
+            nodeId = parseInt();
+            expect(':');
+            actuatorId = parseInt();
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+
+        Message message;
+        if (regionEquals(0, keywordEnd, MessageSerializer.TURN_ON_ACTUATORS_COMMAND)) {
+            message = new TurnOnActuatorCommand(nodeId, actuatorId);
+        } else if (regionEquals(0, keywordEnd, MessageSerializer.TURN_OFF_ACTUATORS_COMMAND)) {
+            message = new TurnOffActuatorCommand(nodeId, actuatorId);
+        } else {
+            boolean isOn = regionEquals(0, keywordEnd, MessageSerializer.ACTUATOR_STATE_ON_MESSAGE);
+            message = new ActuatorStateMessage(nodeId, actuatorId, isOn);
+        }
+        return message;
+    }
+
+    /**
+     * Parses a batch actuator command or an actuator type command. Like single
+     * actuator commands, malformed commands are ignored instead of being reported.
+     */
+    private Message parseBatchCommand(int keywordEnd) {
+        try {
+            position = keywordEnd;
+            if (regionEquals(0, keywordEnd, MessageSerializer.BATCH_ACTUATORS_COMMAND)) {
+                return parseActuatorStates(true);
+            } else {
+                return parseActuatorsOfTypeCommand();
+            }
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Parses "|nodeId1:actuatorId1:state1|nodeId2:actuatorId2:state2|...", where
+     * each state is "on" or "off", into a batch command or a states message.
+     */
+    private Message parseActuatorStates(boolean isCommand) {
+        int count = 0;
+        int[] nodeIds = new int[8];
+        int[] actuatorIds = new int[8];
+        boolean[] states = new boolean[8];
+        while (position < input.length()) {
+            if (count == nodeIds.length) {
+                nodeIds = Arrays.copyOf(nodeIds, count * 2);
+                actuatorIds = Arrays.copyOf(actuatorIds, count * 2);
+                states = Arrays.copyOf(states, count * 2);
+            }
+            expect('|');
+            nodeIds[count] = parseInt();
+            expect(':');
+            actuatorIds[count] = parseInt();
+            expect(':');
+            states[count] = parseState();
+            count++;
+        }
+        nodeIds = Arrays.copyOf(nodeIds, count);
+        actuatorIds = Arrays.copyOf(actuatorIds, count);
+        states = Arrays.copyOf(states, count);
+        return isCommand ? new BatchActuatorCommand(nodeIds, actuatorIds, states)
+                : new ActuatorStatesMessage(nodeIds, actuatorIds, states);
+    }
+
+    /**
+     * Parses ":actuatorType:state" or ":actuatorType:state:nodeId1,nodeId2,...".
+     */
+    private SetActuatorsByTypeCommand parseActuatorsOfTypeCommand() {
+        expect(':');
+        String type = parseToken(':');
+        expect(':');
+        boolean on = parseState();
+        int count = 0;
+        int[] nodeIds = new int[0];
+        if (skip(':')) {
+            while (position < input.length()) {
+                if (count == nodeIds.length) {
+                    nodeIds = Arrays.copyOf(nodeIds, Math.max(8, count * 2));
+                }
+                nodeIds[count++] = parseInt();
+                skip(',');
+            }
+        }
+        return new SetActuatorsByTypeCommand(type, on, Arrays.copyOf(nodeIds, count));
+    }
+
+    /**
+     * Parses ":nodeId:sensorIndex" or ":nodeId:sensorIndex:from:to". Like actuator
+     * commands, malformed commands are ignored instead of being reported.
+     */
+    private Message parseSensorHistoryCommand(int keywordEnd) {
+        try {
+            position = keywordEnd;
+            expect(':');
+            int nodeId = parseInt();
+            expect(':');
+            int sensorIndex = parseInt();
+            if (!skip(':')) {
+                return new SensorHistoryCommand(nodeId, sensorIndex);
+            }
+            long from = parseLong();
+            expect(':');
+            return new SensorHistoryCommand(nodeId, sensorIndex, from, parseLong());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Parses ":nodeId:sensorIndex:from:to:points". Like actuator commands,
+     * malformed commands are ignored instead of being reported.
+     */
+    private Message parseSensorRollupCommand(int keywordEnd) {
+        try {
+            position = keywordEnd;
+            expect(':');
+            int nodeId = parseInt();
+            expect(':');
+            int sensorIndex = parseInt();
+            expect(':');
+            long from = parseLong();
+            expect(':');
+            long to = parseLong();
+            expect(':');
+            return new SensorRollupCommand(nodeId, sensorIndex, from, to, parseInt());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Parses "on" or "off".
+     */
+    private boolean parseState() {
+        int start = position;
+        while (position < input.length() && !isKeywordDelimiter(input.charAt(position))) {
+            position++;
+        }
+        if (regionEquals(start, position, MessageSerializer.TURN_ON_ACTUATORS_COMMAND)) {
+            return true;
+        } else if (regionEquals(start, position, MessageSerializer.TURN_OFF_ACTUATORS_COMMAND)) {
+            return false;
+        }
+        throw new IllegalArgumentException("Expected on or off at index " + start);
+    }
+
+    /**
+     * Parses ":nodeId;sensorType1=value1 unit1,sensorType2=value2 unit2,...".
+     */
+    private SensorDataAdvertisementMessage parseSensorDataAdvertisementMessage() {
+        expect(':');
+        int nodeId = parseInt();
+        expect(';');
+        parseReadings(readings);
+        return new SensorDataAdvertisementMessage(nodeId, readings.toList());
+    }
+
+    /**
+     * Parses ":nodeId;index1=value1,index2=value2,...".
+     */
+    private SensorDeltaMessage parseSensorDeltaMessage() {
+        expect(':');
+        int nodeId = parseInt();
+        expect(';');
+        int count = 0;
+        while (position < input.length()) {
+            if (count == deltaIndices.length) {
+                deltaIndices = Arrays.copyOf(deltaIndices, count * 2);
+                deltaValues = Arrays.copyOf(deltaValues, count * 2);
+            }
+            deltaIndices[count] = parseInt();
+            expect('=');
+            deltaValues[count] = parseDouble();
+            count++;
+            skip(',');
+        }
+        return new SensorDeltaMessage(nodeId, Arrays.copyOf(deltaIndices, count),
+                Arrays.copyOf(deltaValues, count));
+    }
+
+    /**
+     * Parses ":nodeId:sensorIndex;timestamp1=value1,timestamp2=value2,...".
+     */
+    private SensorHistoryMessage parseSensorHistoryMessage() {
+        expect(':');
+        int nodeId = parseInt();
+        expect(':');
+        int sensorIndex = parseInt();
+        expect(';');
+        int count = 0;
+        long[] timestamps = new long[16];
+        double[] values = new double[16];
+        while (position < input.length()) {
+            if (count == timestamps.length) {
+                timestamps = Arrays.copyOf(timestamps, count * 2);
+                values = Arrays.copyOf(values, count * 2);
+            }
+            timestamps[count] = parseLong();
+            expect('=');
+            values[count] = parseDouble();
+            count++;
+            skip(',');
+        }
+        return new SensorHistoryMessage(nodeId, sensorIndex, Arrays.copyOf(timestamps, count),
+                Arrays.copyOf(values, count));
+    }
+
+    /**
+     * Parses ":nodeId:sensorIndex:resolution;start1=min1:average1:max1,...".
+     */
+    private SensorRollupMessage parseSensorRollupMessage() {
+        expect(':');
+        int nodeId = parseInt();
+        expect(':');
+        int sensorIndex = parseInt();
+        expect(':');
+        long resolution = parseLong();
+        expect(';');
+        int count = 0;
+        long[] starts = new long[16];
+        double[] mins = new double[16];
+        double[] averages = new double[16];
+        double[] maxs = new double[16];
+        while (position < input.length()) {
+            if (count == starts.length) {
+                starts = Arrays.copyOf(starts, count * 2);
+                mins = Arrays.copyOf(mins, count * 2);
+                averages = Arrays.copyOf(averages, count * 2);
+                maxs = Arrays.copyOf(maxs, count * 2);
+            }
+            starts[count] = parseLong();
+            expect('=');
+            mins[count] = parseDouble();
+            expect(':');
+            averages[count] = parseDouble();
+            expect(':');
+            maxs[count] = parseDouble();
+            count++;
+            skip(',');
+        }
+        return new SensorRollupMessage(nodeId, sensorIndex, resolution, Arrays.copyOf(starts, count),
+                Arrays.copyOf(mins, count), Arrays.copyOf(averages, count), Arrays.copyOf(maxs, count));
+    }
+
+    /**
+     * Parses ":FORMAT", where FORMAT is the name of a wire format.
+     */
+    private Message parseProtocolSwitchMessage() {
+        for (WireFormat format : WireFormat.values()) {
+            if (regionEquals(position, input.length(), format.name())) {
+                return new ProtocolSwitchMessage(format);
+            }
+        }
+        return new ErrorMessage("Unsupported wire format: " + input.subSequence(position, input.length()));
+    }
+
+    /**
+     * Parses ":version|nodeId1:sensorData:actuatorData|nodeId2:sensorData:actuatorData|...".
+     */
+    private NodeInfoMessage parseNodeInfoMessage() {
+        expect(':');
+        long version = parseLong();
+        List<SensorActuatorNodeInfo> nodeInfos = new ArrayList<>();
+        while (position < input.length()) {
+            expect('|');
+            nodeInfos.add(parseNodeInfo());
+        }
+        return new NodeInfoMessage(version, nodeInfos);
+    }
+
+    /**
+     * Parses ":version|+nodeInfo|...|-nodeId|...|nodeId:actuatorId:state|...",
+     * where the added nodes are in the format of node info messages.
+     */
+    private NodeChangesMessage parseNodeChangesMessage() {
+        expect(':');
+        long version = parseLong();
+        List<SensorActuatorNodeInfo> addedNodes = new ArrayList<>();
+        while (startsWithAt(position, "|" + MessageSerializer.ADDED_NODE_PREFIX)) {
+            position += 1 + MessageSerializer.ADDED_NODE_PREFIX.length();
+            addedNodes.add(parseNodeInfo());
+        }
+        int removedCount = 0;
+        int[] removedNodeIds = new int[0];
+        while (startsWithAt(position, "|" + MessageSerializer.REMOVED_NODE_PREFIX)) {
+            position += 1 + MessageSerializer.REMOVED_NODE_PREFIX.length();
+            if (removedCount == removedNodeIds.length) {
+                removedNodeIds = Arrays.copyOf(removedNodeIds, Math.max(8, removedCount * 2));
+            }
+            removedNodeIds[removedCount++] = parseInt();
+        }
+        ActuatorStatesMessage actuatorStates = (ActuatorStatesMessage) parseActuatorStates(false);
+        return new NodeChangesMessage(version, addedNodes, Arrays.copyOf(removedNodeIds, removedCount),
+                actuatorStates);
+    }
+
+    private SensorActuatorNodeInfo parseNodeInfo() {
+        int nodeId = parseInt();
+        SensorActuatorNodeInfo info = new SensorActuatorNodeInfo(nodeId);
+        if (skip(':')) {
+            parseReadings(readings);
+            for (int i = 0; i < readings.size(); ++i) {
+                info.addSensorReading(new SensorReading(
+                        readings.getType(i), readings.getValue(i), readings.getUnit(i)));
+            }
+        }
+        if (skip(':')) {
+            while (!atSectionEnd()) {
+                info.addActuator(parseActuatorInfo(nodeId));
+                skip(',');
+            }
+        }
+        return info;
+    }
+
+    /**
+     * Parses "actuatorId_actuatorType=on" or "actuatorId_actuatorType=off".
+     */
+    private Actuator parseActuatorInfo(int nodeId) {
+        int actuatorId = parseInt();
+        expect('_');
+        String type = parseToken('=');
+        expect('=');
+        int stateStart = position;
+        skipTo(',');
+        Actuator actuator = new Actuator(actuatorId, type, nodeId);
+        actuator.set(regionEquals(stateStart, position, "on"));
+        return actuator;
+    }
+
+    /**
+     * Parses "sensorType1=value1 unit1,sensorType2=value2 unit2,..." up to the end
+     * of the current section.
+     */
+    private void parseReadings(SensorReadingBuffer buffer) {
+        buffer.clear();
+        while (!atSectionEnd()) {
+            String type = parseToken('=');
+            expect('=');
+            double value = parseDouble();
+            expect(' ');
+            String unit = parseToken(',');
+            buffer.add(type, value, unit);
+            skip(',');
+        }
+    }
+
+    /**
+     * Checks if the cursor is at the end of the text or at the end of a section
+     * of a node info message.
+     */
+    private boolean atSectionEnd() {
+        return position >= input.length() || input.charAt(position) == ':' || input.charAt(position) == '|';
+    }
+
+    /**
+     * Reads characters up to the given delimiter or the end of the section, and
+     * returns them as a string, preferably a well-known constant.
+     */
+    private String parseToken(char delimiter) {
+        int start = position;
+        skipTo(delimiter);
+        return intern(start, position);
+    }
+
+    private void skipTo(char delimiter) {
+        while (!atSectionEnd() && input.charAt(position) != delimiter) {
+            position++;
+        }
+    }
+
+    private String intern(int start, int end) {
+        for (String s : BinaryMessageCodec.DICTIONARY) {
+            if (regionEquals(start, end, s)) {
+                return s;
+            }
+        }
+        return input.subSequence(start, end).toString();
+    }
+
+    private int parseInt() {
+        int start = position;
+        long value = parseLong();
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw new NumberFormatException("Integer too large at index " + start);
+        }
+        return (int) value;
+    }
+
+    private long parseLong() {
+        int start = position;
+        boolean negative = position < input.length() && input.charAt(position) == '-';
+        if (negative) {
+            position++;
+        }
+        long value = 0;
+        int digitsStart = position;
+        while (position < input.length() && isDigit(input.charAt(position))) {
+            int digit = input.charAt(position) - '0';
+            if (value > (Long.MAX_VALUE - digit) / 10) {
+                throw new NumberFormatException("Integer too large at index " + start);
+            }
+            value = value * 10 + digit;
+            position++;
+        }
+        if (position == digitsStart) {
+            throw new NumberFormatException("Expected a number at index " + start);
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parses a double value, as printed by {@link Double#toString(double)}.
+     */
+    private double parseDouble() {
+        int start = position;
+        boolean negative = position < input.length() && input.charAt(position) == '-';
+        if (negative || (position < input.length() && input.charAt(position) == '+')) {
+            position++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = 0;
+        boolean exact = true;
+        boolean inFraction = false;
+        while (position < input.length()) {
+            char c = input.charAt(position);
+            if (isDigit(c)) {
+                if (mantissa < MAX_EXACT_MANTISSA / 10) {
+                    mantissa = mantissa * 10 + (c - '0');
+                } else {
+                    exact = false;
+                }
+                digits++;
+                if (inFraction) {
+                    fractionDigits++;
+                }
+            } else if (c == '.' && !inFraction) {
+                inFraction = true;
+            } else {
+                break;
+            }
+            position++;
+        }
+        if (digits == 0 || fractionDigits > MAX_EXACT_POWER_OF_TEN
+                || (position < input.length() && !isValueEnd(input.charAt(position)))) {
+            exact = false;
+        }
+        if (exact) {
+            double value = mantissa / POWERS_OF_TEN[fractionDigits];
+            return negative ? -value : value;
+        }
+        // Exponents, NaN, infinity and long values are rare, let the JDK handle them
+        while (position < input.length() && !isValueEnd(input.charAt(position))) {
+            position++;
+        }
+        String number = input.subSequence(start, position).toString();
+        try {
+            return Double.parseDouble(number);
+        } catch (NumberFormatException e) {
+            throw new NumberFormatException("Invalid sensor value: " + number);
+        }
+    }
+
+    private static boolean isValueEnd(char c) {
+        return c == ' ' || c == ',' || c == ':' || c == '|';
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private void expect(char c) {
+        if (!skip(c)) {
+            throw new IllegalArgumentException("Expected '" + c + "' at index " + position);
+        }
+    }
+
+    private boolean skip(char c) {
+        boolean found = position < input.length() && input.charAt(position) == c;
+        if (found) {
+            position++;
+        }
+        return found;
+    }
+
+    private boolean startsWith(String s) {
+        return startsWithAt(0, s);
+    }
+
+    private boolean startsWithAt(int start, String s) {
+        return input.length() - start >= s.length() && regionEquals(start, start + s.length(), s);
+    }
+
+    private boolean regionEquals(int start, int end, String s) {
+        if (end - start != s.length()) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); ++i) {
+            if (input.charAt(start + i) != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
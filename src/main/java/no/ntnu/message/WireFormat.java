@@ -0,0 +1,18 @@
+package no.ntnu.message;
+
+/**
+ * The encodings a message can have on the wire. Every connection starts in
+ * {@link #TEXT}, and can switch to {@link #BINARY} after a handshake, see
+ * {@link ProtocolSwitchMessage}.
+ */
+public enum WireFormat {
+    /**
+     * Human-readable, newline-terminated lines, see {@link MessageSerializer}.
+     */
+    TEXT,
+
+    /**
+     * Compact, length-prefixed binary frames, see {@link BinaryMessageCodec}.
+     */
+    BINARY
+}
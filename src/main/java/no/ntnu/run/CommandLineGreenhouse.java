@@ -1,7 +1,13 @@
 package no.ntnu.run;
 
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+
 import no.ntnu.controlpanel.ControlPanelLogic;
+import no.ntnu.greenhouse.DiscreteEventClock;
 import no.ntnu.greenhouse.GreenhouseSimulator;
+import no.ntnu.greenhouse.ServerMode;
+import no.ntnu.greenhouse.SimulationScheduler;
 import no.ntnu.tools.Logger;
 
 /**
@@ -11,20 +17,116 @@ public class CommandLineGreenhouse {
     /**
      * Application entrypoint for the command-line version of the simulator.
      *
-     * @param args Command line arguments, only the first one of them used: when it
-     *             is "fake", emulate fake events, when it is either something else
-     *             or not present, use real socket communication.
+     * @param args Command line arguments: when one of them is "fake", emulate fake
+     *             events, otherwise use real socket communication. When one of
+     *             them is "nio", serve the clients with non-blocking event loops
+     *             instead of one thread per client. When one of them is
+     *             "virtual", serve every client on its own virtual thread. When
+     *             one of them is "delta", send only the changed sensor readings.
+     *             An argument "batch=MS" collects the sensor changes for MS
+     *             milliseconds before sending them. An argument "tick=N"
+     *             advances all the nodes in one step every sensing period,
+     *             with N threads. An argument "speed=N" runs the simulation N
+     *             times faster than the real time, "speed=max" as fast as
+     *             possible. An argument "history=N" keeps the latest N values
+     *             of every sensor, which clients can ask for. An argument
+     *             "rollups" keeps the minimum, average and maximum of every
+     *             sensor over 10 seconds, 1 minute and 1 hour, for charts of
+     *             long time ranges. An argument "log=DIR" writes all the
+     *             sensor samples and actuator transitions to an append-only
+     *             log in the directory DIR. An argument "snapshot=FILE"
+     *             restores the nodes from the snapshot FILE if it exists, and
+     *             writes a new snapshot to it every minute and on exit.
      */
     public static void main(String[] args) {
         Logger.info("Running greenhouse simulator in command line (without GUI)...");
         boolean fake = false;
-        if (args.length == 1 && "fake".equals(args[0])) {
-            fake = true;
-            Logger.info("Using FAKE events");
+        ServerMode serverMode = ServerMode.BLOCKING;
+        boolean sensorDeltaMode = false;
+        long sensorPublishInterval = 0;
+        int tickParallelism = 0;
+        int sensorHistoryCapacity = 0;
+        boolean sensorRollupsEnabled = false;
+        Path sensorLogDirectory = null;
+        Path snapshotFile = null;
+        for (String arg : args) {
+            if ("fake".equals(arg)) {
+                fake = true;
+                Logger.info("Using FAKE events");
+            } else if ("nio".equals(arg)) {
+                serverMode = ServerMode.NIO;
+                Logger.info("Using NIO server mode");
+            } else if ("virtual".equals(arg)) {
+                serverMode = ServerMode.VIRTUAL_THREADS;
+                Logger.info("Using virtual thread server mode");
+            } else if ("delta".equals(arg)) {
+                sensorDeltaMode = true;
+                Logger.info("Sending only changed sensor readings");
+            } else if ("rollups".equals(arg)) {
+                sensorRollupsEnabled = true;
+                Logger.info("Keeping rollups of every sensor");
+            } else if (arg.startsWith("batch=")) {
+                try {
+                    sensorPublishInterval = Long.parseLong(arg.substring("batch=".length()));
+                    Logger.info("Batching sensor changes for " + sensorPublishInterval + " ms");
+                } catch (NumberFormatException e) {
+                    Logger.error("Invalid batching window: " + arg);
+                }
+            } else if (arg.startsWith("speed=")) {
+                String speed = arg.substring("speed=".length());
+                try {
+                    double speedUp = "max".equals(speed) ? 0 : Double.parseDouble(speed);
+                    SimulationScheduler.setClock(new DiscreteEventClock(speedUp));
+                    Logger.info("Using simulated time, speed " + speed);
+                } catch (IllegalArgumentException e) {
+                    Logger.error("Invalid simulation speed: " + arg);
+                }
+            } else if (arg.startsWith("tick=")) {
+                try {
+                    tickParallelism = Integer.parseInt(arg.substring("tick=".length()));
+                    Logger.info("Advancing all the nodes in one tick with " + tickParallelism + " threads");
+                } catch (NumberFormatException e) {
+                    Logger.error("Invalid number of tick threads: " + arg);
+                }
+            } else if (arg.startsWith("history=")) {
+                try {
+                    sensorHistoryCapacity = Integer.parseInt(arg.substring("history=".length()));
+                    Logger.info("Keeping the latest " + sensorHistoryCapacity + " values of every sensor");
+                } catch (NumberFormatException e) {
+                    Logger.error("Invalid sensor history size: " + arg);
+                }
+            } else if (arg.startsWith("log=")) {
+                try {
+                    sensorLogDirectory = Path.of(arg.substring("log=".length()));
+                    Logger.info("Writing the sensor log to " + sensorLogDirectory);
+                } catch (InvalidPathException e) {
+                    Logger.error("Invalid sensor log directory: " + arg);
+                }
+            } else if (arg.startsWith("snapshot=")) {
+                try {
+                    snapshotFile = Path.of(arg.substring("snapshot=".length()));
+                    Logger.info("Keeping a snapshot of the greenhouse in " + snapshotFile);
+                } catch (InvalidPathException e) {
+                    Logger.error("Invalid snapshot file: " + arg);
+                }
+            }
         }
         ControlPanelLogic logic = new ControlPanelLogic();
         GreenhouseSimulator simulator = new GreenhouseSimulator(fake, logic);
+        logic.setGreenhouseSimulator(simulator);
+        simulator.setServerMode(serverMode);
+        simulator.setSensorDeltaMode(sensorDeltaMode);
+        simulator.setSensorPublishInterval(sensorPublishInterval);
+        simulator.setTickParallelism(tickParallelism);
+        simulator.setSensorHistoryCapacity(sensorHistoryCapacity);
+        simulator.setSensorRollupsEnabled(sensorRollupsEnabled);
+        simulator.setSensorLogDirectory(sensorLogDirectory);
+        simulator.setSnapshotFile(snapshotFile);
         simulator.initialize();
         simulator.start();
+        if (snapshotFile != null) {
+            // Write the last snapshot when the simulator is interrupted
+            Runtime.getRuntime().addShutdownHook(new Thread(simulator::stop, "shutdown"));
+        }
     }
 }
@@ -5,6 +5,7 @@ import no.ntnu.controlpanel.ControlPanelLogic;
 import no.ntnu.controlpanel.FakeCommunicationChannel;
 import no.ntnu.controlpanel.SocketCommunicationChannel;
 import no.ntnu.gui.controlpanel.ControlPanelApplication;
+import no.ntnu.message.WireFormat;
 import no.ntnu.tools.Logger;
 
 /**
@@ -14,26 +15,35 @@ import no.ntnu.tools.Logger;
  */
 public class ControlPanelStarter {
     private final boolean fake;
+    private final WireFormat wireFormat;
     private CommunicationChannel channel;
 
-    public ControlPanelStarter(boolean fake) {
+    public ControlPanelStarter(boolean fake, WireFormat wireFormat) {
         this.fake = fake;
+        this.wireFormat = wireFormat;
     }
 
     /**
      * Entrypoint for the application.
      *
-     * @param args Command line arguments, only the first one of them used: when it
-     *             is "fake", emulate fake events, when it is either something else
-     *             or not present, use real socket communication.
+     * @param args Command line arguments: when one of them is "fake", emulate fake
+     *             events, otherwise use real socket communication. When one of
+     *             them is "binary", use the binary protocol instead of the text
+     *             protocol.
      */
     public static void main(String[] args) {
         boolean fake = false;
-        if (args.length == 1 && "fake".equals(args[0])) {
-            fake = true;
-            Logger.info("Using FAKE events");
+        WireFormat wireFormat = WireFormat.TEXT;
+        for (String arg : args) {
+            if ("fake".equals(arg)) {
+                fake = true;
+                Logger.info("Using FAKE events");
+            } else if ("binary".equals(arg)) {
+                wireFormat = WireFormat.BINARY;
+                Logger.info("Using the binary protocol");
+            }
         }
-        ControlPanelStarter starter = new ControlPanelStarter(fake);
+        ControlPanelStarter starter = new ControlPanelStarter(fake, wireFormat);
         starter.start();
     }
 
@@ -58,6 +68,7 @@ public class ControlPanelStarter {
 
     private CommunicationChannel initiateSocketCommunication(ControlPanelLogic logic) {
         SocketCommunicationChannel channel = new SocketCommunicationChannel(logic);
+        channel.setWireFormat(wireFormat);
         logic.setCommunicationChannel(channel);
         return channel;
     }
@@ -0,0 +1,49 @@
+package no.ntnu.run;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import no.ntnu.greenhouse.SensorLogReader;
+import no.ntnu.tools.Logger;
+
+/**
+ * Prints the records of one node from the sensor log written by the greenhouse.
+ * The log can be read while the greenhouse is still writing it.
+ */
+public class SensorLogDump {
+    /**
+     * Entrypoint for the sensor log dump.
+     *
+     * @param args Command line arguments: the directory of the log and the ID of
+     *             the node, optionally followed by the start and the end of the
+     *             time range, in milliseconds since the epoch.
+     */
+    public static void main(String[] args) {
+        if (args.length != 2 && args.length != 4) {
+            Logger.error("Usage: SensorLogDump directory nodeId [from to]");
+            return;
+        }
+        try {
+            int nodeId = Integer.parseInt(args[1]);
+            long from = args.length == 4 ? Long.parseLong(args[2]) : 0;
+            long to = args.length == 4 ? Long.parseLong(args[3]) : Long.MAX_VALUE;
+            SensorLogReader reader = new SensorLogReader(Path.of(args[0]));
+            int count = reader.read(nodeId, from, to, new SensorLogReader.RecordVisitor() {
+                @Override
+                public void sensorSample(long timestamp, int nodeId, int sensorIndex, double value) {
+                    Logger.info(timestamp + " node " + nodeId + " sensor " + sensorIndex + " = " + value);
+                }
+
+                @Override
+                public void actuatorTransition(long timestamp, int nodeId, int actuatorId, boolean on) {
+                    Logger.info(timestamp + " node " + nodeId + " actuator " + actuatorId + (on ? " ON" : " OFF"));
+                }
+            });
+            Logger.info(count + " records");
+        } catch (NumberFormatException e) {
+            Logger.error("Invalid number: " + e.getMessage());
+        } catch (IOException e) {
+            Logger.error("Could not read the sensor log: " + e.getMessage());
+        }
+    }
+}